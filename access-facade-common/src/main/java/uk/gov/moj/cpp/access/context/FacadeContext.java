@@ -0,0 +1,137 @@
+package uk.gov.moj.cpp.access.context;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.web.util.UrlPathHelper;
+import uk.gov.moj.cpp.access.timing.ServerTiming;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * What the facade filters know about one request, worked out once and shared through the request attribute
+ * {@link #ATTRIBUTE}: the path within the application, the caller and correlation ids, the principal, the matched
+ * route and its path variables, and the {@link ServerTiming}. Whichever filter runs first creates it; the later one
+ * reads what the earlier one learnt instead of parsing the request again.
+ * <p>
+ * Not thread-safe: like {@link ServerTiming}, a request hands it from thread to thread through its dispatches.
+ */
+public final class FacadeContext {
+
+    public static final String ATTRIBUTE = FacadeContext.class.getName();
+    /** Default name of the header carrying the caller's user id. */
+    public static final String USER_ID_HEADER = "CJSCPPUID";
+    /**
+     * The user id header as the authz filter is configured ({@code authz.http.user-id-header}), for the other filters
+     * to read the caller from the same header.
+     */
+    public static final String USER_ID_HEADER_PLACEHOLDER = "${authz.http.user-id-header:" + USER_ID_HEADER + "}";
+    public static final String CORRELATION_ID_HEADER = "CPPCLIENTCORRELATIONID";
+
+    private final String pathWithinApplication;
+    private final String correlation;
+    private String user;
+    private Object authenticated;
+    private String template;
+    private Map<String, String> variables;
+    private ServerTiming serverTiming = ServerTiming.disabled();
+
+    /* default */ FacadeContext(final String pathWithinApplication, final String correlationId) {
+        this.pathWithinApplication = pathWithinApplication;
+        this.correlation = correlationId;
+    }
+
+    /**
+     * The request's context, created and stored as {@link #ATTRIBUTE} on first use.
+     */
+    public static FacadeContext from(final HttpServletRequest request) {
+        final FacadeContext context;
+        if (request.getAttribute(ATTRIBUTE) instanceof FacadeContext existing) {
+            context = existing;
+        } else {
+            context = new FacadeContext(UrlPathHelper.defaultInstance.getPathWithinApplication(request),
+                    request.getHeader(CORRELATION_ID_HEADER));
+            request.setAttribute(ATTRIBUTE, context);
+        }
+        return context;
+    }
+
+    /**
+     * As {@link #from(HttpServletRequest)}, taking the caller from the {@code userIdHeader} header until one is
+     * {@linkplain #identify identified}. Only the filters that need the caller name the header, so whichever filter
+     * creates the context, the caller comes from the header the application configured.
+     */
+    public static FacadeContext from(final HttpServletRequest request, final String userIdHeader) {
+        final FacadeContext context = from(request);
+        if (context.user == null) {
+            context.user = request.getHeader(userIdHeader);
+        }
+        return context;
+    }
+
+    /**
+     * The path within the application, as matched against the bypass prefixes and route templates.
+     */
+    public String path() {
+        return pathWithinApplication;
+    }
+
+    /**
+     * The caller: the identity the authz filter resolved, or else the user id header named to
+     * {@link #from(HttpServletRequest, String)}; may be {@code null}.
+     */
+    public String userId() {
+        return user;
+    }
+
+    /**
+     * The {@value #CORRELATION_ID_HEADER} header; may be {@code null}.
+     */
+    public String correlationId() {
+        return correlation;
+    }
+
+    /**
+     * The principal the authz filter authorized the request as, if it is a {@code type}.
+     */
+    public <T> Optional<T> principal(final Class<T> type) {
+        return type.isInstance(authenticated) ? Optional.of(type.cast(authenticated)) : Optional.empty();
+    }
+
+    /**
+     * Records the caller once its identity is established; a verified token's subject replaces the header.
+     */
+    public void identify(final String userId, final Object principal) {
+        this.user = userId;
+        this.authenticated = principal;
+    }
+
+    /**
+     * The route template the path matched ({@code /api/cases/{caseId}}), if it was matched.
+     */
+    public Optional<String> routeTemplate() {
+        return Optional.ofNullable(template);
+    }
+
+    /**
+     * The values of the matched route's path variables, if a route was matched.
+     */
+    public Optional<Map<String, String>> pathVariables() {
+        return Optional.ofNullable(variables);
+    }
+
+    public void matchedRoute(final String routeTemplate, final Map<String, String> pathVariables) {
+        this.template = routeTemplate;
+        this.variables = Map.copyOf(pathVariables);
+    }
+
+    public ServerTiming timing() {
+        return serverTiming;
+    }
+
+    /**
+     * Set by {@link uk.gov.moj.cpp.access.timing.ServerTimingPolicy#begin(HttpServletRequest)}.
+     */
+    public void timing(final ServerTiming timing) {
+        this.serverTiming = timing;
+    }
+}
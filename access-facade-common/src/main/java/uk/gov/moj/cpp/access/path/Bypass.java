@@ -0,0 +1,15 @@
+package uk.gov.moj.cpp.access.path;
+
+/**
+ * A filter, or a check within one, that a configured path prefix can skip.
+ */
+public enum Bypass {
+    AUTHZ,
+    AUDIT,
+    /** The authz filter's adaptive concurrency limit; the request is still authorized. */
+    CONCURRENCY_LIMIT;
+
+    /* default */ int bit() {
+        return 1 << ordinal();
+    }
+}
@@ -0,0 +1,222 @@
+package uk.gov.moj.cpp.access.path;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Which filters to skip for a request path, compiled once from the configured path prefixes into a radix trie.
+ * <p>
+ * A lookup walks the path once, character by character along compressed edges, collecting the bypass flags of
+ * every configured prefix it passes, so its cost depends on the path length rather than on how many prefixes are
+ * configured. Prefixes match like {@link String#startsWith(String)}: {@code /actuator} also covers
+ * {@code /actuator/health}, but no longer {@code /api/actuator}.
+ */
+public final class PathPolicy {
+
+    private static final int LINEAR_SCAN_LIMIT = 8;
+
+    private final TrieNode root;
+    private final Decision[] decisions;
+    private final int prefixes;
+
+    private PathPolicy(final TrieNode root, final int prefixes) {
+        this.root = root;
+        this.prefixes = prefixes;
+        this.decisions = new Decision[1 << Bypass.values().length];
+        Arrays.setAll(decisions, Decision::new);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static PathPolicy empty() {
+        return builder().build();
+    }
+
+    /**
+     * @param path the path within the application, without context path or query string
+     */
+    public Decision decide(final String path) {
+        TrieNode node = root;
+        int mask = root.mask;
+        int offset = 0;
+        boolean walking = true;
+        while (walking && offset < path.length()) {
+            final TrieNode child = node.child(path.charAt(offset));
+            walking = child != null && child.labelMatches(path, offset);
+            if (walking) {
+                node = child;
+                offset += child.label.length;
+                mask |= child.mask;
+            }
+        }
+        return decisions[mask];
+    }
+
+    public boolean bypasses(final String path, final Bypass bypass) {
+        return decide(path).bypasses(bypass);
+    }
+
+    public int prefixCount() {
+        return prefixes;
+    }
+
+    /**
+     * The filters a path skips, shared between all paths with the same outcome.
+     */
+    public static final class Decision {
+
+        private final int mask;
+
+        private Decision(final int mask) {
+            this.mask = mask;
+        }
+
+        public boolean bypasses(final Bypass bypass) {
+            return (mask & bypass.bit()) != 0;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder text = new StringBuilder("Decision[bypass=");
+            for (final Bypass bypass : Bypass.values()) {
+                if (bypasses(bypass)) {
+                    text.append(bypass).append(' ');
+                }
+            }
+            return text.toString().trim() + ']';
+        }
+    }
+
+    public static final class Builder {
+
+        private final Map<String, Integer> masks = new LinkedHashMap<>();
+
+        private Builder() {
+        }
+
+        public Builder bypass(final String prefix, final Bypass bypass) {
+            masks.merge(prefix, bypass.bit(), (existing, added) -> existing | added);
+            return this;
+        }
+
+        public Builder bypass(final Collection<String> prefixes, final Bypass bypass) {
+            prefixes.forEach(prefix -> bypass(prefix, bypass));
+            return this;
+        }
+
+        public PathPolicy build() {
+            final MutableNode root = new MutableNode("", 0);
+            masks.forEach((prefix, mask) -> root.insert(prefix, 0, mask));
+            return new PathPolicy(root.compile(), masks.size());
+        }
+    }
+
+    /**
+     * Trie node used while building; edges carry whole runs of characters and are split where prefixes diverge.
+     */
+    private static final class MutableNode {
+
+        private String label;
+        private int mask;
+        private final Map<Character, MutableNode> children = new TreeMap<>();
+
+        private MutableNode(final String label, final int mask) {
+            this.label = label;
+            this.mask = mask;
+        }
+
+        private void insert(final String key, final int offset, final int bits) {
+            if (offset == key.length()) {
+                mask |= bits;
+            } else {
+                final char first = key.charAt(offset);
+                final MutableNode child = children.get(first);
+                if (child == null) {
+                    children.put(first, new MutableNode(key.substring(offset), bits));
+                } else {
+                    final int common = commonLength(child.label, key, offset);
+                    final MutableNode next = common < child.label.length() ? split(child, common) : child;
+                    next.insert(key, offset + common, bits);
+                }
+            }
+        }
+
+        /**
+         * Replaces {@code child} by a node for the first {@code length} characters of its label, with the rest
+         * of the old edge below it.
+         */
+        private MutableNode split(final MutableNode child, final int length) {
+            final MutableNode middle = new MutableNode(child.label.substring(0, length), 0);
+            child.label = child.label.substring(length);
+            middle.children.put(child.label.charAt(0), child);
+            children.put(middle.label.charAt(0), middle);
+            return middle;
+        }
+
+        private static int commonLength(final String label, final String key, final int offset) {
+            final int limit = Math.min(label.length(), key.length() - offset);
+            int length = 0;
+            while (length < limit && label.charAt(length) == key.charAt(offset + length)) {
+                length++;
+            }
+            return length;
+        }
+
+        private TrieNode compile() {
+            final char[] firsts = new char[children.size()];
+            final TrieNode[] compiled = new TrieNode[children.size()];
+            int index = 0;
+            for (final Map.Entry<Character, MutableNode> entry : children.entrySet()) {
+                firsts[index] = entry.getKey();
+                compiled[index] = entry.getValue().compile();
+                index++;
+            }
+            return new TrieNode(label.toCharArray(), mask, firsts, compiled);
+        }
+    }
+
+    /**
+     * Immutable trie node; children are ordered by the first character of their edge.
+     */
+    private static final class TrieNode {
+
+        private final char[] label;
+        private final int mask;
+        private final char[] firsts;
+        private final TrieNode[] children;
+
+        private TrieNode(final char[] label, final int mask, final char[] firsts, final TrieNode... children) {
+            this.label = label;
+            this.mask = mask;
+            this.firsts = firsts;
+            this.children = children;
+        }
+
+        private TrieNode child(final char first) {
+            int index = -1;
+            if (firsts.length <= LINEAR_SCAN_LIMIT) {
+                for (int i = 0; i < firsts.length && index < 0; i++) {
+                    if (firsts[i] == first) {
+                        index = i;
+                    }
+                }
+            } else {
+                index = Arrays.binarySearch(firsts, first);
+            }
+            return index < 0 ? null : children[index];
+        }
+
+        private boolean labelMatches(final String path, final int offset) {
+            boolean matches = path.length() - offset >= label.length;
+            for (int i = 0; matches && i < label.length; i++) {
+                matches = path.charAt(offset + i) == label[i];
+            }
+            return matches;
+        }
+    }
+}
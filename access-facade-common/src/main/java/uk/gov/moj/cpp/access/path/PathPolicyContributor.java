@@ -0,0 +1,10 @@
+package uk.gov.moj.cpp.access.path;
+
+/**
+ * Adds a starter's configured path prefixes to the shared {@link PathPolicy}.
+ */
+@SuppressWarnings("PMD.ImplicitFunctionalInterface")
+public interface PathPolicyContributor {
+
+    void contribute(PathPolicy.Builder builder);
+}
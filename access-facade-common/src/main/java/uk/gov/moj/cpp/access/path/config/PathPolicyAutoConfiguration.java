@@ -0,0 +1,24 @@
+package uk.gov.moj.cpp.access.path.config;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.annotation.Bean;
+import uk.gov.moj.cpp.access.path.PathPolicy;
+import uk.gov.moj.cpp.access.path.PathPolicyContributor;
+
+/**
+ * Compiles the path prefixes contributed by every starter on the classpath into the one {@link PathPolicy} their
+ * filters share.
+ */
+@AutoConfiguration
+public class PathPolicyAutoConfiguration {
+
+    @Bean
+    @ConditionalOnMissingBean
+    public PathPolicy pathPolicy(final ObjectProvider<PathPolicyContributor> contributors) {
+        final PathPolicy.Builder builder = PathPolicy.builder();
+        contributors.orderedStream().forEach(contributor -> contributor.contribute(builder));
+        return builder.build();
+    }
+}
@@ -0,0 +1,150 @@
+package uk.gov.moj.cpp.access.timing;
+
+/**
+ * Where the facade spent one request's time, phase by phase, measured with {@link System#nanoTime()}.
+ * <p>
+ * One instance travels with the request as the attribute {@link #ATTRIBUTE}, so the authz and audit filters add to
+ * the same breakdown. Recording only adds to a {@code long} slot; the {@code Server-Timing} value is built only when
+ * the request is allowed to see it. Not thread-safe: a request hands it from thread to thread through its dispatches.
+ */
+public final class ServerTiming {
+
+    public static final String HEADER = "Server-Timing";
+    public static final String ATTRIBUTE = ServerTiming.class.getName();
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final ServerTiming NONE = new ServerTiming(false, false);
+    private static final long NANOS_PER_MICRO = 1_000L;
+    private static final int MICROS_PER_MILLI = 1_000;
+    private static final int TWO_DIGITS = 100;
+    private static final int ONE_DIGIT = 10;
+
+    private final boolean enabled;
+    private final boolean exposed;
+    private final long[] phaseNanos = new long[PHASES.length];
+    private int recorded;
+    private int written;
+    private boolean identityFromCache;
+
+    /**
+     * The facade's phases, named as they appear in the header.
+     */
+    public enum Phase {
+        /** Matching the path against the bypass prefixes. */
+        PATH("path"),
+        /** Resolving the action name and its attributes. */
+        ACTION("action"),
+        /** Obtaining the caller's identity and groups. */
+        IDENTITY("identity"),
+        /** Looking up or evaluating the rules. */
+        RULES("rules"),
+        /** Capturing the request and response for the audit. */
+        CAPTURE("capture"),
+        /** Building the audit messages and handing them to the broker. */
+        ENQUEUE("enqueue");
+
+        private final String headerName;
+
+        Phase(final String headerName) {
+            this.headerName = headerName;
+        }
+
+        public String metric() {
+            return headerName;
+        }
+    }
+
+    /* default */ ServerTiming(final boolean enabled, final boolean exposed) {
+        this.enabled = enabled;
+        this.exposed = exposed;
+    }
+
+    /**
+     * A timing that records nothing, for when the feature is off.
+     */
+    public static ServerTiming disabled() {
+        return NONE;
+    }
+
+    /**
+     * @return the start of a phase, to be passed to {@link #record(Phase, long)}
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Adds the time since {@code startNanos} to {@code phase}; a phase entered on several dispatches accumulates.
+     */
+    public void record(final Phase phase, final long startNanos) {
+        if (enabled) {
+            phaseNanos[phase.ordinal()] += System.nanoTime() - startNanos;
+            recorded |= 1 << phase.ordinal();
+        }
+    }
+
+    /**
+     * Notes whether the identity was had without calling the identity service (from its cache, a decision token or a
+     * verified token), reported as the identity phase's {@code hit} or {@code miss} description.
+     */
+    public void identityCached(final boolean cached) {
+        identityFromCache = cached;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether the request passed the guard and may be answered with the {@code Server-Timing} header.
+     */
+    public boolean isExposed() {
+        return exposed;
+    }
+
+    public boolean isRecorded(final Phase phase) {
+        return (recorded & 1 << phase.ordinal()) != 0;
+    }
+
+    public long nanos(final Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * The {@code Server-Timing} value of the phases recorded since the last call, in milliseconds with microsecond
+     * precision ({@code path;dur=0.012, identity;desc="hit";dur=0.041}); empty when there are none.
+     */
+    public String drainHeaderValue() {
+        final int pending = recorded & ~written;
+        final StringBuilder value = new StringBuilder();
+        if (pending != 0) {
+            for (final Phase phase : PHASES) {
+                if ((pending & 1 << phase.ordinal()) != 0) {
+                    append(value, phase);
+                }
+            }
+            written |= pending;
+        }
+        return value.toString();
+    }
+
+    private void append(final StringBuilder value, final Phase phase) {
+        if (!value.isEmpty()) {
+            value.append(", ");
+        }
+        value.append(phase.metric());
+        if (phase == Phase.IDENTITY) {
+            value.append(identityFromCache ? ";desc=\"hit\"" : ";desc=\"miss\"");
+        }
+        final long micros = phaseNanos[phase.ordinal()] / NANOS_PER_MICRO;
+        final long fraction = micros % MICROS_PER_MILLI;
+        value.append(";dur=").append(micros / MICROS_PER_MILLI).append('.');
+        if (fraction < TWO_DIGITS) {
+            value.append('0');
+        }
+        if (fraction < ONE_DIGIT) {
+            value.append('0');
+        }
+        value.append(fraction);
+    }
+}
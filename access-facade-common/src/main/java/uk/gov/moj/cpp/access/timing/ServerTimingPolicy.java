@@ -0,0 +1,77 @@
+package uk.gov.moj.cpp.access.timing;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import uk.gov.moj.cpp.access.context.FacadeContext;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Whether requests are timed and which of them may see the result. Every request gets the same
+ * {@link ServerTiming} from {@link #begin(HttpServletRequest)}, whichever filter asks first. The
+ * {@code Server-Timing} header is only written for requests that present the guard token in the guard header, so
+ * external clients never learn how long the identity service or the rules took; the timings are always available to
+ * the application as the request attribute.
+ */
+public final class ServerTimingPolicy {
+
+    private static final ServerTimingPolicy OFF = new ServerTimingPolicy(false, "", "");
+
+    private final boolean enabled;
+    private final String guardHeader;
+    private final byte[] guardToken;
+
+    /**
+     * @param guardToken the value the guard header must carry; when empty, the header is never written
+     */
+    public ServerTimingPolicy(final boolean enabled, final String guardHeader, final String guardToken) {
+        this.enabled = enabled;
+        this.guardHeader = guardHeader;
+        this.guardToken = guardToken.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static ServerTimingPolicy disabled() {
+        return OFF;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * The request's timing, created on first use and kept in its {@link FacadeContext} and as
+     * {@link ServerTiming#ATTRIBUTE}.
+     */
+    public ServerTiming begin(final HttpServletRequest request) {
+        ServerTiming timing = ServerTiming.disabled();
+        if (enabled) {
+            final FacadeContext context = FacadeContext.from(request);
+            timing = context.timing();
+            if (!timing.isEnabled()) {
+                timing = new ServerTiming(true, passesGuard(request.getHeader(guardHeader)));
+                context.timing(timing);
+                request.setAttribute(ServerTiming.ATTRIBUTE, timing);
+            }
+        }
+        return timing;
+    }
+
+    /**
+     * Adds the phases recorded since the last call as a {@code Server-Timing} header, if the request passed the
+     * guard and the response is not yet committed.
+     */
+    public void writeHeader(final ServerTiming timing, final HttpServletResponse response) {
+        if (timing.isExposed() && !response.isCommitted()) {
+            final String value = timing.drainHeaderValue();
+            if (!value.isEmpty()) {
+                response.addHeader(ServerTiming.HEADER, value);
+            }
+        }
+    }
+
+    private boolean passesGuard(final String presented) {
+        return guardToken.length > 0 && presented != null
+                && MessageDigest.isEqual(guardToken, presented.getBytes(StandardCharsets.UTF_8));
+    }
+}
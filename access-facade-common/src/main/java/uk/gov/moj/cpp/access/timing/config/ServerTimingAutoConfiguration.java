@@ -0,0 +1,24 @@
+package uk.gov.moj.cpp.access.timing.config;
+
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import uk.gov.moj.cpp.access.timing.ServerTimingPolicy;
+
+/**
+ * The one {@link ServerTimingPolicy} the authz and audit servlet filters record into; it reads servlet requests, so
+ * it is only set up when the servlet API is present.
+ */
+@AutoConfiguration
+@ConditionalOnClass(name = "jakarta.servlet.http.HttpServletRequest")
+@EnableConfigurationProperties(ServerTimingProperties.class)
+public class ServerTimingAutoConfiguration {
+
+    @Bean
+    @ConditionalOnMissingBean
+    public ServerTimingPolicy serverTimingPolicy(final ServerTimingProperties properties) {
+        return new ServerTimingPolicy(properties.isEnabled(), properties.getGuardHeader(), properties.getGuardToken());
+    }
+}
@@ -0,0 +1,43 @@
+package uk.gov.moj.cpp.access.timing.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * {@code access.server-timing.*}: per-phase timings of the authz and audit filters.
+ */
+@ConfigurationProperties(prefix = "access.server-timing")
+public class ServerTimingProperties {
+
+    /** Record the timings as a request attribute. */
+    private boolean enabled;
+
+    /** Request header that must carry {@link #guardToken} for the response to get a {@code Server-Timing} header. */
+    private String guardHeader = "X-Server-Timing-Token";
+
+    /** Shared secret of internal callers; when empty the header is never written. */
+    private String guardToken = "";
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getGuardHeader() {
+        return guardHeader;
+    }
+
+    public void setGuardHeader(final String guardHeader) {
+        this.guardHeader = guardHeader;
+    }
+
+    public String getGuardToken() {
+        return guardToken;
+    }
+
+    public void setGuardToken(final String guardToken) {
+        this.guardToken = guardToken;
+    }
+}
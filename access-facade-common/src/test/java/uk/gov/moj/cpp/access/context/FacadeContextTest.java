@@ -0,0 +1,74 @@
+package uk.gov.moj.cpp.access.context;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import uk.gov.moj.cpp.access.timing.ServerTiming;
+import uk.gov.moj.cpp.access.timing.ServerTimingPolicy;
+
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FacadeContextTest {
+
+    private static final String METHOD_GET = "GET";
+    private static final String CONTEXT_PATH = "/progression";
+    private static final String CASE_PATH = "/api/cases/123";
+
+    @Test
+    void createsContextOnceAndReadsRequestOnlyThen() {
+        final MockHttpServletRequest request = new MockHttpServletRequest(METHOD_GET, CONTEXT_PATH + CASE_PATH);
+        request.setContextPath(CONTEXT_PATH);
+        request.addHeader("cjscppuid", "header-user");
+        request.addHeader("CppClientCorrelationId", "corr-1");
+
+        final FacadeContext context = FacadeContext.from(request, FacadeContext.USER_ID_HEADER);
+        request.setRequestURI(CONTEXT_PATH + "/api/other");
+
+        assertSame(context, FacadeContext.from(request), "Every filter should share the first filter's context");
+        assertEquals(CASE_PATH, context.path(), "The path should be worked out once, within the application");
+        assertEquals("header-user", context.userId(), "The user id header should be found regardless of case");
+        assertEquals("corr-1", context.correlationId(), "The correlation header should be found regardless of case");
+        assertTrue(context.routeTemplate().isEmpty(), "No route should be known until a filter matches one");
+    }
+
+    @Test
+    void replacesHeaderUserWithIdentifiedCallerAndKeepsMatchedRoute() {
+        final MockHttpServletRequest request = new MockHttpServletRequest(METHOD_GET, CASE_PATH);
+        request.addHeader(FacadeContext.USER_ID_HEADER, "header-user");
+        final FacadeContext context = FacadeContext.from(request, FacadeContext.USER_ID_HEADER);
+
+        context.identify("token-subject", "principal");
+        context.matchedRoute("/api/cases/{caseId}", Map.of("caseId", "123"));
+
+        assertEquals("token-subject", context.userId(), "The resolved caller should replace the header");
+        assertEquals(Optional.of("principal"), context.principal(String.class), "The principal should be kept");
+        assertTrue(context.principal(Integer.class).isEmpty(), "A principal of another type should not be returned");
+        assertEquals(Optional.of("/api/cases/{caseId}"), context.routeTemplate(), "The route should be kept");
+        assertEquals(Optional.of(Map.of("caseId", "123")), context.pathVariables(), "The variables should be kept");
+    }
+
+    @Test
+    void readsCallerFromConfiguredHeaderWhicheverFilterCreatedContext() {
+        final MockHttpServletRequest request = new MockHttpServletRequest(METHOD_GET, CASE_PATH);
+        request.addHeader(FacadeContext.USER_ID_HEADER, "default-header-user");
+        request.addHeader("X-User-Id", "configured-header-user");
+        new ServerTimingPolicy(true, "X-Server-Timing-Token", "").begin(request);
+
+        final FacadeContext context = FacadeContext.from(request, "X-User-Id");
+
+        assertEquals("configured-header-user", context.userId(), "The caller should come from the configured header");
+    }
+
+    @Test
+    void keepsRequestTimingInContext() {
+        final MockHttpServletRequest request = new MockHttpServletRequest(METHOD_GET, CASE_PATH);
+        final ServerTiming timing = new ServerTimingPolicy(true, "X-Server-Timing-Token", "").begin(request);
+
+        assertSame(timing, FacadeContext.from(request).timing(), "The timing should travel in the context");
+        assertSame(timing, request.getAttribute(ServerTiming.ATTRIBUTE), "The timing should stay a request attribute");
+    }
+}
@@ -0,0 +1,126 @@
+package uk.gov.moj.cpp.access.path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PathPolicyTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PathPolicyTest.class);
+    private static final int PREFIXES = 1_000;
+    private static final String ACTUATOR = "/actuator";
+
+    @Test
+    void combinesFlagsOfEveryPrefixAlongThePath() {
+        final PathPolicy policy = PathPolicy.builder()
+                .bypass(ACTUATOR, Bypass.AUTHZ)
+                .bypass(ACTUATOR, Bypass.AUDIT)
+                .bypass("/api/", Bypass.AUDIT)
+                .bypass("/api/public/", Bypass.AUTHZ)
+                .build();
+
+        final PathPolicy.Decision nested = policy.decide("/api/public/docs");
+        assertTrue(nested.bypasses(Bypass.AUTHZ) && nested.bypasses(Bypass.AUDIT),
+                "Flags of every matching prefix should be combined");
+        assertTrue(policy.bypasses("/actuator/health", Bypass.AUDIT), "Subpaths of a prefix should bypass");
+        assertFalse(policy.bypasses("/api/cases", Bypass.AUTHZ), "Only the shorter prefix applies to /api/cases");
+        assertEquals(3, policy.prefixCount(), "The same prefix should be counted once");
+    }
+
+    @Test
+    void doesNotMatchPrefixesThatOnlyAppearInsideThePath() {
+        final PathPolicy policy = PathPolicy.builder().bypass(List.of("/health", ACTUATOR), Bypass.AUDIT).build();
+
+        assertFalse(policy.bypasses("/api/health", Bypass.AUDIT), "Prefixes should only match at the start");
+        assertFalse(policy.bypasses("/api/actuator/env", Bypass.AUDIT), "Prefixes should only match at the start");
+        assertFalse(policy.bypasses("/act", Bypass.AUDIT), "A path shorter than the prefix should not match");
+        assertFalse(PathPolicy.empty().bypasses("/health", Bypass.AUDIT), "An empty policy should bypass nothing");
+    }
+
+    @Test
+    void agreesWithStartsWithAcrossSplitEdges() {
+        final Random random = new Random(7);
+        final List<String> prefixes = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            prefixes.add(randomPath(random));
+        }
+        final PathPolicy policy = PathPolicy.builder().bypass(prefixes, Bypass.AUTHZ).build();
+
+        for (int i = 0; i < 5_000; i++) {
+            final String path = randomPath(random) + randomPath(random);
+            assertEquals(prefixes.stream().anyMatch(path::startsWith), policy.bypasses(path, Bypass.AUTHZ),
+                    "Trie and linear scan should agree for " + path);
+        }
+    }
+
+    /**
+     * Lookup cost with {@value #PREFIXES} configured prefixes, against the linear {@code startsWith} scan it
+     * replaces. Run with {@code PATH_POLICY_BENCHMARK=true}.
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "PATH_POLICY_BENCHMARK", matches = "true")
+    void reportsLookupCostForOneThousandPrefixes() {
+        final List<String> prefixes = new ArrayList<>();
+        for (int i = 0; i < PREFIXES; i++) {
+            prefixes.add("/service-" + i % 50 + "/resource-" + i + "/");
+        }
+        final PathPolicy policy = PathPolicy.builder().bypass(prefixes, Bypass.AUTHZ).build();
+        final String[] paths = {"/service-7/resource-907/items/42", "/service-49/resource-999/", "/api/cases/123",
+                "/service-3/resource-12345/"};
+
+        final long linear = nanosPerLookup(paths, path -> startsWithAny(prefixes, path));
+        final long trie = nanosPerLookup(paths, path -> policy.bypasses(path, Bypass.AUTHZ));
+
+        LOGGER.info("{} prefixes: linear scan {} ns/lookup, trie {} ns/lookup", PREFIXES, linear, trie);
+        assertTrue(trie < linear, "The trie should beat a linear scan over " + PREFIXES + " prefixes");
+    }
+
+    private static long nanosPerLookup(final String[] paths, final Predicate<String> lookup) {
+        int matched = 0;
+        for (int warmUp = 0; warmUp < 200_000; warmUp++) {
+            matched += lookup.test(paths[warmUp % paths.length]) ? 1 : 0;
+        }
+        final int rounds = 1_000_000;
+        final long started = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            matched += lookup.test(paths[round % paths.length]) ? 1 : 0;
+        }
+        final long elapsed = System.nanoTime() - started;
+        assertTrue(matched > 0, "Some lookups should match");
+        return elapsed / rounds;
+    }
+
+    /**
+     * The loop the filters used before.
+     */
+    private static boolean startsWithAny(final List<String> prefixes, final String path) {
+        boolean matches = false;
+        for (final String prefix : prefixes) {
+            if (path.startsWith(prefix)) {
+                matches = true;
+                break;
+            }
+        }
+        return matches;
+    }
+
+    private static String randomPath(final Random random) {
+        final String alphabet = "/abc-";
+        final StringBuilder path = new StringBuilder("/");
+        final int length = 1 + random.nextInt(6);
+        for (int i = 0; i < length; i++) {
+            path.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return path.toString();
+    }
+}
@@ -0,0 +1,70 @@
+package uk.gov.moj.cpp.access.timing;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import uk.gov.moj.cpp.access.timing.ServerTiming.Phase;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ServerTimingTest {
+
+    private static final String GUARD_HEADER = "X-Server-Timing-Token";
+    private static final String GUARD_TOKEN = "internal-only";
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    @Test
+    void formatsRecordedPhasesInMillisecondsWithMicrosecondPrecision() {
+        final ServerTiming timing = new ServerTiming(true, true);
+        final long now = System.nanoTime();
+        timing.record(Phase.PATH, now);
+        timing.record(Phase.IDENTITY, now - 201 * NANOS_PER_MILLI);
+        timing.identityCached(false);
+
+        final String value = timing.drainHeaderValue();
+
+        assertTrue(value.matches("path;dur=0\\.\\d{3}, identity;desc=\"miss\";dur=20[1-9]\\.\\d{3}"),
+                "Phases should be listed in order with three decimals, got " + value);
+        assertEquals("", timing.drainHeaderValue(), "Phases already written should not be repeated");
+    }
+
+    @Test
+    void sharesOneTimingPerRequestAndWritesHeaderOnlyForGuardToken() {
+        final ServerTimingPolicy policy = new ServerTimingPolicy(true, GUARD_HEADER, GUARD_TOKEN);
+        final MockHttpServletRequest internal = new MockHttpServletRequest();
+        internal.addHeader(GUARD_HEADER, GUARD_TOKEN);
+        final MockHttpServletRequest external = new MockHttpServletRequest();
+        external.addHeader(GUARD_HEADER, "internal-onlx");
+
+        final ServerTiming internalTiming = policy.begin(internal);
+        assertSame(internalTiming, policy.begin(internal), "Every filter should add to the same timing");
+        internalTiming.record(Phase.RULES, internalTiming.start());
+        final ServerTiming externalTiming = policy.begin(external);
+        externalTiming.record(Phase.RULES, externalTiming.start());
+
+        final MockHttpServletResponse internalResponse = new MockHttpServletResponse();
+        final MockHttpServletResponse externalResponse = new MockHttpServletResponse();
+        policy.writeHeader(internalTiming, internalResponse);
+        policy.writeHeader(externalTiming, externalResponse);
+        assertTrue(internalResponse.getHeader(ServerTiming.HEADER).startsWith("rules;dur="),
+                "A caller with the guard token should see the timings");
+        assertNull(externalResponse.getHeader(ServerTiming.HEADER), "Other callers should not see the timings");
+        assertTrue(externalTiming.isRecorded(Phase.RULES), "The timings should still be recorded for the application");
+    }
+
+    @Test
+    void neverExposesTimingsWithoutGuardTokenOrWhenDisabled() {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(GUARD_HEADER, "");
+
+        assertFalse(new ServerTimingPolicy(true, GUARD_HEADER, "").begin(request).isExposed(),
+                "An empty guard token should never match");
+        final ServerTiming disabled = ServerTimingPolicy.disabled().begin(new MockHttpServletRequest());
+        disabled.record(Phase.PATH, disabled.start());
+        assertFalse(disabled.isRecorded(Phase.PATH), "A disabled timing should record nothing");
+    }
+}
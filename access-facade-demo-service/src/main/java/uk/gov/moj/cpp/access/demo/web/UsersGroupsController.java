@@ -1,11 +1,15 @@
 package uk.gov.moj.cpp.access.demo.web;
 
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.List;
 
@@ -15,22 +19,52 @@ public class UsersGroupsController {
     private static final String USER_LA_1 = "la-user-1";
     private static final String ACCESS_ALL = "ALL";
     private static final String DA_USER_1 = "da-user-1";
-
+    private static final String MEDIA_TYPE = "application/vnd.usersgroups.get-logged-in-user-permissions+json";
+    /** The sample data never changes while the demo runs, so it was last modified at startup. */
+    private static final long LAST_MODIFIED = System.currentTimeMillis();
 
     public record UserGroup(String groupId, String groupName, String prosecutingAuthority) {}
     public record SwitchableRole(String roleId, String roleName) {}
     public record UserPermission(String permissionId, String object, String action, String description) {}
     public record LoggedInUserPermissionsResponse(
             List<UserGroup> groups, List<SwitchableRole> switchableRoles, List<UserPermission> permissions) {}
+    public record BulkPermissionsRequest(List<String> userIds) {}
+    public record UserPermissions(String userId, List<UserGroup> groups,
+                                  List<SwitchableRole> switchableRoles, List<UserPermission> permissions) {}
+    public record BulkPermissionsResponse(List<UserPermissions> users) {}
 
-    @GetMapping(
-            value = "/logged-in-user/permissions",
-            produces = "application/vnd.usersgroups.get-logged-in-user-permissions+json")
+    /**
+     * Supports {@code If-None-Match} and {@code If-Modified-Since}, answering 304 without a body when the
+     * caller's copy is current.
+     */
+    @GetMapping(value = "/logged-in-user/permissions", produces = MEDIA_TYPE)
     public ResponseEntity<LoggedInUserPermissionsResponse> getPermissions(
-            @RequestHeader("CJSCPPUID") final String userId) {
-        return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType("application/vnd.usersgroups.get-logged-in-user-permissions+json"))
-                .body(sampleFor(userId));
+            @RequestHeader("CJSCPPUID") final String userId, final WebRequest webRequest) {
+        final LoggedInUserPermissionsResponse body = sampleFor(userId);
+        final String etag = "\"" + Integer.toHexString(body.hashCode()) + "\"";
+        final ResponseEntity<LoggedInUserPermissionsResponse> response;
+        if (webRequest.checkNotModified(etag, LAST_MODIFIED)) {
+            response = ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+        } else {
+            response = ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType(MEDIA_TYPE))
+                    .body(body);
+        }
+        return response;
+    }
+
+    /**
+     * Bulk stub for {@code authz.http.batching.bulk-url}: returns the same sample data for every requested user.
+     */
+    @PostMapping(value = "/permissions", produces = MediaType.APPLICATION_JSON_VALUE)
+    public BulkPermissionsResponse getBulkPermissions(@RequestBody final BulkPermissionsRequest request) {
+        final List<String> userIds = request.userIds() == null ? List.of() : request.userIds();
+        return new BulkPermissionsResponse(userIds.stream()
+                .map(userId -> {
+                    final LoggedInUserPermissionsResponse sample = sampleFor(userId);
+                    return new UserPermissions(userId, sample.groups(), sample.switchableRoles(), sample.permissions());
+                })
+                .toList());
     }
 
     private LoggedInUserPermissionsResponse sampleFor(final String userId) {
@@ -1,12 +1,17 @@
 package uk.gov.moj.cpp.filter.audit;
 
+import uk.gov.moj.cpp.access.context.FacadeContext;
+import uk.gov.moj.cpp.access.path.Bypass;
+import uk.gov.moj.cpp.access.path.PathPolicy;
+import uk.gov.moj.cpp.access.timing.ServerTiming;
+import uk.gov.moj.cpp.access.timing.ServerTiming.Phase;
+import uk.gov.moj.cpp.access.timing.ServerTimingPolicy;
 import uk.gov.moj.cpp.filter.audit.model.AuditPayload;
 import uk.gov.moj.cpp.filter.audit.service.AuditPayloadGenerationService;
 import uk.gov.moj.cpp.filter.audit.service.AuditService;
 import uk.gov.moj.cpp.filter.audit.service.PathParameterService;
 
 import java.io.IOException;
-import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -14,12 +19,16 @@ import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import lombok.AllArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.core.Ordered;
 import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 import org.springframework.web.filter.OncePerRequestFilter;
@@ -29,54 +38,143 @@ import org.springframework.web.util.ContentCachingResponseWrapper;
 
 @Component
 @Order(Ordered.HIGHEST_PRECEDENCE + 50)
-@AllArgsConstructor
 @ConditionalOnProperty(name = "audit.http.enabled", havingValue = "true")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class AuditFilter extends OncePerRequestFilter {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AuditFilter.class);
 
     private static final int CACHE_LIMIT = 65_536; // 64 KB
+    private static final String AUDITED_ATTRIBUTE = AuditFilter.class.getName() + ".AUDITED";
 
     private final AuditService auditService;
     private final AuditPayloadGenerationService auditPayloadGenerationService;
-    private PathParameterService pathParameterService;
+    private final PathParameterService pathParameterService;
+    private final PathPolicy pathPolicy;
+    private final ServerTimingPolicy serverTiming;
+    private final String userIdHeader;
+
+    public AuditFilter(final AuditService auditService,
+                       final AuditPayloadGenerationService auditPayloadGenerationService,
+                       final PathParameterService pathParameterService,
+                       final PathPolicy pathPolicy) {
+        this(auditService, auditPayloadGenerationService, pathParameterService, pathPolicy,
+                ServerTimingPolicy.disabled());
+    }
+
+    @Autowired
+    public AuditFilter(final AuditService auditService,
+                       final AuditPayloadGenerationService auditPayloadGenerationService,
+                       final PathParameterService pathParameterService,
+                       final PathPolicy pathPolicy,
+                       final ObjectProvider<ServerTimingPolicy> serverTiming,
+                       @Value(FacadeContext.USER_ID_HEADER_PLACEHOLDER) final String userIdHeader) {
+        this(auditService, auditPayloadGenerationService, pathParameterService, pathPolicy,
+                serverTiming.getIfAvailable(ServerTimingPolicy::disabled), userIdHeader);
+    }
+
+    public AuditFilter(final AuditService auditService,
+                       final AuditPayloadGenerationService auditPayloadGenerationService,
+                       final PathParameterService pathParameterService,
+                       final PathPolicy pathPolicy,
+                       final ServerTimingPolicy serverTiming) {
+        this(auditService, auditPayloadGenerationService, pathParameterService, pathPolicy, serverTiming,
+                FacadeContext.USER_ID_HEADER);
+    }
+
+    /**
+     * @param serverTiming times path matching, the request capture and the audit enqueue, and adds them to the
+     *                     request's {@code Server-Timing} header
+     * @param userIdHeader the header an unauthenticated caller is taken from, as {@code authz.http.user-id-header}
+     */
+    public AuditFilter(final AuditService auditService,
+                       final AuditPayloadGenerationService auditPayloadGenerationService,
+                       final PathParameterService pathParameterService,
+                       final PathPolicy pathPolicy,
+                       final ServerTimingPolicy serverTiming,
+                       final String userIdHeader) {
+        this.auditService = auditService;
+        this.auditPayloadGenerationService = auditPayloadGenerationService;
+        this.pathParameterService = pathParameterService;
+        this.pathPolicy = pathPolicy;
+        this.serverTiming = serverTiming;
+        this.userIdHeader = userIdHeader;
+    }
 
+    /**
+     * Skips paths under the configured {@code audit.http.exclude-path-prefixes}, matched against the path within the
+     * application.
+     */
     @Override
     protected boolean shouldNotFilter(final HttpServletRequest request) {
-        final String path = request.getRequestURI();
-        return path.contains("/health") || path.contains("/actuator");
+        final boolean skip;
+        if (isAsyncDispatch(request) && request.getAttribute(AUDITED_ATTRIBUTE) != null) {
+            skip = true;
+        } else {
+            final ServerTiming timing = serverTiming.begin(request);
+            final long pathStart = timing.start();
+            skip = pathPolicy.bypasses(FacadeContext.from(request).path(), Bypass.AUDIT);
+            timing.record(Phase.PATH, pathStart);
+        }
+        return skip;
+    }
+
+    /**
+     * An earlier filter may hand a request over to an async dispatch before it reaches this one (the authz filter's
+     * async mode), so an async dispatch is audited unless its request already was.
+     */
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
     }
 
     @Override
     protected void doFilterInternal(final HttpServletRequest request, final HttpServletResponse response, final FilterChain filterChain)
             throws ServletException, IOException {
 
+        request.setAttribute(AUDITED_ATTRIBUTE, Boolean.TRUE);
+        final ServerTiming timing = serverTiming.begin(request);
+        final long wrapStart = timing.start();
         final ContentCachingRequestWrapper wrappedRequest = new ContentCachingRequestWrapper(request, CACHE_LIMIT);
         final ContentCachingResponseWrapper wrappedResponse = new ContentCachingResponseWrapper(response);
+        timing.record(Phase.CAPTURE, wrapStart);
 
         filterChain.doFilter(wrappedRequest, wrappedResponse);
 
-        performAudit(wrappedRequest, wrappedResponse);
+        performAudit(wrappedRequest, wrappedResponse, timing);
 
+        // the body is still held by the wrapper, so the header can follow the controller's
+        serverTiming.writeHeader(timing, response);
         wrappedResponse.copyBodyToResponse();
     }
 
-    private void performAudit(final ContentCachingRequestWrapper wrappedRequest, final ContentCachingResponseWrapper wrappedResponse) {
+    /**
+     * Takes the caller, the correlation id and, when the authz filter matched a route, the path parameters from the
+     * request's {@link FacadeContext} rather than copying the headers and matching the path again.
+     */
+    private void performAudit(final ContentCachingRequestWrapper wrappedRequest,
+                              final ContentCachingResponseWrapper wrappedResponse,
+                              final ServerTiming timing) {
+        final long captureStart = timing.start();
+        final FacadeContext context = FacadeContext.from(wrappedRequest, userIdHeader);
         final String contextPath = removeLeadingForwardSlash(wrappedRequest.getContextPath());
-        final String requestPath = wrappedRequest.getServletPath();
         final String requestPayload = getPayload(wrappedRequest.getContentAsByteArray(), wrappedRequest.getCharacterEncoding());
-        final Map<String, String> headers = getHeaders(wrappedRequest);
+        final String mediaType = getMediaType(wrappedRequest);
         final Map<String, String> queryParams = getQueryParams(wrappedRequest);
-        final Map<String, String> pathParams = pathParameterService.getPathParameters(requestPath);
+        final Map<String, String> pathParams = context.pathVariables()
+                .orElseGet(() -> pathParameterService.getPathParameters(wrappedRequest.getServletPath()));
+        final String responsePayload = getPayload(wrappedResponse.getContentAsByteArray(), wrappedResponse.getCharacterEncoding());
+        timing.record(Phase.CAPTURE, captureStart);
 
-        final AuditPayload auditRequestPayload = auditPayloadGenerationService.generatePayload(contextPath, requestPayload, headers, queryParams, pathParams);
+        final long enqueueStart = timing.start();
+        final AuditPayload auditRequestPayload = auditPayloadGenerationService.generatePayload(contextPath, requestPayload, mediaType, context, queryParams, pathParams);
         auditService.postMessageToArtemis(auditRequestPayload);
 
-        final String responsePayload = getPayload(wrappedResponse.getContentAsByteArray(), wrappedResponse.getCharacterEncoding());
         if (StringUtils.hasText(responsePayload)) {
-            final AuditPayload auditResponsePayload = auditPayloadGenerationService.generatePayload(contextPath, responsePayload, headers);
+            final AuditPayload auditResponsePayload = auditPayloadGenerationService.generatePayload(contextPath, responsePayload, mediaType, context);
             auditService.postMessageToArtemis(auditResponsePayload);
         }
+        timing.record(Phase.ENQUEUE, enqueueStart);
     }
 
     private String getPayload(final byte[] content, final String encoding) {
@@ -88,14 +186,9 @@ public class AuditFilter extends OncePerRequestFilter {
         }
     }
 
-    private Map<String, String> getHeaders(final HttpServletRequest request) {
-        final Map<String, String> headers = new HashMap<>();
-        final Enumeration<String> headerNames = request.getHeaderNames();
-        while (headerNames.hasMoreElements()) {
-            final String headerName = headerNames.nextElement();
-            headers.put(headerName, request.getHeader(headerName));
-        }
-        return headers;
+    private String getMediaType(final HttpServletRequest request) {
+        final String accept = request.getHeader(HttpHeaders.ACCEPT);
+        return accept == null ? request.getHeader(HttpHeaders.CONTENT_TYPE) : accept;
     }
 
     private Map<String, String> getQueryParams(final HttpServletRequest request) {
@@ -0,0 +1,214 @@
+package uk.gov.moj.cpp.filter.audit;
+
+import uk.gov.moj.cpp.access.path.Bypass;
+import uk.gov.moj.cpp.access.path.PathPolicy;
+import uk.gov.moj.cpp.filter.audit.model.AuditPayload;
+import uk.gov.moj.cpp.filter.audit.service.AuditPayloadGenerationService;
+import uk.gov.moj.cpp.filter.audit.service.AuditService;
+import uk.gov.moj.cpp.filter.audit.service.PathParameterService;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * WebFlux counterpart of {@link AuditFilter}. The request and response bodies are copied (up to 64 KB each) as their
+ * {@link DataBuffer}s stream past, without buffering the exchange, and the audit messages are generated and sent on a
+ * bounded scheduler once the response has been written, so neither the event loop nor the response waits for Artemis.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 50)
+@ConditionalOnProperty(name = "audit.http.enabled", havingValue = "true")
+@ConditionalOnClass(name = "reactor.core.publisher.Flux")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveAuditFilter implements WebFilter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReactiveAuditFilter.class);
+
+    private static final int CACHE_LIMIT = 65_536; // 64 KB
+
+    private final AuditService auditService;
+    private final AuditPayloadGenerationService auditPayloadGenerationService;
+    private final PathParameterService pathParameterService;
+    private final PathPolicy pathPolicy;
+    private final Scheduler auditScheduler;
+
+    @Autowired
+    public ReactiveAuditFilter(final AuditService auditService,
+                               final AuditPayloadGenerationService auditPayloadGenerationService,
+                               final PathParameterService pathParameterService,
+                               final PathPolicy pathPolicy) {
+        this(auditService, auditPayloadGenerationService, pathParameterService, pathPolicy, Schedulers.boundedElastic());
+    }
+
+    /* default */ ReactiveAuditFilter(final AuditService auditService,
+                                      final AuditPayloadGenerationService auditPayloadGenerationService,
+                                      final PathParameterService pathParameterService,
+                                      final PathPolicy pathPolicy,
+                                      final Scheduler auditScheduler) {
+        this.auditService = auditService;
+        this.auditPayloadGenerationService = auditPayloadGenerationService;
+        this.pathParameterService = pathParameterService;
+        this.pathPolicy = pathPolicy;
+        this.auditScheduler = auditScheduler;
+    }
+
+    @Override
+    public Mono<Void> filter(final ServerWebExchange exchange, final WebFilterChain chain) {
+        final ServerHttpRequest request = exchange.getRequest();
+        final Mono<Void> result;
+        if (pathPolicy.bypasses(request.getPath().pathWithinApplication().value(), Bypass.AUDIT)) {
+            result = chain.filter(exchange);
+        } else {
+            final BodyCopy requestBody = new BodyCopy();
+            final BodyCopy responseBody = new BodyCopy();
+            final ServerWebExchange teed = exchange.mutate()
+                    .request(new TeeRequest(request, requestBody))
+                    .response(new TeeResponse(exchange.getResponse(), responseBody))
+                    .build();
+            result = chain.filter(teed)
+                    .doOnSuccess(ignored -> scheduleAudit(request, exchange.getResponse(), requestBody, responseBody));
+        }
+        return result;
+    }
+
+    private void scheduleAudit(final ServerHttpRequest request,
+                               final ServerHttpResponse response,
+                               final BodyCopy requestBody,
+                               final BodyCopy responseBody) {
+        try {
+            auditScheduler.schedule(() -> {
+                try {
+                    performAudit(request, response, requestBody, responseBody);
+                } catch (final RuntimeException failure) {
+                    LOGGER.error("Unable to audit {}", request.getPath(), failure);
+                }
+            });
+        } catch (final RejectedExecutionException rejected) {
+            LOGGER.error("Audit of {} dropped: {}", request.getPath(), rejected.getMessage());
+        }
+    }
+
+    private void performAudit(final ServerHttpRequest request,
+                              final ServerHttpResponse response,
+                              final BodyCopy requestBody,
+                              final BodyCopy responseBody) {
+        final String contextPath = removeLeadingForwardSlash(request.getPath().contextPath().value());
+        final String requestPath = request.getPath().pathWithinApplication().value();
+        final String requestPayload = requestBody.toString(charset(request.getHeaders().getContentType()));
+        final Map<String, String> headers = request.getHeaders().toSingleValueMap();
+        final Map<String, String> queryParams = new HashMap<>();
+        request.getQueryParams().forEach((key, value) -> queryParams.put(key, String.join(",", value)));
+        final Map<String, String> pathParams = pathParameterService.getPathParameters(requestPath);
+
+        final AuditPayload auditRequestPayload = auditPayloadGenerationService.generatePayload(contextPath, requestPayload, headers, queryParams, pathParams);
+        auditService.postMessageToArtemis(auditRequestPayload);
+
+        final String responsePayload = responseBody.toString(charset(response.getHeaders().getContentType()));
+        if (StringUtils.hasText(responsePayload)) {
+            final AuditPayload auditResponsePayload = auditPayloadGenerationService.generatePayload(contextPath, responsePayload, headers);
+            auditService.postMessageToArtemis(auditResponsePayload);
+        }
+    }
+
+    private static Charset charset(final MediaType contentType) {
+        return contentType != null && contentType.getCharset() != null ? contentType.getCharset() : StandardCharsets.UTF_8;
+    }
+
+    private String removeLeadingForwardSlash(final String contextPath) {
+        if (contextPath != null && contextPath.startsWith("/")) {
+            return contextPath.substring(1);
+        }
+        return contextPath;
+    }
+
+    /**
+     * The first {@value #CACHE_LIMIT} bytes of a body, copied from each buffer before it is passed on and released.
+     */
+    private static final class BodyCopy {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private void append(final DataBuffer buffer) {
+            try (DataBuffer.ByteBufferIterator readable = buffer.readableByteBuffers()) {
+                while (readable.hasNext() && bytes.size() < CACHE_LIMIT) {
+                    append(readable.next());
+                }
+            }
+        }
+
+        private void append(final ByteBuffer chunk) {
+            final byte[] copy = new byte[Math.min(chunk.remaining(), CACHE_LIMIT - bytes.size())];
+            chunk.get(copy);
+            bytes.write(copy, 0, copy.length);
+        }
+
+        private String toString(final Charset charset) {
+            return bytes.toString(charset);
+        }
+    }
+
+    private static final class TeeRequest extends ServerHttpRequestDecorator {
+
+        private final BodyCopy copy;
+
+        private TeeRequest(final ServerHttpRequest delegate, final BodyCopy copy) {
+            super(delegate);
+            this.copy = copy;
+        }
+
+        @Override
+        public Flux<DataBuffer> getBody() {
+            return super.getBody().doOnNext(copy::append);
+        }
+    }
+
+    private static final class TeeResponse extends ServerHttpResponseDecorator {
+
+        private final BodyCopy copy;
+
+        private TeeResponse(final ServerHttpResponse delegate, final BodyCopy copy) {
+            super(delegate);
+            this.copy = copy;
+        }
+
+        @Override
+        public Mono<Void> writeWith(final Publisher<? extends DataBuffer> body) {
+            return super.writeWith(Flux.from(body).doOnNext(copy::append));
+        }
+
+        @Override
+        public Mono<Void> writeAndFlushWith(final Publisher<? extends Publisher<? extends DataBuffer>> body) {
+            return super.writeAndFlushWith(Flux.from(body).map(chunk -> Flux.from(chunk).doOnNext(copy::append)));
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package uk.gov.moj.cpp.filter.audit.config;
+
+import uk.gov.moj.cpp.access.path.Bypass;
+import uk.gov.moj.cpp.access.path.PathPolicy;
+import uk.gov.moj.cpp.access.path.PathPolicyContributor;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Marks {@code audit.http.exclude-path-prefixes} as bypassing the audit filter in the shared {@link PathPolicy}.
+ */
+@Component
+@ConditionalOnProperty(name = "audit.http.enabled", havingValue = "true")
+public class AuditPathPolicyContributor implements PathPolicyContributor {
+
+    private final List<String> excludePathPrefixes;
+
+    public AuditPathPolicyContributor(
+            @Value("${audit.http.exclude-path-prefixes:/health,/actuator}") final List<String> excludePathPrefixes) {
+        this.excludePathPrefixes = excludePathPrefixes;
+    }
+
+    @Override
+    public void contribute(final PathPolicy.Builder builder) {
+        builder.bypass(excludePathPrefixes, Bypass.AUDIT);
+    }
+}
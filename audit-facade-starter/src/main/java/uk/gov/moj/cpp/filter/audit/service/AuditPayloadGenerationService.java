@@ -4,6 +4,7 @@ import static java.util.UUID.randomUUID;
 import static org.apache.commons.collections.MapUtils.isEmpty;
 import static org.apache.commons.collections.MapUtils.isNotEmpty;
 
+import uk.gov.moj.cpp.access.context.FacadeContext;
 import uk.gov.moj.cpp.filter.audit.model.AuditPayload;
 import uk.gov.moj.cpp.filter.audit.model.Metadata;
 
@@ -17,38 +18,77 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import lombok.AllArgsConstructor;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 @Service
-@AllArgsConstructor
 public class AuditPayloadGenerationService {
 
     private static final String ATTRIBUTE_PAYLOAD_KEY = "_payload";
     private static final String ATTRIBUTE_METADATA_KEY = "_metadata";
-    private static final String HEADER_USER_ID = "CJSCPPUID";
-    private static final String HEADER_CLIENT_CORRELATION_ID = "CPPCLIENTCORRELATIONID";
+    private static final String HEADER_CLIENT_CORRELATION_ID = FacadeContext.CORRELATION_ID_HEADER;
 
     private final ObjectMapper objectMapper;
+    private final String userIdHeader;
+
+    public AuditPayloadGenerationService(final ObjectMapper objectMapper) {
+        this(objectMapper, FacadeContext.USER_ID_HEADER);
+    }
+
+    /**
+     * @param userIdHeader the header the caller is read from on the header-map path, as
+     *                     {@code authz.http.user-id-header}
+     */
+    @Autowired
+    public AuditPayloadGenerationService(final ObjectMapper objectMapper,
+                                         @Value(FacadeContext.USER_ID_HEADER_PLACEHOLDER) final String userIdHeader) {
+        this.objectMapper = objectMapper;
+        this.userIdHeader = userIdHeader;
+    }
 
     public AuditPayload generatePayload(final String contextPath, final String payloadBody, final Map<String, String> headers) {
         return generatePayload(contextPath, payloadBody, headers, Map.of(), Map.of());
     }
 
     public AuditPayload generatePayload(final String contextPath, final String payloadBody, final Map<String, String> headers, final Map<String, String> queryParams, final Map<String, String> pathParams) {
+        return buildPayload(contextPath,
+                constructPayloadWithMetadata(payloadBody, generateMetadata(headers), queryParams, pathParams),
+                generateMetadata(headers, "audit.events.audit-recorded"));
+    }
+
+    /**
+     * Builds the payload from what the filters already know about the request, without searching its headers.
+     *
+     * @param mediaType the request's {@code Accept} header, or its {@code Content-Type} when it has none
+     */
+    public AuditPayload generatePayload(final String contextPath, final String payloadBody, final String mediaType, final FacadeContext context) {
+        return generatePayload(contextPath, payloadBody, mediaType, context, Map.of(), Map.of());
+    }
+
+    /**
+     * Builds the payload from what the filters already know about the request, without searching its headers.
+     *
+     * @param mediaType the request's {@code Accept} header, or its {@code Content-Type} when it has none
+     */
+    public AuditPayload generatePayload(final String contextPath, final String payloadBody, final String mediaType, final FacadeContext context, final Map<String, String> queryParams, final Map<String, String> pathParams) {
+        return buildPayload(contextPath,
+                constructPayloadWithMetadata(payloadBody, generateMetadata(mediaType, mediaType, context), queryParams, pathParams),
+                generateMetadata("audit.events.audit-recorded", mediaType, context));
+    }
+
+    private AuditPayload buildPayload(final String contextPath, final ObjectNode content, final Metadata metadata) {
         return AuditPayload.builder()
-                .content(constructPayloadWithMetadata(payloadBody, headers, queryParams, pathParams))
+                .content(content)
                 .timestamp(currentTimestamp())
                 .origin(contextPath)
                 .component(contextPath + "-api")
-                ._metadata(generateMetadata(headers, "audit.events.audit-recorded"))
+                ._metadata(metadata)
                 .build();
     }
 
-    private ObjectNode constructPayloadWithMetadata(final String rawJsonString, final Map<String, String> headers, final Map<String, String> queryParams, final Map<String, String> pathParams) {
-        final Metadata metadata = generateMetadata(headers);
-
+    private ObjectNode constructPayloadWithMetadata(final String rawJsonString, final Metadata metadata, final Map<String, String> queryParams, final Map<String, String> pathParams) {
         try {
             final JsonNode node = objectMapper.readTree(rawJsonString);
             final ObjectNode objectNode = createObjectNode(node, rawJsonString);
@@ -92,25 +132,35 @@ public class AuditPayloadGenerationService {
             return Metadata.builder().build();
         }
 
+        return generateMetadata(methodName, getHeaderMatchingKey(headers, userIdHeader),
+                getHeaderMatchingKey(headers, HEADER_CLIENT_CORRELATION_ID));
+    }
+
+    /**
+     * Like the header-map path, which has nothing to go on without headers, a request with no media type, caller or
+     * correlation id gets empty metadata.
+     */
+    private Metadata generateMetadata(final String methodName, final String mediaType, final FacadeContext context) {
+        if (mediaType == null && context.userId() == null && context.correlationId() == null) {
+            return Metadata.builder().build();
+        }
+
+        return generateMetadata(methodName, context.userId(), context.correlationId());
+    }
+
+    private Metadata generateMetadata(final String methodName, final String userId, final String clientCorrelationId) {
         final Metadata.MetadataBuilder metadataBuilder = Metadata.builder()
                 .id(randomUUID())
                 .name(methodName)
                 .createdAt(currentTimestamp());
 
-        setOptionalMetadata(headers, metadataBuilder);
-        return metadataBuilder.build();
-    }
-
-    private void setOptionalMetadata(final Map<String, String> headers, final Metadata.MetadataBuilder metadataBuilder) {
-        final String userId = getHeaderMatchingKey(headers, HEADER_USER_ID);
-        final String clientCorrelationId = getHeaderMatchingKey(headers, HEADER_CLIENT_CORRELATION_ID);
-
         if (null != userId) {
             metadataBuilder.context(Optional.of(new Metadata.Context(userId)));
         }
         if (null != clientCorrelationId) {
             metadataBuilder.correlation(Optional.of(new Metadata.Correlation(clientCorrelationId)));
         }
+        return metadataBuilder.build();
     }
 
     private String getHeaderMatchingKey(final Map<String, String> headers, final String... keys) {
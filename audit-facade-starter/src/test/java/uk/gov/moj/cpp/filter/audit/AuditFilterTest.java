@@ -3,6 +3,7 @@ package uk.gov.moj.cpp.filter.audit;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.Mockito.any;
@@ -10,10 +11,16 @@ import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 
+import uk.gov.moj.cpp.access.context.FacadeContext;
+import uk.gov.moj.cpp.access.path.Bypass;
+import uk.gov.moj.cpp.access.path.PathPolicy;
+import uk.gov.moj.cpp.access.timing.ServerTiming;
+import uk.gov.moj.cpp.access.timing.ServerTimingPolicy;
 import uk.gov.moj.cpp.filter.audit.model.AuditPayload;
 import uk.gov.moj.cpp.filter.audit.service.AuditPayloadGenerationService;
 import uk.gov.moj.cpp.filter.audit.service.AuditService;
@@ -21,8 +28,10 @@ import uk.gov.moj.cpp.filter.audit.service.PathParameterService;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.List;
 import java.util.Map;
 
+import jakarta.servlet.DispatcherType;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletResponse;
@@ -40,6 +49,7 @@ class AuditFilterTest {
 
     private AuditService mockAuditService;
     private AuditPayloadGenerationService mockAuditPayloadGenerationService;
+    private PathParameterService mockPathParameterService;
 
     private MockHttpServletRequest mockRequest;
     private MockHttpServletResponse mockResponse;
@@ -52,7 +62,14 @@ class AuditFilterTest {
     private static final String RESPONSE_BODY = "{\"result\":\"success\"}";
     private static final String REQUEST_URI = "/api/v1/resource/123";
     private static final String REQUEST_METHOD = "POST";
+    private static final String METHOD_GET = "GET";
     private static final int RESPONSE_STATUS = 201;
+    private static final String TIMING_GUARD_HEADER = "X-Server-Timing-Token";
+    private static final String TIMING_GUARD_TOKEN = "internal-only";
+    private static final String ACCEPT = "Accept";
+    private static final String MEDIA_TYPE = "application/vnd.progression.query.case+json";
+    private static final String USER_ID = "header-user";
+    private static final String VERIFIED_USER_ID = "verified-user";
 
     private final AuditPayload mockRequestAuditNode = mock(AuditPayload.class);
     private final AuditPayload mockResponseAuditNode = mock(AuditPayload.class);
@@ -63,10 +80,11 @@ class AuditFilterTest {
         // Mock dependencies
         mockAuditService = mock(AuditService.class);
         mockAuditPayloadGenerationService = mock(AuditPayloadGenerationService.class);
-        final PathParameterService mockPathParameterService = mock(PathParameterService.class);
+        mockPathParameterService = mock(PathParameterService.class);
 
         // Instantiate the filter with mocks
-        auditFilter = new AuditFilter(mockAuditService, mockAuditPayloadGenerationService, mockPathParameterService);
+        final PathPolicy pathPolicy = PathPolicy.builder().bypass(List.of("/health", "/actuator"), Bypass.AUDIT).build();
+        auditFilter = new AuditFilter(mockAuditService, mockAuditPayloadGenerationService, mockPathParameterService, pathPolicy);
 
         // Setup mock servlet objects
         mockRequest = new MockHttpServletRequest(REQUEST_METHOD, REQUEST_URI);
@@ -74,6 +92,8 @@ class AuditFilterTest {
         mockRequest.setServletPath(SERVLET_PATH);
         mockRequest.setContent(REQUEST_BODY.getBytes());
         mockRequest.addHeader("Authorization", "Bearer token");
+        mockRequest.addHeader(ACCEPT, MEDIA_TYPE);
+        mockRequest.addHeader(FacadeContext.USER_ID_HEADER, USER_ID);
         mockRequest.addParameter("param1", "value1");
 
         // The filter chain logic writes to the response wrapper
@@ -93,11 +113,11 @@ class AuditFilterTest {
 
         when(mockPathParameterService.getPathParameters(any())).thenReturn(Map.of("pathparam1", "pathvalue1"));
 
-        // 1. Mock for Request payload: generatePayload(String, String, Map, Map)
-        when(mockAuditPayloadGenerationService.generatePayload(eq(CONTEXT_PATH), any(String.class), anyMap(), anyMap(), anyMap())).thenReturn(mockRequestAuditNode);
+        // 1. Mock for Request payload: generatePayload(String, String, String, FacadeContext, Map, Map)
+        when(mockAuditPayloadGenerationService.generatePayload(eq(CONTEXT_PATH), any(String.class), any(), any(FacadeContext.class), anyMap(), anyMap())).thenReturn(mockRequestAuditNode);
 
-        // 2. Mock for Response payload: generatePayload(String, String, Map)
-        when(mockAuditPayloadGenerationService.generatePayload(eq(CONTEXT_PATH), any(String.class), anyMap())).thenReturn(mockResponseAuditNode);
+        // 2. Mock for Response payload: generatePayload(String, String, String, FacadeContext)
+        when(mockAuditPayloadGenerationService.generatePayload(eq(CONTEXT_PATH), any(String.class), any(), any(FacadeContext.class))).thenReturn(mockResponseAuditNode);
     }
 
     @Test
@@ -111,7 +131,7 @@ class AuditFilterTest {
         assertEquals(RESPONSE_STATUS, mockResponse.getStatus());
         assertEquals(RESPONSE_BODY, mockResponse.getContentAsString());
 
-        final ArgumentCaptor<Map<String, String>> headerPayloadCaptor = argumentCaptorForMapStringString();
+        final ArgumentCaptor<FacadeContext> contextCaptor = ArgumentCaptor.forClass(FacadeContext.class);
         final ArgumentCaptor<Map<String, String>> queryParamsPayloadCaptor = argumentCaptorForMapStringString();
         final ArgumentCaptor<Map<String, String>> pathParamsPayloadCaptor = argumentCaptorForMapStringString();
 
@@ -119,9 +139,8 @@ class AuditFilterTest {
         verify(mockAuditService).postMessageToArtemis(mockResponseAuditNode);
 
 
-        verify(mockAuditPayloadGenerationService).generatePayload(eq(CONTEXT_PATH), any(String.class), headerPayloadCaptor.capture(), queryParamsPayloadCaptor.capture(), pathParamsPayloadCaptor.capture());
-        assertEquals(1, headerPayloadCaptor.getAllValues().getFirst().size());
-        assertEquals("Bearer token", headerPayloadCaptor.getAllValues().getFirst().get("Authorization"));
+        verify(mockAuditPayloadGenerationService).generatePayload(eq(CONTEXT_PATH), any(String.class), eq(MEDIA_TYPE), contextCaptor.capture(), queryParamsPayloadCaptor.capture(), pathParamsPayloadCaptor.capture());
+        assertEquals(USER_ID, contextCaptor.getValue().userId());
 
         assertEquals(1, queryParamsPayloadCaptor.getAllValues().getFirst().size());
         assertEquals("value1", queryParamsPayloadCaptor.getAllValues().getFirst().get("param1"));
@@ -129,9 +148,8 @@ class AuditFilterTest {
         assertEquals(1, pathParamsPayloadCaptor.getAllValues().getFirst().size());
         assertEquals("pathvalue1", pathParamsPayloadCaptor.getAllValues().getFirst().get("pathparam1"));
 
-        verify(mockAuditPayloadGenerationService).generatePayload(eq(CONTEXT_PATH), eq(RESPONSE_BODY), headerPayloadCaptor.capture());
-        assertEquals(1, headerPayloadCaptor.getAllValues().get(1).size());
-        assertEquals("Bearer token", headerPayloadCaptor.getAllValues().get(1).get("Authorization"));
+        verify(mockAuditPayloadGenerationService).generatePayload(eq(CONTEXT_PATH), eq(RESPONSE_BODY), eq(MEDIA_TYPE), contextCaptor.capture());
+        assertEquals(USER_ID, contextCaptor.getValue().userId());
     }
 
     @Test
@@ -151,19 +169,86 @@ class AuditFilterTest {
         // Verify that the AuditService was called only once (for the request)
         verify(mockAuditService).postMessageToArtemis(mockRequestAuditNode);
 
-        // Verify that the response payload generation service was not called with the (String, Map) signature
+        // Verify that the response payload generation service was not called with the response signature
         verify(mockAuditPayloadGenerationService, never()).generatePayload(eq(CONTEXT_PATH),
-                any(String.class), anyMap() // Response signature
+                any(String.class), any(), any(FacadeContext.class) // Response signature
         );
 
         assertEquals(200, mockResponse.getStatus());
         assertEquals("", mockResponse.getContentAsString());
     }
 
+    @Test
+    void shouldAuditAsyncDispatchWhenRequestWasNotAuditedYet() throws ServletException, IOException {
+        mockRequest.setDispatcherType(DispatcherType.ASYNC);
+
+        auditFilter.doFilter(mockRequest, mockResponse, mockFilterChain);
+
+        verify(mockAuditService).postMessageToArtemis(mockRequestAuditNode);
+        assertEquals(RESPONSE_BODY, mockResponse.getContentAsString(), "The cached body should reach the client");
+    }
+
+    @Test
+    void shouldNotAuditAsyncDispatchOfAlreadyAuditedRequest() throws ServletException, IOException {
+        auditFilter.doFilter(mockRequest, mockResponse, mockFilterChain);
+        mockRequest.setDispatcherType(DispatcherType.ASYNC);
+        auditFilter.doFilter(mockRequest, new MockHttpServletResponse(), mockFilterChain);
+
+        verify(mockAuditService, times(1)).postMessageToArtemis(mockRequestAuditNode);
+        verify(mockFilterChain, times(2)).doFilter(any(), any());
+    }
+
+    @Test
+    void shouldAddCaptureAndEnqueueTimingsBeforeTheBodyIsCopied() throws ServletException, IOException {
+        final ServerTimingPolicy serverTiming = new ServerTimingPolicy(true, TIMING_GUARD_HEADER, TIMING_GUARD_TOKEN);
+        final AuditFilter timedFilter = new AuditFilter(mockAuditService, mockAuditPayloadGenerationService,
+                mock(PathParameterService.class), PathPolicy.empty(), serverTiming);
+        mockRequest.addHeader(TIMING_GUARD_HEADER, TIMING_GUARD_TOKEN);
+
+        timedFilter.doFilter(mockRequest, mockResponse, mockFilterChain);
+
+        final String header = mockResponse.getHeader(ServerTiming.HEADER);
+        assertTrue(header != null && header.matches("path;dur=\\S+, capture;dur=\\S+, enqueue;dur=\\S+"),
+                "The audit phases should be reported, got " + header);
+        assertEquals(RESPONSE_BODY, mockResponse.getContentAsString(), "The body should still reach the client");
+    }
+
+    @Test
+    void shouldTakeCallerFromConfiguredUserIdHeader() throws ServletException, IOException {
+        final AuditFilter configuredFilter = new AuditFilter(mockAuditService, mockAuditPayloadGenerationService,
+                mockPathParameterService, PathPolicy.empty(), ServerTimingPolicy.disabled(), "X-User-Id");
+        mockRequest.addHeader("X-User-Id", "configured-header-user");
+
+        configuredFilter.doFilter(mockRequest, mockResponse, mockFilterChain);
+
+        final ArgumentCaptor<FacadeContext> contextCaptor = ArgumentCaptor.forClass(FacadeContext.class);
+        verify(mockAuditPayloadGenerationService).generatePayload(eq(CONTEXT_PATH), any(String.class), eq(MEDIA_TYPE), contextCaptor.capture(), anyMap(), anyMap());
+        assertEquals("configured-header-user", contextCaptor.getValue().userId(),
+                "The caller should come from the header authz is configured with");
+    }
+
+    @Test
+    void shouldReuseCallerAndPathVariablesAlreadyInFacadeContext() throws ServletException, IOException {
+        final FacadeContext context = FacadeContext.from(mockRequest);
+        context.identify(VERIFIED_USER_ID, null);
+        context.matchedRoute("/api/v1/resource/{resourceId}", Map.of("resourceId", "123"));
+
+        auditFilter.doFilter(mockRequest, mockResponse, mockFilterChain);
+
+        final ArgumentCaptor<FacadeContext> contextCaptor = ArgumentCaptor.forClass(FacadeContext.class);
+        final ArgumentCaptor<Map<String, String>> pathParamsPayloadCaptor = argumentCaptorForMapStringString();
+        verify(mockAuditPayloadGenerationService).generatePayload(eq(CONTEXT_PATH), any(String.class), eq(MEDIA_TYPE), contextCaptor.capture(), anyMap(), pathParamsPayloadCaptor.capture());
+        assertSame(context, contextCaptor.getValue(), "The audit should read the context the earlier filter created");
+        assertEquals(VERIFIED_USER_ID, contextCaptor.getValue().userId(), "The resolved caller should be audited");
+        assertEquals(Map.of("resourceId", "123"), pathParamsPayloadCaptor.getValue(),
+                "The matched route's variables should be audited");
+        verify(mockPathParameterService, never()).getPathParameters(any());
+    }
+
     @Test
     void shouldNotFilterReturnsTrueForExcludedPaths() {
-        final MockHttpServletRequest healthRequest = new MockHttpServletRequest("GET", "/health");
-        final MockHttpServletRequest actuatorRequest = new MockHttpServletRequest("GET", "/actuator/metrics");
+        final MockHttpServletRequest healthRequest = new MockHttpServletRequest(METHOD_GET, "/health");
+        final MockHttpServletRequest actuatorRequest = new MockHttpServletRequest(METHOD_GET, "/actuator/metrics");
 
         assertTrue(auditFilter.shouldNotFilter(healthRequest));
         assertTrue(auditFilter.shouldNotFilter(actuatorRequest));
@@ -176,6 +261,15 @@ class AuditFilterTest {
         assertFalse(auditFilter.shouldNotFilter(apiRequest));
     }
 
+    @Test
+    void shouldNotFilterReturnsFalseWhenExcludedNameOnlyAppearsInsidePath() {
+        final MockHttpServletRequest casesRequest = new MockHttpServletRequest(METHOD_GET, "/api/cases/health-records");
+        final MockHttpServletRequest nestedRequest = new MockHttpServletRequest(METHOD_GET, "/api/actuator-settings");
+
+        assertFalse(auditFilter.shouldNotFilter(casesRequest), "Only leading prefixes should bypass audit");
+        assertFalse(auditFilter.shouldNotFilter(nestedRequest), "Only leading prefixes should bypass audit");
+    }
+
     /**
      * Helper method to safely create a type-specific ArgumentCaptor for Map<String, String>.
      * This is the recommended way to handle generic capture with Mockito's type erasure issues.
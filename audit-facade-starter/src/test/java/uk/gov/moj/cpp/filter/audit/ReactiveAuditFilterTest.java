@@ -0,0 +1,142 @@
+package uk.gov.moj.cpp.filter.audit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import uk.gov.moj.cpp.access.path.Bypass;
+import uk.gov.moj.cpp.access.path.PathPolicy;
+import uk.gov.moj.cpp.filter.audit.model.AuditPayload;
+import uk.gov.moj.cpp.filter.audit.service.AuditPayloadGenerationService;
+import uk.gov.moj.cpp.filter.audit.service.AuditService;
+import uk.gov.moj.cpp.filter.audit.service.PathParameterService;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+class ReactiveAuditFilterTest {
+
+    private static final String CONTEXT_PATH = "test-context-path";
+    private static final String CONTEXT_PATH_WITH_LEADING_SLASH = "/" + CONTEXT_PATH;
+    private static final String REQUEST_PATH = "/api/v1/resource/123";
+    private static final String REQUEST_BODY = "{\"data\":\"test\"}";
+    private static final String RESPONSE_BODY = "{\"result\":\"success\"}";
+
+    private AuditService mockAuditService;
+    private AuditPayloadGenerationService mockAuditPayloadGenerationService;
+    private ReactiveAuditFilter auditFilter;
+
+    private final AuditPayload mockRequestAuditNode = mock(AuditPayload.class);
+    private final AuditPayload mockResponseAuditNode = mock(AuditPayload.class);
+
+    @BeforeEach
+    void setUp() {
+        mockAuditService = mock(AuditService.class);
+        mockAuditPayloadGenerationService = mock(AuditPayloadGenerationService.class);
+        final PathParameterService mockPathParameterService = mock(PathParameterService.class);
+        final PathPolicy pathPolicy = PathPolicy.builder().bypass(List.of("/health", "/actuator"), Bypass.AUDIT).build();
+        auditFilter = new ReactiveAuditFilter(mockAuditService, mockAuditPayloadGenerationService,
+                mockPathParameterService, pathPolicy, Schedulers.immediate());
+
+        when(mockPathParameterService.getPathParameters(REQUEST_PATH)).thenReturn(Map.of("pathparam1", "pathvalue1"));
+        when(mockAuditPayloadGenerationService.generatePayload(eq(CONTEXT_PATH), any(String.class), anyMap(), anyMap(), anyMap())).thenReturn(mockRequestAuditNode);
+        when(mockAuditPayloadGenerationService.generatePayload(eq(CONTEXT_PATH), any(String.class), anyMap())).thenReturn(mockResponseAuditNode);
+    }
+
+    @Test
+    void shouldAuditStreamedRequestAndResponseBodies() {
+        final MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest
+                .post(CONTEXT_PATH_WITH_LEADING_SLASH + REQUEST_PATH + "?param1=value1")
+                .contextPath(CONTEXT_PATH_WITH_LEADING_SLASH)
+                .header("Authorization", "Bearer token")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(REQUEST_BODY));
+
+        auditFilter.filter(exchange, echoChain()).block();
+
+        final ArgumentCaptor<String> requestPayload = ArgumentCaptor.forClass(String.class);
+        final ArgumentCaptor<Map<String, String>> queryParams = argumentCaptorForMapStringString();
+        final ArgumentCaptor<Map<String, String>> pathParams = argumentCaptorForMapStringString();
+        verify(mockAuditPayloadGenerationService).generatePayload(eq(CONTEXT_PATH), requestPayload.capture(), anyMap(),
+                queryParams.capture(), pathParams.capture());
+        assertEquals(REQUEST_BODY, requestPayload.getValue(), "The consumed request body should be audited");
+        assertEquals(Map.of("param1", "value1"), queryParams.getValue(), "Query parameters should be audited");
+        assertEquals(Map.of("pathparam1", "pathvalue1"), pathParams.getValue(), "Path parameters should be audited");
+
+        verify(mockAuditPayloadGenerationService).generatePayload(eq(CONTEXT_PATH), eq(RESPONSE_BODY), anyMap());
+        verify(mockAuditService).postMessageToArtemis(mockRequestAuditNode);
+        verify(mockAuditService).postMessageToArtemis(mockResponseAuditNode);
+        assertEquals(RESPONSE_BODY, exchange.getResponse().getBodyAsString().block(),
+                "The response body should still reach the client");
+    }
+
+    @Test
+    void shouldOnlyAuditRequestWhenResponseBodyIsEmpty() {
+        final MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest
+                .get(CONTEXT_PATH_WITH_LEADING_SLASH + REQUEST_PATH).contextPath(CONTEXT_PATH_WITH_LEADING_SLASH));
+        final WebFilterChain noContent = filtered -> {
+            filtered.getResponse().setStatusCode(HttpStatus.NO_CONTENT);
+            return filtered.getResponse().setComplete();
+        };
+
+        auditFilter.filter(exchange, noContent).block();
+
+        verify(mockAuditService).postMessageToArtemis(mockRequestAuditNode);
+        verify(mockAuditPayloadGenerationService, never()).generatePayload(any(String.class), any(String.class), anyMap());
+    }
+
+    @Test
+    void shouldNotAuditExcludedPaths() {
+        final MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/actuator/health"));
+
+        auditFilter.filter(exchange, filtered -> Mono.empty()).block();
+
+        verifyNoInteractions(mockAuditService);
+    }
+
+    /**
+     * Reads the request body and answers with {@value #RESPONSE_BODY} in two buffers.
+     */
+    private static WebFilterChain echoChain() {
+        return filtered -> DataBufferUtils.join(filtered.getRequest().getBody())
+                .doOnNext(DataBufferUtils::release)
+                .then(Mono.defer(() -> {
+                    final ServerHttpResponse response = filtered.getResponse();
+                    response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+                    final int half = RESPONSE_BODY.length() / 2;
+                    return response.writeWith(Flux.just(buffer(response, RESPONSE_BODY.substring(0, half)),
+                            buffer(response, RESPONSE_BODY.substring(half))));
+                }));
+    }
+
+    private static DataBuffer buffer(final ServerHttpResponse response, final String text) {
+        return response.bufferFactory().wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArgumentCaptor<Map<String, String>> argumentCaptorForMapStringString() {
+        return ArgumentCaptor.forClass(Map.class);
+    }
+}
@@ -2,6 +2,7 @@ package uk.gov.moj.cpp.filter.audit.service;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import uk.gov.moj.cpp.access.context.FacadeContext;
 import uk.gov.moj.cpp.filter.audit.JacksonConfig;
 import uk.gov.moj.cpp.filter.audit.model.AuditPayload;
 
@@ -10,6 +11,7 @@ import java.util.Map;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
 
 @SuppressWarnings("PMD.AvoidDuplicateLiterals")
 class AuditPayloadGenerationServiceTest {
@@ -108,4 +110,51 @@ class AuditPayloadGenerationServiceTest {
         assertThat(result.content().get("_metadata").get("name").asText()).isEqualTo("application/json");
         assertThat(result.content().get("_metadata").get("createdAt").asText()).isNotBlank();
     }
+
+    @Test
+    @DisplayName("Generates empty metadata from a facade context with nothing in it, like a request without headers")
+    void generatesEmptyMetadataFromEmptyFacadeContext() {
+        final FacadeContext context = FacadeContext.from(new MockHttpServletRequest("GET", "/cases/123"));
+
+        final AuditPayload result = auditPayloadGenerationService.generatePayload("test", "{\"key\":\"value\"}",
+                null, context);
+        final AuditPayload headerResult = auditPayloadGenerationService.generatePayload("test", "{\"key\":\"value\"}",
+                Map.of());
+
+        assertThat(result._metadata()).isEqualTo(headerResult._metadata());
+        assertThat(result._metadata().id()).isNull();
+        assertThat(result.content().get("_metadata")).isEqualTo(headerResult.content().get("_metadata"));
+    }
+
+    @Test
+    @DisplayName("Reads the caller from the configured user id header")
+    void readsCallerFromConfiguredUserIdHeader() {
+        final AuditPayloadGenerationService configured =
+                new AuditPayloadGenerationService(new JacksonConfig().objectMapper(), "X-User-Id");
+
+        final AuditPayload result = configured.generatePayload("test", "{\"key\":\"value\"}",
+                Map.of("X-User-Id", "user123", HEADER_ATTR_CJSCPPUID, "other-user"));
+
+        assertThat(result._metadata().context().get().user()).isEqualTo("user123");
+    }
+
+    @Test
+    @DisplayName("Generates payload from the caller and correlation id in the facade context")
+    void generatesPayloadFromFacadeContext() {
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/cases/123");
+        request.addHeader("cjscppuid", "header-user");
+        request.addHeader("cppclientcorrelationid", "corr123");
+        final FacadeContext context = FacadeContext.from(request);
+        context.identify("verified-user", null);
+
+        final AuditPayload result = auditPayloadGenerationService.generatePayload("test", "{\"key\":\"value\"}",
+                "application/json", context, Map.of(), Map.of("id", "123"));
+
+        assertThat(result._metadata().name()).isEqualTo("audit.events.audit-recorded");
+        assertThat(result._metadata().context().get().user()).isEqualTo("verified-user");
+        assertThat(result._metadata().correlation().get().client()).isEqualTo("corr123");
+        assertThat(result.content().get("id").asText()).isEqualTo("123");
+        assertThat(result.content().get("_metadata").get("name").asText()).isEqualTo("application/json");
+        assertThat(result.content().get("_metadata").get("context").get("user").asText()).isEqualTo("verified-user");
+    }
 }
@@ -12,6 +12,8 @@ import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.stereotype.Component;
 import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.deadline.DeadlineExceededException;
+import uk.gov.moj.cpp.authz.http.deadline.RequestDeadline;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -29,8 +31,12 @@ public final class DroolsAuthzEngine {
     private static final Pattern PACKAGE_PATTERN =
             Pattern.compile("^\\s*package\\s+([a-zA-Z0-9_.]+)\\s*$", Pattern.MULTILINE);
 
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
     private final HttpAuthzProperties properties;
     private volatile List<RuleAsset> ruleAssets;
+    private volatile long loadedRuleVersion;
 
     public DroolsAuthzEngine(final HttpAuthzProperties properties) {
         this.properties = properties;
@@ -84,6 +90,7 @@ public final class DroolsAuthzEngine {
             loaded.add(new RuleAsset(content, sourcePath));
         }
         loaded.sort(Comparator.comparing(asset -> asset.sourcePath));
+        this.loadedRuleVersion = fingerprint(loaded);
         this.ruleAssets = loaded;
         if (LOGGER.isInfoEnabled()) {
             final List<String> paths = loaded.stream().map(asset -> asset.sourcePath).toList();
@@ -91,6 +98,34 @@ public final class DroolsAuthzEngine {
         }
     }
 
+    /**
+     * 64-bit FNV-1a over the sorted source paths and contents, so every node running the same rules agrees.
+     */
+    private static long fingerprint(final List<RuleAsset> assets) {
+        long hash = FNV_OFFSET;
+        for (final RuleAsset asset : assets) {
+            final String combined = asset.sourcePath + '\n' + asset.content;
+            for (int i = 0; i < combined.length(); i++) {
+                hash = (hash ^ combined.charAt(i)) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return fingerprint of the currently loaded DRL sources; changes whenever the rules change
+     */
+    public long ruleVersion() {
+        try {
+            if (ruleAssets == null) {
+                loadRules();
+            }
+        } catch (final IOException exception) {
+            LOGGER.warn("Unable to load rules for their version: {}", exception.getMessage());
+        }
+        return loadedRuleVersion;
+    }
+
     private void ensureRules() throws IOException {
         if (ruleAssets == null || properties.isReloadOnEachRequest()) {
             loadRules();
@@ -98,6 +133,18 @@ public final class DroolsAuthzEngine {
     }
 
     public boolean evaluate(final Object userAndGroupProvider, final Action action) {
+        return evaluate(userAndGroupProvider, action, RequestDeadline.none());
+    }
+
+    /**
+     * As {@link #evaluate(Object, Action)}, within {@code deadline}: evaluation is not started once it has passed,
+     * and no further rules fire after it passes. An allow reached in time stands; anything else is reported as
+     * running out of time rather than as a denial.
+     *
+     * @throws DeadlineExceededException if the deadline passes before a decision is reached
+     */
+    public boolean evaluate(final Object userAndGroupProvider, final Action action, final RequestDeadline deadline) {
+        deadline.check(DeadlineExceededException.RULES);
         boolean result;
         try {
             ensureRules();
@@ -117,17 +164,27 @@ public final class DroolsAuthzEngine {
                 } else {
                     final KieSession kieSession = kieHelper.build().newKieSession();
                     try {
+                        deadline.check(DeadlineExceededException.RULES);
                         final Outcome outcome = new Outcome();
                         kieSession.setGlobal("userAndGroupProvider", userAndGroupProvider);
                         kieSession.insert(outcome);
                         kieSession.insert(action);
-                        kieSession.fireAllRules();
+                        if (deadline.isBounded()) {
+                            kieSession.fireAllRules(match -> !deadline.isExpired());
+                        } else {
+                            kieSession.fireAllRules();
+                        }
                         result = outcome.isSuccess();
+                        if (!result) {
+                            deadline.check(DeadlineExceededException.RULES);
+                        }
                     } finally {
                         kieSession.dispose();
                     }
                 }
             }
+        } catch (final DeadlineExceededException exceeded) {
+            throw exceeded;
         } catch (final Exception exception) {
             if (LOGGER.isErrorEnabled()) {
                 LOGGER.error("Drools evaluation failed; denying access", exception);
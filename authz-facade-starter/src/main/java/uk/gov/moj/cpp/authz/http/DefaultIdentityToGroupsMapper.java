@@ -1,21 +1,34 @@
 package uk.gov.moj.cpp.authz.http;
 
+import uk.gov.moj.cpp.authz.http.config.AuthzSettings;
 import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.config.LiveAuthzSettings;
 import uk.gov.moj.cpp.authz.http.dto.UserGroup;
+import uk.gov.moj.cpp.authz.http.intern.GroupSet;
 
-import java.util.LinkedHashSet;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
+/**
+ * Maps identity groups (and prosecuting-authority access) to canonical names, returned as an interned {@link GroupSet}.
+ * Aliases match regardless of case and follow the current {@link AuthzSettings}.
+ */
 public final class DefaultIdentityToGroupsMapper implements IdentityToGroupsMapper {
-    private final java.util.Map<String, String> aliases;
+    private final LiveAuthzSettings settings;
 
     public DefaultIdentityToGroupsMapper(final HttpAuthzProperties properties) {
-        this.aliases = properties.getGroupAliases();
+        this(LiveAuthzSettings.fixed(AuthzSettings.compile(properties)));
+    }
+
+    public DefaultIdentityToGroupsMapper(final LiveAuthzSettings settings) {
+        this.settings = settings;
     }
 
     @Override
     public Set<String> toGroups(final IdentityResponse identityResponse) {
-        final Set<String> groups = new LinkedHashSet<>();
+        final List<String> groups = new ArrayList<>();
+        final AuthzSettings current = settings.current();
         if (identityResponse != null && identityResponse.groups() != null) {
 
             for (final UserGroup userGroup : identityResponse.groups()) {
@@ -24,18 +37,16 @@ public final class DefaultIdentityToGroupsMapper implements IdentityToGroupsMapp
                 }
                 final String name = userGroup.groupName();
                 if (name != null && !name.isBlank()) {
-                    final String canonical = aliases.getOrDefault(name, name);
-                    groups.add(canonical);
+                    groups.add(current.canonicalGroup(name));
                 }
                 final String prosecutingAuthority = userGroup.prosecutingAuthority();
                 if (prosecutingAuthority != null && !prosecutingAuthority.isBlank()) {
-                    final String paCanonical = aliases.getOrDefault("Prosecuting Authority Access", "Prosecuting Authority Access");
-                    groups.add(paCanonical);
+                    groups.add(current.prosecutingAuthorityGroup());
                 }
 
             }
 
         }
-        return groups;
+        return GroupSet.intern(groups);
     }
 }
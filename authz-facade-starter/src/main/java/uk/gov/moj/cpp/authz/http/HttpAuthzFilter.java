@@ -3,33 +3,108 @@ package uk.gov.moj.cpp.authz.http;
 import jakarta.servlet.*;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.util.StringUtils;
-import org.springframework.web.util.UrlPathHelper;
+import uk.gov.moj.cpp.access.context.FacadeContext;
+import uk.gov.moj.cpp.access.path.Bypass;
+import uk.gov.moj.cpp.access.path.PathPolicy;
+import uk.gov.moj.cpp.access.timing.ServerTiming;
+import uk.gov.moj.cpp.access.timing.ServerTiming.Phase;
+import uk.gov.moj.cpp.access.timing.ServerTimingPolicy;
 import uk.gov.moj.cpp.authz.drools.Action;
 import uk.gov.moj.cpp.authz.drools.DroolsAuthzEngine;
 import uk.gov.moj.cpp.authz.http.RequestActionResolver.ResolvedAction;
+import uk.gov.moj.cpp.authz.http.cache.DecisionCache;
+import uk.gov.moj.cpp.authz.http.config.AuthzSettings;
 import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.config.LiveAuthzSettings;
+import uk.gov.moj.cpp.authz.http.deadline.DeadlineExceededException;
+import uk.gov.moj.cpp.authz.http.deadline.Deadlines;
+import uk.gov.moj.cpp.authz.http.deadline.RequestDeadline;
+import uk.gov.moj.cpp.authz.http.denial.Denial;
+import uk.gov.moj.cpp.authz.http.denial.DenialResponses;
 import uk.gov.moj.cpp.authz.http.providers.RequestUserAndGroupProvider;
+import uk.gov.moj.cpp.authz.http.resilience.ConcurrencyLimiter;
+import uk.gov.moj.cpp.authz.http.resilience.RateLimiter;
+import uk.gov.moj.cpp.authz.http.route.RouteIndex;
+import uk.gov.moj.cpp.authz.http.token.DecisionTokens;
 
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public final class HttpAuthzFilter implements Filter {
-    private final HttpAuthzProperties properties;
+    private static final Logger LOGGER = LoggerFactory.getLogger(HttpAuthzFilter.class);
+    private static final String BEARER_PREFIX = "Bearer ";
+    /**
+     * Request attribute holding the outcome of the first dispatch, so that async, forward and error dispatches of the
+     * same request are not authorized again.
+     */
+    public static final String DECISION_ATTRIBUTE = HttpAuthzFilter.class.getName() + ".DECISION";
+    private static final String PENDING_OUTCOME_ATTRIBUTE = HttpAuthzFilter.class.getName() + ".PENDING_OUTCOME";
+    private static final String PERMIT_ATTRIBUTE = HttpAuthzFilter.class.getName() + ".PERMIT";
+    private static final String PERMIT_LISTENER_ATTRIBUTE = HttpAuthzFilter.class.getName() + ".PERMIT_LISTENER";
+    private static final String RETRY_AFTER = "Retry-After";
+    private static final int SERVER_ERROR = 500;
     private final IdentityClient identityClient;
     private final IdentityToGroupsMapper identityToGroupsMapper;
     private final DroolsAuthzEngine droolsAuthzEngine;
+    private final DecisionCache decisionCache;
+    private final Optional<TokenIdentityVerifier> tokenVerifier;
+    private final Optional<DecisionTokens> decisionTokens;
+    private final Deadlines deadlines;
+    private final LiveAuthzSettings settings;
+    private final RouteIndex routes;
+    private final Optional<Executor> asyncExecutor;
+    private final ServerTimingPolicy serverTiming;
+    private final ConcurrencyLimiter limiter;
+    private final RateLimiter rateLimiter;
 
     public HttpAuthzFilter(final HttpAuthzProperties properties,
                            final IdentityClient identityClient,
                            final IdentityToGroupsMapper identityToGroupsMapper,
                            final DroolsAuthzEngine droolsAuthzEngine) {
-        this.properties = properties;
-        this.identityClient = identityClient;
-        this.identityToGroupsMapper = identityToGroupsMapper;
-        this.droolsAuthzEngine = droolsAuthzEngine;
+        this(builder(identityClient, identityToGroupsMapper, droolsAuthzEngine,
+                LiveAuthzSettings.fixed(AuthzSettings.compile(properties))));
+    }
+
+    private HttpAuthzFilter(final Builder builder) {
+        this.identityClient = builder.identityClient;
+        this.identityToGroupsMapper = builder.identityToGroupsMapper;
+        this.droolsAuthzEngine = builder.droolsAuthzEngine;
+        this.decisionCache = builder.cache;
+        this.tokenVerifier = builder.verifier;
+        this.decisionTokens = builder.verifier.isPresent() ? Optional.empty() : builder.tokens;
+        this.deadlines = builder.requestDeadlines;
+        this.settings = builder.settings;
+        this.routes = builder.routeIndex;
+        this.asyncExecutor = builder.executor;
+        this.serverTiming = builder.timingPolicy;
+        this.limiter = builder.limiter;
+        this.rateLimiter = builder.bucketLimiter;
+    }
+
+    /**
+     * A filter with everything optional switched off, to be switched on through the returned builder.
+     *
+     * @param settings the compiled request-time settings (path trie, header names, denials, limiter switches), read
+     *                 once per request, so a refreshed configuration applies to the next request without a restart
+     */
+    public static Builder builder(final IdentityClient identityClient,
+                                  final IdentityToGroupsMapper identityToGroupsMapper,
+                                  final DroolsAuthzEngine droolsAuthzEngine,
+                                  final LiveAuthzSettings settings) {
+        return new Builder(identityClient, identityToGroupsMapper, droolsAuthzEngine, settings);
+    }
+
+    private record Caller(String userId, Set<String> groups, boolean fromDecisionToken) {
     }
 
     @Override
@@ -37,65 +112,570 @@ public final class HttpAuthzFilter implements Filter {
                          final ServletResponse response,
                          final FilterChain filterChain) throws IOException, ServletException {
 
-        boolean invokeChain = false;
-
         final HttpServletRequest httpRequest = (HttpServletRequest) request;
         final HttpServletResponse httpResponse = (HttpServletResponse) response;
 
-        final String pathWithinApplication = new UrlPathHelper().getPathWithinApplication(httpRequest);
+        final ServerTiming timing = serverTiming.begin(httpRequest);
+        final boolean invokeChain;
+        if (httpRequest.getAttribute(DECISION_ATTRIBUTE) instanceof Boolean allowed) {
+            // a later dispatch of an already decided request; an error dispatch may be rendering our own denial
+            invokeChain = allowed || request.getDispatcherType() == DispatcherType.ERROR;
+            serverTiming.writeHeader(timing, httpResponse);
+            settleAsyncDispatch(httpRequest, httpResponse);
+        } else {
+            invokeChain = filter(httpRequest, httpResponse, timing);
+        }
 
-        boolean isExcluded = false;
-        for (final String prefix : properties.getExcludePathPrefixes()) {
-            if (pathWithinApplication.startsWith(prefix)) {
-                isExcluded = true;
-                break;
+        try {
+            if (invokeChain) {
+                filterChain.doFilter(request, response);
             }
+        } catch (final IOException | ServletException | RuntimeException | Error failure) {
+            // the response status may still read 200; the failure is what the limiter should see
+            releasePermitDropped(httpRequest);
+            throw failure;
         }
+        releasePermitWhenComplete(httpRequest, httpResponse);
+    }
+
+    private boolean filter(final HttpServletRequest httpRequest,
+                           final HttpServletResponse httpResponse,
+                           final ServerTiming timing) throws IOException {
+        boolean invokeChain = false;
+        final AuthzSettings current = settings.current();
 
-        if (isExcluded) {
+        final long pathStart = timing.start();
+        final FacadeContext context = FacadeContext.from(httpRequest, current.userIdHeader());
+        final String pathWithinApplication = context.path();
+        final PathPolicy.Decision decision = current.pathPolicy().decide(pathWithinApplication);
+        timing.record(Phase.PATH, pathStart);
+
+        if (decision.bypasses(Bypass.AUTHZ)) {
             invokeChain = true;
+            httpRequest.setAttribute(DECISION_ATTRIBUTE, true);
+            serverTiming.writeHeader(timing, httpResponse);
+        } else if (current.isConcurrencyLimited() && !decision.bypasses(Bypass.CONCURRENCY_LIMIT)
+                && !admit(httpRequest)) {
+            httpResponse.setHeader(RETRY_AFTER, current.retryAfterSeconds());
+            deny(httpRequest, httpResponse, timing, Denial.OVERLOADED);
         } else {
-            final String userId = httpRequest.getHeader(properties.getUserIdHeader());
-            if (StringUtils.hasText(userId)) {
-                final ResolvedAction resolved =
-                        RequestActionResolver.resolve(httpRequest, properties.getActionHeader(), pathWithinApplication);
-
-                if (properties.isActionRequired() && !(resolved.vendorSupplied() || resolved.headerSupplied())) {
-                    httpResponse.sendError(HttpServletResponse.SC_BAD_REQUEST,
-                            "Missing header: " + properties.getActionHeader());
+            final String credential = httpRequest.getHeader(current.credentialHeader(tokenVerifier.isPresent()));
+            if (StringUtils.hasText(credential)) {
+                final long actionStart = timing.start();
+                final ResolvedAction resolved = RequestActionResolver.resolve(httpRequest, current.actionHeader(),
+                        pathWithinApplication, routes);
+                timing.record(Phase.ACTION, actionStart);
+                if (resolved.isRoute()) {
+                    context.matchedRoute(resolved.routeTemplate(), resolved.pathVariables());
+                }
+
+                if (current.isActionRequired() && !(resolved.vendorSupplied() || resolved.headerSupplied())) {
+                    deny(httpRequest, httpResponse, timing, Denial.MISSING_ACTION);
+                } else if (tokenVerifier.isEmpty() && throttled(httpResponse, credential, resolved.name())) {
+                    deny(httpRequest, httpResponse, timing, Denial.RATE_LIMITED);
                 } else {
-                    final IdentityResponse identityResponse = identityClient.fetchIdentity(userId);
-                    final Set<String> groups = identityToGroupsMapper.toGroups(identityResponse);
-                    final AuthzPrincipal principal =
-                            new AuthzPrincipal(identityResponse.userId(), null, null, null, groups);
-                    httpRequest.setAttribute(AuthzPrincipal.class.getName(), principal);
-
-                    final Map<String, Object> attributes = new HashMap<>();
-                    attributes.put("method", httpRequest.getMethod());
-                    attributes.put("path", pathWithinApplication);
-
-                    final Action action = new Action(resolved.name(), attributes);
-                    final RequestUserAndGroupProvider perRequestProvider =
-                            new RequestUserAndGroupProvider(principal);
-
-                    final boolean allowed = droolsAuthzEngine.evaluate(perRequestProvider, action);
-                    if (allowed) {
-                        invokeChain = true;
+                    final Authorization authorization = new Authorization(httpRequest.getMethod(), credential,
+                            decisionTokens.flatMap(tokens -> tokens.verify(httpRequest, credential)), resolved,
+                            pathWithinApplication, deadlines.resolve(httpRequest, pathWithinApplication), timing);
+                    if (asyncExecutor.isPresent() && httpRequest.isAsyncSupported()) {
+                        authorizeAsynchronously(httpRequest, httpResponse, authorization, asyncExecutor.get());
                     } else {
-                        httpResponse.sendError(HttpServletResponse.SC_FORBIDDEN, "Access denied");
+                        final Outcome outcome = authorize(authorization);
+                        apply(outcome, httpRequest, httpResponse);
+                        invokeChain = outcome.denial().isEmpty();
+                        httpRequest.setAttribute(DECISION_ATTRIBUTE, invokeChain);
+                        serverTiming.writeHeader(timing, httpResponse);
+                        if (outcome.denial().isPresent()) {
+                            denials().send(httpResponse, outcome.denial().get());
+                        }
                     }
                 }
 
             } else {
 
-                httpResponse.sendError(HttpServletResponse.SC_UNAUTHORIZED,
-                        "Missing header: " + properties.getUserIdHeader());
+                deny(httpRequest, httpResponse, timing, Denial.MISSING_CREDENTIAL);
+
+            }
+        }
+        return invokeChain;
+    }
+
+    private void deny(final HttpServletRequest httpRequest,
+                      final HttpServletResponse httpResponse,
+                      final ServerTiming timing,
+                      final Denial denial) throws IOException {
+        httpRequest.setAttribute(DECISION_ATTRIBUTE, false);
+        serverTiming.writeHeader(timing, httpResponse);
+        denials().send(httpResponse, denial);
+    }
+
+    /**
+     * Takes a token for the caller and action from each matching rate limit bucket; when one is empty, tells the
+     * caller when to retry.
+     */
+    private boolean throttled(final HttpServletResponse httpResponse, final String userId, final String action) {
+        final Optional<String> retryAfter = retryAfter(userId, action);
+        retryAfter.ifPresent(seconds -> httpResponse.setHeader(RETRY_AFTER, seconds));
+        return retryAfter.isPresent();
+    }
+
+    /**
+     * Takes a token for the caller and action from each matching rate limit bucket.
+     *
+     * @return the {@code Retry-After} seconds when a bucket is empty, empty when the request may proceed
+     */
+    private Optional<String> retryAfter(final String userId, final String action) {
+        final long waitNanos = settings.current().isRateLimited() ? rateLimiter.acquire(userId, action) : 0;
+        return waitNanos > 0
+                ? Optional.of(Long.toString(Math.max(1, Math.ceilDiv(waitNanos, TimeUnit.SECONDS.toNanos(1)))))
+                : Optional.empty();
+    }
+
+    /**
+     * Takes a permit from the limiter and keeps it on the request until the request completes.
+     */
+    private boolean admit(final HttpServletRequest httpRequest) {
+        final Optional<ConcurrencyLimiter.Permit> permit = limiter.tryAcquire();
+        permit.ifPresent(admitted -> httpRequest.setAttribute(PERMIT_ATTRIBUTE, admitted));
+        return permit.isPresent();
+    }
+
+    /**
+     * Releases the request's permit once the request is done: now, or when its async processing completes (whether
+     * started by this filter or by the application).
+     */
+    private static void releasePermitWhenComplete(final HttpServletRequest httpRequest,
+                                                  final HttpServletResponse httpResponse) {
+        if (httpRequest.getAttribute(PERMIT_ATTRIBUTE) instanceof ConcurrencyLimiter.Permit permit) {
+            if (httpRequest.isAsyncStarted()) {
+                if (httpRequest.getAttribute(PERMIT_LISTENER_ATTRIBUTE) == null) {
+                    httpRequest.setAttribute(PERMIT_LISTENER_ATTRIBUTE, Boolean.TRUE);
+                    httpRequest.getAsyncContext().addListener(new PermitReleasingListener(permit));
+                }
+            } else {
+                permit.release(httpResponse.getStatus() >= SERVER_ERROR);
+            }
+        }
+    }
+
+    private static void releasePermitDropped(final HttpServletRequest httpRequest) {
+        if (httpRequest.getAttribute(PERMIT_ATTRIBUTE) instanceof ConcurrencyLimiter.Permit permit) {
+            permit.release(true);
+        }
+    }
+
+    /**
+     * Releases a permit when the request's async processing completes or fails, following it across async cycles.
+     */
+    private static final class PermitReleasingListener implements AsyncListener {
+
+        private final ConcurrencyLimiter.Permit permit;
+
+        private PermitReleasingListener(final ConcurrencyLimiter.Permit permit) {
+            this.permit = permit;
+        }
+
+        @Override
+        public void onComplete(final AsyncEvent event) {
+            final ServletResponse response = event.getSuppliedResponse();
+            permit.release(response instanceof HttpServletResponse http && http.getStatus() >= SERVER_ERROR);
+        }
+
+        @Override
+        public void onTimeout(final AsyncEvent event) {
+            // completion follows
+        }
+
+        @Override
+        public void onError(final AsyncEvent event) {
+            permit.release(true);
+        }
+
+        @Override
+        public void onStartAsync(final AsyncEvent event) {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+
+    /**
+     * The request details one authorization works on, captured on the container thread so that authorizing never
+     * touches the request or response itself.
+     */
+    private record Authorization(String method,
+                                 String credential,
+                                 Optional<Set<String>> tokenGroups,
+                                 ResolvedAction resolved,
+                                 String pathWithinApplication,
+                                 RequestDeadline deadline,
+                                 ServerTiming timing) {
+    }
+
+    /**
+     * What one authorization decided, kept off the request until {@link #apply} puts it there on a container thread:
+     * the denial (empty when allowed), the caller's principal once resolved, a {@code Retry-After} for a throttled
+     * caller, whether to issue a decision token, and the failure of an asynchronous authorization.
+     */
+    private record Outcome(Optional<Denial> denial,
+                           Optional<AuthzPrincipal> principal,
+                           Optional<String> retryAfter,
+                           boolean issueToken,
+                           Optional<RuntimeException> failure) {
+
+        private static Outcome denied(final Denial denial) {
+            return new Outcome(Optional.of(denial), Optional.empty(), Optional.empty(), false, Optional.empty());
+        }
+
+        private static Outcome failed(final RuntimeException failure) {
+            return new Outcome(Optional.of(Denial.ACCESS_DENIED), Optional.empty(), Optional.empty(), false,
+                    Optional.of(failure));
+        }
+    }
+
+    /**
+     * Publishes the caller's principal, sets {@code Retry-After} and issues the decision token the outcome asks for.
+     */
+    private void apply(final Outcome outcome,
+                       final HttpServletRequest httpRequest,
+                       final HttpServletResponse httpResponse) {
+        outcome.retryAfter().ifPresent(seconds -> httpResponse.setHeader(RETRY_AFTER, seconds));
+        if (outcome.principal().isPresent()) {
+            final AuthzPrincipal principal = outcome.principal().get();
+            httpRequest.setAttribute(AuthzPrincipal.class.getName(), principal);
+            FacadeContext.from(httpRequest).identify(principal.userId(), principal);
+            if (outcome.issueToken()) {
+                decisionTokens.ifPresent(tokens -> tokens.issue(httpResponse, principal.userId(), principal.groups()));
+            }
+        }
+    }
+
+    /**
+     * Releases the container thread while the identity is fetched and the rules run on {@code executor}. The worker
+     * only hands its outcome over; the outcome is recorded on the request by whichever of the worker and the async
+     * timeout settles first, and acted on by the async dispatch that follows, on a container thread again.
+     */
+    private void authorizeAsynchronously(final HttpServletRequest httpRequest,
+                                         final HttpServletResponse httpResponse,
+                                         final Authorization authorization,
+                                         final Executor executor) {
+        final AsyncContext asyncContext = httpRequest.startAsync(httpRequest, httpResponse);
+        asyncContext.setTimeout(settings.current().asyncTimeoutMillis());
+        final AtomicBoolean settled = new AtomicBoolean();
+        asyncContext.addListener(new AsyncTimeoutListener(settled));
+        try {
+            executor.execute(() -> {
+                Outcome outcome;
+                try {
+                    outcome = authorize(authorization);
+                } catch (final RuntimeException failure) {
+                    outcome = Outcome.failed(failure);
+                }
+                settle(asyncContext, settled, outcome);
+            });
+        } catch (final RejectedExecutionException rejected) {
+            LOGGER.debug("Turning away {} {}: {}", authorization.method(), authorization.pathWithinApplication(),
+                    rejected.getMessage());
+            settle(asyncContext, settled, new Outcome(Optional.of(Denial.OVERLOADED), Optional.empty(),
+                    Optional.of(settings.current().retryAfterSeconds()), false, Optional.empty()));
+        }
+    }
+
+    /**
+     * Records the outcome and dispatches back to the container, unless the timeout got there first.
+     */
+    private static void settle(final AsyncContext asyncContext,
+                               final AtomicBoolean settled,
+                               final Outcome outcome) {
+        if (settled.compareAndSet(false, true)) {
+            final ServletRequest request = asyncContext.getRequest();
+            request.setAttribute(DECISION_ATTRIBUTE, outcome.denial().isEmpty());
+            request.setAttribute(PENDING_OUTCOME_ATTRIBUTE, outcome);
+            asyncContext.dispatch();
+        }
+    }
+
+    /**
+     * On the async dispatch after an asynchronous authorization, rethrows its failure or applies its outcome and sends
+     * its denial.
+     */
+    private void settleAsyncDispatch(final HttpServletRequest httpRequest,
+                                     final HttpServletResponse httpResponse) throws IOException, ServletException {
+        final Object pending = httpRequest.getAttribute(PENDING_OUTCOME_ATTRIBUTE);
+        httpRequest.removeAttribute(PENDING_OUTCOME_ATTRIBUTE);
+        if (pending instanceof Outcome outcome) {
+            if (outcome.failure().isPresent()) {
+                throw new ServletException("Asynchronous authorization failed", outcome.failure().get());
+            }
+            apply(outcome, httpRequest, httpResponse);
+            if (outcome.denial().isPresent()) {
+                denials().send(httpResponse, outcome.denial().get());
+            }
+        }
+    }
+
+    /**
+     * Answers 504 when the async timeout passes before the authorization settles.
+     */
+    private static final class AsyncTimeoutListener implements AsyncListener {
+
+        private final AtomicBoolean settled;
+
+        private AsyncTimeoutListener(final AtomicBoolean settled) {
+            this.settled = settled;
+        }
+
+        @Override
+        public void onTimeout(final AsyncEvent event) {
+            settle(event.getAsyncContext(), settled, Outcome.denied(Denial.DEADLINE_EXCEEDED));
+        }
+
+        @Override
+        public void onComplete(final AsyncEvent event) {
+            // nothing to release
+        }
+
+        @Override
+        public void onError(final AsyncEvent event) {
+            // the container reports the error itself
+        }
 
+        @Override
+        public void onStartAsync(final AsyncEvent event) {
+            // not re-registered for later async cycles
+        }
+    }
+
+    /**
+     * Decides the request within its deadline, without touching the request or response.
+     *
+     * @return the outcome to apply; its denial is empty when the request is allowed
+     */
+    private Outcome authorize(final Authorization authorization) {
+        Outcome outcome;
+        try {
+            authorization.deadline().check(DeadlineExceededException.ARRIVAL);
+            outcome = decide(authorization);
+        } catch (final DeadlineExceededException exceeded) {
+            deadlines.exceeded(exceeded.getStage());
+            LOGGER.debug("Giving up on {} {}: {}", authorization.method(), authorization.pathWithinApplication(),
+                    exceeded.getMessage());
+            outcome = Outcome.denied(Denial.DEADLINE_EXCEEDED);
+        } catch (final IdentityRejectedException rejected) {
+            LOGGER.warn("Denying {} {}: {}", authorization.method(), authorization.pathWithinApplication(),
+                    rejected.getMessage());
+            outcome = Outcome.denied(Denial.ACCESS_DENIED);
+        }
+        return outcome;
+    }
+
+    private Outcome decide(final Authorization authorization) {
+        Outcome outcome = Outcome.denied(identityDenial());
+        final ServerTiming timing = authorization.timing();
+        final long identityStart = timing.start();
+        final Optional<Caller> caller = resolveCaller(authorization);
+        timing.record(Phase.IDENTITY, identityStart);
+        final Optional<String> retryAfter = caller.isPresent() && tokenVerifier.isPresent()
+                ? retryAfter(caller.get().userId(), authorization.resolved().name())
+                : Optional.empty();
+        if (retryAfter.isPresent()) {
+            outcome = new Outcome(Optional.of(Denial.RATE_LIMITED), Optional.empty(), retryAfter, false,
+                    Optional.empty());
+        } else if (caller.isPresent()) {
+            final Set<String> groups = caller.get().groups();
+            final AuthzPrincipal principal =
+                    new AuthzPrincipal(caller.get().userId(), null, null, null, groups);
+
+            final Map<String, Object> attributes = new HashMap<>(authorization.resolved().pathVariables());
+            attributes.put("method", authorization.method());
+            attributes.put("path", authorization.pathWithinApplication());
+
+            final Action action = new Action(authorization.resolved().name(), attributes);
+            final RequestUserAndGroupProvider perRequestProvider =
+                    new RequestUserAndGroupProvider(principal);
+
+            final boolean allowed;
+            final long rulesStart = timing.start();
+            final Optional<Boolean> cachedDecision = decisionCache.get(principal.userId(), groups, action);
+            if (cachedDecision.isPresent()) {
+                allowed = cachedDecision.get();
+            } else {
+                allowed = droolsAuthzEngine.evaluate(perRequestProvider, action, authorization.deadline());
+                decisionCache.put(principal.userId(), groups, action, allowed);
             }
+            timing.record(Phase.RULES, rulesStart);
+            outcome = new Outcome(allowed ? Optional.empty() : Optional.of(Denial.ACCESS_DENIED),
+                    Optional.of(principal), Optional.empty(), allowed && !caller.get().fromDecisionToken(),
+                    Optional.empty());
+        }
+        return outcome;
+    }
+
+    /**
+     * Takes the groups from a valid decision token when there is one, otherwise resolves the identity and maps it.
+     */
+    private Optional<Caller> resolveCaller(final Authorization authorization) {
+        final Optional<Caller> caller;
+        if (authorization.tokenGroups().isPresent()) {
+            authorization.timing().identityCached(true);
+            caller = Optional.of(new Caller(authorization.credential(), authorization.tokenGroups().get(), true));
+        } else {
+            caller = resolveIdentity(authorization.credential(), authorization.deadline(), authorization.timing())
+                    .map(identity -> new Caller(identity.userId(), identityToGroupsMapper.toGroups(identity), false));
+        }
+        return caller;
+    }
+
+    private DenialResponses denials() {
+        return settings.current().denials(tokenVerifier.isPresent());
+    }
+
+    /**
+     * Why no caller could be resolved: the token did not verify (401) or the identity was unavailable (503).
+     */
+    private Denial identityDenial() {
+        return tokenVerifier.isPresent() ? Denial.INVALID_TOKEN : Denial.IDENTITY_UNAVAILABLE;
+    }
+
+    /**
+     * Verifies the token or fetches the user's identity; empty when the token is invalid or the identity unavailable.
+     */
+    private Optional<IdentityResponse> resolveIdentity(final String credential,
+                                                       final RequestDeadline deadline,
+                                                       final ServerTiming timing) {
+        final Optional<IdentityResponse> identity;
+        if (tokenVerifier.isPresent()) {
+            timing.identityCached(true);
+            identity = tokenVerifier.get().verify(stripBearer(credential));
+        } else {
+            identity = fetchIdentity(credential, deadline, timing);
+        }
+        return identity;
+    }
+
+    private static String stripBearer(final String credential) {
+        final String trimmed = credential.trim();
+        return trimmed.regionMatches(true, 0, BEARER_PREFIX, 0, BEARER_PREFIX.length())
+                ? trimmed.substring(BEARER_PREFIX.length()).trim()
+                : trimmed;
+    }
+
+    private Optional<IdentityResponse> fetchIdentity(final String userId,
+                                                     final RequestDeadline deadline,
+                                                     final ServerTiming timing) {
+        try {
+            return Optional.of(identityClient.fetchIdentity(userId, deadline, timing));
+        } catch (final IdentityUnavailableException unavailable) {
+            LOGGER.warn("Denying request for userId={}: {}", userId, unavailable.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * The filter's collaborators; all but the identity client, the mapper, the rules and the settings are optional.
+     */
+    public static final class Builder {
+
+        private final IdentityClient identityClient;
+        private final IdentityToGroupsMapper identityToGroupsMapper;
+        private final DroolsAuthzEngine droolsAuthzEngine;
+        private final LiveAuthzSettings settings;
+        private DecisionCache cache = DecisionCache.disabled();
+        private Optional<TokenIdentityVerifier> verifier = Optional.empty();
+        private Optional<DecisionTokens> tokens = Optional.empty();
+        private Deadlines requestDeadlines = Deadlines.disabled();
+        private RouteIndex routeIndex = RouteIndex.empty();
+        private Optional<Executor> executor = Optional.empty();
+        private ServerTimingPolicy timingPolicy = ServerTimingPolicy.disabled();
+        private ConcurrencyLimiter limiter = ConcurrencyLimiter.disabled();
+        private RateLimiter bucketLimiter = RateLimiter.disabled();
+
+        private Builder(final IdentityClient identityClient,
+                        final IdentityToGroupsMapper identityToGroupsMapper,
+                        final DroolsAuthzEngine droolsAuthzEngine,
+                        final LiveAuthzSettings settings) {
+            this.identityClient = identityClient;
+            this.identityToGroupsMapper = identityToGroupsMapper;
+            this.droolsAuthzEngine = droolsAuthzEngine;
+            this.settings = settings;
+        }
+
+        public Builder decisionCache(final DecisionCache decisionCache) {
+            this.cache = decisionCache;
+            return this;
+        }
+
+        /**
+         * Takes the identity from the verified token in the configured token header instead of the user id header
+         * and the identity service.
+         */
+        public Builder tokenVerifier(final TokenIdentityVerifier tokenVerifier) {
+            this.verifier = Optional.of(tokenVerifier);
+            return this;
+        }
+
+        /**
+         * Lets a valid decision token supply the caller's groups, and has an identity fetch issue a new one; ignored
+         * with a {@link #tokenVerifier(TokenIdentityVerifier) token verifier}.
+         */
+        public Builder decisionTokens(final DecisionTokens decisionTokens) {
+            this.tokens = Optional.of(decisionTokens);
+            return this;
+        }
+
+        /**
+         * Bounds the identity lookup and rule evaluation of each request; requests that run out of time get a 504.
+         */
+        public Builder deadlines(final Deadlines deadlines) {
+            this.requestDeadlines = deadlines;
+            return this;
+        }
+
+        /**
+         * Route templates naming computed actions ({@code GET /api/cases/{caseId}}); their path variables become
+         * action attributes.
+         */
+        public Builder routes(final RouteIndex routes) {
+            this.routeIndex = routes;
+            return this;
+        }
+
+        /**
+         * Authorizes requests that support async processing on {@code executor} while the container thread is
+         * released; they continue on an async dispatch.
+         */
+        public Builder asyncExecutor(final Executor asyncExecutor) {
+            this.executor = Optional.of(asyncExecutor);
+            return this;
+        }
+
+        /**
+         * Times path matching, action resolution, the identity and the rules, and decides who sees
+         * {@code Server-Timing}.
+         */
+        public Builder serverTiming(final ServerTimingPolicy serverTiming) {
+            this.timingPolicy = serverTiming;
+            return this;
+        }
+
+        /**
+         * Admits requests up to an adaptive concurrency limit, while {@code concurrency-limit.enabled}; the rest are
+         * answered 503 with {@code Retry-After} before any identity lookup.
+         */
+        public Builder concurrencyLimiter(final ConcurrencyLimiter concurrencyLimiter) {
+            this.limiter = concurrencyLimiter;
+            return this;
+        }
+
+        /**
+         * Token buckets per user and/or action, while {@code rate-limit.enabled}; a request finding one empty is
+         * answered 429 with {@code Retry-After}.
+         */
+        public Builder rateLimiter(final RateLimiter rateLimiter) {
+            this.bucketLimiter = rateLimiter;
+            return this;
         }
 
-        if (invokeChain) {
-            filterChain.doFilter(request, response);
+        public HttpAuthzFilter build() {
+            return new HttpAuthzFilter(this);
         }
     }
 }
@@ -1,48 +1,354 @@
 package uk.gov.moj.cpp.authz.http;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.RequestEntity;
 import org.springframework.http.ResponseEntity;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
+import uk.gov.moj.cpp.access.timing.ServerTiming;
+import uk.gov.moj.cpp.authz.http.IdentityMetrics.FallbackReason;
+import uk.gov.moj.cpp.authz.http.batch.BulkIdentityLookup;
+import uk.gov.moj.cpp.authz.http.batch.IdentityBatcher;
+import uk.gov.moj.cpp.authz.http.cache.IdentityCache;
+import uk.gov.moj.cpp.authz.http.cache.IdentityCache.CachedIdentity;
 import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties.IdentityFallback;
+import uk.gov.moj.cpp.authz.http.deadline.DeadlineExceededException;
+import uk.gov.moj.cpp.authz.http.deadline.DeadlineRequestFactory;
+import uk.gov.moj.cpp.authz.http.deadline.RequestDeadline;
 import uk.gov.moj.cpp.authz.http.dto.LoggedInUserPermissionsResponse;
+import uk.gov.moj.cpp.authz.http.intern.IdentityInterner;
+import uk.gov.moj.cpp.authz.http.resilience.BulkheadFullException;
+import uk.gov.moj.cpp.authz.http.resilience.IdentityBulkhead;
+import uk.gov.moj.cpp.authz.http.resilience.IdentityCircuitBreaker;
+import uk.gov.moj.cpp.authz.http.resilience.IdentityHedging;
+import uk.gov.moj.cpp.authz.http.resilience.IdentityLoadBalancer;
 
 import java.net.URI;
 import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 public final class IdentityClient {
     private static final Logger LOGGER = LoggerFactory.getLogger(IdentityClient.class);
     private final HttpAuthzProperties properties;
     private final RestTemplate restTemplate;
+    private final IdentityCircuitBreaker circuitBreaker;
+    private final IdentityBulkhead bulkhead;
+    private final IdentityHedging hedging;
+    private final IdentityLoadBalancer loadBalancer;
+    private final Optional<IdentityBatcher> batcher;
+    private final IdentityCache identityCache;
+    private final long cacheTtlMillis;
+    private final long restoredMaxAgeMillis;
+    private final boolean storeIdentities;
+    private final IdentityMetrics metrics;
+    private final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor revalidationExecutor;
 
     public IdentityClient(final HttpAuthzProperties properties) {
+        this(properties, Metrics.globalRegistry);
+    }
+
+    public IdentityClient(final HttpAuthzProperties properties, final MeterRegistry meterRegistry) {
+        this(properties, new IdentityCache(properties.getIdentityCache().getMaxEntries()), meterRegistry);
+    }
+
+    public IdentityClient(final HttpAuthzProperties properties,
+                          final IdentityCache identityCache,
+                          final MeterRegistry meterRegistry) {
+        this(properties, identityCache, meterRegistry, Optional.empty());
+    }
+
+    /**
+     * @param bulkLookup used to coalesce concurrent misses when {@code authz.http.batching.enabled} is set
+     */
+    public IdentityClient(final HttpAuthzProperties properties,
+                          final IdentityCache identityCache,
+                          final MeterRegistry meterRegistry,
+                          final Optional<BulkIdentityLookup> bulkLookup) {
+        this(properties, defaultRestTemplate(), identityCache, meterRegistry, bulkLookup);
+    }
+
+    /* default */ IdentityClient(final HttpAuthzProperties properties,
+                   final RestTemplate restTemplate,
+                   final IdentityCache identityCache,
+                   final MeterRegistry meterRegistry) {
+        this(properties, restTemplate, identityCache, meterRegistry, Optional.empty());
+    }
+
+    /* default */ IdentityClient(final HttpAuthzProperties properties,
+                   final RestTemplate restTemplate,
+                   final IdentityCache identityCache,
+                   final MeterRegistry meterRegistry,
+                   final Optional<BulkIdentityLookup> bulkLookup) {
         this.properties = properties;
-        final SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
+        this.restTemplate = restTemplate;
+        this.metrics = new IdentityMetrics(meterRegistry);
+        this.circuitBreaker = new IdentityCircuitBreaker(properties.getCircuitBreaker(), meterRegistry);
+        this.bulkhead = new IdentityBulkhead(properties.getBulkhead(), meterRegistry);
+        this.hedging = new IdentityHedging(properties.getHedging(), properties.getBulkhead(), meterRegistry);
+        this.loadBalancer = new IdentityLoadBalancer(properties.identityEndpoints(), properties.getLoadBalancing(),
+                meterRegistry);
+        this.batcher = bulkLookup.filter(lookup -> properties.getBatching().isEnabled())
+                .map(lookup -> new IdentityBatcher(properties.getBatching(), lookup, bulkhead, meterRegistry));
+        this.identityCache = identityCache;
+        this.cacheTtlMillis = properties.getIdentityCache().getTtl().toMillis();
+        final HttpAuthzProperties.Snapshot snapshot = properties.getIdentityCache().getSnapshot();
+        final HttpAuthzProperties.WarmUp warmUp = properties.getIdentityCache().getWarmUp();
+        this.restoredMaxAgeMillis = Math.max(snapshot.isEnabled() ? snapshot.getMaxAge().toMillis() : 0,
+                warmUp.isEnabled() ? warmUp.getMaxAge().toMillis() : 0);
+        this.storeIdentities = cacheTtlMillis > 0 || snapshot.isEnabled() || warmUp.isEnabled()
+                || properties.getIdentityFallback() == IdentityFallback.LAST_KNOWN;
+        this.revalidationExecutor = newRevalidationExecutor();
+    }
+
+    private static ThreadPoolExecutor newRevalidationExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(1024), runnable -> {
+                    final Thread thread = new Thread(runnable, "authz-identity-revalidate");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Timeouts are cut to the request's remaining deadline, see {@link DeadlineRequestFactory}.
+     */
+    private static RestTemplate defaultRestTemplate() {
+        final DeadlineRequestFactory factory = new DeadlineRequestFactory();
         factory.setConnectTimeout((int) Duration.ofSeconds(20).toMillis());
         factory.setReadTimeout((int) Duration.ofSeconds(21).toMillis());
-        this.restTemplate = new RestTemplate(factory);
+        return new RestTemplate(factory);
     }
 
+    /**
+     * Returns the cached identity while it is within the configured TTL, otherwise fetches it
+     * through the bulkhead and circuit breaker. Entries restored from a snapshot are served
+     * straight away and refreshed in the background.
+     *
+     * @throws IdentityUnavailableException if the identity service cannot be used and the configured
+     *                                      fallback has nothing to serve
+     * @throws IdentityRejectedException    if the identity service answered with a client error
+     */
     public IdentityResponse fetchIdentity(final String userId) {
-        final String template = properties.getIdentityUrlTemplate();
+        return fetchIdentity(userId, RequestDeadline.none());
+    }
+
+    /**
+     * As {@link #fetchIdentity(String)}, but a remote lookup only gets what is left of {@code deadline}: it is not
+     * started once the deadline has passed, its connect and read timeouts are cut to what remains, and its wait
+     * (including any hedge) is cut short when it runs out. An abandoned lookup is not served from the fallback, but
+     * counts as a failed call for the circuit breaker, and its bulkhead slot stays taken until its attempts finish.
+     *
+     * @throws DeadlineExceededException if the identity could not be obtained before the deadline
+     */
+    public IdentityResponse fetchIdentity(final String userId, final RequestDeadline deadline) {
+        return fetchIdentity(userId, deadline, ServerTiming.disabled());
+    }
+
+    /**
+     * As {@link #fetchIdentity(String, RequestDeadline)}, noting on {@code timing} whether the cache answered.
+     */
+    public IdentityResponse fetchIdentity(final String userId, final RequestDeadline deadline, final ServerTiming timing) {
+        final Optional<CachedIdentity> cached = identityCache.get(userId);
+        final long now = System.currentTimeMillis();
+        if (cached.isPresent() && cached.get().needsRevalidation() && cached.get().isFresh(now, restoredMaxAgeMillis)) {
+            metrics.cacheRestored();
+            timing.identityCached(true);
+            revalidate(userId);
+            return cached.get().identity();
+        }
+        if (cacheTtlMillis > 0) {
+            if (cached.isPresent() && cached.get().isFresh(now, cacheTtlMillis)) {
+                metrics.cacheHit();
+                timing.identityCached(true);
+                return cached.get().identity();
+            }
+            metrics.cacheMiss();
+        }
+        return load(userId, cached, deadline);
+    }
+
+    /**
+     * Refreshes a restored entry at most once concurrently per user; a failed refresh leaves the entry
+     * flagged so the next request tries again.
+     */
+    private void revalidate(final String userId) {
+        if (revalidating.add(userId)) {
+            try {
+                revalidationExecutor.execute(() -> {
+                    try {
+                        load(userId, identityCache.get(userId), RequestDeadline.none());
+                    } catch (final RuntimeException failure) {
+                        LOGGER.debug("Revalidation of restored identity failed for userId={}: {}", userId, failure.getMessage());
+                    } finally {
+                        revalidating.remove(userId);
+                    }
+                });
+            } catch (final RejectedExecutionException rejected) {
+                revalidating.remove(userId);
+            }
+        }
+    }
+
+    /**
+     * Looks the identity up remotely: through the batcher when there is nothing to revalidate, which takes one
+     * bulkhead slot per bulk call, otherwise (or when the bulk answer left the user out) individually within the
+     * bulkhead. The individual call's slot is handed back when its last attempt finishes rather than when the caller
+     * stops waiting, so abandoned calls still count against the bulkhead.
+     */
+    private IdentityResponse load(final String userId,
+                                  final Optional<CachedIdentity> cached,
+                                  final RequestDeadline deadline) {
+        deadline.check(DeadlineExceededException.IDENTITY);
+        final Optional<CachedIdentity> conditional = cached.filter(entry -> storeIdentities && entry.hasValidator());
+        final Optional<IdentityBatcher> batching = batcher.filter(identityBatcher -> conditional.isEmpty());
+        final Optional<IdentityResponse> batched = batching.isPresent()
+                ? remote(userId, deadline, () -> batching.get().fetch(userId, deadline)
+                        .map(identity -> new IdentityFetch(identity, null, null)))
+                : Optional.empty();
+        if (batched.isPresent()) {
+            return batched.get();
+        }
+        if (!bulkhead.tryAcquire()) {
+            return fallback(userId, FallbackReason.BULKHEAD_FULL, null);
+        }
+        final AtomicBoolean started = new AtomicBoolean();
+        try {
+            return remote(userId, deadline, () -> {
+                started.set(true);
+                return Optional.of(hedging.call(() -> loadBalancer.call(template ->
+                        DeadlineRequestFactory.within(deadline, () -> requestIdentity(template, userId, conditional))),
+                        deadline, bulkhead::release));
+            }).orElseThrow();
+        } finally {
+            if (!started.get()) {
+                bulkhead.release();
+            }
+        }
+    }
+
+    /**
+     * Runs {@code lookup} under the circuit breaker and caches what it finds.
+     *
+     * @return the identity or its fallback; empty only if the lookup had no answer for the user
+     */
+    private Optional<IdentityResponse> remote(final String userId,
+                                              final RequestDeadline deadline,
+                                              final Supplier<Optional<IdentityFetch>> lookup) {
+        if (!circuitBreaker.tryAcquirePermission()) {
+            return Optional.of(fallback(userId, FallbackReason.CIRCUIT_OPEN, null));
+        }
+        final long startNanos = System.nanoTime();
+        final Optional<IdentityFetch> fetch;
+        try {
+            fetch = lookup.get();
+        } catch (final DeadlineExceededException abandoned) {
+            // the service did not answer within the budget; count it like a timeout
+            circuitBreaker.onError(System.nanoTime() - startNanos);
+            throw abandoned;
+        } catch (final BulkheadFullException full) {
+            circuitBreaker.releasePermission();
+            return Optional.of(fallback(userId, FallbackReason.BULKHEAD_FULL, null));
+        } catch (final RejectedExecutionException full) {
+            circuitBreaker.releasePermission();
+            return Optional.of(fallback(userId, FallbackReason.EXECUTOR_FULL, null));
+        } catch (final HttpClientErrorException clientError) {
+            // a 4xx means the service answered; it says nothing about its health
+            circuitBreaker.onSuccess(System.nanoTime() - startNanos);
+            throw new IdentityRejectedException("Identity service rejected the lookup: "
+                    + clientError.getStatusCode().value(), clientError);
+        } catch (final RestClientException failure) {
+            circuitBreaker.onError(System.nanoTime() - startNanos);
+            if (deadline.isExpired()) {
+                // timed out on the deadline's share of the socket timeout
+                throw new DeadlineExceededException(DeadlineExceededException.IDENTITY);
+            }
+            return Optional.of(fallback(userId, FallbackReason.CALL_FAILED, failure));
+        }
+        circuitBreaker.onSuccess(System.nanoTime() - startNanos);
+        if (storeIdentities) {
+            fetch.ifPresent(found -> identityCache.put(userId, found.identity(), found.etag(), found.lastModified()));
+        }
+        return fetch.map(IdentityFetch::identity);
+    }
+
+    /**
+     * Fetches the identity from {@code template}, the endpoint chosen by the load balancer, sending
+     * {@code If-None-Match} / {@code If-Modified-Since} when a cached entry has validators. A 304 reuses the cached
+     * identity without downloading or parsing the permissions payload.
+     */
+    private IdentityFetch requestIdentity(final String template,
+                                          final String userId,
+                                          final Optional<CachedIdentity> conditional) {
         final String url = template.contains("{userId}") ? template.replace("{userId}", userId) : template;
-        final HttpHeaders headers = new HttpHeaders();
-        final IdentityResponse identityResponse ;
-        headers.add("Accept", properties.getAcceptHeader());
-        headers.add(properties.getUserIdHeader(), userId);
-        final RequestEntity<Void> request = RequestEntity.get(URI.create(url)).headers(headers).build();
-        final ResponseEntity<LoggedInUserPermissionsResponse> response = restTemplate.exchange(request, LoggedInUserPermissionsResponse.class);
-        final LoggedInUserPermissionsResponse body = response.getBody();
+        final RequestEntity.HeadersBuilder<?> builder = RequestEntity.get(URI.create(url))
+                .header(HttpHeaders.ACCEPT, properties.getAcceptHeader())
+                .header(properties.getUserIdHeader(), userId);
+        conditional.map(CachedIdentity::etag).ifPresent(builder::ifNoneMatch);
+        conditional.map(CachedIdentity::lastModified).ifPresent(value -> builder.header(HttpHeaders.IF_MODIFIED_SINCE, value));
+        final ResponseEntity<LoggedInUserPermissionsResponse> response =
+                restTemplate.exchange(builder.build(), LoggedInUserPermissionsResponse.class);
+        final String etag = response.getHeaders().getETag();
+        final String lastModified = response.getHeaders().getFirst(HttpHeaders.LAST_MODIFIED);
+        final IdentityFetch fetch;
+        if (response.getStatusCode() == HttpStatus.NOT_MODIFIED && conditional.isPresent()) {
+            metrics.revalidated(false);
+            final CachedIdentity previous = conditional.get();
+            fetch = new IdentityFetch(previous.identity(),
+                    etag == null ? previous.etag() : etag,
+                    lastModified == null ? previous.lastModified() : lastModified);
+        } else {
+            if (conditional.isPresent()) {
+                metrics.revalidated(true);
+            }
+            fetch = new IdentityFetch(toIdentity(userId, response.getBody()), etag, lastModified);
+        }
+        return fetch;
+    }
+
+    private static IdentityResponse toIdentity(final String userId, final LoggedInUserPermissionsResponse body) {
+        final IdentityResponse identityResponse;
         if (body == null) {
             LOGGER.warn("Empty identity response for userId={}", userId);
-            identityResponse = new IdentityResponse(userId, java.util.List.of(), java.util.List.of());
+            identityResponse = new IdentityResponse(userId, List.of(), List.of());
         }
         else {
-            identityResponse = new IdentityResponse(userId, body.groups(), body.permissions());
+            identityResponse = IdentityInterner.intern(new IdentityResponse(userId, body.groups(), body.permissions()));
         }
         return identityResponse;
     }
+
+    private IdentityResponse fallback(final String userId, final FallbackReason reason, final RestClientException cause) {
+        if (properties.getIdentityFallback() == IdentityFallback.LAST_KNOWN) {
+            final Optional<CachedIdentity> lastKnown = identityCache.get(userId);
+            if (lastKnown.isPresent()) {
+                metrics.fallback(reason, true);
+                LOGGER.warn("Identity service unavailable ({}); serving last known groups for userId={}", reason.tag(), userId);
+                return lastKnown.get().identity();
+            }
+        }
+        metrics.fallback(reason, false);
+        throw new IdentityUnavailableException("Identity service unavailable: " + reason.tag(), cause);
+    }
+
+    private record IdentityFetch(IdentityResponse identity, String etag, String lastModified) {
+    }
 }
@@ -0,0 +1,85 @@
+package uk.gov.moj.cpp.authz.http;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The identity clients' cache, revalidation and fallback counters, registered once so that counting a request is a
+ * field read and an increment rather than a registry lookup.
+ */
+public final class IdentityMetrics {
+
+    private static final String FALLBACK_METRIC = "authz.identity.fallback";
+    private static final String CACHE_METRIC = "authz.identity.cache";
+    private static final String REVALIDATION_METRIC = "authz.identity.revalidation";
+    private static final String RESULT_TAG = "result";
+
+    private final Counter restoredCounter;
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter notModified;
+    private final Counter modified;
+    private final Map<FallbackReason, Counter> lastKnown = new EnumMap<>(FallbackReason.class);
+    private final Map<FallbackReason, Counter> failFast = new EnumMap<>(FallbackReason.class);
+
+    /**
+     * Why the identity service was not used, as tagged on {@code authz.identity.fallback}.
+     */
+    public enum FallbackReason {
+        BULKHEAD_FULL("bulkhead-full"),
+        CIRCUIT_OPEN("circuit-open"),
+        EXECUTOR_FULL("executor-full"),
+        CALL_FAILED("call-failed");
+
+        private final String tagValue;
+
+        FallbackReason(final String tag) {
+            this.tagValue = tag;
+        }
+
+        public String tag() {
+            return tagValue;
+        }
+    }
+
+    public IdentityMetrics(final MeterRegistry meterRegistry) {
+        this.restoredCounter = meterRegistry.counter(CACHE_METRIC, RESULT_TAG, "restored");
+        this.hitCounter = meterRegistry.counter(CACHE_METRIC, RESULT_TAG, "hit");
+        this.missCounter = meterRegistry.counter(CACHE_METRIC, RESULT_TAG, "miss");
+        this.notModified = meterRegistry.counter(REVALIDATION_METRIC, RESULT_TAG, "not-modified");
+        this.modified = meterRegistry.counter(REVALIDATION_METRIC, RESULT_TAG, "modified");
+        for (final FallbackReason reason : FallbackReason.values()) {
+            lastKnown.put(reason, meterRegistry.counter(FALLBACK_METRIC, "reason", reason.tag(), "outcome", "last-known"));
+            failFast.put(reason, meterRegistry.counter(FALLBACK_METRIC, "reason", reason.tag(), "outcome", "fail-fast"));
+        }
+    }
+
+    public void cacheRestored() {
+        restoredCounter.increment();
+    }
+
+    public void cacheHit() {
+        hitCounter.increment();
+    }
+
+    public void cacheMiss() {
+        missCounter.increment();
+    }
+
+    /**
+     * @param changed the service sent a new identity rather than {@code 304 Not Modified}
+     */
+    public void revalidated(final boolean changed) {
+        (changed ? modified : notModified).increment();
+    }
+
+    /**
+     * @param servedLastKnown the last known identity was served rather than failing the request
+     */
+    public void fallback(final FallbackReason reason, final boolean servedLastKnown) {
+        (servedLastKnown ? lastKnown : failFast).get(reason).increment();
+    }
+}
@@ -0,0 +1,14 @@
+package uk.gov.moj.cpp.authz.http;
+
+/**
+ * Raised when the identity service answers a lookup with a client error (such as 404 for an unknown user), so the
+ * caller is denied rather than treated as a failure of the service.
+ */
+public class IdentityRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public IdentityRejectedException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,18 @@
+package uk.gov.moj.cpp.authz.http;
+
+/**
+ * Raised when groups for a user cannot be obtained, either because the identity service
+ * is failing or because the resilience policy refused to call it.
+ */
+public class IdentityUnavailableException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public IdentityUnavailableException(final String message) {
+        super(message);
+    }
+
+    public IdentityUnavailableException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
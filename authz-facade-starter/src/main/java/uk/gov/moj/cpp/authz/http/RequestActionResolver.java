@@ -1,24 +1,35 @@
 package uk.gov.moj.cpp.authz.http;
 
 import jakarta.servlet.http.HttpServletRequest;
+import uk.gov.moj.cpp.authz.http.route.RouteIndex;
 
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.UnaryOperator;
 
 /**
  * Resolves an "action name" for authorization with the following priority:
  * 1) Vendor media type token from Content-Type (e.g., application/vnd.sjp.delete-financial-means+json)
  * 2) Vendor media type token from Accept (first vendor match, left-to-right)
  * 3) Explicit action header (e.g., CPP-ACTION)
- * 4) Computed: "<METHOD> <PATH>"
+ * 4) Computed: "<METHOD> <ROUTE TEMPLATE>" when the path matches a known route, otherwise "<METHOD> <PATH>"
+ * <p>
+ * Media types are read by a hand-written scanner equivalent to the pattern
+ * {@code (?i)\bapplication/vnd\.([a-z0-9][a-z0-9._-]*)(?:\+[^\s;,]+)?\b}. Clients send few distinct header values,
+ * so the vendor action for each raw value is memoised (up to {@value #MAX_MEMOISED} values, then scanned each time);
+ * a repeated header resolves without allocating.
  */
 public final class RequestActionResolver {
 
     private static final String ACCEPT = "Accept";
-    private static final Pattern VND_TOKEN_PATTERN =
-            Pattern.compile("(?i)\\bapplication/vnd\\.([a-z0-9][a-z0-9._-]*)(?:\\+[^\\s;,]+)?\\b");
+    private static final String VENDOR_PREFIX = "application/vnd.";
+    private static final int MAX_MEMOISED = 1024;
+    private static final int ASCII_CASE_OFFSET = 'a' - 'A';
+    private static final ResolvedAction NO_VENDOR = new ResolvedAction("", false, false);
+    private static final ConcurrentMap<String, ResolvedAction> VENDOR_ACTIONS = new ConcurrentHashMap<>();
 
     private RequestActionResolver() {
         // utility
@@ -27,71 +38,201 @@ public final class RequestActionResolver {
     public static ResolvedAction resolve(final HttpServletRequest request,
                                          final String actionHeaderName,
                                          final String pathWithinApplication) {
+        return resolve(request, actionHeaderName, pathWithinApplication, RouteIndex.empty());
+    }
 
-        final String method = request.getMethod();
-        final String contentType = request.getContentType();
-        final String accept = request.getHeader(ACCEPT);
-        final String headerAction = actionHeaderName == null ? null : request.getHeader(actionHeaderName);
-
-        final String resolvedName;
-        boolean vendorSupplied = false;
-        boolean headerSupplied = false;
-
-        final String vendorFromContentType = extractVendorAction(contentType);
-        if (hasText(vendorFromContentType)) {
-            resolvedName = vendorFromContentType;
-            vendorSupplied = true;
-        } else {
-            final String vendorFromAccept = extractFirstVendorFromHeaderList(accept);
-            if (hasText(vendorFromAccept)) {
-                resolvedName = vendorFromAccept;
-                vendorSupplied = true;
-            } else if (hasText(headerAction)) {
-                resolvedName = headerAction;
-                headerSupplied = true;
-            } else {
-                resolvedName = method + " " + pathWithinApplication;
-            }
-        }
+    /**
+     * @param routes route templates used to name computed actions; the matched path variables are returned with
+     *               the action
+     */
+    public static ResolvedAction resolve(final HttpServletRequest request,
+                                         final String actionHeaderName,
+                                         final String pathWithinApplication,
+                                         final RouteIndex routes) {
+        return resolve(request.getMethod(), request.getContentType(), request::getHeader, actionHeaderName,
+                pathWithinApplication, routes);
+    }
 
-        return new ResolvedAction(resolvedName, vendorSupplied, headerSupplied);
+    /**
+     * Resolves from the request's parts rather than a servlet request, for the reactive filter.
+     *
+     * @param headers looks up a request header value by name; only called for the headers that are needed
+     */
+    public static ResolvedAction resolve(final String method,
+                                         final String contentType,
+                                         final UnaryOperator<String> headers,
+                                         final String actionHeaderName,
+                                         final String pathWithinApplication,
+                                         final RouteIndex routes) {
+
+        ResolvedAction resolved = vendorAction(contentType);
+        if (resolved == NO_VENDOR) {
+            resolved = vendorAction(headers.apply(ACCEPT));
+        }
+        if (resolved == NO_VENDOR) {
+            final String headerAction = actionHeaderName == null ? null : headers.apply(actionHeaderName);
+            resolved = hasText(headerAction)
+                    ? new ResolvedAction(headerAction, false, true)
+                    : computed(method, pathWithinApplication, routes);
+        }
+        return resolved;
     }
 
     public static String extractVendorAction(final String mediaTypeValue) {
+        return hasText(mediaTypeValue) ? scan(mediaTypeValue, 0, mediaTypeValue.length()) : null;
+    }
+
+    /**
+     * Splits on commas without allocating; a vendor token can never span a comma, so this finds the same token
+     * as scanning each trimmed element in turn.
+     */
+    public static String extractFirstVendorFromHeaderList(final String headerValue) {
         String result = null;
-        if (hasText(mediaTypeValue)) {
-            final Matcher matcher = VND_TOKEN_PATTERN.matcher(mediaTypeValue);
-            if (matcher.find()) {
-                final String token = matcher.group(1);
-                result = (token == null) ? result : token.toLowerCase(Locale.ROOT);
+        if (hasText(headerValue)) {
+            int from = 0;
+            while (result == null && from <= headerValue.length()) {
+                final int comma = headerValue.indexOf(',', from);
+                final int limit = comma < 0 ? headerValue.length() : comma;
+                result = scan(headerValue, from, limit);
+                from = limit + 1;
             }
         }
         return result;
     }
 
-    public static String extractFirstVendorFromHeaderList(final String headerValue) {
+    private static ResolvedAction computed(final String method, final String path, final RouteIndex routes) {
+        return routes.match(method, path)
+                .map(route -> new ResolvedAction(method + " " + route.template(), false, false, route.template(),
+                        route.variables()))
+                .orElseGet(() -> new ResolvedAction(method + " " + path, false, false));
+    }
+
+    private static ResolvedAction vendorAction(final String headerValue) {
+        ResolvedAction resolved = NO_VENDOR;
+        if (headerValue != null) {
+            resolved = VENDOR_ACTIONS.get(headerValue);
+            if (resolved == null) {
+                final String token = extractFirstVendorFromHeaderList(headerValue);
+                resolved = token == null ? NO_VENDOR : new ResolvedAction(token, true, false);
+                if (VENDOR_ACTIONS.size() < MAX_MEMOISED) {
+                    VENDOR_ACTIONS.putIfAbsent(headerValue, resolved);
+                }
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Finds the first vendor token in {@code value[from, limit)}, lower-cased, or {@code null}.
+     */
+    private static String scan(final String value, final int from, final int limit) {
         String result = null;
-        if (hasText(headerValue)) {
-            final String[] parts = headerValue.split(",");
-            for (final String raw : parts) {
-                final String candidate = raw.trim();
-                final String token = extractVendorAction(candidate);
-                if (hasText(token)) {
-                    result = token;
-                    break;
+        int start = from;
+        while (result == null && start + VENDOR_PREFIX.length() < limit) {
+            final int tokenStart = start + VENDOR_PREFIX.length();
+            if (!isWordChar(value, start - 1, from) && startsWithIgnoreCase(value, start)
+                    && isAsciiAlphanumeric(value.charAt(tokenStart))) {
+                final int tokenEnd = tokenEnd(value, tokenStart, limit);
+                if (tokenEnd > tokenStart) {
+                    result = value.substring(tokenStart, tokenEnd).toLowerCase(Locale.ROOT);
                 }
             }
+            start++;
         }
         return result;
     }
 
+    /**
+     * End of the token starting at {@code tokenStart}, reproducing the regex's backtracking: the longest run of
+     * token characters if a {@code +suffix} ending on a word boundary follows it, otherwise the longest prefix of
+     * the run that ends on a word boundary; {@code tokenStart} when there is none.
+     */
+    private static int tokenEnd(final String value, final int tokenStart, final int limit) {
+        int runEnd = tokenStart;
+        while (runEnd < limit && isTokenChar(value.charAt(runEnd))) {
+            runEnd++;
+        }
+        int tokenEnd = suffixEndsOnBoundary(value, runEnd, limit) ? runEnd : tokenStart;
+        for (int candidate = runEnd; tokenEnd == tokenStart && candidate > tokenStart; candidate--) {
+            if (isBoundary(value, candidate, limit)) {
+                tokenEnd = candidate;
+            }
+        }
+        return tokenEnd;
+    }
+
+    private static boolean suffixEndsOnBoundary(final String value, final int plus, final int limit) {
+        boolean found = false;
+        if (plus < limit && value.charAt(plus) == '+') {
+            for (int index = plus + 1; !found && index < limit && !isSuffixStop(value.charAt(index)); index++) {
+                found = isBoundary(value, index + 1, limit);
+            }
+        }
+        return found;
+    }
+
+    private static boolean startsWithIgnoreCase(final String value, final int start) {
+        boolean matches = true;
+        for (int i = 0; matches && i < VENDOR_PREFIX.length(); i++) {
+            final char character = value.charAt(start + i);
+            matches = character == VENDOR_PREFIX.charAt(i)
+                    || character >= 'A' && character <= 'Z' && character + ASCII_CASE_OFFSET == VENDOR_PREFIX.charAt(i);
+        }
+        return matches;
+    }
+
+    /**
+     * Characters outside {@code [from, limit)} count as non-word, as the separators around a list element are.
+     */
+    private static boolean isBoundary(final String value, final int position, final int limit) {
+        return isWordChar(value, position - 1, 0) != (position < limit && isWordChar(value.charAt(position)));
+    }
+
+    private static boolean isWordChar(final String value, final int index, final int from) {
+        return index >= from && isWordChar(value.charAt(index));
+    }
+
+    private static boolean isWordChar(final char character) {
+        return isAsciiAlphanumeric(character) || character == '_';
+    }
+
+    private static boolean isAsciiAlphanumeric(final char character) {
+        return character >= 'a' && character <= 'z'
+                || character >= 'A' && character <= 'Z'
+                || character >= '0' && character <= '9';
+    }
+
+    private static boolean isTokenChar(final char character) {
+        return isAsciiAlphanumeric(character) || character == '.' || character == '_' || character == '-';
+    }
+
+    private static boolean isSuffixStop(final char character) {
+        return character == ';' || character == ',' || character == ' ' || character == '\t' || character == '\n'
+                || character == '\r' || character == '\f' || character == 0x0B;
+    }
+
     private static boolean hasText(final String text) {
         return text != null && !text.isBlank();
     }
 
-    public record ResolvedAction(String name, boolean vendorSupplied, boolean headerSupplied) {
+    /**
+     * @param routeTemplate the route template the path matched; empty unless the name is a route template
+     * @param pathVariables values of the route template's path variables; empty unless the name is a route template
+     */
+    public record ResolvedAction(String name, boolean vendorSupplied, boolean headerSupplied,
+                                 String routeTemplate, Map<String, String> pathVariables) {
         public ResolvedAction {
             Objects.requireNonNull(name, "name");
+            Objects.requireNonNull(routeTemplate, "routeTemplate");
+            pathVariables = Map.copyOf(pathVariables);
+        }
+
+        public ResolvedAction(final String name, final boolean vendorSupplied, final boolean headerSupplied) {
+            this(name, vendorSupplied, headerSupplied, "", Map.of());
+        }
+
+        public boolean isRoute() {
+            return !routeTemplate.isEmpty();
         }
     }
 }
@@ -0,0 +1,18 @@
+package uk.gov.moj.cpp.authz.http;
+
+import java.util.Optional;
+
+/**
+ * Identity source for {@code authz.http.identity-source=TOKEN}: turns a signed token presented by the caller into
+ * the identity that would otherwise be fetched from the identity service.
+ */
+@SuppressWarnings("PMD.ImplicitFunctionalInterface")
+public interface TokenIdentityVerifier {
+
+    /**
+     * @param token the token without any {@code Bearer } prefix
+     * @return the identity carried by the token, or empty if it is malformed, expired, not signed by a trusted key
+     *         or issued for someone else
+     */
+    Optional<IdentityResponse> verify(String token);
+}
@@ -0,0 +1,15 @@
+package uk.gov.moj.cpp.authz.http.batch;
+
+import uk.gov.moj.cpp.authz.http.IdentityResponse;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolves the identities of several users in one call. Users missing from the result are looked up
+ * individually by {@link uk.gov.moj.cpp.authz.http.IdentityClient}.
+ */
+@SuppressWarnings("PMD.ImplicitFunctionalInterface")
+public interface BulkIdentityLookup {
+    Map<String, IdentityResponse> lookup(Set<String> userIds);
+}
@@ -0,0 +1,70 @@
+package uk.gov.moj.cpp.authz.http.batch;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+import uk.gov.moj.cpp.authz.http.IdentityResponse;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.dto.BulkPermissionsRequest;
+import uk.gov.moj.cpp.authz.http.dto.BulkPermissionsResponse;
+import uk.gov.moj.cpp.authz.http.dto.BulkPermissionsResponse.UserPermissions;
+import uk.gov.moj.cpp.authz.http.intern.IdentityInterner;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * POSTs {@code {"userIds": [...]}} to {@code authz.http.batching.bulk-url} and expects
+ * {@code {"users": [{"userId", "groups", "switchableRoles", "permissions"}, ...]}} back.
+ */
+public final class HttpBulkIdentityLookup implements BulkIdentityLookup {
+
+    private final URI bulkUri;
+    private final String acceptHeader;
+    private final RestTemplate restTemplate;
+
+    public HttpBulkIdentityLookup(final HttpAuthzProperties properties) {
+        this(properties, defaultRestTemplate());
+    }
+
+    /* default */ HttpBulkIdentityLookup(final HttpAuthzProperties properties, final RestTemplate restTemplate) {
+        this.bulkUri = URI.create(properties.getBatching().getBulkUrl());
+        this.acceptHeader = properties.getBatching().getAcceptHeader();
+        this.restTemplate = restTemplate;
+    }
+
+    private static RestTemplate defaultRestTemplate() {
+        final SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
+        factory.setConnectTimeout((int) Duration.ofSeconds(20).toMillis());
+        factory.setReadTimeout((int) Duration.ofSeconds(21).toMillis());
+        return new RestTemplate(factory);
+    }
+
+    @Override
+    public Map<String, IdentityResponse> lookup(final Set<String> userIds) {
+        final RequestEntity<BulkPermissionsRequest> request = RequestEntity.post(bulkUri)
+                .header(HttpHeaders.ACCEPT, acceptHeader)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(new BulkPermissionsRequest(List.copyOf(userIds)));
+        final BulkPermissionsResponse response = restTemplate.exchange(request, BulkPermissionsResponse.class).getBody();
+        final Map<String, IdentityResponse> identities = new HashMap<>();
+        if (response != null && response.users() != null) {
+            for (final UserPermissions user : response.users()) {
+                if (user.userId() != null && userIds.contains(user.userId())) {
+                    identities.put(user.userId(), toIdentity(user));
+                }
+            }
+        }
+        return identities;
+    }
+
+    private static IdentityResponse toIdentity(final UserPermissions user) {
+        return IdentityInterner.intern(new IdentityResponse(user.userId(), user.groups(), user.permissions()));
+    }
+}
@@ -0,0 +1,172 @@
+package uk.gov.moj.cpp.authz.http.batch;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import uk.gov.moj.cpp.authz.http.IdentityResponse;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.deadline.DeadlineExceededException;
+import uk.gov.moj.cpp.authz.http.deadline.RequestDeadline;
+import uk.gov.moj.cpp.authz.http.resilience.BulkheadFullException;
+import uk.gov.moj.cpp.authz.http.resilience.IdentityBulkhead;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Coalesces identity lookups for different users into one {@link BulkIdentityLookup} call.
+ * <p>
+ * The first lookup of a batch starts a {@code window} timer; the batch is sent when the timer fires or when it
+ * reaches {@code maxBatchSize} users, whichever is first. Concurrent lookups for the same user share one slot.
+ * <p>
+ * Each bulk call takes one {@link IdentityBulkhead} slot, however many requests wait on it, and runs on a pool of at
+ * most one thread per slot. When no slot or thread is free the batch fails with a {@link RejectedExecutionException}
+ * ({@link BulkheadFullException} for the bulkhead) so its waiters fall back.
+ */
+public final class IdentityBatcher {
+
+    private final BulkIdentityLookup bulkLookup;
+    private final IdentityBulkhead bulkhead;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService timer;
+    private final ThreadPoolExecutor dispatcher;
+    private final DistributionSummary batchSizes;
+
+    private Map<String, CompletableFuture<Optional<IdentityResponse>>> batch = new HashMap<>();
+
+    public IdentityBatcher(final HttpAuthzProperties.Batching config,
+                           final BulkIdentityLookup bulkLookup,
+                           final MeterRegistry meterRegistry) {
+        this(config, bulkLookup, new IdentityBulkhead(new HttpAuthzProperties.Bulkhead(), meterRegistry), meterRegistry);
+    }
+
+    /**
+     * @param bulkhead the identity client's bulkhead, shared with its individual lookups
+     */
+    public IdentityBatcher(final HttpAuthzProperties.Batching config,
+                           final BulkIdentityLookup bulkLookup,
+                           final IdentityBulkhead bulkhead,
+                           final MeterRegistry meterRegistry) {
+        this.bulkLookup = bulkLookup;
+        this.bulkhead = bulkhead;
+        this.windowNanos = Math.max(1, config.getWindow().toNanos());
+        this.maxBatchSize = Math.max(1, config.getMaxBatchSize());
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "authz-identity-batch-timer"));
+        this.dispatcher = new ThreadPoolExecutor(bulkhead.capacity(), bulkhead.capacity(), 30, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), runnable -> daemon(runnable, "authz-identity-batch"),
+                new ThreadPoolExecutor.AbortPolicy());
+        dispatcher.allowCoreThreadTimeOut(true);
+        this.batchSizes = DistributionSummary.builder("authz.identity.batch.size")
+                .description("Distinct users per bulk identity lookup")
+                .register(meterRegistry);
+    }
+
+    private static Thread daemon(final Runnable runnable, final String name) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Waits for the batch containing {@code userId} to be looked up.
+     *
+     * @return the identity, or empty if the bulk endpoint did not return this user
+     * @throws RuntimeException whatever the bulk lookup threw for the whole batch
+     */
+    public Optional<IdentityResponse> fetch(final String userId) {
+        return fetch(userId, RequestDeadline.none());
+    }
+
+    /**
+     * As {@link #fetch(String)}, waiting no longer than {@code deadline} allows.
+     *
+     * @throws DeadlineExceededException if the batch has not answered by the deadline
+     */
+    public Optional<IdentityResponse> fetch(final String userId, final RequestDeadline deadline) {
+        final CompletableFuture<Optional<IdentityResponse>> result;
+        Optional<Map<String, CompletableFuture<Optional<IdentityResponse>>>> full = Optional.empty();
+        synchronized (this) {
+            final Map<String, CompletableFuture<Optional<IdentityResponse>>> current = batch;
+            if (current.isEmpty()) {
+                timer.schedule(() -> flushIfCurrent(current), windowNanos, TimeUnit.NANOSECONDS);
+            }
+            result = current.computeIfAbsent(userId, id -> new CompletableFuture<>());
+            if (current.size() >= maxBatchSize) {
+                batch = new HashMap<>();
+                full = Optional.of(current);
+            }
+        }
+        full.ifPresent(this::dispatch);
+        try {
+            return deadline.isBounded()
+                    ? result.get(Math.max(0, deadline.remainingNanos()), TimeUnit.NANOSECONDS)
+                    : result.join();
+        } catch (final CompletionException failure) {
+            throw failure.getCause() instanceof RuntimeException runtime ? runtime : failure;
+        } catch (final ExecutionException failure) {
+            throw failure.getCause() instanceof RuntimeException runtime
+                    ? runtime
+                    : new CompletionException(failure.getCause());
+        } catch (final TimeoutException late) {
+            throw new DeadlineExceededException(DeadlineExceededException.IDENTITY);
+        } catch (final InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new DeadlineExceededException(DeadlineExceededException.IDENTITY);
+        }
+    }
+
+    @SuppressWarnings("PMD.CompareObjectsWithEquals") // identity: has this exact batch been sent already?
+    private void flushIfCurrent(final Map<String, CompletableFuture<Optional<IdentityResponse>>> scheduled) {
+        boolean due = false;
+        synchronized (this) {
+            if (batch == scheduled) {
+                batch = new HashMap<>();
+                due = true;
+            }
+        }
+        if (due) {
+            dispatch(scheduled);
+        }
+    }
+
+    private void dispatch(final Map<String, CompletableFuture<Optional<IdentityResponse>>> ready) {
+        if (bulkhead.tryAcquire()) {
+            try {
+                dispatcher.execute(() -> lookup(ready));
+            } catch (final RejectedExecutionException full) {
+                bulkhead.release();
+                fail(ready, full);
+            }
+        } else {
+            fail(ready, new BulkheadFullException());
+        }
+    }
+
+    private void lookup(final Map<String, CompletableFuture<Optional<IdentityResponse>>> ready) {
+        batchSizes.record(ready.size());
+        try {
+            final Map<String, IdentityResponse> identities = bulkLookup.lookup(ready.keySet());
+            ready.forEach((userId, waiter) -> waiter.complete(Optional.ofNullable(identities.get(userId))));
+        } catch (final RuntimeException failure) {
+            fail(ready, failure);
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    private static void fail(final Map<String, CompletableFuture<Optional<IdentityResponse>>> ready,
+                             final RuntimeException failure) {
+        ready.values().forEach(waiter -> waiter.completeExceptionally(failure));
+    }
+}
@@ -0,0 +1,103 @@
+package uk.gov.moj.cpp.authz.http.cache;
+
+import uk.gov.moj.cpp.authz.drools.Action;
+
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Short-lived cache of Drools outcomes. The key carries the caller's groups and the rule version as well as the
+ * action, so neither a refreshed identity with different groups nor reloaded rules ever reuse an older decision;
+ * entries made under earlier rules simply age out.
+ */
+public final class DecisionCache {
+
+    private final ConcurrentMap<DecisionKey, CachedDecision> entries = new ConcurrentHashMap<>();
+    private final boolean enabled;
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final LongSupplier ruleVersion;
+
+    public DecisionCache(final boolean enabled, final long ttlMillis, final int maxEntries) {
+        this(enabled, ttlMillis, maxEntries, () -> 0L);
+    }
+
+    /**
+     * @param ruleVersion current rule version, typically {@code DroolsAuthzEngine::ruleVersion}
+     */
+    public DecisionCache(final boolean enabled, final long ttlMillis, final int maxEntries,
+                         final LongSupplier ruleVersion) {
+        this.enabled = enabled;
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ruleVersion = ruleVersion;
+    }
+
+    public static DecisionCache disabled() {
+        return new DecisionCache(false, 0, 1);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Optional<Boolean> get(final String userId, final Set<String> groups, final Action action) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        final DecisionKey key = new DecisionKey(userId, groups, action, ruleVersion.getAsLong());
+        final CachedDecision cached = entries.get(key);
+        if (cached == null) {
+            return Optional.empty();
+        }
+        if (System.currentTimeMillis() - cached.storedAtMillis() >= ttlMillis) {
+            entries.remove(key, cached);
+            return Optional.empty();
+        }
+        return Optional.of(cached.allowed());
+    }
+
+    public void put(final String userId, final Set<String> groups, final Action action, final boolean allowed) {
+        if (!enabled) {
+            return;
+        }
+        final DecisionKey key = new DecisionKey(userId, groups, action, ruleVersion.getAsLong());
+        if (!entries.containsKey(key) && entries.size() >= maxEntries) {
+            evictOne();
+        }
+        entries.put(key, new CachedDecision(allowed, System.currentTimeMillis()));
+    }
+
+    /**
+     * Drops every decision made for the user; O(n) in cache size, which is fine for infrequent invalidations.
+     */
+    public void evictUser(final String userId) {
+        entries.keySet().removeIf(key -> key.userId().equals(userId));
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void evictOne() {
+        final Iterator<DecisionKey> iterator = entries.keySet().iterator();
+        if (iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private record DecisionKey(String userId, Set<String> groups, Action action, long ruleVersion) {
+    }
+
+    private record CachedDecision(boolean allowed, long storedAtMillis) {
+    }
+}
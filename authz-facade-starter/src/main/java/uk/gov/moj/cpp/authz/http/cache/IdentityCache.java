@@ -0,0 +1,125 @@
+package uk.gov.moj.cpp.authz.http.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.gov.moj.cpp.authz.http.IdentityResponse;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Bounded, thread-safe store of the last identity successfully fetched for each user.
+ * When full, an arbitrary entry is evicted to make room; this keeps writes O(1) without a global lock.
+ * <p>
+ * An optional {@link SharedIdentityTable} sits behind this near cache: misses are looked up there and promoted,
+ * and every stored or evicted identity is written through, so JVMs on the same host share their lookups.
+ * {@link IdentityStoreListener}s are told about every freshly fetched identity.
+ */
+public final class IdentityCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IdentityCache.class);
+
+    private final ConcurrentMap<String, CachedIdentity> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final Optional<SharedIdentityTable> sharedTier;
+    private final List<IdentityStoreListener> listeners = new CopyOnWriteArrayList<>();
+
+    public IdentityCache(final int maxEntries) {
+        this(maxEntries, Optional.empty());
+    }
+
+    public IdentityCache(final int maxEntries, final Optional<SharedIdentityTable> sharedTier) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.sharedTier = sharedTier;
+    }
+
+    public Optional<CachedIdentity> get(final String userId) {
+        Optional<CachedIdentity> cached = Optional.ofNullable(entries.get(userId));
+        if (cached.isEmpty() && sharedTier.isPresent()) {
+            cached = sharedTier.get().get(userId);
+            cached.ifPresent(shared -> store(userId, shared));
+        }
+        return cached;
+    }
+
+    public void put(final String userId, final IdentityResponse identity) {
+        put(userId, identity, null, null);
+    }
+
+    /**
+     * Stores an identity together with the {@code ETag} / {@code Last-Modified} validators it was served with,
+     * either of which may be null.
+     */
+    public void put(final String userId, final IdentityResponse identity, final String etag, final String lastModified) {
+        final CachedIdentity cachedIdentity = new CachedIdentity(identity, System.currentTimeMillis(), false, etag, lastModified);
+        store(userId, cachedIdentity);
+        sharedTier.ifPresent(table -> table.put(userId, cachedIdentity));
+        for (final IdentityStoreListener listener : listeners) {
+            listener.stored(userId, cachedIdentity);
+        }
+    }
+
+    public void addListener(final IdentityStoreListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Restores an entry from a previous process; it is served but flagged so the client revalidates it.
+     */
+    public void restore(final String userId, final IdentityResponse identity, final long storedAtMillis,
+                        final String etag, final String lastModified) {
+        store(userId, new CachedIdentity(identity, storedAtMillis, true, etag, lastModified));
+    }
+
+    public List<Map.Entry<String, CachedIdentity>> entryList() {
+        return List.copyOf(entries.entrySet());
+    }
+
+    public void evict(final String userId) {
+        entries.remove(userId);
+        if (sharedTier.isPresent() && !sharedTier.get().remove(userId)) {
+            LOGGER.warn("Shared identity slot for {} stayed locked; invalidated every shared entry instead", userId);
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+        sharedTier.ifPresent(SharedIdentityTable::clear);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void store(final String userId, final CachedIdentity cachedIdentity) {
+        if (!entries.containsKey(userId) && entries.size() >= maxEntries) {
+            evictOne();
+        }
+        entries.put(userId, cachedIdentity);
+    }
+
+    private void evictOne() {
+        final Iterator<String> iterator = entries.keySet().iterator();
+        if (iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    public record CachedIdentity(IdentityResponse identity, long storedAtMillis, boolean needsRevalidation,
+                                 String etag, String lastModified) {
+
+        public boolean isFresh(final long nowMillis, final long ttlMillis) {
+            return nowMillis - storedAtMillis < ttlMillis;
+        }
+
+        public boolean hasValidator() {
+            return etag != null || lastModified != null;
+        }
+    }
+}
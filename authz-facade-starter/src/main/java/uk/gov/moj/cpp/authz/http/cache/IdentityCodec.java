@@ -0,0 +1,86 @@
+package uk.gov.moj.cpp.authz.http.cache;
+
+import uk.gov.moj.cpp.authz.http.IdentityResponse;
+import uk.gov.moj.cpp.authz.http.dto.UserGroup;
+import uk.gov.moj.cpp.authz.http.dto.UserPermission;
+import uk.gov.moj.cpp.authz.http.intern.IdentityInterner;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Compact binary form of an identity shared by the snapshot file and the shared off-heap table:
+ * {@code str userId, int groupCount, (str groupId, str groupName, str prosecutingAuthority)*, int permissionCount,
+ * (str permissionId, str object, str action, str description)*} where {@code str} is an {@code int} byte length
+ * ({@code -1} for null) followed by UTF-8 bytes.
+ */
+final class IdentityCodec {
+
+    private static final int NULL_LENGTH = -1;
+
+    private IdentityCodec() {
+    }
+
+    /* default */ static void writeIdentity(final DataOutput out, final IdentityResponse identity) throws IOException {
+        writeString(out, identity.userId());
+        final List<UserGroup> groups = nonNull(identity.groups());
+        out.writeInt(groups.size());
+        for (final UserGroup group : groups) {
+            writeString(out, group.groupId());
+            writeString(out, group.groupName());
+            writeString(out, group.prosecutingAuthority());
+        }
+        final List<UserPermission> permissions = nonNull(identity.permissions());
+        out.writeInt(permissions.size());
+        for (final UserPermission permission : permissions) {
+            writeString(out, permission.permissionId());
+            writeString(out, permission.object());
+            writeString(out, permission.action());
+            writeString(out, permission.description());
+        }
+    }
+
+    /* default */ static IdentityResponse readIdentity(final DataInput input) throws IOException {
+        final String userId = readString(input);
+        final int groupCount = input.readInt();
+        final List<UserGroup> groups = new ArrayList<>(groupCount);
+        for (int i = 0; i < groupCount; i++) {
+            groups.add(new UserGroup(readString(input), readString(input), readString(input)));
+        }
+        final int permissionCount = input.readInt();
+        final List<UserPermission> permissions = new ArrayList<>(permissionCount);
+        for (int i = 0; i < permissionCount; i++) {
+            permissions.add(new UserPermission(readString(input), readString(input), readString(input), readString(input)));
+        }
+        return IdentityInterner.intern(new IdentityResponse(userId, groups, permissions));
+    }
+
+    /* default */ static void writeString(final DataOutput out, final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL_LENGTH);
+        } else {
+            final byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(utf8.length);
+            out.write(utf8);
+        }
+    }
+
+    /* default */ static String readString(final DataInput input) throws IOException {
+        final int length = input.readInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        final byte[] utf8 = new byte[length];
+        input.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private static <T> List<T> nonNull(final List<T> values) {
+        return values == null ? List.of() : values.stream().filter(Objects::nonNull).toList();
+    }
+}
@@ -0,0 +1,66 @@
+package uk.gov.moj.cpp.authz.http.cache;
+
+import jakarta.jms.JMSException;
+import jakarta.jms.Message;
+import jakarta.jms.MessageListener;
+import jakarta.jms.TextMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.gov.moj.cpp.authz.http.token.DecisionTokens;
+
+import java.util.Optional;
+
+/**
+ * Evicts cached identities and decisions, and revokes decision tokens, when another node (or the usersgroups
+ * service) announces that a user's groups have changed. The message body is the user id, or {@value #ALL_USERS} to
+ * drop everything.
+ */
+public final class IdentityInvalidationListener implements MessageListener {
+
+    public static final String ALL_USERS = "all";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IdentityInvalidationListener.class);
+
+    private final IdentityCache identityCache;
+    private final DecisionCache decisionCache;
+    private final Optional<DecisionTokens> decisionTokens;
+
+    public IdentityInvalidationListener(final IdentityCache identityCache, final DecisionCache decisionCache) {
+        this(identityCache, decisionCache, Optional.empty());
+    }
+
+    public IdentityInvalidationListener(final IdentityCache identityCache,
+                                        final DecisionCache decisionCache,
+                                        final Optional<DecisionTokens> decisionTokens) {
+        this.identityCache = identityCache;
+        this.decisionCache = decisionCache;
+        this.decisionTokens = decisionTokens;
+    }
+
+    @Override
+    public void onMessage(final Message message) {
+        try {
+            if (message instanceof TextMessage textMessage && textMessage.getText() != null) {
+                invalidate(textMessage.getText().trim());
+            } else {
+                LOGGER.warn("Ignoring identity invalidation message without a text body: {}", message);
+            }
+        } catch (final JMSException exception) {
+            LOGGER.error("Unable to read identity invalidation message", exception);
+        }
+    }
+
+    public void invalidate(final String userIdOrAll) {
+        if (ALL_USERS.equalsIgnoreCase(userIdOrAll)) {
+            decisionCache.clear();
+            identityCache.clear();
+            decisionTokens.ifPresent(DecisionTokens::revokeAll);
+            LOGGER.info("Identity invalidation: cleared all cached identities and decisions");
+        } else if (!userIdOrAll.isEmpty()) {
+            decisionCache.evictUser(userIdOrAll);
+            identityCache.evict(userIdOrAll);
+            decisionTokens.ifPresent(tokens -> tokens.revoke(userIdOrAll));
+            LOGGER.debug("Identity invalidation: evicted userId={}", userIdOrAll);
+        }
+    }
+}
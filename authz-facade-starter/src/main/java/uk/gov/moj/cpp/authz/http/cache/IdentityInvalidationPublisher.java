@@ -0,0 +1,27 @@
+package uk.gov.moj.cpp.authz.http.cache;
+
+import jakarta.jms.ConnectionFactory;
+import org.springframework.jms.core.JmsTemplate;
+
+/**
+ * Announces group changes to every node subscribed to the invalidation topic.
+ */
+public final class IdentityInvalidationPublisher {
+
+    private final JmsTemplate jmsTemplate;
+    private final String topic;
+
+    public IdentityInvalidationPublisher(final ConnectionFactory connectionFactory, final String topic) {
+        this.jmsTemplate = new JmsTemplate(connectionFactory);
+        this.jmsTemplate.setPubSubDomain(true);
+        this.topic = topic;
+    }
+
+    public void invalidateUser(final String userId) {
+        jmsTemplate.convertAndSend(topic, userId);
+    }
+
+    public void invalidateAll() {
+        jmsTemplate.convertAndSend(topic, IdentityInvalidationListener.ALL_USERS);
+    }
+}
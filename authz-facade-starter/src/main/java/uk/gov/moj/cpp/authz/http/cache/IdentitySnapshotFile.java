@@ -0,0 +1,150 @@
+package uk.gov.moj.cpp.authz.http.cache;
+
+import uk.gov.moj.cpp.authz.http.IdentityResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Compact on-disk image of the identity cache.
+ * <p>
+ * Layout (big-endian): {@code int magic, int version, int entryCount}, then per entry
+ * {@code int length, byte[length] record}, then a trailing {@code long} CRC-32 of everything before it.
+ * A record is {@code long storedAtMillis, str etag, str lastModified} followed by the identity in
+ * {@link IdentityCodec} form, where {@code str} is an {@code int} byte length ({@code -1} for null) and UTF-8 bytes.
+ * <p>
+ * Snapshots are written through a memory-mapped temporary file which is forced to disk and then atomically
+ * renamed over the previous snapshot, so a crash mid-write leaves the last complete snapshot in place.
+ * <p>
+ * The CRC only detects damage, so the file is also kept private: it is created owner-only in a directory nobody else
+ * can write to, and an existing file that another user owns or can read is refused (see {@link PrivateFiles}).
+ */
+public final class IdentitySnapshotFile {
+
+    private static final int MAGIC = 0x43505049; // "CPPI"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = Integer.BYTES * 3;
+
+    private final Path path;
+
+    public IdentitySnapshotFile(final Path path) {
+        this.path = path;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public void write(final List<SnapshotEntry> entries) throws IOException {
+        final List<byte[]> records = new ArrayList<>(entries.size());
+        long size = HEADER_BYTES + Long.BYTES;
+        for (final SnapshotEntry entry : entries) {
+            final byte[] record = encode(entry);
+            records.add(record);
+            size += Integer.BYTES + record.length;
+        }
+
+        PrivateFiles.createDirectory(path.toAbsolutePath().getParent());
+        final Path temporary = PrivateFiles.createSibling(path);
+        try {
+            try (FileChannel channel = FileChannel.open(temporary,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.putInt(MAGIC).putInt(VERSION).putInt(records.size());
+                for (final byte[] record : records) {
+                    buffer.putInt(record.length).put(record);
+                }
+                buffer.putLong(checksum(buffer, buffer.position()));
+                buffer.force();
+            }
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * @return the snapshot entries, or an empty list when there is no snapshot
+     * @throws IOException if the file exists but is truncated, corrupt or of an unknown version
+     * @throws IllegalStateException if the file exists but another user owns it or could have written it
+     */
+    public List<SnapshotEntry> read() throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return List.of();
+        }
+        PrivateFiles.checkFile(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, LinkOption.NOFOLLOW_LINKS)) {
+            final long size = channel.size();
+            if (size < HEADER_BYTES + Long.BYTES) {
+                throw new IOException("Identity snapshot is truncated: " + path);
+            }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            final int bodyEnd = (int) size - Long.BYTES;
+            if (buffer.getLong(bodyEnd) != checksum(buffer, bodyEnd)) {
+                throw new IOException("Identity snapshot checksum mismatch: " + path);
+            }
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Unrecognised identity snapshot format: " + path);
+            }
+            final int count = buffer.getInt();
+            final List<SnapshotEntry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                entries.add(decode(nextRecord(buffer)));
+            }
+            return entries;
+        } catch (final BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                       | NegativeArraySizeException malformed) {
+            throw new IOException("Identity snapshot is malformed: " + path, malformed);
+        }
+    }
+
+    private static byte[] nextRecord(final ByteBuffer buffer) {
+        final byte[] record = new byte[buffer.getInt()];
+        buffer.get(record);
+        return record;
+    }
+
+    private static long checksum(final ByteBuffer buffer, final int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(0).limit(length));
+        return crc.getValue();
+    }
+
+    private static byte[] encode(final SnapshotEntry entry) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(entry.storedAtMillis());
+            IdentityCodec.writeString(out, entry.etag());
+            IdentityCodec.writeString(out, entry.lastModified());
+            IdentityCodec.writeIdentity(out, entry.identity());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static SnapshotEntry decode(final byte[] record) throws IOException {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(record))) {
+            final long storedAtMillis = input.readLong();
+            final String etag = IdentityCodec.readString(input);
+            final String lastModified = IdentityCodec.readString(input);
+            return new SnapshotEntry(IdentityCodec.readIdentity(input), storedAtMillis, etag, lastModified);
+        }
+    }
+
+    public record SnapshotEntry(IdentityResponse identity, long storedAtMillis, String etag, String lastModified) {
+    }
+}
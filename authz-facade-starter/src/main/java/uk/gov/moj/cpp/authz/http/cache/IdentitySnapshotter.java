@@ -0,0 +1,116 @@
+package uk.gov.moj.cpp.authz.http.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import uk.gov.moj.cpp.authz.http.cache.IdentityCache.CachedIdentity;
+import uk.gov.moj.cpp.authz.http.cache.IdentitySnapshotFile.SnapshotEntry;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warms the identity cache from the last snapshot on startup and periodically writes a new one,
+ * so a restarted node answers most requests from cache instead of hitting the usersgroups service.
+ * Restored entries are flagged for revalidation; entries older than {@code maxAge} are discarded.
+ */
+public final class IdentitySnapshotter implements SmartLifecycle {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IdentitySnapshotter.class);
+
+    private final IdentityCache identityCache;
+    private final IdentitySnapshotFile snapshotFile;
+    private final Duration interval;
+    private final long maxAgeMillis;
+    private ScheduledExecutorService scheduler;
+    private volatile boolean running;
+
+    public IdentitySnapshotter(final IdentityCache identityCache,
+                               final IdentitySnapshotFile snapshotFile,
+                               final Duration interval,
+                               final Duration maxAge) {
+        this.identityCache = identityCache;
+        this.snapshotFile = snapshotFile;
+        this.interval = interval;
+        this.maxAgeMillis = maxAge.toMillis();
+    }
+
+    @Override
+    public void start() {
+        restore();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "authz-identity-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long periodMillis = Math.max(1, interval.toMillis());
+        scheduler.scheduleWithFixedDelay(this::snapshot, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        snapshot();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Starts before (and stops after) the embedded web server, so the cache is warm for the first request
+     * and the final snapshot includes everything served during graceful shutdown.
+     */
+    @Override
+    public int getPhase() {
+        return DEFAULT_PHASE - 2048;
+    }
+
+    /**
+     * @return number of entries restored into the cache
+     */
+    public int restore() {
+        int restored = 0;
+        try {
+            final long now = System.currentTimeMillis();
+            for (final SnapshotEntry entry : snapshotFile.read()) {
+                if (now - entry.storedAtMillis() < maxAgeMillis) {
+                    identityCache.restore(entry.identity().userId(), entry.identity(), entry.storedAtMillis(),
+                            entry.etag(), entry.lastModified());
+                    restored++;
+                }
+            }
+            LOGGER.info("Restored {} identities from snapshot {}", restored, snapshotFile.getPath());
+        } catch (final IOException exception) {
+            LOGGER.warn("Ignoring unreadable identity snapshot {}: {}", snapshotFile.getPath(), exception.getMessage());
+        }
+        return restored;
+    }
+
+    public void snapshot() {
+        final List<Map.Entry<String, CachedIdentity>> cached = identityCache.entryList();
+        final List<SnapshotEntry> entries = new ArrayList<>(cached.size());
+        for (final Map.Entry<String, CachedIdentity> entry : cached) {
+            final CachedIdentity cachedIdentity = entry.getValue();
+            entries.add(new SnapshotEntry(cachedIdentity.identity(), cachedIdentity.storedAtMillis(),
+                    cachedIdentity.etag(), cachedIdentity.lastModified()));
+        }
+        try {
+            snapshotFile.write(entries);
+            LOGGER.debug("Wrote {} identities to snapshot {}", entries.size(), snapshotFile.getPath());
+        } catch (final IOException exception) {
+            LOGGER.warn("Unable to write identity snapshot {}", snapshotFile.getPath(), exception);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package uk.gov.moj.cpp.authz.http.cache;
+
+import uk.gov.moj.cpp.authz.http.cache.IdentityCache.CachedIdentity;
+
+/**
+ * Told about every identity freshly fetched into an {@link IdentityCache}; restored entries are not reported.
+ */
+@SuppressWarnings("PMD.ImplicitFunctionalInterface")
+public interface IdentityStoreListener {
+
+    /**
+     * Called on the storing thread, so implementations should hand off anything slow.
+     */
+    void stored(String userId, CachedIdentity cachedIdentity);
+}
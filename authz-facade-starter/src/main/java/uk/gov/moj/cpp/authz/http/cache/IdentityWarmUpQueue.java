@@ -0,0 +1,205 @@
+package uk.gov.moj.cpp.authz.http.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.jms.BytesMessage;
+import jakarta.jms.ConnectionFactory;
+import jakarta.jms.JMSException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jms.JmsException;
+import org.springframework.jms.core.JmsTemplate;
+import uk.gov.moj.cpp.authz.http.IdentityResponse;
+import uk.gov.moj.cpp.authz.http.cache.IdentityCache.CachedIdentity;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares freshly fetched identities between nodes through an Artemis last-value queue keyed by user id, so a node
+ * joining the cluster fills its identity cache from what the others already know instead of asking the usersgroups
+ * service for every first request.
+ * <p>
+ * Every identity fetched into the cache is published in the background (dropped if the send backlog is full) as a
+ * non-persistent message that expires after {@code max-age}; the queue keeps only the latest message per user.
+ * On start, before the web server takes traffic, the queue is browsed rather than consumed, so it stays intact for
+ * the next node, for at most {@code drain-timeout}. Entries newer than what the cache holds are restored and, like
+ * snapshot entries, served while being revalidated.
+ */
+public final class IdentityWarmUpQueue implements SmartLifecycle, IdentityStoreListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IdentityWarmUpQueue.class);
+    private static final String LAST_VALUE_PROPERTY = "_AMQ_LVQ_NAME";
+    private static final String LAST_VALUE_QUEUE = "?last-value=true";
+    private static final String STORED_AT_PROPERTY = "storedAt";
+    private static final String ETAG_PROPERTY = "etag";
+    private static final String LAST_MODIFIED_PROPERTY = "lastModified";
+    private static final String METRIC = "authz.identity.warm-up";
+    private static final String OUTCOME_TAG = "outcome";
+    private static final int SEND_BACKLOG = 1024;
+
+    private final IdentityCache identityCache;
+    private final JmsTemplate jmsTemplate;
+    private final String destination;
+    private final long maxAgeMillis;
+    private final long drainTimeoutMillis;
+    private final Counter restoredCounter;
+    private final Counter publishedCounter;
+    private final Counter droppedCounter;
+    private final ThreadPoolExecutor sender;
+    private volatile boolean running;
+
+    public IdentityWarmUpQueue(final ConnectionFactory connectionFactory,
+                               final IdentityCache identityCache,
+                               final HttpAuthzProperties.WarmUp config,
+                               final MeterRegistry meterRegistry) {
+        this.identityCache = identityCache;
+        this.destination = config.getQueue() + LAST_VALUE_QUEUE;
+        this.maxAgeMillis = config.getMaxAge().toMillis();
+        this.drainTimeoutMillis = config.getDrainTimeout().toMillis();
+        this.jmsTemplate = new JmsTemplate(connectionFactory);
+        this.jmsTemplate.setExplicitQosEnabled(true);
+        this.jmsTemplate.setDeliveryPersistent(false);
+        this.jmsTemplate.setTimeToLive(maxAgeMillis);
+        this.restoredCounter = Counter.builder(METRIC).tag(OUTCOME_TAG, "restored")
+                .description("Identities restored from the warm-up queue on startup")
+                .register(meterRegistry);
+        this.publishedCounter = Counter.builder(METRIC).tag(OUTCOME_TAG, "published")
+                .description("Fetched identities published to the warm-up queue")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder(METRIC).tag(OUTCOME_TAG, "dropped")
+                .description("Fetched identities not published because the backlog was full or the send failed")
+                .register(meterRegistry);
+        this.sender = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(SEND_BACKLOG),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, "authz-identity-warm-up");
+                    thread.setDaemon(true);
+                    return thread;
+                }, (runnable, executor) -> droppedCounter.increment());
+        this.sender.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void start() {
+        drain();
+        identityCache.addListener(this);
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        sender.shutdown();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Starts before the embedded web server, so the node only becomes ready once its cache is warm.
+     */
+    @Override
+    public int getPhase() {
+        return DEFAULT_PHASE - 2048;
+    }
+
+    /**
+     * @return number of identities restored into the cache
+     */
+    public int drain() {
+        final long deadline = System.currentTimeMillis() + drainTimeoutMillis;
+        int restored = 0;
+        try {
+            final Integer browsed = jmsTemplate.browse(destination,
+                    (session, browser) -> restoreAll(browser.getEnumeration(), deadline));
+            restored = browsed == null ? 0 : browsed;
+            LOGGER.info("Restored {} identities from warm-up queue {}", restored, destination);
+        } catch (final JmsException exception) {
+            LOGGER.warn("Identity warm-up queue {} unavailable; starting cold: {}", destination, exception.getMessage());
+        }
+        return restored;
+    }
+
+    @Override
+    public void stored(final String userId, final CachedIdentity cachedIdentity) {
+        if (running) {
+            sender.execute(() -> publish(userId, cachedIdentity));
+        }
+    }
+
+    private int restoreAll(final Enumeration<?> messages, final long deadline) throws JMSException {
+        int restored = 0;
+        while (messages.hasMoreElements() && System.currentTimeMillis() < deadline) {
+            if (messages.nextElement() instanceof BytesMessage message && restore(message)) {
+                restored++;
+            }
+        }
+        restoredCounter.increment(restored);
+        return restored;
+    }
+
+    private boolean restore(final BytesMessage message) throws JMSException {
+        final long storedAtMillis = message.getLongProperty(STORED_AT_PROPERTY);
+        boolean restored = false;
+        if (System.currentTimeMillis() - storedAtMillis < maxAgeMillis) {
+            final byte[] body = new byte[(int) message.getBodyLength()];
+            message.readBytes(body);
+            try {
+                final IdentityResponse identity =
+                        IdentityCodec.readIdentity(new DataInputStream(new ByteArrayInputStream(body)));
+                final Optional<CachedIdentity> existing = identityCache.get(identity.userId());
+                if (existing.isEmpty() || existing.get().storedAtMillis() < storedAtMillis) {
+                    identityCache.restore(identity.userId(), identity, storedAtMillis,
+                            message.getStringProperty(ETAG_PROPERTY), message.getStringProperty(LAST_MODIFIED_PROPERTY));
+                    restored = true;
+                }
+            } catch (final IOException malformed) {
+                LOGGER.warn("Skipping unreadable warm-up message {}: {}", message.getJMSMessageID(), malformed.getMessage());
+            }
+        }
+        return restored;
+    }
+
+    private void publish(final String userId, final CachedIdentity cachedIdentity) {
+        try {
+            final byte[] body = encode(cachedIdentity.identity());
+            jmsTemplate.send(destination, session -> {
+                final BytesMessage message = session.createBytesMessage();
+                message.writeBytes(body);
+                message.setStringProperty(LAST_VALUE_PROPERTY, userId);
+                message.setLongProperty(STORED_AT_PROPERTY, cachedIdentity.storedAtMillis());
+                if (cachedIdentity.etag() != null) {
+                    message.setStringProperty(ETAG_PROPERTY, cachedIdentity.etag());
+                }
+                if (cachedIdentity.lastModified() != null) {
+                    message.setStringProperty(LAST_MODIFIED_PROPERTY, cachedIdentity.lastModified());
+                }
+                return message;
+            });
+            publishedCounter.increment();
+        } catch (final IOException | JmsException exception) {
+            droppedCounter.increment();
+            LOGGER.debug("Unable to publish identity for userId={} to the warm-up queue: {}", userId, exception.getMessage());
+        }
+    }
+
+    private static byte[] encode(final IdentityResponse identity) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            IdentityCodec.writeIdentity(out, identity);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,180 @@
+package uk.gov.moj.cpp.authz.http.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Creates and checks the files the identity cache keeps on disk. Their contents are trusted as identities and
+ * groups, so they must be owned by this process's user and unreadable by anyone else.
+ * <p>
+ * Files are created {@code rw-------} and directories {@code rwx------}. A file that already exists must be a regular
+ * file (not a link) owned by this user with no group or other permissions. Its directory must be owned by this user,
+ * or by root and not writable by others unless sticky (as {@code /tmp} and {@code /dev/shm} are), so nobody else can
+ * swap the file. Anything else is refused with an {@link IllegalStateException}, which stops the application from
+ * starting. On file systems without POSIX attributes the checks are skipped.
+ */
+public final class PrivateFiles {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PrivateFiles.class);
+
+    private static final Set<PosixFilePermission> OWNER_ONLY_FILE =
+            EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE);
+    private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY = EnumSet.of(PosixFilePermission.OWNER_READ,
+            PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE);
+    private static final Set<PosixFilePermission> SHARED = EnumSet.complementOf(
+            EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE));
+    private static final Set<PosixFilePermission> SHARED_WRITE =
+            EnumSet.of(PosixFilePermission.GROUP_WRITE, PosixFilePermission.OTHERS_WRITE);
+    private static final int STICKY_BIT = 0x200;
+    private static final String ROOT = "root";
+    private static final String UNSAFE_NAME_CHARACTERS = "[^A-Za-z0-9._-]";
+
+    private PrivateFiles() {
+        // utility
+    }
+
+    /**
+     * The default home of an application's identity cache files: {@code ${java.io.tmpdir}/authz-<user>-<application>}.
+     */
+    public static Path defaultDirectory(final String applicationName) {
+        return Path.of(System.getProperty("java.io.tmpdir"),
+                "authz-" + safeName(System.getProperty("user.name")) + "-" + safeName(applicationName));
+    }
+
+    /**
+     * Creates {@code directory} owner-only if it is missing, then checks that nobody else can replace files in it.
+     */
+    public static void createDirectory(final Path directory) throws IOException {
+        if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+            final Path parent = directory.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            try {
+                Files.createDirectory(directory, attributes(parent, OWNER_ONLY_DIRECTORY));
+            } catch (final FileAlreadyExistsException raced) {
+                LOGGER.debug("{} was created concurrently; checking it like any existing directory", raced.getFile());
+            }
+        }
+        checkDirectory(directory);
+    }
+
+    /**
+     * Creates {@code file} owner-only, or checks the existing one.
+     *
+     * @return {@code true} if the file was created by this call
+     */
+    public static boolean createFile(final Path file) throws IOException {
+        boolean created;
+        try {
+            Files.createFile(file, attributes(file.toAbsolutePath().getParent(), OWNER_ONLY_FILE));
+            created = true;
+        } catch (final FileAlreadyExistsException exists) {
+            checkFile(file);
+            created = false;
+        }
+        return created;
+    }
+
+    /**
+     * An owner-only temporary file next to {@code file}, for writing a replacement that is then renamed over it.
+     */
+    public static Path createSibling(final Path file) throws IOException {
+        final Path directory = file.toAbsolutePath().getParent();
+        return Files.createTempFile(directory, file.getFileName().toString(), ".tmp",
+                attributes(directory, OWNER_ONLY_FILE));
+    }
+
+    /**
+     * Refuses an existing {@code file} that is a link, belongs to another user or is open to group or others.
+     */
+    public static void checkFile(final Path file) throws IOException {
+        final PosixFileAttributeView view =
+                Files.getFileAttributeView(file, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+        if (view != null) {
+            final PosixFileAttributes attributes = view.readAttributes();
+            final UserPrincipal owner = attributes.owner();
+            if (!attributes.isRegularFile()) {
+                throw refused(file, "is not a regular file");
+            }
+            if (!owner.equals(currentUser(file.toAbsolutePath().getParent()))) {
+                throw refused(file, "is owned by " + owner.getName());
+            }
+            if (attributes.permissions().stream().anyMatch(SHARED::contains)) {
+                throw refused(file, "is accessible to other users ("
+                        + PosixFilePermissions.toString(attributes.permissions()) + ")");
+            }
+        }
+    }
+
+    private static void checkDirectory(final Path directory) throws IOException {
+        final PosixFileAttributeView view =
+                Files.getFileAttributeView(directory, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+        if (view != null) {
+            final PosixFileAttributes attributes = view.readAttributes();
+            final String owner = attributes.owner().getName();
+            final boolean ours = attributes.owner().equals(currentUser(directory));
+            final boolean sharedWrite = attributes.permissions().stream().anyMatch(SHARED_WRITE::contains);
+            if (!attributes.isDirectory()) {
+                throw refused(directory, "is not a directory");
+            }
+            if (!ours && !(ROOT.equals(owner) && (!sharedWrite || isSticky(directory)))) {
+                throw refused(directory, "is owned by " + owner + " and others could replace files in it");
+            }
+        }
+    }
+
+    /**
+     * This process's user, as the owner of a file it creates; user names are not reliable in containers.
+     */
+    private static UserPrincipal currentUser(final Path directory) throws IOException {
+        final Path probe = Files.createTempFile(directory, ".authz-owner", ".probe");
+        try {
+            return Files.getOwner(probe);
+        } finally {
+            Files.deleteIfExists(probe);
+        }
+    }
+
+    private static boolean isSticky(final Path directory) {
+        boolean sticky;
+        try {
+            sticky = Files.getAttribute(directory, "unix:mode") instanceof Integer mode && (mode & STICKY_BIT) != 0;
+        } catch (final IOException | UnsupportedOperationException | IllegalArgumentException unknown) {
+            sticky = false;
+        }
+        return sticky;
+    }
+
+    private static FileAttribute<?>[] attributes(final Path directory, final Set<PosixFilePermission> permissions) {
+        final boolean posix = directory != null
+                && Files.getFileAttributeView(directory, PosixFileAttributeView.class) != null;
+        return posix
+                ? new FileAttribute<?>[] {PosixFilePermissions.asFileAttribute(permissions)}
+                : new FileAttribute<?>[0];
+    }
+
+    private static String safeName(final String name) {
+        final String safe = name == null ? "" : name.replaceAll(UNSAFE_NAME_CHARACTERS, "_");
+        return safe.isEmpty() ? "default" : safe.toLowerCase(Locale.ROOT);
+    }
+
+    private static IllegalStateException refused(final Path path, final String reason) {
+        return new IllegalStateException("Refusing to use " + path + " for the identity cache: it " + reason);
+    }
+}
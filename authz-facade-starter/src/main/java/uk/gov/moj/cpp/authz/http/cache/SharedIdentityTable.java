@@ -0,0 +1,362 @@
+package uk.gov.moj.cpp.authz.http.cache;
+
+import uk.gov.moj.cpp.authz.http.IdentityResponse;
+import uk.gov.moj.cpp.authz.http.cache.IdentityCache.CachedIdentity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.OptionalInt;
+
+/**
+ * Off-heap identity tier held in a memory-mapped file that every JVM on the host maps.
+ * <p>
+ * The file is a header ({@code int magic, int version, int slotCount, int slotSize, long clearedBeforeMillis})
+ * followed by fixed-size slots
+ * forming an open-addressing table probed linearly for up to {@value #MAX_PROBES} slots. A slot is
+ * {@code int sequence, int length, long keyHash, long storedAtMillis} then {@code length} bytes of
+ * {@code int keyLength, byte[] key, str etag, str lastModified} and the identity in {@link IdentityCodec} form.
+ * <p>
+ * Every slot is a seqlock: a writer moves the sequence from even to odd with a CAS, writes, and publishes the next
+ * even value; readers copy the slot without locking and retry if the sequence moved. Entries older than the TTL read
+ * as absent and are overwritten first; when every probed slot is live the oldest is replaced. A writer that cannot
+ * take a slot lock straight away skips the write, since the on-heap cache and the identity service remain the source.
+ * <p>
+ * Invalidation must not be lost, so {@link #remove(String)} waits longer for a busy slot and, if it still cannot lock
+ * it, raises the header's {@code clearedBeforeMillis} watermark instead: every entry stored up to then reads as a miss.
+ * {@link #clear()} only raises the watermark.
+ * <p>
+ * The file is private to this user (see {@link PrivateFiles}). Opening is serialised by a lock on a sibling
+ * {@code .lock} file. A missing file, or one laid out differently, is replaced by a new file renamed over it rather
+ * than truncated, so processes that still map the old file keep working on it instead of faulting.
+ */
+public final class SharedIdentityTable {
+
+    private static final VarHandle SEQUENCE = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final VarHandle CLEARED_BEFORE =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private static final int MAGIC = 0x43505053; // "CPPS"
+    private static final int VERSION = 2;
+    private static final int CLEARED_BEFORE_OFFSET = 16;
+    private static final int HEADER_BYTES = 24;
+    private static final int LENGTH_OFFSET = 4;
+    private static final int HASH_OFFSET = 8;
+    private static final int STORED_AT_OFFSET = 16;
+    private static final int DATA_OFFSET = 24;
+    private static final int MIN_SLOT_SIZE = 64;
+    private static final int MAX_PROBES = 8;
+    private static final int MAX_ATTEMPTS = 16;
+    private static final int MAX_INVALIDATION_ATTEMPTS = 1024;
+    private static final long EMPTY_HASH = 0;
+
+    private final MappedByteBuffer buffer;
+    private final int slotCount;
+    private final int slotSize;
+    private final long ttlMillis;
+
+    /**
+     * Maps {@code path}, creating or replacing it when it is missing or laid out differently.
+     *
+     * @param slotSize bytes per slot, rounded up to a multiple of 8; identities that do not fit are not shared
+     * @throws IllegalStateException if the file or its directory could be read or replaced by another user
+     */
+    public SharedIdentityTable(final Path path, final int slotCount, final int slotSize, final Duration ttl) throws IOException {
+        this.slotCount = Math.max(MAX_PROBES, slotCount);
+        this.slotSize = Math.max(MIN_SLOT_SIZE, (slotSize + 7) & ~7);
+        this.ttlMillis = ttl.toMillis();
+        final long size = HEADER_BYTES + (long) this.slotCount * this.slotSize;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Shared identity table must be under 2 GiB; reduce slots or slot-size");
+        }
+        PrivateFiles.createDirectory(path.toAbsolutePath().getParent());
+        final Path lockFile = path.resolveSibling(path.getFileName() + ".lock");
+        PrivateFiles.createFile(lockFile);
+        try (FileChannel lockChannel = FileChannel.open(lockFile,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS);
+             FileLock ignored = lockChannel.lock()) {
+            final Optional<MappedByteBuffer> existing = Files.exists(path, LinkOption.NOFOLLOW_LINKS)
+                    ? mapIfLaidOut(path, size)
+                    : Optional.empty();
+            this.buffer = existing.isPresent() ? existing.get() : replace(path, size);
+        }
+    }
+
+    private Optional<MappedByteBuffer> mapIfLaidOut(final Path path, final long size) throws IOException {
+        PrivateFiles.checkFile(path);
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS)) {
+            return hasLayout(channel, size)
+                    ? Optional.of(channel.map(FileChannel.MapMode.READ_WRITE, 0, size))
+                    : Optional.empty();
+        }
+    }
+
+    /**
+     * Initialises a new file next to {@code path} and renames it over {@code path}.
+     */
+    private MappedByteBuffer replace(final Path path, final long size) throws IOException {
+        final Path replacement = PrivateFiles.createSibling(path);
+        try {
+            final MappedByteBuffer mapped;
+            try (FileChannel channel = FileChannel.open(replacement, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+            mapped.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, slotCount).putInt(12, slotSize);
+            mapped.force();
+            Files.move(replacement, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return mapped;
+        } finally {
+            Files.deleteIfExists(replacement);
+        }
+    }
+
+    private boolean hasLayout(final FileChannel channel, final long size) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        final boolean sized = channel.size() == size && channel.read(header, 0) == HEADER_BYTES;
+        return sized && header.getInt(0) == MAGIC && header.getInt(4) == VERSION
+                && header.getInt(8) == slotCount && header.getInt(12) == slotSize;
+    }
+
+    /**
+     * @return the freshest live entry for the user, if any process has stored one within the TTL
+     */
+    public Optional<CachedIdentity> get(final String userId) {
+        final byte[] key = userId.getBytes(StandardCharsets.UTF_8);
+        final long hash = hash(key);
+        final long now = System.currentTimeMillis();
+        final long clearedBefore = clearedBefore();
+        Optional<CachedIdentity> freshest = Optional.empty();
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            final Optional<CachedIdentity> found = read(slotOffset(hash, probe), hash, key, now, clearedBefore);
+            if (found.isPresent()
+                    && (freshest.isEmpty() || found.get().storedAtMillis() > freshest.get().storedAtMillis())) {
+                freshest = found;
+            }
+        }
+        return freshest;
+    }
+
+    /**
+     * @return {@code false} if the entry was too large for a slot, already invalidated or the chosen slot was busy
+     */
+    public boolean put(final String userId, final CachedIdentity cachedIdentity) {
+        final byte[] key = userId.getBytes(StandardCharsets.UTF_8);
+        final byte[] data = encode(key, cachedIdentity);
+        final long clearedBefore = clearedBefore();
+        boolean written = false;
+        if (data.length <= slotSize - DATA_OFFSET && cachedIdentity.storedAtMillis() > clearedBefore) {
+            final long hash = hash(key);
+            final int base = chooseSlot(hash, key, System.currentTimeMillis(), clearedBefore);
+            final OptionalInt sequence = lock(base, MAX_ATTEMPTS);
+            if (sequence.isPresent()) {
+                buffer.putInt(base + LENGTH_OFFSET, data.length)
+                        .putLong(base + HASH_OFFSET, hash)
+                        .putLong(base + STORED_AT_OFFSET, cachedIdentity.storedAtMillis())
+                        .put(base + DATA_OFFSET, data);
+                unlock(base, sequence.getAsInt());
+                written = true;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * @return {@code false} if a slot holding the user stayed locked, in which case every entry stored until now was
+     *         invalidated instead
+     */
+    public boolean remove(final String userId) {
+        final byte[] key = userId.getBytes(StandardCharsets.UTF_8);
+        final long hash = hash(key);
+        boolean removed = true;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            final int base = slotOffset(hash, probe);
+            if (buffer.getLong(base + HASH_OFFSET) == hash) {
+                removed &= clearSlot(base, key);
+            }
+        }
+        if (!removed) {
+            invalidateUpTo(System.currentTimeMillis());
+        }
+        return removed;
+    }
+
+    /**
+     * Invalidates every entry stored until now, for all processes.
+     */
+    public void clear() {
+        invalidateUpTo(System.currentTimeMillis());
+    }
+
+    private boolean clearSlot(final int base, final byte[] key) {
+        final OptionalInt sequence = lock(base, MAX_INVALIDATION_ATTEMPTS);
+        if (sequence.isPresent()) {
+            if (keyMatches(base, key)) {
+                buffer.putInt(base + LENGTH_OFFSET, 0).putLong(base + HASH_OFFSET, EMPTY_HASH);
+            }
+            unlock(base, sequence.getAsInt());
+        }
+        return sequence.isPresent();
+    }
+
+    private long clearedBefore() {
+        return (long) CLEARED_BEFORE.getAcquire(buffer, CLEARED_BEFORE_OFFSET);
+    }
+
+    /**
+     * Raises the watermark to {@code millis} unless another process already raised it further.
+     */
+    private void invalidateUpTo(final long millis) {
+        long current = clearedBefore();
+        while (current < millis && !CLEARED_BEFORE.weakCompareAndSet(buffer, CLEARED_BEFORE_OFFSET, current, millis)) {
+            current = clearedBefore();
+        }
+    }
+
+    private Optional<CachedIdentity> read(final int base, final long hash, final byte[] key, final long now,
+                                          final long clearedBefore) {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            final int before = (int) SEQUENCE.getAcquire(buffer, base);
+            if ((before & 1) == 0) {
+                final long slotHash = buffer.getLong(base + HASH_OFFSET);
+                final int length = buffer.getInt(base + LENGTH_OFFSET);
+                final long storedAt = buffer.getLong(base + STORED_AT_OFFSET);
+                final boolean candidate = slotHash == hash && length > 0 && length <= slotSize - DATA_OFFSET
+                        && now - storedAt < ttlMillis && storedAt > clearedBefore;
+                final byte[] data = copyData(base, candidate ? length : 0);
+                VarHandle.acquireFence();
+                if ((int) SEQUENCE.getAcquire(buffer, base) == before) {
+                    return candidate ? decode(data, key, storedAt) : Optional.empty();
+                }
+            }
+            Thread.onSpinWait();
+        }
+        return Optional.empty();
+    }
+
+    private byte[] copyData(final int base, final int length) {
+        final byte[] data = new byte[length];
+        buffer.get(base + DATA_OFFSET, data);
+        return data;
+    }
+
+    /**
+     * Prefers the slot already holding this user, then an empty, expired or invalidated slot, then the oldest probed
+     * slot.
+     */
+    private int chooseSlot(final long hash, final byte[] key, final long now, final long clearedBefore) {
+        int chosen = slotOffset(hash, 0);
+        long chosenAge = -1;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            final int base = slotOffset(hash, probe);
+            final long slotHash = buffer.getLong(base + HASH_OFFSET);
+            if (slotHash == hash && keyMatches(base, key)) {
+                return base;
+            }
+            final long storedAt = buffer.getLong(base + STORED_AT_OFFSET);
+            final long age = slotHash == EMPTY_HASH || storedAt <= clearedBefore ? Long.MAX_VALUE : now - storedAt;
+            final long rank = age >= ttlMillis ? Long.MAX_VALUE : age;
+            if (rank > chosenAge) {
+                chosen = base;
+                chosenAge = rank;
+            }
+        }
+        return chosen;
+    }
+
+    private boolean keyMatches(final int base, final byte[] key) {
+        final int keyLength = buffer.getInt(base + DATA_OFFSET);
+        return keyLength == key.length
+                && buffer.slice(base + DATA_OFFSET + Integer.BYTES, key.length).mismatch(ByteBuffer.wrap(key)) == -1;
+    }
+
+    /**
+     * Spins for the first {@value #MAX_ATTEMPTS} attempts, then yields between attempts.
+     */
+    private OptionalInt lock(final int base, final int attempts) {
+        for (int attempt = 0; attempt < attempts; attempt++) {
+            final int sequence = (int) SEQUENCE.getVolatile(buffer, base);
+            if ((sequence & 1) == 0 && SEQUENCE.compareAndSet(buffer, base, sequence, sequence + 1)) {
+                return OptionalInt.of(sequence);
+            }
+            if (attempt < MAX_ATTEMPTS) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+        return OptionalInt.empty();
+    }
+
+    private void unlock(final int base, final int lockedSequence) {
+        SEQUENCE.setRelease(buffer, base, lockedSequence + 2);
+    }
+
+    private int slotOffset(final long hash, final int probe) {
+        final int home = (int) Long.remainderUnsigned(hash, slotCount);
+        return HEADER_BYTES + (home + probe) % slotCount * slotSize;
+    }
+
+    /**
+     * 64-bit FNV-1a; never returns {@link #EMPTY_HASH}.
+     */
+    private static long hash(final byte[] key) {
+        long hash = 0xcbf29ce484222325L;
+        for (final byte value : key) {
+            hash ^= value & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash == EMPTY_HASH ? 1 : hash;
+    }
+
+    private static byte[] encode(final byte[] key, final CachedIdentity cachedIdentity) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(key.length);
+            out.write(key);
+            IdentityCodec.writeString(out, cachedIdentity.etag());
+            IdentityCodec.writeString(out, cachedIdentity.lastModified());
+            IdentityCodec.writeIdentity(out, cachedIdentity.identity());
+        } catch (final IOException impossible) {
+            throw new IllegalStateException("In-memory stream failed", impossible);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Optional<CachedIdentity> decode(final byte[] data, final byte[] key, final long storedAt) {
+        Optional<CachedIdentity> decoded = Optional.empty();
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(data))) {
+            final int keyLength = input.readInt();
+            final byte[] storedKey = new byte[keyLength == key.length ? keyLength : 0];
+            input.readFully(storedKey);
+            if (keyLength == key.length && Arrays.equals(storedKey, key)) {
+                final String etag = IdentityCodec.readString(input);
+                final String lastModified = IdentityCodec.readString(input);
+                final IdentityResponse identity = IdentityCodec.readIdentity(input);
+                decoded = Optional.of(new CachedIdentity(identity, storedAt, false, etag, lastModified));
+            }
+        } catch (final IOException | RuntimeException malformed) {
+            // a slot written by an incompatible or crashed process reads as a miss
+            decoded = Optional.empty();
+        }
+        return decoded;
+    }
+}
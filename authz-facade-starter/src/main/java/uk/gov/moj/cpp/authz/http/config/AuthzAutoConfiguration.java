@@ -1,20 +1,75 @@
 package uk.gov.moj.cpp.authz.http.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 import jakarta.annotation.PostConstruct;
+import jakarta.jms.ConnectionFactory;
+import jakarta.servlet.DispatcherType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
 import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+import org.springframework.util.ClassUtils;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import uk.gov.moj.cpp.access.path.PathPolicy;
+import uk.gov.moj.cpp.access.path.PathPolicyContributor;
+import uk.gov.moj.cpp.access.timing.ServerTimingPolicy;
 import uk.gov.moj.cpp.authz.drools.DroolsAuthzEngine;
 import uk.gov.moj.cpp.authz.http.DefaultIdentityToGroupsMapper;
 import uk.gov.moj.cpp.authz.http.HttpAuthzFilter;
 import uk.gov.moj.cpp.authz.http.IdentityClient;
 import uk.gov.moj.cpp.authz.http.IdentityToGroupsMapper;
+import uk.gov.moj.cpp.authz.http.TokenIdentityVerifier;
+import uk.gov.moj.cpp.authz.http.batch.BulkIdentityLookup;
+import uk.gov.moj.cpp.authz.http.batch.HttpBulkIdentityLookup;
+import uk.gov.moj.cpp.authz.http.cache.DecisionCache;
+import uk.gov.moj.cpp.authz.http.cache.IdentityCache;
+import uk.gov.moj.cpp.authz.http.cache.IdentityInvalidationListener;
+import uk.gov.moj.cpp.authz.http.cache.IdentityInvalidationPublisher;
+import uk.gov.moj.cpp.authz.http.cache.IdentitySnapshotFile;
+import uk.gov.moj.cpp.authz.http.cache.IdentitySnapshotter;
+import uk.gov.moj.cpp.authz.http.cache.IdentityWarmUpQueue;
+import uk.gov.moj.cpp.authz.http.cache.PrivateFiles;
+import uk.gov.moj.cpp.authz.http.cache.SharedIdentityTable;
+import uk.gov.moj.cpp.authz.http.deadline.Deadlines;
+import uk.gov.moj.cpp.authz.http.reactive.ReactiveHttpAuthzFilter;
+import uk.gov.moj.cpp.authz.http.reactive.ReactiveIdentityClient;
+import uk.gov.moj.cpp.authz.http.reactive.ReactorNettyConnectors;
+import uk.gov.moj.cpp.authz.http.resilience.ConcurrencyLimiter;
+import uk.gov.moj.cpp.authz.http.resilience.RateLimiter;
+import uk.gov.moj.cpp.authz.http.route.OpenApiRouteLoader;
+import uk.gov.moj.cpp.authz.http.route.RouteIndex;
+import uk.gov.moj.cpp.authz.http.token.DecisionTokens;
+import uk.gov.moj.cpp.authz.http.token.JwtIdentityVerifier;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 
 @AutoConfiguration
 @EnableConfigurationProperties(HttpAuthzProperties.class)
@@ -22,6 +77,11 @@ import uk.gov.moj.cpp.authz.http.IdentityToGroupsMapper;
 public class AuthzAutoConfiguration {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AuthzAutoConfiguration.class);
+    private static final String ENABLED = "enabled";
+    private static final String TRUE = "true";
+    private static final String APPLICATION_NAME = "spring.application.name";
+    /** Published by Spring Cloud once a refresh has rebound the configuration properties. */
+    private static final String REFRESH_EVENT = "org.springframework.cloud.context.scope.refresh.RefreshScopeRefreshedEvent";
 
     private final HttpAuthzProperties properties;
 
@@ -33,7 +93,7 @@ public class AuthzAutoConfiguration {
     private void onStart() {
         if (LOGGER.isInfoEnabled()) {
             LOGGER.info(
-                    "CPP HTTP Authz starter ACTIVE -> identityUrlTemplate='{}', accept='{}', userIdHeader='{}', actionHeader='{}', drools='{}', reloadOnEachRequest={}, denyWhenNoRules={}, filterOrder={}",
+                    "CPP HTTP Authz starter ACTIVE -> identityUrlTemplate='{}', accept='{}', userIdHeader='{}', actionHeader='{}', drools='{}', reloadOnEachRequest={}, denyWhenNoRules={}, filterOrder={}, identitySource={}, identityFallback={}, circuitBreaker={}, bulkhead={}",
                     properties.getIdentityUrlTemplate(),
                     properties.getAcceptHeader(),
                     properties.getUserIdHeader(),
@@ -41,21 +101,83 @@ public class AuthzAutoConfiguration {
                     properties.getDroolsClasspathPattern(),
                     properties.isReloadOnEachRequest(),
                     properties.isDenyWhenNoRules(),
-                    properties.getFilterOrder()
+                    properties.getFilterOrder(),
+                    properties.getIdentitySource(),
+                    properties.getIdentityFallback(),
+                    properties.getCircuitBreaker().isEnabled(),
+                    properties.getBulkhead().isEnabled()
             );
         }
     }
 
     @Bean
     @ConditionalOnMissingBean
-    public IdentityClient identityClient(final HttpAuthzProperties properties) {
-        return new IdentityClient(properties);
+    public IdentityCache identityCache(final HttpAuthzProperties properties, final Environment environment) {
+        return new IdentityCache(properties.getIdentityCache().getMaxEntries(),
+                sharedIdentityTable(properties, environment));
+    }
+
+    private static Optional<SharedIdentityTable> sharedIdentityTable(final HttpAuthzProperties properties,
+                                                                     final Environment environment) {
+        final HttpAuthzProperties.Shared shared = properties.getIdentityCache().getShared();
+        Optional<SharedIdentityTable> table = Optional.empty();
+        if (shared.isEnabled()) {
+            final Path path = cacheFile(shared.getPath(), "identity-cache.shared", environment);
+            try {
+                table = Optional.of(new SharedIdentityTable(path, shared.getSlots(), shared.getSlotSize(),
+                        shared.getTtl()));
+            } catch (final IOException exception) {
+                LOGGER.warn("Shared identity cache {} unavailable; using the on-heap cache only", path, exception);
+            }
+        }
+        return table;
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public DecisionCache decisionCache(final HttpAuthzProperties properties,
+                                       final DroolsAuthzEngine droolsAuthzEngine) {
+        final HttpAuthzProperties.DecisionCache config = properties.getDecisionCache();
+        return new DecisionCache(config.isEnabled(), config.getTtl().toMillis(), config.getMaxEntries(),
+                droolsAuthzEngine::ruleVersion);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "authz.http.batching", name = "bulk-url")
+    public BulkIdentityLookup bulkIdentityLookup(final HttpAuthzProperties properties) {
+        return new HttpBulkIdentityLookup(properties);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public IdentityClient identityClient(final HttpAuthzProperties properties,
+                                         final IdentityCache identityCache,
+                                         final ObjectProvider<MeterRegistry> meterRegistry,
+                                         final ObjectProvider<BulkIdentityLookup> bulkIdentityLookup) {
+        return new IdentityClient(properties, identityCache, meterRegistry.getIfAvailable(() -> Metrics.globalRegistry),
+                Optional.ofNullable(bulkIdentityLookup.getIfAvailable()));
+    }
+
+    /**
+     * The authz settings compiled from the properties and the contributed path prefixes, compiled again on each
+     * configuration refresh.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public LiveAuthzSettings liveAuthzSettings(final HttpAuthzProperties properties,
+                                               final ObjectProvider<PathPolicyContributor> contributors) {
+        return new LiveAuthzSettings(() -> {
+            final PathPolicy.Builder builder = PathPolicy.builder();
+            contributors.orderedStream().forEach(contributor -> contributor.contribute(builder));
+            return AuthzSettings.compile(properties, builder.build());
+        });
     }
 
     @Bean
     @ConditionalOnMissingBean(IdentityToGroupsMapper.class)
-    public IdentityToGroupsMapper identityToGroupsMapper(final HttpAuthzProperties properties) {
-        return new DefaultIdentityToGroupsMapper(properties);
+    public IdentityToGroupsMapper identityToGroupsMapper(final LiveAuthzSettings liveAuthzSettings) {
+        return new DefaultIdentityToGroupsMapper(liveAuthzSettings);
     }
 
     @Bean
@@ -65,21 +187,320 @@ public class AuthzAutoConfiguration {
     }
 
     @Bean
-    public FilterRegistrationBean<HttpAuthzFilter> httpAuthzFilterRegistration(
-            final HttpAuthzProperties properties,
-            final IdentityClient identityClient,
-            final IdentityToGroupsMapper identityToGroupsMapper,
-            final DroolsAuthzEngine droolsAuthzEngine) {
-
-        final HttpAuthzFilter filter =
-                new HttpAuthzFilter(properties, identityClient, identityToGroupsMapper, droolsAuthzEngine);
-        final FilterRegistrationBean<HttpAuthzFilter> registration = new FilterRegistrationBean<>(filter);
-        final int order = properties.getFilterOrder() != null
-                ? properties.getFilterOrder()
-                : Ordered.HIGHEST_PRECEDENCE + 30;
-        registration.setOrder(order);
-        registration.addUrlPatterns("/*");
-        registration.setName("cppHttpAuthzFilter");
-        return registration;
+    @ConditionalOnMissingBean
+    public ConcurrencyLimiter concurrencyLimiter(final HttpAuthzProperties properties,
+                                                 final ObjectProvider<MeterRegistry> meterRegistry) {
+        return new ConcurrencyLimiter(properties.getConcurrencyLimit(),
+                meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public RateLimiter rateLimiter(final HttpAuthzProperties properties,
+                                   final ObjectProvider<MeterRegistry> meterRegistry) {
+        return new RateLimiter(properties.getRateLimit(), meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+    }
+
+    @Bean
+    public PathPolicyContributor authzPathPolicyContributor(final HttpAuthzProperties properties) {
+        return new AuthzPathPolicyContributor(properties);
+    }
+
+    /**
+     * Starts a virtual thread per asynchronous authorization, so a blocked identity fetch holds no platform thread,
+     * and rejects a task once {@code maxConcurrent} are running. Nothing is pooled, so there is nothing to shut down.
+     */
+    private static Executor virtualThreadExecutor(final int maxConcurrent) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("authz.http.async.max-concurrent must be positive, not " + maxConcurrent);
+        }
+        final ThreadFactory threads = Thread.ofVirtual().name("authz-async-", 0).factory();
+        final Semaphore running = new Semaphore(maxConcurrent);
+        return task -> {
+            if (!running.tryAcquire()) {
+                throw new RejectedExecutionException(maxConcurrent + " asynchronous authorizations already running");
+            }
+            try {
+                threads.newThread(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        running.release();
+                    }
+                }).start();
+            } catch (final RuntimeException failure) {
+                running.release();
+                throw failure;
+            }
+        };
+    }
+
+    private static RouteIndex missingRouteIndex() {
+        throw new IllegalStateException(
+                "authz.http.route-templates.enabled needs io.swagger.parser.v3:swagger-parser or a RouteIndex bean");
+    }
+
+    private static TokenIdentityVerifier missingTokenVerifier() {
+        throw new IllegalStateException(
+                "authz.http.identity-source=TOKEN needs com.nimbusds:nimbus-jose-jwt or a TokenIdentityVerifier bean");
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "authz.http.identity-cache.snapshot", name = ENABLED, havingValue = TRUE)
+    public IdentitySnapshotter identitySnapshotter(final HttpAuthzProperties properties,
+                                                   final IdentityCache identityCache,
+                                                   final Environment environment) {
+        final HttpAuthzProperties.Snapshot snapshot = properties.getIdentityCache().getSnapshot();
+        final Path path = cacheFile(snapshot.getPath(), "identity-cache.snapshot", environment);
+        return new IdentitySnapshotter(identityCache, new IdentitySnapshotFile(path),
+                snapshot.getInterval(), snapshot.getMaxAge());
+    }
+
+    /**
+     * The configured path, or the named file in the application's private cache directory when it is blank.
+     */
+    private static Path cacheFile(final String configured, final String fileName, final Environment environment) {
+        return configured.isBlank()
+                ? PrivateFiles.defaultDirectory(environment.getProperty(APPLICATION_NAME, "application")).resolve(fileName)
+                : Path.of(configured);
+    }
+
+    /**
+     * Recompiles the authz settings after a Spring Cloud refresh, by which time the properties have been rebound.
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = REFRESH_EVENT)
+    public static class SettingsRefreshConfiguration {
+
+        @Bean
+        public ApplicationListener<ApplicationEvent> authzSettingsRefresher(final LiveAuthzSettings liveAuthzSettings) {
+            return event -> {
+                if (REFRESH_EVENT.equals(event.getClass().getName())) {
+                    liveAuthzSettings.refresh();
+                }
+            };
+        }
+    }
+
+    /**
+     * Verifies signed identity tokens against a local JWKS file when {@code identity-source} is {@code TOKEN}.
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "com.nimbusds.jwt.SignedJWT")
+    @ConditionalOnProperty(prefix = "authz.http", name = "identity-source", havingValue = "TOKEN")
+    public static class TokenIdentityConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public TokenIdentityVerifier tokenIdentityVerifier(final HttpAuthzProperties properties) {
+            return new JwtIdentityVerifier(properties.getToken());
+        }
+    }
+
+    /**
+     * Loads the route templates that name computed actions from the configured OpenAPI specification.
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "io.swagger.parser.OpenAPIParser")
+    @ConditionalOnProperty(prefix = "authz.http.route-templates", name = ENABLED, havingValue = TRUE)
+    public static class RouteTemplateConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public RouteIndex routeIndex(final HttpAuthzProperties properties, final ResourceLoader resourceLoader) {
+            return new OpenApiRouteLoader(resourceLoader).load(properties.getRouteTemplates().getOpenapiSpec());
+        }
+    }
+
+    /**
+     * Subscribes every node to the invalidation topic so group changes evict local caches cluster-wide.
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(DefaultMessageListenerContainer.class)
+    @ConditionalOnProperty(prefix = "authz.http.invalidation", name = ENABLED, havingValue = TRUE)
+    public static class InvalidationConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public IdentityInvalidationListener identityInvalidationListener(
+                final IdentityCache identityCache,
+                final DecisionCache decisionCache,
+                final ObjectProvider<DecisionTokens> decisionTokens) {
+            return new IdentityInvalidationListener(identityCache, decisionCache,
+                    Optional.ofNullable(decisionTokens.getIfAvailable()));
+        }
+
+        @Bean
+        @ConditionalOnMissingBean
+        public IdentityInvalidationPublisher identityInvalidationPublisher(final ConnectionFactory connectionFactory,
+                                                                           final HttpAuthzProperties properties) {
+            return new IdentityInvalidationPublisher(connectionFactory, properties.getInvalidation().getTopic());
+        }
+
+        @Bean
+        public DefaultMessageListenerContainer identityInvalidationListenerContainer(
+                final ConnectionFactory connectionFactory,
+                final IdentityInvalidationListener listener,
+                final HttpAuthzProperties properties) {
+            final DefaultMessageListenerContainer container = new DefaultMessageListenerContainer();
+            container.setConnectionFactory(connectionFactory);
+            container.setDestinationName(properties.getInvalidation().getTopic());
+            container.setPubSubDomain(true);
+            container.setMessageListener(listener);
+            return container;
+        }
+    }
+
+    /**
+     * Shares fetched identities through a last-value queue so starting nodes come up with a warm cache.
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(JmsTemplate.class)
+    @ConditionalOnProperty(prefix = "authz.http.identity-cache.warm-up", name = ENABLED, havingValue = TRUE)
+    public static class WarmUpConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public IdentityWarmUpQueue identityWarmUpQueue(final ConnectionFactory connectionFactory,
+                                                       final IdentityCache identityCache,
+                                                       final HttpAuthzProperties properties,
+                                                       final ObjectProvider<MeterRegistry> meterRegistry) {
+            return new IdentityWarmUpQueue(connectionFactory, identityCache, properties.getIdentityCache().getWarmUp(),
+                    meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+        }
+    }
+
+    /**
+     * The servlet filter and the beans only it uses, which need the servlet API on the classpath; the starter does
+     * not bring it, so a WebFlux application without Spring MVC skips them.
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "jakarta.servlet.Filter")
+    public static class ServletConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public Deadlines deadlines(final HttpAuthzProperties properties,
+                                   final ObjectProvider<MeterRegistry> meterRegistry) {
+            return new Deadlines(properties.getDeadline(), meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+        }
+
+        @Bean
+        @ConditionalOnMissingBean
+        @ConditionalOnProperty(prefix = "authz.http.decision-token", name = ENABLED, havingValue = TRUE)
+        public DecisionTokens decisionTokens(final HttpAuthzProperties properties,
+                                             final DroolsAuthzEngine droolsAuthzEngine,
+                                             final ObjectProvider<MeterRegistry> meterRegistry) {
+            return new DecisionTokens(properties.getDecisionToken(), droolsAuthzEngine::ruleVersion,
+                    meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+        }
+
+        @Bean
+        @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+        public FilterRegistrationBean<HttpAuthzFilter> httpAuthzFilterRegistration(
+                final HttpAuthzProperties properties,
+                final IdentityClient identityClient,
+                final IdentityToGroupsMapper identityToGroupsMapper,
+                final DroolsAuthzEngine droolsAuthzEngine,
+                final DecisionCache decisionCache,
+                final ObjectProvider<TokenIdentityVerifier> tokenIdentityVerifier,
+                final ObjectProvider<DecisionTokens> decisionTokens,
+                final Deadlines deadlines,
+                final LiveAuthzSettings liveAuthzSettings,
+                final ObjectProvider<RouteIndex> routeIndex,
+                final ObjectProvider<ServerTimingPolicy> serverTimingPolicy,
+                final ConcurrencyLimiter concurrencyLimiter,
+                final RateLimiter rateLimiter) {
+
+            final HttpAuthzFilter.Builder filter = HttpAuthzFilter.builder(identityClient, identityToGroupsMapper,
+                            droolsAuthzEngine, liveAuthzSettings)
+                    .decisionCache(decisionCache)
+                    .deadlines(deadlines)
+                    .serverTiming(serverTimingPolicy.getIfAvailable(ServerTimingPolicy::disabled))
+                    .concurrencyLimiter(concurrencyLimiter)
+                    .rateLimiter(rateLimiter);
+            if (properties.getIdentitySource() == HttpAuthzProperties.IdentitySource.TOKEN) {
+                filter.tokenVerifier(tokenIdentityVerifier.getIfAvailable(AuthzAutoConfiguration::missingTokenVerifier));
+            }
+            decisionTokens.ifAvailable(filter::decisionTokens);
+            if (properties.getRouteTemplates().isEnabled()) {
+                filter.routes(routeIndex.getIfAvailable(AuthzAutoConfiguration::missingRouteIndex));
+            }
+            if (properties.getAsync().isEnabled()) {
+                filter.asyncExecutor(virtualThreadExecutor(properties.getAsync().getMaxConcurrent()));
+            }
+            final FilterRegistrationBean<HttpAuthzFilter> registration = new FilterRegistrationBean<>(filter.build());
+            final int order = properties.getFilterOrder() != null
+                    ? properties.getFilterOrder()
+                    : Ordered.HIGHEST_PRECEDENCE + 30;
+            registration.setOrder(order);
+            registration.addUrlPatterns("/*");
+            registration.setName("cppHttpAuthzFilter");
+            final Set<DispatcherType> dispatcherTypes = EnumSet.of(DispatcherType.REQUEST);
+            properties.getDispatcherTypes().forEach(name ->
+                    dispatcherTypes.add(DispatcherType.valueOf(name.trim().toUpperCase(Locale.ROOT))));
+            if (properties.getAsync().isEnabled()) {
+                // the async dispatch is where an asynchronously authorized request continues or is denied
+                dispatcherTypes.add(DispatcherType.ASYNC);
+            }
+            registration.setDispatcherTypes(EnumSet.copyOf(dispatcherTypes));
+            return registration;
+        }
+    }
+
+    /**
+     * Authorizes with a {@link ReactiveHttpAuthzFilter} instead of the servlet filter when the application runs on
+     * WebFlux.
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "org.springframework.web.reactive.function.client.WebClient")
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    public static class ReactiveConfiguration {
+
+        private static final String RULES_SCHEDULER = "authzRulesScheduler";
+        private static final String REACTOR_NETTY_CLIENT = "reactor.netty.http.client.HttpClient";
+
+        @Bean(name = RULES_SCHEDULER, destroyMethod = "dispose")
+        @ConditionalOnMissingBean(name = RULES_SCHEDULER)
+        public Scheduler authzRulesScheduler(final HttpAuthzProperties properties) {
+            final HttpAuthzProperties.Reactive reactive = properties.getReactive();
+            return Schedulers.newBoundedElastic(Math.max(1, reactive.getRulesThreads()),
+                    Math.max(1, reactive.getRulesQueueCapacity()), "authz-rules");
+        }
+
+        @Bean
+        @ConditionalOnMissingBean
+        public ReactiveIdentityClient reactiveIdentityClient(final HttpAuthzProperties properties,
+                                                             final IdentityCache identityCache,
+                                                             final ObjectProvider<WebClient.Builder> webClientBuilder,
+                                                             final ObjectProvider<MeterRegistry> meterRegistry) {
+            final WebClient.Builder builder = webClientBuilder.getIfAvailable(WebClient::builder);
+            if (ClassUtils.isPresent(REACTOR_NETTY_CLIENT, null)) {
+                builder.clientConnector(ReactorNettyConnectors.identityConnector(properties.getReactive()));
+            }
+            return new ReactiveIdentityClient(properties, builder.build(), identityCache,
+                    meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+        }
+
+        @Bean
+        public ReactiveHttpAuthzFilter reactiveHttpAuthzFilter(final HttpAuthzProperties properties,
+                                                               final ReactiveIdentityClient identityClient,
+                                                               final IdentityToGroupsMapper identityToGroupsMapper,
+                                                               final DroolsAuthzEngine droolsAuthzEngine,
+                                                               final DecisionCache decisionCache,
+                                                               final LiveAuthzSettings liveAuthzSettings,
+                                                               final ObjectProvider<RouteIndex> routeIndex,
+                                                               final RateLimiter rateLimiter,
+                                                               @Qualifier(RULES_SCHEDULER) final Scheduler rulesScheduler) {
+            if (properties.getIdentitySource() == HttpAuthzProperties.IdentitySource.TOKEN) {
+                throw new IllegalStateException("authz.http.identity-source=TOKEN is not supported on WebFlux");
+            }
+            return new ReactiveHttpAuthzFilter(properties, identityClient, identityToGroupsMapper, droolsAuthzEngine,
+                    decisionCache, liveAuthzSettings, properties.getRouteTemplates().isEnabled()
+                            ? routeIndex.getIfAvailable(AuthzAutoConfiguration::missingRouteIndex)
+                            : RouteIndex.empty(),
+                    rateLimiter, rulesScheduler);
+        }
     }
 }
@@ -0,0 +1,34 @@
+package uk.gov.moj.cpp.authz.http.config;
+
+import uk.gov.moj.cpp.access.path.Bypass;
+import uk.gov.moj.cpp.access.path.PathPolicy;
+import uk.gov.moj.cpp.access.path.PathPolicyContributor;
+
+/**
+ * Marks {@code authz.http.exclude-path-prefixes} as bypassing authorization, and
+ * {@code authz.http.concurrency-limit.exempt-path-prefixes} as bypassing the concurrency limit, in the shared
+ * {@link PathPolicy}.
+ */
+public class AuthzPathPolicyContributor implements PathPolicyContributor {
+
+    private final HttpAuthzProperties properties;
+
+    public AuthzPathPolicyContributor(final HttpAuthzProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * The policy for {@code properties} on their own, without other starters' prefixes.
+     */
+    public static PathPolicy pathPolicy(final HttpAuthzProperties properties) {
+        final PathPolicy.Builder builder = PathPolicy.builder();
+        new AuthzPathPolicyContributor(properties).contribute(builder);
+        return builder.build();
+    }
+
+    @Override
+    public void contribute(final PathPolicy.Builder builder) {
+        builder.bypass(properties.getExcludePathPrefixes(), Bypass.AUTHZ)
+                .bypass(properties.getConcurrencyLimit().getExemptPathPrefixes(), Bypass.CONCURRENCY_LIMIT);
+    }
+}
@@ -0,0 +1,151 @@
+package uk.gov.moj.cpp.authz.http.config;
+
+import uk.gov.moj.cpp.access.path.Bypass;
+import uk.gov.moj.cpp.access.path.PathPolicy;
+import uk.gov.moj.cpp.authz.http.denial.Denial;
+import uk.gov.moj.cpp.authz.http.denial.DenialResponses;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The request-time settings of the authz filter, compiled once from {@link HttpAuthzProperties} and never changed:
+ * the path trie, the header names, the action-required flag, the group aliases keyed case-insensitively, whether the
+ * concurrency and rate limits apply (with the overload {@code Retry-After}) and the pre-serialized denials. Requests
+ * read these instead of the mutable properties; a changed configuration is a new instance, published through
+ * {@link LiveAuthzSettings}.
+ */
+public final class AuthzSettings {
+
+    private static final String MISSING_HEADER = "Missing header: ";
+    private static final String PROSECUTING_AUTHORITY_ACCESS = "Prosecuting Authority Access";
+
+    private final PathPolicy pathTrie;
+    private final String userIdHeaderName;
+    private final String tokenHeader;
+    private final String actionHeaderName;
+    private final boolean actionRequired;
+    private final Map<String, String> groupAliases;
+    private final String prosecutingAuthorityCanonical;
+    private final long asyncTimeout;
+    private final boolean concurrencyLimited;
+    private final String overloadRetryAfter;
+    private final boolean rateLimited;
+    private final DenialResponses headerDenials;
+    private final DenialResponses tokenDenials;
+
+    private AuthzSettings(final HttpAuthzProperties properties, final PathPolicy pathPolicy) {
+        this.pathTrie = pathPolicy;
+        this.userIdHeaderName = properties.getUserIdHeader();
+        this.tokenHeader = properties.getToken().getHeader();
+        this.actionHeaderName = properties.getActionHeader();
+        this.actionRequired = properties.isActionRequired();
+        final Map<String, String> folded = new HashMap<>();
+        properties.getGroupAliases().forEach((alias, canonical) -> folded.put(fold(alias), canonical));
+        this.groupAliases = Map.copyOf(folded);
+        this.prosecutingAuthorityCanonical = canonicalGroup(PROSECUTING_AUTHORITY_ACCESS);
+        this.asyncTimeout = properties.getAsync().getTimeout().toMillis();
+        this.concurrencyLimited = properties.getConcurrencyLimit().isEnabled();
+        this.overloadRetryAfter = Long.toString(Math.max(1, Math.ceilDiv(
+                properties.getConcurrencyLimit().getRetryAfter().toMillis(), Duration.ofSeconds(1).toMillis())));
+        this.rateLimited = properties.getRateLimit().isEnabled();
+        this.headerDenials = denials(properties, userIdHeaderName);
+        this.tokenDenials = denials(properties, tokenHeader);
+    }
+
+    /**
+     * @param pathPolicy the compiled path prefixes; paths it marks with {@link Bypass#AUTHZ} are not authorized
+     */
+    public static AuthzSettings compile(final HttpAuthzProperties properties, final PathPolicy pathPolicy) {
+        return new AuthzSettings(properties, pathPolicy);
+    }
+
+    /**
+     * Compiles {@code properties} on their own, with only their own path prefixes.
+     */
+    public static AuthzSettings compile(final HttpAuthzProperties properties) {
+        return compile(properties, AuthzPathPolicyContributor.pathPolicy(properties));
+    }
+
+    public PathPolicy pathPolicy() {
+        return pathTrie;
+    }
+
+    /**
+     * @param tokenIdentity identities come from a verified token rather than the user id header
+     */
+    public String credentialHeader(final boolean tokenIdentity) {
+        return tokenIdentity ? tokenHeader : userIdHeaderName;
+    }
+
+    public String userIdHeader() {
+        return userIdHeaderName;
+    }
+
+    public String actionHeader() {
+        return actionHeaderName;
+    }
+
+    public boolean isActionRequired() {
+        return actionRequired;
+    }
+
+    /**
+     * The canonical name configured for {@code group}, ignoring case, or {@code group} itself.
+     */
+    public String canonicalGroup(final String group) {
+        return groupAliases.getOrDefault(fold(group), group);
+    }
+
+    /**
+     * The group granted to users with prosecuting-authority access, after aliasing.
+     */
+    public String prosecutingAuthorityGroup() {
+        return prosecutingAuthorityCanonical;
+    }
+
+    public long asyncTimeoutMillis() {
+        return asyncTimeout;
+    }
+
+    public boolean isConcurrencyLimited() {
+        return concurrencyLimited;
+    }
+
+    /**
+     * The {@code Retry-After} value, in whole seconds, sent with a request turned away by the concurrency limit or
+     * because too many asynchronous authorizations are running.
+     */
+    public String retryAfterSeconds() {
+        return overloadRetryAfter;
+    }
+
+    public boolean isRateLimited() {
+        return rateLimited;
+    }
+
+    /**
+     * @param tokenIdentity identities come from a verified token, so a missing credential names the token header
+     */
+    public DenialResponses denials(final boolean tokenIdentity) {
+        return tokenIdentity ? tokenDenials : headerDenials;
+    }
+
+    private static String fold(final String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private static DenialResponses denials(final HttpAuthzProperties properties, final String credentialHeader) {
+        return new DenialResponses(properties.getDenialFormat(), Map.of(
+                Denial.MISSING_ACTION, MISSING_HEADER + properties.getActionHeader(),
+                Denial.MISSING_CREDENTIAL, MISSING_HEADER + credentialHeader,
+                Denial.INVALID_TOKEN, "Invalid token",
+                Denial.ACCESS_DENIED, "Access denied",
+                Denial.IDENTITY_UNAVAILABLE, "Identity service unavailable",
+                Denial.OVERLOADED, "Too many concurrent requests",
+                Denial.RATE_LIMITED, "Request rate limit exceeded",
+                Denial.DEADLINE_EXCEEDED, "Authorization deadline exceeded"));
+    }
+}
@@ -3,15 +3,20 @@ package uk.gov.moj.cpp.authz.http.config;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.core.Ordered;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @ConfigurationProperties(prefix = "authz.http")
 public class HttpAuthzProperties {
     private boolean enabled;
     private String identityUrlTemplate = "http://localhost:8080/usersgroups-query-api/query/api/rest/usersgroups/users/logged-in-user/permissions?";
+    /** Identity service replicas to balance across; when empty, {@code identityUrlTemplate} is the only endpoint. */
+    private List<String> identityUrlTemplates = new ArrayList<>();
     private String userIdHeader = "CJSCPPUID";
     private String actionHeader = "CPP-ACTION";
     private String acceptHeader = "application/vnd.usersgroups.get-logged-in-user-permissions+json";
@@ -22,6 +27,31 @@ public class HttpAuthzProperties {
     private Map<String, String> groupAliases = new LinkedHashMap<>();
     private Integer filterOrder = Ordered.HIGHEST_PRECEDENCE + 30;
     private List<String> excludePathPrefixes = new ArrayList<>(List.of("/usersgroups-query-api/", "/actuator", "/error"));
+    /**
+     * Names of the servlet dispatches the filter runs on; only the first one of a request is authorized, later ones
+     * reuse its decision. {@code FORWARD} and {@code ERROR} are opt-in. Names rather than {@code DispatcherType} so
+     * these properties bind without the servlet API.
+     */
+    private Set<String> dispatcherTypes = new LinkedHashSet<>(List.of("REQUEST", "ASYNC"));
+    private IdentityFallback identityFallback = IdentityFallback.FAIL_FAST;
+    private IdentitySource identitySource = IdentitySource.REMOTE;
+    private DenialFormat denialFormat = DenialFormat.ERROR_DISPATCH;
+    private final Token token = new Token();
+    private final DecisionToken decisionToken = new DecisionToken();
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+    private final Bulkhead bulkhead = new Bulkhead();
+    private final Hedging hedging = new Hedging();
+    private final Batching batching = new Batching();
+    private final IdentityCache identityCache = new IdentityCache();
+    private final DecisionCache decisionCache = new DecisionCache();
+    private final Invalidation invalidation = new Invalidation();
+    private final LoadBalancing loadBalancing = new LoadBalancing();
+    private final Deadline deadline = new Deadline();
+    private final RouteTemplates routeTemplates = new RouteTemplates();
+    private final Async async = new Async();
+    private final Reactive reactive = new Reactive();
+    private final ConcurrencyLimit concurrencyLimit = new ConcurrencyLimit();
+    private final RateLimit rateLimit = new RateLimit();
 
     public boolean isEnabled() {
         return enabled;
@@ -39,6 +69,21 @@ public class HttpAuthzProperties {
         this.identityUrlTemplate = identityUrlTemplate;
     }
 
+    public List<String> getIdentityUrlTemplates() {
+        return identityUrlTemplates;
+    }
+
+    public void setIdentityUrlTemplates(final List<String> identityUrlTemplates) {
+        this.identityUrlTemplates = identityUrlTemplates;
+    }
+
+    /**
+     * @return the configured replicas, or just {@code identityUrlTemplate} when none are listed
+     */
+    public List<String> identityEndpoints() {
+        return identityUrlTemplates.isEmpty() ? List.of(identityUrlTemplate) : List.copyOf(identityUrlTemplates);
+    }
+
     public String getUserIdHeader() {
         return userIdHeader;
     }
@@ -118,4 +163,1130 @@ public class HttpAuthzProperties {
     public void setExcludePathPrefixes(final List<String> excludePathPrefixes) {
         this.excludePathPrefixes = excludePathPrefixes == null ? java.util.Collections.emptyList() : excludePathPrefixes;
     }
+
+    public Set<String> getDispatcherTypes() {
+        return dispatcherTypes;
+    }
+
+    public void setDispatcherTypes(final Set<String> dispatcherTypes) {
+        this.dispatcherTypes = dispatcherTypes;
+    }
+
+    public IdentityFallback getIdentityFallback() {
+        return identityFallback;
+    }
+
+    public void setIdentityFallback(final IdentityFallback identityFallback) {
+        this.identityFallback = identityFallback;
+    }
+
+    public IdentitySource getIdentitySource() {
+        return identitySource;
+    }
+
+    public void setIdentitySource(final IdentitySource identitySource) {
+        this.identitySource = identitySource;
+    }
+
+    public DenialFormat getDenialFormat() {
+        return denialFormat;
+    }
+
+    public void setDenialFormat(final DenialFormat denialFormat) {
+        this.denialFormat = denialFormat;
+    }
+
+    public Token getToken() {
+        return token;
+    }
+
+    public DecisionToken getDecisionToken() {
+        return decisionToken;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public Bulkhead getBulkhead() {
+        return bulkhead;
+    }
+
+    public Hedging getHedging() {
+        return hedging;
+    }
+
+    public Batching getBatching() {
+        return batching;
+    }
+
+    public IdentityCache getIdentityCache() {
+        return identityCache;
+    }
+
+    public DecisionCache getDecisionCache() {
+        return decisionCache;
+    }
+
+    public Invalidation getInvalidation() {
+        return invalidation;
+    }
+
+    public LoadBalancing getLoadBalancing() {
+        return loadBalancing;
+    }
+
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    public RouteTemplates getRouteTemplates() {
+        return routeTemplates;
+    }
+
+    public Async getAsync() {
+        return async;
+    }
+
+    public Reactive getReactive() {
+        return reactive;
+    }
+
+    public ConcurrencyLimit getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    public RateLimit getRateLimit() {
+        return rateLimit;
+    }
+
+    /**
+     * What to do when the identity service cannot be called (circuit open, bulkhead full or call failed).
+     */
+    public enum IdentityFallback {
+        /** Serve the last groups successfully fetched for the user, failing fast when none are known. */
+        LAST_KNOWN,
+        /** Reject the request straight away. */
+        FAIL_FAST
+    }
+
+    /**
+     * Where the caller's identity and groups come from.
+     */
+    public enum IdentitySource {
+        /** Trust the user id header and fetch groups from the identity service. */
+        REMOTE,
+        /** Verify a signed JWT locally and take the user id, groups and prosecuting authority from its claims. */
+        TOKEN
+    }
+
+    /**
+     * How rejected requests (400, 401, 403, 503, 504) are answered.
+     */
+    public enum DenialFormat {
+        /** {@code sendError}, rendered by the container's error dispatch (Spring's {@code /error} page). */
+        ERROR_DISPATCH,
+        /** A small pre-serialized {@code application/problem+json} body written directly, without error dispatch. */
+        PROBLEM_JSON
+    }
+
+    public static class Token {
+        /** Request header carrying the JWT, optionally prefixed with {@code Bearer }. */
+        private String header = "Authorization";
+        /** Local JWKS file holding the public keys tokens are signed with; re-read when it changes. */
+        private String jwksPath;
+        private Duration jwksCheckInterval = Duration.ofSeconds(5);
+        /** Required {@code iss}; blank accepts any issuer. */
+        private String issuer = "";
+        /** Required {@code aud}; blank accepts any audience. */
+        private String audience = "";
+        private String userIdClaim = "sub";
+        private String groupsClaim = "groups";
+        private String prosecutingAuthorityClaim = "prosecutingAuthority";
+        private Duration clockSkew = Duration.ofSeconds(30);
+        /** Verified tokens remembered until they expire, so repeat requests skip signature checks. */
+        private int cacheMaxEntries = 10_000;
+
+        public String getHeader() {
+            return header;
+        }
+
+        public void setHeader(final String header) {
+            this.header = header;
+        }
+
+        public String getJwksPath() {
+            return jwksPath;
+        }
+
+        public void setJwksPath(final String jwksPath) {
+            this.jwksPath = jwksPath;
+        }
+
+        public Duration getJwksCheckInterval() {
+            return jwksCheckInterval;
+        }
+
+        public void setJwksCheckInterval(final Duration jwksCheckInterval) {
+            this.jwksCheckInterval = jwksCheckInterval;
+        }
+
+        public String getIssuer() {
+            return issuer;
+        }
+
+        public void setIssuer(final String issuer) {
+            this.issuer = issuer;
+        }
+
+        public String getAudience() {
+            return audience;
+        }
+
+        public void setAudience(final String audience) {
+            this.audience = audience;
+        }
+
+        public String getUserIdClaim() {
+            return userIdClaim;
+        }
+
+        public void setUserIdClaim(final String userIdClaim) {
+            this.userIdClaim = userIdClaim;
+        }
+
+        public String getGroupsClaim() {
+            return groupsClaim;
+        }
+
+        public void setGroupsClaim(final String groupsClaim) {
+            this.groupsClaim = groupsClaim;
+        }
+
+        public String getProsecutingAuthorityClaim() {
+            return prosecutingAuthorityClaim;
+        }
+
+        public void setProsecutingAuthorityClaim(final String prosecutingAuthorityClaim) {
+            this.prosecutingAuthorityClaim = prosecutingAuthorityClaim;
+        }
+
+        public Duration getClockSkew() {
+            return clockSkew;
+        }
+
+        public void setClockSkew(final Duration clockSkew) {
+            this.clockSkew = clockSkew;
+        }
+
+        public int getCacheMaxEntries() {
+            return cacheMaxEntries;
+        }
+
+        public void setCacheMaxEntries(final int cacheMaxEntries) {
+            this.cacheMaxEntries = cacheMaxEntries;
+        }
+    }
+
+    public static class DecisionToken {
+        private boolean enabled;
+        /** HMAC-SHA256 key shared by every node, at least 32 bytes. */
+        private String secret = "";
+        /** Header or cookie name the token is issued under and read back from. */
+        private String name = "CPP-AUTHZ-TOKEN";
+        private Transport transport = Transport.HEADER;
+        private Duration ttl = Duration.ofSeconds(60);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getSecret() {
+            return secret;
+        }
+
+        public void setSecret(final String secret) {
+            this.secret = secret;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(final String name) {
+            this.name = name;
+        }
+
+        public Transport getTransport() {
+            return transport;
+        }
+
+        public void setTransport(final Transport transport) {
+            this.transport = transport;
+        }
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(final Duration ttl) {
+            this.ttl = ttl;
+        }
+
+        public enum Transport {
+            /** Response header; the caller echoes it back as a request header. */
+            HEADER,
+            /** {@code HttpOnly; Secure; SameSite=Strict} cookie returned by browsers automatically. */
+            COOKIE
+        }
+    }
+
+    public static class LoadBalancing {
+        /** Time constant of the latency moving average: older samples weigh {@code 1/e} after this long. */
+        private Duration decay = Duration.ofSeconds(10);
+        /** Consecutive failures (5xx, timeouts, connection errors) that take an endpoint out of rotation. */
+        private int ejectAfterFailures = 3;
+        /** How long an ejected endpoint is skipped before a single probe request is let through. */
+        private Duration ejectDuration = Duration.ofSeconds(30);
+
+        public Duration getDecay() {
+            return decay;
+        }
+
+        public void setDecay(final Duration decay) {
+            this.decay = decay;
+        }
+
+        public int getEjectAfterFailures() {
+            return ejectAfterFailures;
+        }
+
+        public void setEjectAfterFailures(final int ejectAfterFailures) {
+            this.ejectAfterFailures = ejectAfterFailures;
+        }
+
+        public Duration getEjectDuration() {
+            return ejectDuration;
+        }
+
+        public void setEjectDuration(final Duration ejectDuration) {
+            this.ejectDuration = ejectDuration;
+        }
+    }
+
+    public static class Deadline {
+        private boolean enabled;
+        /** Authorization budget for routes without their own entry; zero means unbounded unless the header sets one. */
+        private Duration defaultBudget = Duration.ZERO;
+        /** Request header carrying the caller's remaining budget in milliseconds; it can only shorten the budget. */
+        private String header = "CPP-DEADLINE-MS";
+        /** Per-route budgets; the longest matching path prefix wins. */
+        private List<Route> routes = new ArrayList<>();
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getDefaultBudget() {
+            return defaultBudget;
+        }
+
+        public void setDefaultBudget(final Duration defaultBudget) {
+            this.defaultBudget = defaultBudget;
+        }
+
+        public String getHeader() {
+            return header;
+        }
+
+        public void setHeader(final String header) {
+            this.header = header;
+        }
+
+        public List<Route> getRoutes() {
+            return routes;
+        }
+
+        public void setRoutes(final List<Route> routes) {
+            this.routes = routes;
+        }
+
+        public static class Route {
+            private String pathPrefix = "/";
+            private Duration budget = Duration.ZERO;
+
+            public String getPathPrefix() {
+                return pathPrefix;
+            }
+
+            public void setPathPrefix(final String pathPrefix) {
+                this.pathPrefix = pathPrefix;
+            }
+
+            public Duration getBudget() {
+                return budget;
+            }
+
+            public void setBudget(final Duration budget) {
+                this.budget = budget;
+            }
+        }
+    }
+
+    public static class CircuitBreaker {
+        private boolean enabled;
+        private int slidingWindowSize = 50;
+        private int minimumNumberOfCalls = 20;
+        private float failureRateThreshold = 50;
+        private float slowCallRateThreshold = 80;
+        private Duration slowCallDuration = Duration.ofSeconds(2);
+        private Duration waitDurationInOpenState = Duration.ofSeconds(30);
+        private int permittedCallsInHalfOpenState = 5;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getSlidingWindowSize() {
+            return slidingWindowSize;
+        }
+
+        public void setSlidingWindowSize(final int slidingWindowSize) {
+            this.slidingWindowSize = slidingWindowSize;
+        }
+
+        public int getMinimumNumberOfCalls() {
+            return minimumNumberOfCalls;
+        }
+
+        public void setMinimumNumberOfCalls(final int minimumNumberOfCalls) {
+            this.minimumNumberOfCalls = minimumNumberOfCalls;
+        }
+
+        public float getFailureRateThreshold() {
+            return failureRateThreshold;
+        }
+
+        public void setFailureRateThreshold(final float failureRateThreshold) {
+            this.failureRateThreshold = failureRateThreshold;
+        }
+
+        public float getSlowCallRateThreshold() {
+            return slowCallRateThreshold;
+        }
+
+        public void setSlowCallRateThreshold(final float slowCallRateThreshold) {
+            this.slowCallRateThreshold = slowCallRateThreshold;
+        }
+
+        public Duration getSlowCallDuration() {
+            return slowCallDuration;
+        }
+
+        public void setSlowCallDuration(final Duration slowCallDuration) {
+            this.slowCallDuration = slowCallDuration;
+        }
+
+        public Duration getWaitDurationInOpenState() {
+            return waitDurationInOpenState;
+        }
+
+        public void setWaitDurationInOpenState(final Duration waitDurationInOpenState) {
+            this.waitDurationInOpenState = waitDurationInOpenState;
+        }
+
+        public int getPermittedCallsInHalfOpenState() {
+            return permittedCallsInHalfOpenState;
+        }
+
+        public void setPermittedCallsInHalfOpenState(final int permittedCallsInHalfOpenState) {
+            this.permittedCallsInHalfOpenState = permittedCallsInHalfOpenState;
+        }
+    }
+
+    public static class Bulkhead {
+        private boolean enabled;
+        private int maxConcurrentCalls = 25;
+        private Duration maxWaitDuration = Duration.ZERO;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxConcurrentCalls() {
+            return maxConcurrentCalls;
+        }
+
+        public void setMaxConcurrentCalls(final int maxConcurrentCalls) {
+            this.maxConcurrentCalls = maxConcurrentCalls;
+        }
+
+        public Duration getMaxWaitDuration() {
+            return maxWaitDuration;
+        }
+
+        public void setMaxWaitDuration(final Duration maxWaitDuration) {
+            this.maxWaitDuration = maxWaitDuration;
+        }
+    }
+
+    public static class Hedging {
+        private boolean enabled;
+        /** Fixed hedge delay; zero (default) derives the delay from {@code percentile} of recent latencies. */
+        private Duration delay = Duration.ZERO;
+        private double percentile = 95;
+        private Duration minDelay = Duration.ofMillis(10);
+        /** Hedges allowed as a percentage of identity calls. */
+        private double budgetPercent = 10;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getDelay() {
+            return delay;
+        }
+
+        public void setDelay(final Duration delay) {
+            this.delay = delay;
+        }
+
+        public double getPercentile() {
+            return percentile;
+        }
+
+        public void setPercentile(final double percentile) {
+            this.percentile = percentile;
+        }
+
+        public Duration getMinDelay() {
+            return minDelay;
+        }
+
+        public void setMinDelay(final Duration minDelay) {
+            this.minDelay = minDelay;
+        }
+
+        public double getBudgetPercent() {
+            return budgetPercent;
+        }
+
+        public void setBudgetPercent(final double budgetPercent) {
+            this.budgetPercent = budgetPercent;
+        }
+    }
+
+    public static class Batching {
+        private boolean enabled;
+        /** Bulk permissions endpoint; when unset, lookups are sent individually. */
+        private String bulkUrl;
+        private String acceptHeader = "application/json";
+        private Duration window = Duration.ofMillis(2);
+        private int maxBatchSize = 50;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getBulkUrl() {
+            return bulkUrl;
+        }
+
+        public void setBulkUrl(final String bulkUrl) {
+            this.bulkUrl = bulkUrl;
+        }
+
+        public String getAcceptHeader() {
+            return acceptHeader;
+        }
+
+        public void setAcceptHeader(final String acceptHeader) {
+            this.acceptHeader = acceptHeader;
+        }
+
+        public Duration getWindow() {
+            return window;
+        }
+
+        public void setWindow(final Duration window) {
+            this.window = window;
+        }
+
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        public void setMaxBatchSize(final int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+        }
+    }
+
+    public static class IdentityCache {
+        private int maxEntries = 10_000;
+        /** How long a fetched identity is served without calling the identity service; zero disables caching. */
+        private Duration ttl = Duration.ZERO;
+        private final Snapshot snapshot = new Snapshot();
+        private final Shared shared = new Shared();
+        private final WarmUp warmUp = new WarmUp();
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(final int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(final Duration ttl) {
+            this.ttl = ttl;
+        }
+
+        public Snapshot getSnapshot() {
+            return snapshot;
+        }
+
+        public Shared getShared() {
+            return shared;
+        }
+
+        public WarmUp getWarmUp() {
+            return warmUp;
+        }
+    }
+
+    public static class WarmUp {
+        private boolean enabled;
+        /** Artemis queue holding the last fetched identity per user; created as a last-value queue on first use. */
+        private String queue = "authz.identity.warm-up";
+        /** Entries older than this are neither published nor restored; younger ones are served while revalidated. */
+        private Duration maxAge = Duration.ofMinutes(10);
+        /** Upper bound on how long startup waits while draining the queue. */
+        private Duration drainTimeout = Duration.ofSeconds(10);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getQueue() {
+            return queue;
+        }
+
+        public void setQueue(final String queue) {
+            this.queue = queue;
+        }
+
+        public Duration getMaxAge() {
+            return maxAge;
+        }
+
+        public void setMaxAge(final Duration maxAge) {
+            this.maxAge = maxAge;
+        }
+
+        public Duration getDrainTimeout() {
+            return drainTimeout;
+        }
+
+        public void setDrainTimeout(final Duration drainTimeout) {
+            this.drainTimeout = drainTimeout;
+        }
+    }
+
+    public static class Shared {
+        private boolean enabled;
+        /**
+         * Blank keeps the table in a private per-application directory,
+         * {@code ${java.io.tmpdir}/authz-<user>-<spring.application.name>}.
+         */
+        private String path = "";
+        private int slots = 131_072;
+        /** Bytes per slot; identities whose encoded form is larger stay on-heap only. */
+        private int slotSize = 1024;
+        private Duration ttl = Duration.ofMinutes(10);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(final String path) {
+            this.path = path;
+        }
+
+        public int getSlots() {
+            return slots;
+        }
+
+        public void setSlots(final int slots) {
+            this.slots = slots;
+        }
+
+        public int getSlotSize() {
+            return slotSize;
+        }
+
+        public void setSlotSize(final int slotSize) {
+            this.slotSize = slotSize;
+        }
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(final Duration ttl) {
+            this.ttl = ttl;
+        }
+    }
+
+    public static class Snapshot {
+        private boolean enabled;
+        /**
+         * Blank keeps the snapshot in a private per-application directory,
+         * {@code ${java.io.tmpdir}/authz-<user>-<spring.application.name>}.
+         */
+        private String path = "";
+        private Duration interval = Duration.ofSeconds(60);
+        /** Restored entries older than this are dropped; younger ones are served while being revalidated. */
+        private Duration maxAge = Duration.ofHours(1);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(final String path) {
+            this.path = path;
+        }
+
+        public Duration getInterval() {
+            return interval;
+        }
+
+        public void setInterval(final Duration interval) {
+            this.interval = interval;
+        }
+
+        public Duration getMaxAge() {
+            return maxAge;
+        }
+
+        public void setMaxAge(final Duration maxAge) {
+            this.maxAge = maxAge;
+        }
+    }
+
+    public static class DecisionCache {
+        private boolean enabled;
+        private Duration ttl = Duration.ofMinutes(1);
+        private int maxEntries = 50_000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(final Duration ttl) {
+            this.ttl = ttl;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(final int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+    }
+
+    public static class Invalidation {
+        private boolean enabled;
+        private String topic = "jms.topic.authz.identity-invalidation";
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public void setTopic(final String topic) {
+            this.topic = topic;
+        }
+    }
+
+    /**
+     * Names computed actions after the OpenAPI route they match ({@code GET /api/cases/{caseId}}) instead of the raw
+     * path, and passes the path variables as action attributes.
+     */
+    public static class RouteTemplates {
+        private boolean enabled;
+        /** Spring resource location of the OpenAPI specification, e.g. the file the audit starter parses. */
+        private String openapiSpec = "classpath:openapi.yml";
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getOpenapiSpec() {
+            return openapiSpec;
+        }
+
+        public void setOpenapiSpec(final String openapiSpec) {
+            this.openapiSpec = openapiSpec;
+        }
+    }
+
+    /**
+     * Authorizes on virtual threads while the container thread is released, continuing on an async dispatch.
+     */
+    public static class Async {
+        private boolean enabled;
+        /** Async context timeout; a request still being authorized then is answered with 504. */
+        private Duration timeout = Duration.ofSeconds(30);
+        /** Authorizations in progress at once; a request beyond them is answered with 503 and a Retry-After. */
+        private int maxConcurrent = 1_000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(final Duration timeout) {
+            this.timeout = timeout;
+        }
+
+        public int getMaxConcurrent() {
+            return maxConcurrent;
+        }
+
+        public void setMaxConcurrent(final int maxConcurrent) {
+            this.maxConcurrent = maxConcurrent;
+        }
+    }
+
+    /**
+     * The WebFlux filter: rules run on a bounded scheduler off the event loop, identities come from a non-blocking
+     * client.
+     */
+    public static class Reactive {
+        /** Threads evaluating rules. */
+        private int rulesThreads = Runtime.getRuntime().availableProcessors();
+        /** Evaluations that may wait for a rules thread before further ones are rejected. */
+        private int rulesQueueCapacity = 10_000;
+        /** Longest wait for the identity service; a lookup that takes longer counts as a failed call. */
+        private Duration identityTimeout = Duration.ofSeconds(5);
+        /**
+         * Connections to the identity service when the client runs on Reactor Netty, whose default pool (twice the
+         * larger of 8 and the core count, with twice as many pending) fails lookups under load; lookups beyond it wait
+         * for a connection.
+         */
+        private int identityMaxConnections = 500;
+
+        public int getRulesThreads() {
+            return rulesThreads;
+        }
+
+        public void setRulesThreads(final int rulesThreads) {
+            this.rulesThreads = rulesThreads;
+        }
+
+        public int getRulesQueueCapacity() {
+            return rulesQueueCapacity;
+        }
+
+        public void setRulesQueueCapacity(final int rulesQueueCapacity) {
+            this.rulesQueueCapacity = rulesQueueCapacity;
+        }
+
+        public Duration getIdentityTimeout() {
+            return identityTimeout;
+        }
+
+        public void setIdentityTimeout(final Duration identityTimeout) {
+            this.identityTimeout = identityTimeout;
+        }
+
+        public int getIdentityMaxConnections() {
+            return identityMaxConnections;
+        }
+
+        public void setIdentityMaxConnections(final int identityMaxConnections) {
+            this.identityMaxConnections = identityMaxConnections;
+        }
+    }
+
+    /**
+     * Admission control for the servlet filter: requests beyond a limit that follows the observed latency are
+     * rejected with 503 and {@code Retry-After} instead of queueing.
+     */
+    public static class ConcurrencyLimit {
+        private boolean enabled;
+        private Algorithm algorithm = Algorithm.GRADIENT;
+        private int initialLimit = 20;
+        private int minLimit = 4;
+        private int maxLimit = 500;
+        /** Weight of each new gradient estimate in the limit. */
+        private double smoothing = 0.2;
+        /** AIMD: a request slower than this (or answered with a 5xx) shrinks the limit. */
+        private Duration latencyThreshold = Duration.ofSeconds(1);
+        /** Factor applied to the limit on each failed request and, with AIMD, on each slow one. */
+        private double backoffRatio = 0.9;
+        /** Sent as {@code Retry-After}, in whole seconds. */
+        private Duration retryAfter = Duration.ofSeconds(1);
+        /** Paths admitted without counting against the limit, such as health probes; compiled into the path policy. */
+        private List<String> exemptPathPrefixes = new ArrayList<>(List.of("/health", "/actuator/health"));
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Algorithm getAlgorithm() {
+            return algorithm;
+        }
+
+        public void setAlgorithm(final Algorithm algorithm) {
+            this.algorithm = algorithm;
+        }
+
+        public int getInitialLimit() {
+            return initialLimit;
+        }
+
+        public void setInitialLimit(final int initialLimit) {
+            this.initialLimit = initialLimit;
+        }
+
+        public int getMinLimit() {
+            return minLimit;
+        }
+
+        public void setMinLimit(final int minLimit) {
+            this.minLimit = minLimit;
+        }
+
+        public int getMaxLimit() {
+            return maxLimit;
+        }
+
+        public void setMaxLimit(final int maxLimit) {
+            this.maxLimit = maxLimit;
+        }
+
+        public double getSmoothing() {
+            return smoothing;
+        }
+
+        public void setSmoothing(final double smoothing) {
+            this.smoothing = smoothing;
+        }
+
+        public Duration getLatencyThreshold() {
+            return latencyThreshold;
+        }
+
+        public void setLatencyThreshold(final Duration latencyThreshold) {
+            this.latencyThreshold = latencyThreshold;
+        }
+
+        public double getBackoffRatio() {
+            return backoffRatio;
+        }
+
+        public void setBackoffRatio(final double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+        }
+
+        public Duration getRetryAfter() {
+            return retryAfter;
+        }
+
+        public void setRetryAfter(final Duration retryAfter) {
+            this.retryAfter = retryAfter;
+        }
+
+        public List<String> getExemptPathPrefixes() {
+            return exemptPathPrefixes;
+        }
+
+        public void setExemptPathPrefixes(final List<String> exemptPathPrefixes) {
+            this.exemptPathPrefixes = exemptPathPrefixes;
+        }
+
+        public enum Algorithm {
+            /** Grows while latency stays near its long-term baseline and shrinks as it rises above it. */
+            GRADIENT,
+            /** Adds one while requests are fast, multiplies by {@code backoff-ratio} when one is slow or fails. */
+            AIMD
+        }
+    }
+
+    /**
+     * Token buckets per user and/or action; a request finding any of its buckets empty is rejected with 429 and
+     * {@code Retry-After}.
+     */
+    public static class RateLimit {
+        private boolean enabled;
+        /** Buckets kept at most; beyond this, callers without one share each quota's overflow bucket. */
+        private int maxBuckets = 100_000;
+        /** A bucket that stayed full this long is dropped; idle buckets are swept this often. */
+        private Duration idleTimeout = Duration.ofMinutes(10);
+        /** Every quota whose action pattern matches applies. */
+        private List<Quota> quotas = new ArrayList<>();
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxBuckets() {
+            return maxBuckets;
+        }
+
+        public void setMaxBuckets(final int maxBuckets) {
+            this.maxBuckets = maxBuckets;
+        }
+
+        public Duration getIdleTimeout() {
+            return idleTimeout;
+        }
+
+        public void setIdleTimeout(final Duration idleTimeout) {
+            this.idleTimeout = idleTimeout;
+        }
+
+        public List<Quota> getQuotas() {
+            return quotas;
+        }
+
+        public void setQuotas(final List<Quota> quotas) {
+            this.quotas = quotas;
+        }
+
+        public static class Quota {
+            /** Action name, or a prefix ending in {@code *}; {@code *} alone matches every action. */
+            private String action = "*";
+            private Key key = Key.USER;
+            /** Requests a full bucket admits at once. */
+            private int capacity = 20;
+            /** Tokens added per second. */
+            private double refillPerSecond = 10;
+
+            public String getAction() {
+                return action;
+            }
+
+            public void setAction(final String action) {
+                this.action = action;
+            }
+
+            public Key getKey() {
+                return key;
+            }
+
+            public void setKey(final Key key) {
+                this.key = key;
+            }
+
+            public int getCapacity() {
+                return capacity;
+            }
+
+            public void setCapacity(final int capacity) {
+                this.capacity = capacity;
+            }
+
+            public double getRefillPerSecond() {
+                return refillPerSecond;
+            }
+
+            public void setRefillPerSecond(final double refillPerSecond) {
+                this.refillPerSecond = refillPerSecond;
+            }
+        }
+
+        public enum Key {
+            /** One bucket per user, shared by the actions the quota matches. */
+            USER,
+            /** One bucket per action, shared by all users. */
+            ACTION,
+            /** One bucket per user and action. */
+            USER_AND_ACTION
+        }
+    }
 }
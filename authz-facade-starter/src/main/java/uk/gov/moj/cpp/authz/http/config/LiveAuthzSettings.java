@@ -0,0 +1,50 @@
+package uk.gov.moj.cpp.authz.http.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.function.Supplier;
+
+/**
+ * The current {@link AuthzSettings}, swapped whole on {@link #refresh()}. A request reads the reference once and
+ * works with that snapshot throughout, so it never sees half of a configuration change.
+ */
+public final class LiveAuthzSettings {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LiveAuthzSettings.class);
+
+    private final Supplier<AuthzSettings> compiler;
+    private volatile AuthzSettings published;
+
+    /**
+     * @param compiler compiles the settings from the current configuration; called now and on every refresh
+     */
+    public LiveAuthzSettings(final Supplier<AuthzSettings> compiler) {
+        this.compiler = compiler;
+        this.published = compiler.get();
+    }
+
+    /**
+     * Settings that never change.
+     */
+    public static LiveAuthzSettings fixed(final AuthzSettings settings) {
+        return new LiveAuthzSettings(() -> settings);
+    }
+
+    public AuthzSettings current() {
+        return published;
+    }
+
+    /**
+     * Compiles the configuration again and publishes the result; a configuration that fails to compile leaves the
+     * current settings in place.
+     */
+    public void refresh() {
+        try {
+            published = compiler.get();
+            LOGGER.info("Authz settings refreshed");
+        } catch (final RuntimeException invalid) {
+            LOGGER.warn("Keeping the current authz settings; the refreshed configuration did not compile", invalid);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package uk.gov.moj.cpp.authz.http.deadline;
+
+/**
+ * Raised when a request's authorization deadline passes before a stage could finish, so the filter can give up
+ * instead of doing work the caller has abandoned.
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    public static final String ARRIVAL = "arrival";
+    public static final String IDENTITY = "identity";
+    public static final String RULES = "rules";
+
+    private static final long serialVersionUID = 1L;
+
+    private final String stage;
+
+    public DeadlineExceededException(final String stage) {
+        super("Authorization deadline exceeded during " + stage);
+        this.stage = stage;
+    }
+
+    /**
+     * @return where the budget ran out: {@link #ARRIVAL}, {@link #IDENTITY} or {@link #RULES}
+     */
+    public String getStage() {
+        return stage;
+    }
+}
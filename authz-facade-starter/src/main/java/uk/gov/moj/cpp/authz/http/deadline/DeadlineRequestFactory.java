@@ -0,0 +1,54 @@
+package uk.gov.moj.cpp.authz.http.deadline;
+
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A {@link SimpleClientHttpRequestFactory} that cuts its connect and read timeouts to what is left of the deadline the
+ * calling thread passed to {@link #within(RequestDeadline, Supplier)}, so a remote call that would outlive its request
+ * fails with a socket timeout instead of running on.
+ */
+public final class DeadlineRequestFactory extends SimpleClientHttpRequestFactory {
+
+    private static final ThreadLocal<RequestDeadline> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Runs {@code call} with connections opened on this thread limited to {@code deadline}.
+     */
+    public static <T> T within(final RequestDeadline deadline, final Supplier<T> call) {
+        final RequestDeadline previous = CURRENT.get();
+        CURRENT.set(deadline);
+        try {
+            return call.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    @Override
+    protected void prepareConnection(final HttpURLConnection connection, final String httpMethod) throws IOException {
+        super.prepareConnection(connection, httpMethod);
+        final RequestDeadline deadline = CURRENT.get();
+        if (deadline != null && deadline.isBounded()) {
+            final long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline.remainingNanos());
+            final int budgetMillis = (int) Math.max(1, Math.min(Integer.MAX_VALUE, remainingMillis));
+            connection.setConnectTimeout(shorter(connection.getConnectTimeout(), budgetMillis));
+            connection.setReadTimeout(shorter(connection.getReadTimeout(), budgetMillis));
+        }
+    }
+
+    /**
+     * @param configuredMillis zero means no timeout
+     */
+    private static int shorter(final int configuredMillis, final int budgetMillis) {
+        return configuredMillis > 0 ? Math.min(configuredMillis, budgetMillis) : budgetMillis;
+    }
+}
@@ -0,0 +1,89 @@
+package uk.gov.moj.cpp.authz.http.deadline;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Works out each request's authorization deadline from the configured route budgets and the caller's deadline
+ * header, and counts the requests that ran out of time.
+ * <p>
+ * The header carries the caller's remaining budget in milliseconds (relative, so client and server clocks need not
+ * agree). It can only tighten a configured budget, never extend it; malformed values are ignored.
+ */
+public final class Deadlines {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Deadlines.class);
+    private static final String METRIC = "authz.deadline.exceeded";
+
+    private final boolean enabled;
+    private final String header;
+    private final Duration defaultBudget;
+    private final List<HttpAuthzProperties.Deadline.Route> routes;
+    private final MeterRegistry meterRegistry;
+
+    public Deadlines(final HttpAuthzProperties.Deadline config, final MeterRegistry meterRegistry) {
+        this.enabled = config.isEnabled();
+        this.header = config.getHeader();
+        this.defaultBudget = config.getDefaultBudget();
+        this.routes = config.getRoutes().stream()
+                .sorted(Comparator.comparingInt((HttpAuthzProperties.Deadline.Route route) -> route.getPathPrefix().length())
+                        .reversed())
+                .toList();
+        this.meterRegistry = meterRegistry;
+    }
+
+    public static Deadlines disabled() {
+        return new Deadlines(new HttpAuthzProperties.Deadline(), Metrics.globalRegistry);
+    }
+
+    public RequestDeadline resolve(final HttpServletRequest request, final String pathWithinApplication) {
+        RequestDeadline deadline = RequestDeadline.none();
+        if (enabled) {
+            final Duration budget = routeBudget(pathWithinApplication);
+            if (!budget.isZero()) {
+                deadline = RequestDeadline.after(budget);
+            }
+            final String presented = request.getHeader(header);
+            if (presented != null) {
+                deadline = deadline.earliest(fromHeader(presented));
+            }
+        }
+        return deadline;
+    }
+
+    /**
+     * Records a request abandoned because its deadline passed during {@code stage}.
+     */
+    public void exceeded(final String stage) {
+        meterRegistry.counter(METRIC, "stage", stage).increment();
+    }
+
+    private Duration routeBudget(final String path) {
+        Duration budget = defaultBudget;
+        for (final HttpAuthzProperties.Deadline.Route route : routes) {
+            if (path.startsWith(route.getPathPrefix())) {
+                budget = route.getBudget();
+                break;
+            }
+        }
+        return budget;
+    }
+
+    private RequestDeadline fromHeader(final String presented) {
+        RequestDeadline deadline = RequestDeadline.none();
+        try {
+            deadline = RequestDeadline.after(Duration.ofMillis(Long.parseLong(presented.trim())));
+        } catch (final NumberFormatException malformed) {
+            LOGGER.debug("Ignoring malformed {} header '{}'", header, presented);
+        }
+        return deadline;
+    }
+}
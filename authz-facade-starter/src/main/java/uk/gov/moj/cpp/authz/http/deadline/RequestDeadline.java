@@ -0,0 +1,69 @@
+package uk.gov.moj.cpp.authz.http.deadline;
+
+import java.time.Duration;
+
+/**
+ * The point in time by which a request's authorization must be decided, carried from the filter into the identity
+ * call and rule evaluation so each stage only spends what is left.
+ */
+public final class RequestDeadline {
+
+    private static final RequestDeadline UNBOUNDED = new RequestDeadline(0, false);
+
+    private final long expiresAtNanos;
+    private final boolean bounded;
+
+    private RequestDeadline(final long expiresAtNanos, final boolean bounded) {
+        this.expiresAtNanos = expiresAtNanos;
+        this.bounded = bounded;
+    }
+
+    public static RequestDeadline none() {
+        return UNBOUNDED;
+    }
+
+    /**
+     * @param budget time allowed from now; negative budgets give a deadline that has already passed
+     */
+    public static RequestDeadline after(final Duration budget) {
+        final long budgetNanos = budget.compareTo(Duration.ofDays(1)) > 0 ? Duration.ofDays(1).toNanos() : budget.toNanos();
+        return new RequestDeadline(System.nanoTime() + budgetNanos, true);
+    }
+
+    public boolean isBounded() {
+        return bounded;
+    }
+
+    /**
+     * @return nanoseconds left, zero or negative once passed, {@link Long#MAX_VALUE} when unbounded
+     */
+    public long remainingNanos() {
+        return bounded ? expiresAtNanos - System.nanoTime() : Long.MAX_VALUE;
+    }
+
+    public boolean isExpired() {
+        return bounded && remainingNanos() <= 0;
+    }
+
+    /**
+     * @return whichever of the two deadlines comes first
+     */
+    public RequestDeadline earliest(final RequestDeadline other) {
+        final boolean otherFirst = other.bounded && (!bounded || other.expiresAtNanos - expiresAtNanos < 0);
+        return otherFirst ? other : this;
+    }
+
+    /**
+     * @throws DeadlineExceededException naming {@code stage} if the deadline has passed
+     */
+    public void check(final String stage) {
+        if (isExpired()) {
+            throw new DeadlineExceededException(stage);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return bounded ? "RequestDeadline[" + Duration.ofNanos(remainingNanos()).toMillis() + " ms left]" : "RequestDeadline[none]";
+    }
+}
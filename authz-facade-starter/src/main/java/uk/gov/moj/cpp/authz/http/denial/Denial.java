@@ -0,0 +1,34 @@
+package uk.gov.moj.cpp.authz.http.denial;
+
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpStatus;
+
+/**
+ * The ways {@code HttpAuthzFilter} rejects a request, each with its status and problem title.
+ */
+public enum Denial {
+    MISSING_ACTION(HttpServletResponse.SC_BAD_REQUEST, "Bad Request"),
+    MISSING_CREDENTIAL(HttpServletResponse.SC_UNAUTHORIZED, "Unauthorized"),
+    INVALID_TOKEN(HttpServletResponse.SC_UNAUTHORIZED, "Unauthorized"),
+    ACCESS_DENIED(HttpServletResponse.SC_FORBIDDEN, "Forbidden"),
+    RATE_LIMITED(HttpStatus.TOO_MANY_REQUESTS.value(), "Too Many Requests"),
+    IDENTITY_UNAVAILABLE(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Service Unavailable"),
+    OVERLOADED(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Service Unavailable"),
+    DEADLINE_EXCEEDED(HttpServletResponse.SC_GATEWAY_TIMEOUT, "Gateway Timeout");
+
+    private final int status;
+    private final String title;
+
+    Denial(final int status, final String title) {
+        this.status = status;
+        this.title = title;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+}
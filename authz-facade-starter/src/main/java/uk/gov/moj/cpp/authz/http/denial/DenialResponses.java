@@ -0,0 +1,92 @@
+package uk.gov.moj.cpp.authz.http.denial;
+
+import jakarta.servlet.http.HttpServletResponse;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties.DenialFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Answers rejected requests in the configured {@link DenialFormat}.
+ * <p>
+ * In {@link DenialFormat#PROBLEM_JSON} mode every body is serialized once, at construction, into an RFC 9457
+ * {@code application/problem+json} document; a denial then only sets the status and headers and copies the bytes,
+ * without the container's error dispatch or Spring's error rendering. {@link DenialFormat#ERROR_DISPATCH} keeps the
+ * previous {@code sendError} behaviour.
+ */
+public final class DenialResponses {
+
+    public static final String PROBLEM_JSON = "application/problem+json";
+    private static final char FIRST_PRINTABLE = ' ';
+
+    private final DenialFormat format;
+    private final Map<Denial, String> details;
+    private final Map<Denial, byte[]> bodies = new EnumMap<>(Denial.class);
+
+    /**
+     * @param details the human-readable detail of each denial; a denial without one uses its title
+     */
+    public DenialResponses(final DenialFormat format, final Map<Denial, String> details) {
+        this.format = format;
+        this.details = new EnumMap<>(Denial.class);
+        for (final Denial denial : Denial.values()) {
+            final String detail = details.getOrDefault(denial, denial.getTitle());
+            this.details.put(denial, detail);
+            bodies.put(denial, serialize(denial, detail));
+        }
+    }
+
+    public void send(final HttpServletResponse response, final Denial denial) throws IOException {
+        if (format == DenialFormat.PROBLEM_JSON) {
+            final byte[] body = bodies.get(denial);
+            response.setStatus(denial.getStatus());
+            response.setContentType(PROBLEM_JSON);
+            response.setContentLength(body.length);
+            response.setHeader("Cache-Control", "no-store");
+            response.getOutputStream().write(body);
+            response.flushBuffer();
+        } else {
+            response.sendError(denial.getStatus(), details.get(denial));
+        }
+    }
+
+    public DenialFormat getFormat() {
+        return format;
+    }
+
+    public String detail(final Denial denial) {
+        return details.get(denial);
+    }
+
+    /**
+     * The pre-serialized problem document of {@code denial}, for writers other than a servlet response.
+     */
+    public ByteBuffer body(final Denial denial) {
+        return ByteBuffer.wrap(bodies.get(denial)).asReadOnlyBuffer();
+    }
+
+    private static byte[] serialize(final Denial denial, final String detail) {
+        final String json = "{\"type\":\"about:blank\",\"title\":\"" + escape(denial.getTitle())
+                + "\",\"status\":" + denial.getStatus()
+                + ",\"detail\":\"" + escape(detail) + "\"}";
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String escape(final String text) {
+        final StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            final char character = text.charAt(i);
+            if (character == '"' || character == '\\') {
+                escaped.append('\\').append(character);
+            } else if (character < FIRST_PRINTABLE) {
+                escaped.append(String.format("\\u%04x", (int) character));
+            } else {
+                escaped.append(character);
+            }
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,6 @@
+package uk.gov.moj.cpp.authz.http.dto;
+
+import java.util.List;
+
+public record BulkPermissionsRequest(List<String> userIds) {
+}
@@ -0,0 +1,14 @@
+package uk.gov.moj.cpp.authz.http.dto;
+
+import java.util.List;
+
+public record BulkPermissionsResponse(List<UserPermissions> users) {
+
+    public record UserPermissions(
+            String userId,
+            List<UserGroup> groups,
+            List<SwitchableRole> switchableRoles,
+            List<UserPermission> permissions
+    ) {
+    }
+}
@@ -0,0 +1,251 @@
+package uk.gov.moj.cpp.authz.http.intern;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Immutable, interned set of group names: a sorted array of canonical strings with a precomputed hash.
+ * Thousands of users share a handful of group combinations, so principals, cached identities and decision-cache
+ * keys all point at the same few instances, and equality checks between them are usually a reference comparison.
+ * <p>
+ * Each set also has a 64-bit {@link #fingerprint()} that is identical in every JVM and a compact binary form
+ * ({@link #encode(int)}) for carrying it in tokens. {@link #decode(byte[], int, int)} finds the canonical set for an
+ * encoded one by fingerprint and compares the names in place, so decoding a set this JVM already holds allocates no
+ * strings.
+ */
+@SuppressWarnings("PMD.LooseCoupling") // the concrete type is the point: callers can rely on interning
+public final class GroupSet extends AbstractSet<String> {
+
+    private static final int MAX_SETS = 50_000;
+    private static final Interner<String> NAMES = new Interner<>(MAX_SETS);
+    private static final Interner<GroupSet> SETS = new Interner<>(MAX_SETS);
+    private static final ConcurrentMap<Long, GroupSet> BY_FINGERPRINT = new ConcurrentHashMap<>();
+    private static final GroupSet EMPTY = register(SETS.intern(new GroupSet(new String[0])));
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int MAX_UNSIGNED_SHORT = 0xFFFF;
+    private static final int BYTE_MASK = 0xFF;
+
+    private final String[] names;
+    private final int hash;
+    private final long stableHash;
+
+    private GroupSet(final String... sortedDistinctNames) {
+        super();
+        this.names = sortedDistinctNames;
+        int sum = 0;
+        for (final String name : sortedDistinctNames) {
+            sum += name.hashCode();
+        }
+        this.hash = sum;
+        this.stableHash = computeFingerprint(sortedDistinctNames);
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-16 code units of the sorted names, each followed by a zero separator.
+     */
+    private static long computeFingerprint(final String... sortedNames) {
+        long value = FNV_OFFSET;
+        for (final String name : sortedNames) {
+            for (int i = 0; i < name.length(); i++) {
+                value = (value ^ name.charAt(i)) * FNV_PRIME;
+            }
+            value *= FNV_PRIME;
+        }
+        return value;
+    }
+
+    /**
+     * @return the canonical set holding the non-null names in {@code groups}
+     */
+    public static GroupSet intern(final Collection<String> groups) {
+        if (groups instanceof GroupSet groupSet) {
+            return groupSet;
+        }
+        final String[] sorted = groups.stream().filter(Objects::nonNull).distinct().sorted().toArray(String[]::new);
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = NAMES.intern(sorted[i]);
+        }
+        final GroupSet canonical;
+        if (sorted.length == 0) {
+            canonical = EMPTY;
+        } else {
+            final GroupSet candidate = new GroupSet(sorted);
+            canonical = SETS.intern(candidate);
+            if (canonical == candidate) { // NOPMD - CompareObjectsWithEquals: only newly interned sets are registered
+                register(canonical);
+            }
+        }
+        return canonical;
+    }
+
+    /**
+     * The set encoded by {@link #encode(int)} in {@code bytes[offset, end)}, as its canonical instance.
+     *
+     * @return empty unless the range holds exactly one encoded set
+     */
+    public static Optional<GroupSet> decode(final byte[] bytes, final int offset, final int end) {
+        Optional<GroupSet> decoded = Optional.empty();
+        if (end - offset >= Short.BYTES) {
+            final int count = unsignedShort(bytes, offset);
+            long fingerprint = FNV_OFFSET;
+            boolean ascii = true;
+            int position = offset + Short.BYTES;
+            int read = 0;
+            while (read < count && position + Short.BYTES <= end) {
+                final int nameEnd = position + Short.BYTES + unsignedShort(bytes, position);
+                for (int i = position + Short.BYTES; i < Math.min(nameEnd, end); i++) {
+                    ascii &= bytes[i] >= 0;
+                    fingerprint = (fingerprint ^ (bytes[i] & BYTE_MASK)) * FNV_PRIME;
+                }
+                fingerprint *= FNV_PRIME;
+                position = nameEnd;
+                read++;
+            }
+            if (read == count && position == end) {
+                final GroupSet known = ascii ? BY_FINGERPRINT.get(fingerprint) : null;
+                decoded = Optional.of(known != null && known.matches(bytes, offset + Short.BYTES)
+                        ? known
+                        : intern(readNames(bytes, offset + Short.BYTES, count)));
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * An unsigned 16-bit count, then each sorted name as an unsigned 16-bit length and its UTF-8 bytes.
+     *
+     * @return empty if the encoding would be longer than {@code maxBytes}
+     */
+    public Optional<byte[]> encode(final int maxBytes) {
+        final byte[][] encodedNames = new byte[names.length][];
+        int size = Short.BYTES;
+        for (int i = 0; i < names.length; i++) {
+            encodedNames[i] = names[i].getBytes(StandardCharsets.UTF_8);
+            size += Short.BYTES + encodedNames[i].length;
+        }
+        Optional<byte[]> encoded = Optional.empty();
+        if (size <= Math.min(maxBytes, MAX_UNSIGNED_SHORT)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(size).putShort((short) names.length);
+            for (final byte[] name : encodedNames) {
+                buffer.putShort((short) name.length).put(name);
+            }
+            encoded = Optional.of(buffer.array());
+        }
+        return encoded;
+    }
+
+    /**
+     * Compares ASCII names encoded from {@code position} with this set's names without decoding them.
+     */
+    private boolean matches(final byte[] bytes, final int position) {
+        boolean same = unsignedShort(bytes, position - Short.BYTES) == names.length;
+        int cursor = position;
+        for (int n = 0; n < names.length && same; n++) {
+            final String name = names[n];
+            same = unsignedShort(bytes, cursor) == name.length();
+            cursor += Short.BYTES;
+            for (int i = 0; i < name.length() && same; i++) {
+                same = bytes[cursor + i] == name.charAt(i);
+            }
+            cursor += name.length();
+        }
+        return same;
+    }
+
+    private static List<String> readNames(final byte[] bytes, final int position, final int count) {
+        final List<String> read = new ArrayList<>(count);
+        int cursor = position;
+        for (int n = 0; n < count; n++) {
+            final int length = unsignedShort(bytes, cursor);
+            read.add(new String(bytes, cursor + Short.BYTES, length, StandardCharsets.UTF_8));
+            cursor += Short.BYTES + length;
+        }
+        return read;
+    }
+
+    private static int unsignedShort(final byte[] bytes, final int position) {
+        return (bytes[position] & BYTE_MASK) << Byte.SIZE | bytes[position + 1] & BYTE_MASK;
+    }
+
+    private static GroupSet register(final GroupSet groupSet) {
+        if (BY_FINGERPRINT.size() < MAX_SETS) {
+            BY_FINGERPRINT.putIfAbsent(groupSet.stableHash, groupSet);
+        }
+        return groupSet;
+    }
+
+    public long fingerprint() {
+        return stableHash;
+    }
+
+    @Override
+    public boolean contains(final Object candidate) {
+        return candidate instanceof String name && Arrays.binarySearch(names, name) >= 0;
+    }
+
+    public boolean containsIgnoreCase(final String candidate) {
+        boolean found = false;
+        for (final String name : names) {
+            if (name.equalsIgnoreCase(candidate)) {
+                found = true;
+                break;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public int size() {
+        return names.length;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<>() {
+            private int position;
+
+            @Override
+            public boolean hasNext() {
+                return position < names.length;
+            }
+
+            @Override
+            public String next() {
+                if (position >= names.length) {
+                    throw new NoSuchElementException();
+                }
+                return names[position++];
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        final boolean equal;
+        if (this == other) {
+            equal = true;
+        } else if (other instanceof GroupSet groupSet) {
+            equal = hash == groupSet.hash && Arrays.equals(names, groupSet.names);
+        } else {
+            equal = super.equals(other);
+        }
+        return equal;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,40 @@
+package uk.gov.moj.cpp.authz.http.intern;
+
+import uk.gov.moj.cpp.authz.http.IdentityResponse;
+import uk.gov.moj.cpp.authz.http.dto.UserGroup;
+import uk.gov.moj.cpp.authz.http.dto.UserPermission;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Shares the group and permission lists of identities across users: every cached identity with the same
+ * groups points at one immutable list of canonical {@link UserGroup} records.
+ */
+public final class IdentityInterner {
+
+    private static final int MAX_ENTRIES = 50_000;
+    private static final Interner<UserGroup> GROUPS = new Interner<>(MAX_ENTRIES);
+    private static final Interner<List<UserGroup>> GROUP_LISTS = new Interner<>(MAX_ENTRIES);
+    private static final Interner<UserPermission> PERMISSIONS = new Interner<>(MAX_ENTRIES);
+    private static final Interner<List<UserPermission>> PERMISSION_LISTS = new Interner<>(MAX_ENTRIES);
+
+    private IdentityInterner() {
+    }
+
+    public static IdentityResponse intern(final IdentityResponse identity) {
+        return new IdentityResponse(identity.userId(),
+                internList(identity.groups(), GROUPS, GROUP_LISTS),
+                internList(identity.permissions(), PERMISSIONS, PERMISSION_LISTS));
+    }
+
+    private static <T> List<T> internList(final List<T> values, final Interner<T> elements, final Interner<List<T>> lists) {
+        final List<T> canonical;
+        if (values == null || values.isEmpty()) {
+            canonical = List.of();
+        } else {
+            canonical = lists.intern(values.stream().filter(Objects::nonNull).map(elements::intern).toList());
+        }
+        return canonical;
+    }
+}
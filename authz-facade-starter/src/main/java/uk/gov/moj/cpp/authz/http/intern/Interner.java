@@ -0,0 +1,34 @@
+package uk.gov.moj.cpp.authz.http.intern;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Bounded canonicaliser: equal values share one instance. Once {@code maxEntries} distinct values are held,
+ * new values are returned as they are rather than evicting, so a burst of unique values cannot churn the table.
+ */
+public final class Interner<T> {
+
+    private final ConcurrentMap<T, T> canonical = new ConcurrentHashMap<>();
+    private final int maxEntries;
+
+    public Interner(final int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public T intern(final T value) {
+        final T existing = canonical.get(value);
+        if (existing != null) {
+            return existing;
+        }
+        if (canonical.size() >= maxEntries) {
+            return value;
+        }
+        final T raced = canonical.putIfAbsent(value, value);
+        return raced == null ? value : raced;
+    }
+
+    public int size() {
+        return canonical.size();
+    }
+}
@@ -0,0 +1,215 @@
+package uk.gov.moj.cpp.authz.http.reactive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import uk.gov.moj.cpp.access.path.Bypass;
+import uk.gov.moj.cpp.authz.drools.Action;
+import uk.gov.moj.cpp.authz.drools.DroolsAuthzEngine;
+import uk.gov.moj.cpp.authz.http.AuthzPrincipal;
+import uk.gov.moj.cpp.authz.http.IdentityRejectedException;
+import uk.gov.moj.cpp.authz.http.IdentityResponse;
+import uk.gov.moj.cpp.authz.http.IdentityToGroupsMapper;
+import uk.gov.moj.cpp.authz.http.IdentityUnavailableException;
+import uk.gov.moj.cpp.authz.http.RequestActionResolver;
+import uk.gov.moj.cpp.authz.http.RequestActionResolver.ResolvedAction;
+import uk.gov.moj.cpp.authz.http.cache.DecisionCache;
+import uk.gov.moj.cpp.authz.http.config.AuthzSettings;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties.DenialFormat;
+import uk.gov.moj.cpp.authz.http.config.LiveAuthzSettings;
+import uk.gov.moj.cpp.authz.http.denial.Denial;
+import uk.gov.moj.cpp.authz.http.denial.DenialResponses;
+import uk.gov.moj.cpp.authz.http.providers.RequestUserAndGroupProvider;
+import uk.gov.moj.cpp.authz.http.resilience.RateLimiter;
+import uk.gov.moj.cpp.authz.http.route.RouteIndex;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WebFlux counterpart of {@code HttpAuthzFilter}. Nothing blocks the event loop: the identity comes from a
+ * {@link ReactiveIdentityClient} and the Drools rules, which are synchronous, run on {@code rulesScheduler}. The
+ * principal is published as the {@link AuthzPrincipal} exchange attribute.
+ * <p>
+ * Header names, the path policy and the denials are read from {@link LiveAuthzSettings} once per request, as in the
+ * servlet filter, and requests are rate limited the same way. Identities come from the identity service only
+ * (identity source {@code REMOTE}); decision tokens, deadlines, the concurrency limit and the servlet async and
+ * dispatcher settings have no reactive equivalent here.
+ */
+public final class ReactiveHttpAuthzFilter implements WebFilter, Ordered {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReactiveHttpAuthzFilter.class);
+    private static final MediaType PROBLEM_JSON = MediaType.parseMediaType(DenialResponses.PROBLEM_JSON);
+    private final int order;
+    private final ReactiveIdentityClient identityClient;
+    private final IdentityToGroupsMapper identityToGroupsMapper;
+    private final DroolsAuthzEngine droolsAuthzEngine;
+    private final DecisionCache decisionCache;
+    private final LiveAuthzSettings settings;
+    private final RouteIndex routes;
+    private final RateLimiter rateLimiter;
+    private final Scheduler rulesScheduler;
+
+    /**
+     * @param settings       the compiled request-time settings, read once per request
+     * @param rateLimiter    token buckets per user and/or action; a request finding one empty is answered 429 with
+     *                       {@code Retry-After} before the identity lookup
+     * @param rulesScheduler bounded scheduler the rules are evaluated on
+     */
+    public ReactiveHttpAuthzFilter(final HttpAuthzProperties properties,
+                                   final ReactiveIdentityClient identityClient,
+                                   final IdentityToGroupsMapper identityToGroupsMapper,
+                                   final DroolsAuthzEngine droolsAuthzEngine,
+                                   final DecisionCache decisionCache,
+                                   final LiveAuthzSettings settings,
+                                   final RouteIndex routes,
+                                   final RateLimiter rateLimiter,
+                                   final Scheduler rulesScheduler) {
+        this.order = properties.getFilterOrder() != null ? properties.getFilterOrder() : HIGHEST_PRECEDENCE + 30;
+        this.identityClient = identityClient;
+        this.identityToGroupsMapper = identityToGroupsMapper;
+        this.droolsAuthzEngine = droolsAuthzEngine;
+        this.decisionCache = decisionCache;
+        this.settings = settings;
+        this.routes = routes;
+        this.rateLimiter = rateLimiter;
+        this.rulesScheduler = rulesScheduler;
+    }
+
+    @Override
+    public int getOrder() {
+        return order;
+    }
+
+    @Override
+    public Mono<Void> filter(final ServerWebExchange exchange, final WebFilterChain chain) {
+        final Mono<Void> result;
+        final AuthzSettings current = settings.current();
+        final ServerHttpRequest request = exchange.getRequest();
+        final String pathWithinApplication = request.getPath().pathWithinApplication().value();
+
+        if (current.pathPolicy().bypasses(pathWithinApplication, Bypass.AUTHZ)) {
+            result = chain.filter(exchange);
+        } else {
+            final String userId = request.getHeaders().getFirst(current.credentialHeader(false));
+            if (StringUtils.hasText(userId)) {
+                final ResolvedAction resolved = RequestActionResolver.resolve(request.getMethod().name(),
+                        request.getHeaders().getFirst(HttpHeaders.CONTENT_TYPE), request.getHeaders()::getFirst,
+                        current.actionHeader(),
+                        pathWithinApplication, routes);
+
+                if (current.isActionRequired() && !(resolved.vendorSupplied() || resolved.headerSupplied())) {
+                    result = deny(exchange, current, Denial.MISSING_ACTION);
+                } else if (current.isRateLimited() && throttled(exchange, userId, resolved.name())) {
+                    result = deny(exchange, current, Denial.RATE_LIMITED);
+                } else {
+                    result = authorize(exchange, userId, resolved, pathWithinApplication)
+                            .flatMap(denial -> denial.isPresent()
+                                    ? deny(exchange, current, denial.get())
+                                    : chain.filter(exchange));
+                }
+            } else {
+                result = deny(exchange, current, Denial.MISSING_CREDENTIAL);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Takes a token for the caller and action from each matching rate limit bucket (which never blocks); when one is
+     * empty, tells the caller when to retry.
+     */
+    private boolean throttled(final ServerWebExchange exchange, final String userId, final String action) {
+        final long waitNanos = rateLimiter.acquire(userId, action);
+        final boolean throttled = waitNanos > 0;
+        if (throttled) {
+            exchange.getResponse().getHeaders().set(HttpHeaders.RETRY_AFTER,
+                    Long.toString(Math.max(1, Math.ceilDiv(waitNanos, TimeUnit.SECONDS.toNanos(1)))));
+        }
+        return throttled;
+    }
+
+    /**
+     * Emits the denial to answer with, empty when the request is allowed.
+     */
+    private Mono<Optional<Denial>> authorize(final ServerWebExchange exchange,
+                                             final String userId,
+                                             final ResolvedAction resolved,
+                                             final String pathWithinApplication) {
+        return identityClient.fetchIdentity(userId)
+                .flatMap(identity -> decide(exchange, identity, resolved, pathWithinApplication))
+                .onErrorResume(IdentityUnavailableException.class, unavailable -> {
+                    LOGGER.warn("Denying request for userId={}: {}", userId, unavailable.getMessage());
+                    return Mono.just(Optional.of(Denial.IDENTITY_UNAVAILABLE));
+                })
+                .onErrorResume(IdentityRejectedException.class, rejected -> {
+                    LOGGER.warn("Denying request for userId={}: {}", userId, rejected.getMessage());
+                    return Mono.just(Optional.of(Denial.ACCESS_DENIED));
+                });
+    }
+
+    private Mono<Optional<Denial>> decide(final ServerWebExchange exchange,
+                                          final IdentityResponse identity,
+                                          final ResolvedAction resolved,
+                                          final String pathWithinApplication) {
+        final Set<String> groups = identityToGroupsMapper.toGroups(identity);
+        final AuthzPrincipal principal = new AuthzPrincipal(identity.userId(), null, null, null, groups);
+        exchange.getAttributes().put(AuthzPrincipal.class.getName(), principal);
+
+        final String method = exchange.getRequest().getMethod().name();
+        final Map<String, Object> attributes = new HashMap<>(resolved.pathVariables());
+        attributes.put("method", method);
+        attributes.put("path", pathWithinApplication);
+        final Action action = new Action(resolved.name(), attributes);
+
+        final Optional<Boolean> cachedDecision = decisionCache.get(principal.userId(), groups, action);
+        final Mono<Boolean> allowed;
+        if (cachedDecision.isPresent()) {
+            allowed = Mono.just(cachedDecision.get());
+        } else {
+            allowed = Mono.fromCallable(() ->
+                            droolsAuthzEngine.evaluate(new RequestUserAndGroupProvider(principal), action))
+                    .subscribeOn(rulesScheduler)
+                    .doOnNext(decision -> decisionCache.put(principal.userId(), groups, action, decision));
+        }
+        return allowed.map(decision -> decision ? Optional.<Denial>empty() : Optional.of(Denial.ACCESS_DENIED));
+    }
+
+    /**
+     * Writes the pre-serialized problem document, or hands the status to WebFlux's error handling, the reactive
+     * counterpart of the servlet error dispatch.
+     */
+    private Mono<Void> deny(final ServerWebExchange exchange, final AuthzSettings current, final Denial denial) {
+        final DenialResponses denials = current.denials(false);
+        final Mono<Void> denied;
+        if (denials.getFormat() == DenialFormat.PROBLEM_JSON) {
+            final ServerHttpResponse response = exchange.getResponse();
+            final ByteBuffer body = denials.body(denial);
+            response.setStatusCode(HttpStatusCode.valueOf(denial.getStatus()));
+            response.getHeaders().setContentType(PROBLEM_JSON);
+            response.getHeaders().setContentLength(body.remaining());
+            response.getHeaders().setCacheControl("no-store");
+            denied = response.writeWith(Mono.fromSupplier(() -> response.bufferFactory().wrap(body)));
+        } else {
+            denied = Mono.error(new ResponseStatusException(HttpStatusCode.valueOf(denial.getStatus()),
+                    denials.detail(denial)));
+        }
+        return denied;
+    }
+}
@@ -0,0 +1,142 @@
+package uk.gov.moj.cpp.authz.http.reactive;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import uk.gov.moj.cpp.authz.http.IdentityMetrics;
+import uk.gov.moj.cpp.authz.http.IdentityMetrics.FallbackReason;
+import uk.gov.moj.cpp.authz.http.IdentityRejectedException;
+import uk.gov.moj.cpp.authz.http.IdentityResponse;
+import uk.gov.moj.cpp.authz.http.IdentityUnavailableException;
+import uk.gov.moj.cpp.authz.http.cache.IdentityCache;
+import uk.gov.moj.cpp.authz.http.cache.IdentityCache.CachedIdentity;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties.IdentityFallback;
+import uk.gov.moj.cpp.authz.http.dto.LoggedInUserPermissionsResponse;
+import uk.gov.moj.cpp.authz.http.intern.IdentityInterner;
+import uk.gov.moj.cpp.authz.http.resilience.IdentityCircuitBreaker;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Non-blocking counterpart of {@code IdentityClient} for the WebFlux filter. It shares the identity cache (and so
+ * invalidation, snapshots and warm-up) and applies the same circuit breaker and fallback policy; hedging, batching,
+ * the bulkhead, load balancing and conditional revalidation are left to the servlet client.
+ */
+public final class ReactiveIdentityClient {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReactiveIdentityClient.class);
+    private static final String USER_ID_VARIABLE = "{userId}";
+    private final HttpAuthzProperties properties;
+    private final WebClient webClient;
+    private final IdentityCache identityCache;
+    private final IdentityCircuitBreaker circuitBreaker;
+    private final IdentityMetrics metrics;
+    private final long cacheTtlMillis;
+    private final boolean storeIdentities;
+    private final Duration timeout;
+
+    public ReactiveIdentityClient(final HttpAuthzProperties properties,
+                                  final WebClient webClient,
+                                  final IdentityCache identityCache,
+                                  final MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.webClient = webClient;
+        this.identityCache = identityCache;
+        this.metrics = new IdentityMetrics(meterRegistry);
+        this.circuitBreaker = new IdentityCircuitBreaker(properties.getCircuitBreaker(), meterRegistry);
+        this.cacheTtlMillis = properties.getIdentityCache().getTtl().toMillis();
+        this.storeIdentities = cacheTtlMillis > 0 || properties.getIdentityFallback() == IdentityFallback.LAST_KNOWN;
+        this.timeout = properties.getReactive().getIdentityTimeout();
+    }
+
+    /**
+     * Emits the user's identity from the cache while it is fresh, otherwise from the identity service.
+     * Fails with {@link IdentityUnavailableException} when the service cannot be used and the fallback has nothing
+     * to serve.
+     */
+    public Mono<IdentityResponse> fetchIdentity(final String userId) {
+        final Mono<IdentityResponse> identity;
+        final Optional<CachedIdentity> cached = cacheTtlMillis > 0 ? identityCache.get(userId) : Optional.empty();
+        if (cached.isPresent() && cached.get().isFresh(System.currentTimeMillis(), cacheTtlMillis)) {
+            metrics.cacheHit();
+            identity = Mono.just(cached.get().identity());
+        } else {
+            if (cacheTtlMillis > 0) {
+                metrics.cacheMiss();
+            }
+            identity = Mono.defer(() -> load(userId));
+        }
+        return identity;
+    }
+
+    private Mono<IdentityResponse> load(final String userId) {
+        final Mono<IdentityResponse> identity;
+        if (circuitBreaker.tryAcquirePermission()) {
+            final long startNanos = System.nanoTime();
+            identity = webClient.get()
+                    .uri(url(userId))
+                    .header(HttpHeaders.ACCEPT, properties.getAcceptHeader())
+                    .header(properties.getUserIdHeader(), userId)
+                    .retrieve()
+                    .bodyToMono(LoggedInUserPermissionsResponse.class)
+                    .map(body -> IdentityInterner.intern(new IdentityResponse(userId, body.groups(), body.permissions())))
+                    .switchIfEmpty(Mono.fromSupplier(() -> {
+                        LOGGER.warn("Empty identity response for userId={}", userId);
+                        return new IdentityResponse(userId, List.of(), List.of());
+                    }))
+                    .timeout(timeout)
+                    .doOnNext(fetched -> {
+                        circuitBreaker.onSuccess(System.nanoTime() - startNanos);
+                        if (storeIdentities) {
+                            identityCache.put(userId, fetched);
+                        }
+                    })
+                    .onErrorResume(failure -> failed(userId, failure, System.nanoTime() - startNanos))
+                    .doOnCancel(circuitBreaker::releasePermission);
+        } else {
+            identity = fallback(userId, FallbackReason.CIRCUIT_OPEN, null);
+        }
+        return identity;
+    }
+
+    private Mono<IdentityResponse> failed(final String userId, final Throwable failure, final long durationNanos) {
+        final Mono<IdentityResponse> identity;
+        if (failure instanceof WebClientResponseException response && response.getStatusCode().is4xxClientError()) {
+            // a 4xx means the service answered; it says nothing about its health
+            circuitBreaker.onSuccess(durationNanos);
+            identity = Mono.error(new IdentityRejectedException("Identity service rejected the lookup: "
+                    + response.getStatusCode().value(), failure));
+        } else {
+            circuitBreaker.onError(durationNanos);
+            identity = fallback(userId, FallbackReason.CALL_FAILED, failure);
+        }
+        return identity;
+    }
+
+    private Mono<IdentityResponse> fallback(final String userId, final FallbackReason reason, final Throwable cause) {
+        final Optional<CachedIdentity> lastKnown = properties.getIdentityFallback() == IdentityFallback.LAST_KNOWN
+                ? identityCache.get(userId)
+                : Optional.empty();
+        final Mono<IdentityResponse> identity;
+        if (lastKnown.isPresent()) {
+            metrics.fallback(reason, true);
+            LOGGER.warn("Identity service unavailable ({}); serving last known groups for userId={}", reason.tag(), userId);
+            identity = Mono.just(lastKnown.get().identity());
+        } else {
+            metrics.fallback(reason, false);
+            identity = Mono.error(new IdentityUnavailableException("Identity service unavailable: " + reason.tag(), cause));
+        }
+        return identity;
+    }
+
+    private String url(final String userId) {
+        final String template = properties.getIdentityUrlTemplate();
+        return template.contains(USER_ID_VARIABLE) ? template.replace(USER_ID_VARIABLE, userId) : template;
+    }
+}
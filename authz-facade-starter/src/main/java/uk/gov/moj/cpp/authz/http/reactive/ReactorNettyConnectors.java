@@ -0,0 +1,30 @@
+package uk.gov.moj.cpp.authz.http.reactive;
+
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+
+/**
+ * Builds the identity client's Reactor Netty connector; only referenced when Reactor Netty is on the classpath.
+ */
+public final class ReactorNettyConnectors {
+
+    private ReactorNettyConnectors() {
+        // utility
+    }
+
+    /**
+     * A connector with its own pool of {@code identity-max-connections}, where lookups wait for a connection (up to
+     * the identity timeout) instead of failing once the pending queue fills.
+     */
+    public static ClientHttpConnector identityConnector(final HttpAuthzProperties.Reactive reactive) {
+        final ConnectionProvider connections = ConnectionProvider.builder("authz-identity")
+                .maxConnections(Math.max(1, reactive.getIdentityMaxConnections()))
+                .pendingAcquireMaxCount(-1)
+                .pendingAcquireTimeout(reactive.getIdentityTimeout())
+                .build();
+        return new ReactorClientHttpConnector(HttpClient.create(connections));
+    }
+}
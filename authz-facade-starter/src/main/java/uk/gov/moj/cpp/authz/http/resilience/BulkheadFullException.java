@@ -0,0 +1,16 @@
+package uk.gov.moj.cpp.authz.http.resilience;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Raised to the requests sharing a remote call (such as a bulk identity lookup) when the {@link IdentityBulkhead} had
+ * no slot for it.
+ */
+public class BulkheadFullException extends RejectedExecutionException {
+
+    private static final long serialVersionUID = 1L;
+
+    public BulkheadFullException() {
+        super("Identity bulkhead full");
+    }
+}
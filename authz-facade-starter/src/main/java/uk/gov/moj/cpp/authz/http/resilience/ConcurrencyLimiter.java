@@ -0,0 +1,195 @@
+package uk.gov.moj.cpp.authz.http.resilience;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties.ConcurrencyLimit.Algorithm;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Admits at most {@link #limit()} requests at a time and moves the limit with the latency they see, so a slowing
+ * identity service or application sheds load at the door instead of building queues.
+ * <p>
+ * {@link Algorithm#GRADIENT} compares each request's latency with a slow moving average of past latencies: while
+ * they agree the limit grows by about its square root, and as latency rises above the average the limit shrinks in
+ * proportion. It does not grow while fewer than half the permits are in use. {@link Algorithm#AIMD} adds one per
+ * fast request under load and multiplies by the backoff ratio on each slow one. Under either algorithm a dropped
+ * request (failed or answered with a 5xx) multiplies the limit by the backoff ratio, whatever its latency.
+ * <p>
+ * Samples are applied with compare-and-set rather than a lock, so completing requests never queue on each other.
+ * Which paths need a permit is decided by the shared path policy ({@code Bypass.CONCURRENCY_LIMIT}).
+ */
+public final class ConcurrencyLimiter {
+
+    private static final String METRIC_PREFIX = "authz.concurrency";
+    /** Samples over which the long-term latency average moves about two thirds of the way to a new level. */
+    private static final double LONG_WINDOW = 600;
+    /** Latency may exceed the long-term average by this factor before the limit shrinks. */
+    private static final double TOLERANCE = 1.5;
+    private static final double MIN_GRADIENT = 0.5;
+
+    private final boolean enabled;
+    private final Algorithm algorithm;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double smoothing;
+    private final long latencyThresholdNanos;
+    private final double backoffRatio;
+    private final LongSupplier nanoClock;
+    private final AtomicInteger admitted = new AtomicInteger();
+    private final Counter rejectedCounter;
+
+    /** {@link Double} bits of the fractional limit. */
+    private final AtomicLong estimatedLimit;
+    /** {@link Double} bits of the long-term latency average, zero before the first sample. */
+    private final AtomicLong longLatencyNanos = new AtomicLong();
+
+    public ConcurrencyLimiter(final HttpAuthzProperties.ConcurrencyLimit config, final MeterRegistry meterRegistry) {
+        this(config, meterRegistry, System::nanoTime);
+    }
+
+    /* default */ ConcurrencyLimiter(final HttpAuthzProperties.ConcurrencyLimit config,
+                                     final MeterRegistry meterRegistry,
+                                     final LongSupplier nanoClock) {
+        this.enabled = config.isEnabled();
+        this.algorithm = config.getAlgorithm();
+        this.minLimit = Math.max(1, config.getMinLimit());
+        this.maxLimit = Math.max(minLimit, config.getMaxLimit());
+        this.smoothing = config.getSmoothing();
+        this.latencyThresholdNanos = config.getLatencyThreshold().toNanos();
+        this.backoffRatio = config.getBackoffRatio();
+        this.nanoClock = nanoClock;
+        this.estimatedLimit = new AtomicLong(
+                Double.doubleToRawLongBits(Math.clamp(config.getInitialLimit(), minLimit, maxLimit)));
+        this.rejectedCounter = Counter.builder(METRIC_PREFIX + ".rejected")
+                .description("Requests rejected because the concurrency limit was reached")
+                .register(meterRegistry);
+        if (enabled) {
+            Gauge.builder(METRIC_PREFIX + ".limit", this, ConcurrencyLimiter::limit)
+                    .description("Requests currently admitted at once")
+                    .register(meterRegistry);
+            Gauge.builder(METRIC_PREFIX + ".in-flight", admitted, AtomicInteger::get)
+                    .description("Requests holding a permit")
+                    .register(meterRegistry);
+        }
+    }
+
+    public static ConcurrencyLimiter disabled() {
+        return new ConcurrencyLimiter(new HttpAuthzProperties.ConcurrencyLimit(), Metrics.globalRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return a permit to {@link Permit#release(boolean) release} when the request completes, or empty (counted as
+     * a rejection) when the limit is reached
+     */
+    public Optional<Permit> tryAcquire() {
+        final Optional<Permit> permit;
+        if (admitted.incrementAndGet() > limit()) {
+            admitted.decrementAndGet();
+            rejectedCounter.increment();
+            permit = Optional.empty();
+        } else {
+            permit = Optional.of(new Permit(nanoClock.getAsLong()));
+        }
+        return permit;
+    }
+
+    public int limit() {
+        return (int) Double.longBitsToDouble(estimatedLimit.get());
+    }
+
+    public int inFlight() {
+        return admitted.get();
+    }
+
+    private void onSample(final long latencyNanos, final int inFlightAtCompletion, final boolean dropped) {
+        // a dropped request's latency (often a fast failure) says nothing about the latency the service can sustain
+        final double averageNanos = algorithm == Algorithm.GRADIENT && !dropped ? averageLatency(latencyNanos) : 0;
+        estimatedLimit.updateAndGet(bits -> {
+            final double limit = Double.longBitsToDouble(bits);
+            final double next;
+            if (dropped) {
+                next = limit * backoffRatio;
+            } else if (algorithm == Algorithm.AIMD) {
+                next = aimd(limit, latencyNanos, inFlightAtCompletion);
+            } else {
+                next = gradient(limit, latencyNanos, averageNanos, inFlightAtCompletion);
+            }
+            return Double.doubleToRawLongBits(Math.clamp(next, minLimit, maxLimit));
+        });
+    }
+
+    /**
+     * Folds {@code latencyNanos} into the long-term average.
+     *
+     * @return the new average
+     */
+    private double averageLatency(final long latencyNanos) {
+        return Double.longBitsToDouble(longLatencyNanos.updateAndGet(bits -> {
+            final double average = Double.longBitsToDouble(bits);
+            return Double.doubleToRawLongBits(
+                    average == 0 ? latencyNanos : average + (latencyNanos - average) / LONG_WINDOW);
+        }));
+    }
+
+    private double gradient(final double limit, final long latencyNanos, final double averageNanos,
+                            final int inFlightAtCompletion) {
+        double next = limit;
+        if (inFlightAtCompletion * 2 >= limit || latencyNanos > averageNanos) {
+            final double gradient = Math.clamp(TOLERANCE * averageNanos / Math.max(1, latencyNanos),
+                    MIN_GRADIENT, 1.0);
+            final double target = limit * gradient + Math.sqrt(limit);
+            next = limit * (1 - smoothing) + target * smoothing;
+            if (inFlightAtCompletion * 2 < limit) {
+                // too few requests to tell whether a larger limit would hold
+                next = Math.min(next, limit);
+            }
+        }
+        return next;
+    }
+
+    private double aimd(final double limit, final long latencyNanos, final int inFlightAtCompletion) {
+        double next = limit;
+        if (latencyNanos > latencyThresholdNanos) {
+            next = limit * backoffRatio;
+        } else if (inFlightAtCompletion * 2 >= limit) {
+            next = limit + 1;
+        }
+        return next;
+    }
+
+    /**
+     * One admitted request. Releasing it more than once has no further effect, so every path a request can end by
+     * may release it.
+     */
+    public final class Permit {
+
+        private final long startNanos;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(final long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * @param dropped the request failed in a way that signals overload (a 5xx), whatever its latency
+         */
+        public void release(final boolean dropped) {
+            if (released.compareAndSet(false, true)) {
+                final int inFlightAtCompletion = admitted.getAndDecrement();
+                onSample(nanoClock.getAsLong() - startNanos, inFlightAtCompletion, dropped);
+            }
+        }
+    }
+}
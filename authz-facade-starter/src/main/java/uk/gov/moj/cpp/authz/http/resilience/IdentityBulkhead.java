@@ -0,0 +1,72 @@
+package uk.gov.moj.cpp.authz.http.resilience;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps the number of request threads that can be waiting on the identity service at once,
+ * so a slow backend cannot absorb the whole container thread pool.
+ */
+public final class IdentityBulkhead {
+
+    private static final String METRIC_PREFIX = "authz.identity.bulkhead";
+
+    private final boolean enabled;
+    private final int maxConcurrentCalls;
+    private final Semaphore permits;
+    private final long maxWaitNanos;
+    private final Counter rejectedCounter;
+
+    public IdentityBulkhead(final HttpAuthzProperties.Bulkhead config, final MeterRegistry meterRegistry) {
+        this.enabled = config.isEnabled();
+        this.maxConcurrentCalls = Math.max(1, config.getMaxConcurrentCalls());
+        this.permits = new Semaphore(maxConcurrentCalls);
+        this.maxWaitNanos = config.getMaxWaitDuration().toNanos();
+        this.rejectedCounter = Counter.builder(METRIC_PREFIX + ".rejected")
+                .description("Identity calls rejected because the bulkhead was full")
+                .register(meterRegistry);
+        Gauge.builder(METRIC_PREFIX + ".available", permits, Semaphore::availablePermits)
+                .description("Identity calls that can still be started concurrently")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return {@code true} if a slot was obtained; callers must then {@link #release()} it.
+     */
+    public boolean tryAcquire() {
+        if (!enabled) {
+            return true;
+        }
+        boolean acquired;
+        try {
+            acquired = maxWaitNanos > 0
+                    ? permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS)
+                    : permits.tryAcquire();
+        } catch (final InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            rejectedCounter.increment();
+        }
+        return acquired;
+    }
+
+    /**
+     * @return the configured number of concurrent calls, whether or not the bulkhead is enabled
+     */
+    public int capacity() {
+        return maxConcurrentCalls;
+    }
+
+    public void release() {
+        if (enabled) {
+            permits.release();
+        }
+    }
+}
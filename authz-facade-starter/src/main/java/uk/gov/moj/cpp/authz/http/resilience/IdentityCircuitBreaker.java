@@ -0,0 +1,173 @@
+package uk.gov.moj.cpp.authz.http.resilience;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Count-based circuit breaker guarding calls to the identity service.
+ * <p>
+ * The last {@code slidingWindowSize} call outcomes are kept in a ring buffer. Once at least
+ * {@code minimumNumberOfCalls} have been recorded, the breaker opens when either the failure rate or the
+ * slow-call rate reaches its threshold. After {@code waitDurationInOpenState} a limited number of probe
+ * calls are let through (half-open); the breaker closes again only if those probes stay under both thresholds.
+ */
+public final class IdentityCircuitBreaker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IdentityCircuitBreaker.class);
+    private static final String METRIC_PREFIX = "authz.identity.circuit";
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final boolean enabled;
+    private final int minimumNumberOfCalls;
+    private final float failureRateThreshold;
+    private final float slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final long waitInOpenNanos;
+    private final int permittedCallsInHalfOpenState;
+    private final LongSupplier nanoClock;
+    private final MeterRegistry meterRegistry;
+    private final Counter rejectedCounter;
+
+    private final boolean[] failed;
+    private final boolean[] slow;
+    private int windowPosition;
+    private int recordedCalls;
+    private int failedCalls;
+    private int slowCalls;
+
+    private State state = State.CLOSED;
+    private long openedAtNanos;
+    private int halfOpenPermitsIssued;
+
+    public IdentityCircuitBreaker(final HttpAuthzProperties.CircuitBreaker config, final MeterRegistry meterRegistry) {
+        this(config, meterRegistry, System::nanoTime);
+    }
+
+    /* default */ IdentityCircuitBreaker(final HttpAuthzProperties.CircuitBreaker config,
+                           final MeterRegistry meterRegistry,
+                           final LongSupplier nanoClock) {
+        this.enabled = config.isEnabled();
+        final int windowSize = Math.max(1, config.getSlidingWindowSize());
+        this.minimumNumberOfCalls = Math.min(windowSize, Math.max(1, config.getMinimumNumberOfCalls()));
+        this.failureRateThreshold = config.getFailureRateThreshold();
+        this.slowCallRateThreshold = config.getSlowCallRateThreshold();
+        this.slowCallNanos = config.getSlowCallDuration().toNanos();
+        this.waitInOpenNanos = config.getWaitDurationInOpenState().toNanos();
+        this.permittedCallsInHalfOpenState = Math.max(1, config.getPermittedCallsInHalfOpenState());
+        this.nanoClock = nanoClock;
+        this.meterRegistry = meterRegistry;
+        this.failed = new boolean[windowSize];
+        this.slow = new boolean[windowSize];
+        this.rejectedCounter = Counter.builder(METRIC_PREFIX + ".rejected")
+                .description("Identity calls rejected because the circuit was open")
+                .register(meterRegistry);
+        Gauge.builder(METRIC_PREFIX + ".state", this, breaker -> breaker.getState().ordinal())
+                .description("Identity circuit state: 0=closed, 1=open, 2=half-open")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return {@code true} if a call may proceed; every permitted call must be followed by
+     * {@link #onSuccess(long)} or {@link #onError(long)}.
+     */
+    public synchronized boolean tryAcquirePermission() {
+        if (!enabled) {
+            return true;
+        }
+        if (state == State.OPEN && nanoClock.getAsLong() - openedAtNanos >= waitInOpenNanos) {
+            transitionTo(State.HALF_OPEN);
+        }
+        final boolean permitted = switch (state) {
+            case CLOSED -> true;
+            case HALF_OPEN -> halfOpenPermitsIssued++ < permittedCallsInHalfOpenState;
+            case OPEN -> false;
+        };
+        if (!permitted) {
+            rejectedCounter.increment();
+        }
+        return permitted;
+    }
+
+    public void onSuccess(final long durationNanos) {
+        record(false, durationNanos);
+    }
+
+    public void onError(final long durationNanos) {
+        record(true, durationNanos);
+    }
+
+    /**
+     * Hands back a permit without recording an outcome, for a call that never reached the service (no bulkhead slot
+     * or attempt thread was free) or whose subscriber cancelled it; that says nothing about the service's health.
+     */
+    public synchronized void releasePermission() {
+        if (enabled && state == State.HALF_OPEN && halfOpenPermitsIssued > 0) {
+            halfOpenPermitsIssued--;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private synchronized void record(final boolean callFailed, final long durationNanos) {
+        if (!enabled || state == State.OPEN) {
+            return;
+        }
+        final int index = windowPosition;
+        if (recordedCalls == failed.length) {
+            failedCalls -= failed[index] ? 1 : 0;
+            slowCalls -= slow[index] ? 1 : 0;
+        } else {
+            recordedCalls++;
+        }
+        failed[index] = callFailed;
+        slow[index] = durationNanos >= slowCallNanos;
+        failedCalls += callFailed ? 1 : 0;
+        slowCalls += slow[index] ? 1 : 0;
+        windowPosition = (index + 1) % failed.length;
+
+        final int required = state == State.HALF_OPEN
+                ? Math.min(permittedCallsInHalfOpenState, failed.length)
+                : minimumNumberOfCalls;
+        if (recordedCalls >= required) {
+            final boolean overThreshold = percentage(failedCalls) >= failureRateThreshold
+                    || percentage(slowCalls) >= slowCallRateThreshold;
+            if (overThreshold) {
+                transitionTo(State.OPEN);
+            } else if (state == State.HALF_OPEN) {
+                transitionTo(State.CLOSED);
+            }
+        }
+    }
+
+    private float percentage(final int count) {
+        return count * 100f / recordedCalls;
+    }
+
+    private void transitionTo(final State target) {
+        final State previous = state;
+        state = target;
+        resetWindow();
+        if (target == State.OPEN) {
+            openedAtNanos = nanoClock.getAsLong();
+        }
+        halfOpenPermitsIssued = 0;
+        meterRegistry.counter(METRIC_PREFIX + ".transitions", "from", previous.name(), "to", target.name()).increment();
+        LOGGER.warn("Identity circuit breaker transitioned from {} to {}", previous, target);
+    }
+
+    private void resetWindow() {
+        windowPosition = 0;
+        recordedCalls = 0;
+        failedCalls = 0;
+        slowCalls = 0;
+    }
+}
@@ -0,0 +1,320 @@
+package uk.gov.moj.cpp.authz.http.resilience;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.web.client.ResourceAccessException;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.deadline.DeadlineExceededException;
+import uk.gov.moj.cpp.authz.http.deadline.RequestDeadline;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Sends one duplicate identity request when the first has not answered within the hedge delay, and returns
+ * whichever answers successfully first.
+ * <p>
+ * The delay is either fixed or, when {@code delay} is zero, the configured percentile of recent call latencies.
+ * Hedges draw from a budget that earns {@code budgetPercent / 100} of a hedge per call (capped at
+ * {@value #MAX_BUDGET_TOKENS} hedges, starting empty), so hedging can never add more than that share of extra load.
+ * <p>
+ * Attempts run on a pool of two threads (an attempt and its hedge) per bulkhead call. A hedge the pool cannot take is
+ * skipped; an original attempt it cannot take fails with {@link RejectedExecutionException}. With hedging disabled the
+ * call runs on the caller's thread and the deadline is left to the client's socket timeouts.
+ * <p>
+ * A caller that gives up on its deadline leaves its attempts running; {@link #call(Supplier, RequestDeadline, Runnable)}
+ * reports when the last of them has finished, so resources held for the call are not handed back before then.
+ */
+public final class IdentityHedging {
+
+    private static final String METRIC_PREFIX = "authz.identity.hedge";
+    private static final int MAX_BUDGET_TOKENS = 10;
+    private static final int LATENCY_SAMPLES = 512;
+    private static final int RECOMPUTE_EVERY = 64;
+
+    private final boolean enabled;
+    private final long fixedDelayNanos;
+    private final long minDelayNanos;
+    private final double percentile;
+    private final double budgetPerCall;
+    private final ThreadPoolExecutor executor;
+    private final Counter sentCounter;
+    private final Counter budgetExhaustedCounter;
+    private final Counter rejectedCounter;
+    private final Counter primaryWinCounter;
+    private final Counter hedgeWinCounter;
+
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int recorded;
+    private double budgetTokens;
+    private volatile long adaptiveDelayNanos;
+
+    public IdentityHedging(final HttpAuthzProperties.Hedging config, final MeterRegistry meterRegistry) {
+        this(config, new HttpAuthzProperties.Bulkhead(), meterRegistry);
+    }
+
+    /**
+     * @param bulkhead sizes the attempt pool at two threads per concurrent identity call
+     */
+    public IdentityHedging(final HttpAuthzProperties.Hedging config,
+                           final HttpAuthzProperties.Bulkhead bulkhead,
+                           final MeterRegistry meterRegistry) {
+        this.enabled = config.isEnabled();
+        this.fixedDelayNanos = config.getDelay().toNanos();
+        this.minDelayNanos = config.getMinDelay().toNanos();
+        this.percentile = Math.min(100, Math.max(1, config.getPercentile()));
+        this.budgetPerCall = Math.max(0, config.getBudgetPercent()) / 100.0;
+        this.adaptiveDelayNanos = minDelayNanos;
+        this.executor = newAttemptExecutor(2 * Math.max(1, bulkhead.getMaxConcurrentCalls()));
+        this.sentCounter = Counter.builder(METRIC_PREFIX).tag("outcome", "sent")
+                .description("Duplicate identity requests sent after the hedge delay")
+                .register(meterRegistry);
+        this.budgetExhaustedCounter = Counter.builder(METRIC_PREFIX).tag("outcome", "budget-exhausted")
+                .description("Hedges skipped because the hedge budget was spent")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder(METRIC_PREFIX).tag("outcome", "rejected")
+                .description("Hedges skipped because every attempt thread was busy")
+                .register(meterRegistry);
+        this.primaryWinCounter = Counter.builder(METRIC_PREFIX + ".wins").tag("winner", "primary")
+                .description("Hedged calls answered first by the original request")
+                .register(meterRegistry);
+        this.hedgeWinCounter = Counter.builder(METRIC_PREFIX + ".wins").tag("winner", "hedge")
+                .description("Hedged calls answered first by the duplicate request")
+                .register(meterRegistry);
+        Gauge.builder(METRIC_PREFIX + ".delay", this, hedging -> hedging.currentDelayNanos() / 1_000_000.0)
+                .description("Current hedge delay in milliseconds")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+    }
+
+    private static ThreadPoolExecutor newAttemptExecutor(final int threads) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), runnable -> {
+                    final Thread thread = new Thread(runnable, "authz-identity-hedge");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Runs {@code call}, hedging it when enabled. Failures of the winning (or only remaining) attempt are rethrown
+     * as thrown by {@code call}.
+     */
+    public <T> T call(final Supplier<T> call) {
+        return call(call, RequestDeadline.none());
+    }
+
+    /**
+     * As {@link #call(Supplier)}, but when hedging waits no longer than {@code deadline} allows and never hedges once
+     * it has passed; an abandoned attempt finishes in the background under the client's own timeouts. When hedging is
+     * disabled the call simply runs on the caller's thread.
+     *
+     * @throws DeadlineExceededException  if the deadline passes before any attempt answers
+     * @throws RejectedExecutionException if every attempt thread is busy
+     */
+    public <T> T call(final Supplier<T> call, final RequestDeadline deadline) {
+        return call(call, deadline, () -> { });
+    }
+
+    /**
+     * As {@link #call(Supplier, RequestDeadline)}, running {@code onSettled} exactly once when this call has returned
+     * or thrown and every attempt it started has finished, which may be after the caller has given up.
+     */
+    public <T> T call(final Supplier<T> call, final RequestDeadline deadline, final Runnable onSettled) {
+        if (!enabled) {
+            try {
+                return call.get();
+            } finally {
+                onSettled.run();
+            }
+        }
+        final Settlement settlement = new Settlement(onSettled);
+        try {
+            return hedged(call, deadline, settlement);
+        } finally {
+            settlement.end();
+        }
+    }
+
+    private <T> T hedged(final Supplier<T> call, final RequestDeadline deadline, final Settlement settlement) {
+        final CompletableFuture<T> winner = new CompletableFuture<>();
+        final AtomicInteger pending = new AtomicInteger(1);
+        final AtomicBoolean hedged = new AtomicBoolean();
+        earnBudget();
+        final CompletableFuture<T> primary = attempt(call, winner, pending, hedged, primaryWinCounter, settlement);
+        try {
+            return winner.get(Math.min(currentDelayNanos(), deadline.remainingNanos()), TimeUnit.NANOSECONDS);
+        } catch (final TimeoutException slow) {
+            deadline.check(DeadlineExceededException.IDENTITY);
+            if (spendBudget()) {
+                hedge(call, winner, primary, pending, hedged, settlement);
+            } else {
+                budgetExhaustedCounter.increment();
+            }
+            return await(winner, deadline);
+        } catch (final ExecutionException failure) {
+            throw unwrap(failure.getCause());
+        } catch (final InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new ResourceAccessException("Interrupted waiting for identity service");
+        }
+    }
+
+    /**
+     * Sends the duplicate request, or skips it when the pool is full; if the original attempt has already failed by
+     * then, its failure is the answer.
+     */
+    private <T> void hedge(final Supplier<T> call, final CompletableFuture<T> winner, final CompletableFuture<T> primary,
+                           final AtomicInteger pending, final AtomicBoolean hedged, final Settlement settlement) {
+        pending.incrementAndGet();
+        hedged.set(true);
+        try {
+            final CompletableFuture<T> hedge = attempt(call, winner, pending, hedged, hedgeWinCounter, settlement);
+            sentCounter.increment();
+            winner.whenComplete((value, failure) -> {
+                primary.cancel(false);
+                hedge.cancel(false);
+            });
+        } catch (final RejectedExecutionException full) {
+            rejectedCounter.increment();
+            hedged.set(false);
+            if (pending.decrementAndGet() == 0) {
+                primary.whenComplete((value, failure) -> winner.completeExceptionally(failure));
+            }
+        }
+    }
+
+    private <T> CompletableFuture<T> attempt(final Supplier<T> call,
+                                             final CompletableFuture<T> winner,
+                                             final AtomicInteger pending,
+                                             final AtomicBoolean hedged,
+                                             final Counter winCounter,
+                                             final Settlement settlement) {
+        final long startNanos = System.nanoTime();
+        final CompletableFuture<T> running;
+        settlement.begin();
+        try {
+            running = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return call.get();
+                } finally {
+                    settlement.end();
+                }
+            }, executor);
+        } catch (final RejectedExecutionException full) {
+            settlement.end();
+            throw full;
+        }
+        return running.whenComplete((value, failure) -> {
+            if (failure == null) {
+                recordLatency(System.nanoTime() - startNanos);
+                completeFirst(winner, value, hedged, winCounter);
+            } else if (pending.decrementAndGet() == 0) {
+                winner.completeExceptionally(failure);
+            }
+        });
+    }
+
+    /**
+     * Counts the win before the caller is released, so the metric is visible as soon as {@code call} returns.
+     */
+    private static <T> void completeFirst(final CompletableFuture<T> winner, final T value,
+                                          final AtomicBoolean hedged, final Counter winCounter) {
+        synchronized (winner) {
+            if (!winner.isDone()) {
+                if (hedged.get()) {
+                    winCounter.increment();
+                }
+                winner.complete(value);
+            }
+        }
+    }
+
+    private static <T> T await(final CompletableFuture<T> winner, final RequestDeadline deadline) {
+        try {
+            return deadline.isBounded()
+                    ? winner.get(Math.max(0, deadline.remainingNanos()), TimeUnit.NANOSECONDS)
+                    : winner.join();
+        } catch (final CompletionException | ExecutionException failure) {
+            throw unwrap(failure.getCause());
+        } catch (final TimeoutException late) {
+            throw new DeadlineExceededException(DeadlineExceededException.IDENTITY);
+        } catch (final InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new ResourceAccessException("Interrupted waiting for identity service");
+        }
+    }
+
+    private static RuntimeException unwrap(final Throwable failure) {
+        Throwable cause = failure;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof RuntimeException runtime
+                ? runtime
+                : new ResourceAccessException("Identity call failed: " + cause.getMessage());
+    }
+
+    /**
+     * Counts the caller and each started attempt, running the callback when the last of them ends. The caller's share
+     * is only ended once it can start no more attempts, so an attempt that finishes early cannot settle the call.
+     */
+    private static final class Settlement {
+        private final AtomicInteger running = new AtomicInteger(1);
+        private final Runnable onSettled;
+
+        private Settlement(final Runnable onSettled) {
+            this.onSettled = onSettled;
+        }
+
+        private void begin() {
+            running.incrementAndGet();
+        }
+
+        private void end() {
+            if (running.decrementAndGet() == 0) {
+                onSettled.run();
+            }
+        }
+    }
+
+    private long currentDelayNanos() {
+        return fixedDelayNanos > 0 ? fixedDelayNanos : adaptiveDelayNanos;
+    }
+
+    private synchronized void earnBudget() {
+        budgetTokens = Math.min(MAX_BUDGET_TOKENS, budgetTokens + budgetPerCall);
+    }
+
+    private synchronized boolean spendBudget() {
+        final boolean available = budgetTokens >= 1;
+        if (available) {
+            budgetTokens -= 1;
+        }
+        return available;
+    }
+
+    private synchronized void recordLatency(final long nanos) {
+        latencies[recorded % LATENCY_SAMPLES] = nanos;
+        recorded++;
+        if (fixedDelayNanos <= 0 && recorded % RECOMPUTE_EVERY == 0) {
+            final long[] sorted = Arrays.copyOf(latencies, Math.min(recorded, LATENCY_SAMPLES));
+            Arrays.sort(sorted);
+            final int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            adaptiveDelayNanos = Math.max(minDelayNanos, sorted[Math.max(0, index)]);
+        }
+    }
+}
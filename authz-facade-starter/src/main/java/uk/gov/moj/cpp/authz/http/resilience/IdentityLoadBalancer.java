@@ -0,0 +1,216 @@
+package uk.gov.moj.cpp.authz.http.resilience;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.client.HttpClientErrorException;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Spreads identity calls over several identity service replicas.
+ * <p>
+ * Each call picks two endpoints at random and uses the one with the lower cost, where cost is the exponentially
+ * weighted moving average of its latency multiplied by its in-flight calls plus one (power of two choices). An
+ * endpoint that fails {@code eject-after-failures} times in a row is left out for {@code eject-duration}; after that
+ * a single probe call is let through, and a success puts it back in rotation while a failure ejects it again.
+ * When every endpoint is ejected the one due back soonest is tried rather than failing without a call.
+ * A 4xx answer counts as a healthy response.
+ */
+public final class IdentityLoadBalancer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IdentityLoadBalancer.class);
+    private static final String METRIC_PREFIX = "authz.identity.endpoint";
+    private static final String ENDPOINT_TAG = "endpoint";
+    private static final int CHOICES = 2;
+
+    private final List<Endpoint> endpoints;
+    private final int ejectAfterFailures;
+    private final long ejectNanos;
+
+    public IdentityLoadBalancer(final List<String> urlTemplates,
+                                final HttpAuthzProperties.LoadBalancing config,
+                                final MeterRegistry meterRegistry) {
+        if (urlTemplates.isEmpty()) {
+            throw new IllegalArgumentException("At least one identity endpoint is required");
+        }
+        this.ejectAfterFailures = Math.max(1, config.getEjectAfterFailures());
+        this.ejectNanos = config.getEjectDuration().toNanos();
+        final double decayNanos = Math.max(1, config.getDecay().toNanos());
+        final List<Endpoint> created = new ArrayList<>(urlTemplates.size());
+        for (final String urlTemplate : urlTemplates) {
+            created.add(newEndpoint(urlTemplate, decayNanos, meterRegistry));
+        }
+        this.endpoints = List.copyOf(created);
+    }
+
+    private static Endpoint newEndpoint(final String urlTemplate, final double decayNanos,
+                                        final MeterRegistry meterRegistry) {
+        final String name = URI.create(urlTemplate.replace("{userId}", "_")).getAuthority();
+        final Endpoint endpoint = new Endpoint(urlTemplate, decayNanos,
+                Timer.builder(METRIC_PREFIX + ".latency").tag(ENDPOINT_TAG, name)
+                        .description("Identity call latency per endpoint")
+                        .register(meterRegistry),
+                Counter.builder(METRIC_PREFIX + ".ejections").tag(ENDPOINT_TAG, name)
+                        .description("Times the endpoint was taken out of rotation")
+                        .register(meterRegistry));
+        Gauge.builder(METRIC_PREFIX + ".ewma", endpoint, target -> target.ewmaNanos() / 1_000_000.0)
+                .tag(ENDPOINT_TAG, name)
+                .description("Moving average of identity call latency used for balancing")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        Gauge.builder(METRIC_PREFIX + ".in-flight", endpoint, target -> target.inFlight.get())
+                .tag(ENDPOINT_TAG, name)
+                .description("Identity calls currently outstanding per endpoint")
+                .register(meterRegistry);
+        return endpoint;
+    }
+
+    /**
+     * Runs {@code call} against the chosen endpoint's URL template and records the outcome for that endpoint.
+     */
+    public <T> T call(final Function<String, T> call) {
+        final Endpoint endpoint = choose();
+        endpoint.inFlight.incrementAndGet();
+        final long startNanos = System.nanoTime();
+        boolean healthy = false;
+        try {
+            final T result = call.apply(endpoint.urlTemplate);
+            healthy = true;
+            return result;
+        } catch (final HttpClientErrorException clientError) {
+            healthy = true;
+            throw clientError;
+        } finally {
+            endpoint.inFlight.decrementAndGet();
+            record(endpoint, System.nanoTime() - startNanos, healthy);
+        }
+    }
+
+    private Endpoint choose() {
+        Endpoint chosen = endpoints.getFirst();
+        if (endpoints.size() >= CHOICES) {
+            final long now = System.nanoTime();
+            final List<Endpoint> healthy = new ArrayList<>(endpoints.size());
+            Optional<Endpoint> probe = Optional.empty();
+            for (final Endpoint endpoint : endpoints) {
+                if (endpoint.consecutiveFailures.get() < ejectAfterFailures) {
+                    healthy.add(endpoint);
+                } else if (probe.isEmpty() && endpoint.claimProbe(now)) {
+                    probe = Optional.of(endpoint);
+                }
+            }
+            if (probe.isPresent()) {
+                chosen = probe.get();
+            } else {
+                chosen = healthy.isEmpty() ? soonestBack() : powerOfTwoChoices(healthy);
+            }
+        }
+        return chosen;
+    }
+
+    private static Endpoint powerOfTwoChoices(final List<Endpoint> available) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int first = random.nextInt(available.size());
+        Endpoint chosen = available.get(first);
+        if (available.size() >= CHOICES) {
+            final int second = (first + 1 + random.nextInt(available.size() - 1)) % available.size();
+            final Endpoint other = available.get(second);
+            if (other.cost() < chosen.cost()) {
+                chosen = other;
+            }
+        }
+        return chosen;
+    }
+
+    private Endpoint soonestBack() {
+        Endpoint soonest = endpoints.getFirst();
+        for (final Endpoint endpoint : endpoints) {
+            if (endpoint.ejectedUntilNanos - soonest.ejectedUntilNanos < 0) {
+                soonest = endpoint;
+            }
+        }
+        return soonest;
+    }
+
+    private void record(final Endpoint endpoint, final long latencyNanos, final boolean healthy) {
+        endpoint.latency.record(latencyNanos, TimeUnit.NANOSECONDS);
+        endpoint.observe(latencyNanos);
+        if (healthy) {
+            endpoint.consecutiveFailures.set(0);
+            endpoint.probing.set(false);
+        } else if (endpoint.consecutiveFailures.incrementAndGet() >= ejectAfterFailures) {
+            endpoint.ejectedUntilNanos = System.nanoTime() + ejectNanos;
+            endpoint.probing.set(false);
+            endpoint.ejections.increment();
+            LOGGER.warn("Ejecting identity endpoint {} for {} ms after {} consecutive failures",
+                    endpoint.urlTemplate, TimeUnit.NANOSECONDS.toMillis(ejectNanos), endpoint.consecutiveFailures.get());
+        }
+    }
+
+    /**
+     * One replica: its moving average, in-flight count and ejection state.
+     * <p>
+     * The average is peak-sensitive: a sample above it replaces it outright, and it otherwise decays towards newer,
+     * lower samples, and towards zero while the endpoint is idle, with time constant {@code decay}. A replica that
+     * had one slow call is therefore retried once it has been left alone for a while.
+     */
+    private static final class Endpoint {
+        private final String urlTemplate;
+        private final double decayNanos;
+        private final Timer latency;
+        private final Counter ejections;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final AtomicBoolean probing = new AtomicBoolean();
+        private volatile long ejectedUntilNanos;
+        private double ewma;
+        private long lastObservedNanos;
+
+        private Endpoint(final String urlTemplate, final double decayNanos, final Timer latency,
+                         final Counter ejections) {
+            this.urlTemplate = urlTemplate;
+            this.decayNanos = decayNanos;
+            this.latency = latency;
+            this.ejections = ejections;
+        }
+
+        /**
+         * @return {@code true} if the ejection has run out and no other caller is already probing
+         */
+        private boolean claimProbe(final long now) {
+            return now - ejectedUntilNanos >= 0 && probing.compareAndSet(false, true);
+        }
+
+        private synchronized void observe(final long latencyNanos) {
+            final long now = System.nanoTime();
+            final double weight = weightAt(now);
+            ewma = latencyNanos > ewma ? latencyNanos : ewma * weight + latencyNanos * (1 - weight);
+            lastObservedNanos = now;
+        }
+
+        private synchronized double ewmaNanos() {
+            return ewma * weightAt(System.nanoTime());
+        }
+
+        private double weightAt(final long now) {
+            return lastObservedNanos == 0 ? 0 : Math.exp(-(now - lastObservedNanos) / decayNanos);
+        }
+
+        private double cost() {
+            return (ewmaNanos() + 1) * (inFlight.get() + 1);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package uk.gov.moj.cpp.authz.http.resilience;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.context.SmartLifecycle;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties.RateLimit.Key;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Token buckets per user and/or action, one set per configured quota.
+ * <p>
+ * Each bucket is a single {@link AtomicLong} holding the time at which it will be full again (the generic cell rate
+ * algorithm): taking a token moves that time one refill interval later, and is refused when it would end up more than
+ * {@code capacity} intervals ahead of now. Checking a request is therefore a lookup in two
+ * {@link ConcurrentMap}s keyed by the strings the filter already holds and one compare-and-set, with no locks and
+ * nothing allocated once the caller's buckets exist.
+ * <p>
+ * A bucket that stayed full for {@code idle-timeout} is the same as no bucket, so dropping it loses nothing; idle
+ * buckets are swept by a background task every {@code idle-timeout}, never on a request thread. While
+ * {@code max-buckets} are in use, callers without a bucket share one overflow bucket per quota until the next sweep
+ * frees room, so they are limited together rather than not at all.
+ * <p>
+ * Whether the quotas are applied at all is the filters' live {@code rate-limit.enabled} setting; the quotas themselves
+ * are fixed when the limiter is built.
+ */
+public final class RateLimiter implements SmartLifecycle {
+
+    private static final String METRIC_PREFIX = "authz.ratelimit";
+    private static final String NO_KEY = "";
+    private static final String WILDCARD = "*";
+    private static final double NANOS_PER_SECOND = Duration.ofSeconds(1).toNanos();
+
+    private final Limit[] limits;
+    private final int maxBuckets;
+    private final long idleTimeoutNanos;
+    private final LongSupplier nanoClock;
+    private final AtomicInteger liveBuckets = new AtomicInteger();
+    private final Counter overflowCounter;
+    private ScheduledExecutorService sweeper;
+    private volatile boolean running;
+
+    public RateLimiter(final HttpAuthzProperties.RateLimit config, final MeterRegistry meterRegistry) {
+        this(config, meterRegistry, System::nanoTime);
+    }
+
+    /* default */ RateLimiter(final HttpAuthzProperties.RateLimit config,
+                              final MeterRegistry meterRegistry,
+                              final LongSupplier nanoClock) {
+        this.limits = config.getQuotas().stream()
+                .map(quota -> new Limit(quota, meterRegistry, nanoClock.getAsLong()))
+                .toArray(Limit[]::new);
+        this.maxBuckets = config.getMaxBuckets();
+        this.idleTimeoutNanos = config.getIdleTimeout().toNanos();
+        this.nanoClock = nanoClock;
+        this.overflowCounter = Counter.builder(METRIC_PREFIX + ".overflow")
+                .description("Requests limited by a quota's shared overflow bucket because max-buckets was reached")
+                .register(meterRegistry);
+        Gauge.builder(METRIC_PREFIX + ".buckets", liveBuckets, AtomicInteger::get)
+                .description("Token buckets currently kept")
+                .register(meterRegistry);
+    }
+
+    public static RateLimiter disabled() {
+        return new RateLimiter(new HttpAuthzProperties.RateLimit(), Metrics.globalRegistry);
+    }
+
+    @Override
+    public void start() {
+        if (limits.length > 0) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "authz-ratelimit-sweep");
+                thread.setDaemon(true);
+                return thread;
+            });
+            final long periodMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(idleTimeoutNanos));
+            sweeper.scheduleWithFixedDelay(this::sweep, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        }
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Takes a token from every bucket of {@code userId} and {@code action}, stopping at the first empty one (tokens
+     * already taken from the others are not returned).
+     *
+     * @return zero when the request is admitted, otherwise the nanoseconds until the empty bucket has a token again
+     */
+    public long acquire(final String userId, final String action) {
+        long waitNanos = 0;
+        final long now = nanoClock.getAsLong();
+        for (int i = 0; waitNanos == 0 && i < limits.length; i++) {
+            final Limit limit = limits[i];
+            if (limit.matches(action)) {
+                final String primary = limit.key == Key.ACTION ? action : userId;
+                final String secondary = limit.key == Key.USER_AND_ACTION ? action : NO_KEY;
+                waitNanos = limit.take(bucket(limit, primary, secondary, now), now);
+            }
+        }
+        return waitNanos;
+    }
+
+    public int bucketCount() {
+        return liveBuckets.get();
+    }
+
+    private AtomicLong bucket(final Limit limit, final String primary, final String secondary, final long now) {
+        final Map<String, AtomicLong> keyed = limit.buckets.get(primary);
+        AtomicLong bucket = keyed == null ? null : keyed.get(secondary);
+        if (bucket == null) {
+            bucket = create(limit, primary, secondary, now);
+        }
+        return bucket;
+    }
+
+    /**
+     * A new, full bucket; or the quota's shared overflow bucket while {@code max-buckets} are in use.
+     */
+    private AtomicLong create(final Limit limit, final String primary, final String secondary, final long now) {
+        final AtomicLong bucket;
+        if (liveBuckets.get() < maxBuckets) {
+            final AtomicLong created = new AtomicLong(now);
+            final AtomicLong existing = limit.buckets
+                    .computeIfAbsent(primary, key -> new ConcurrentHashMap<>())
+                    .putIfAbsent(secondary, created);
+            if (existing == null) {
+                liveBuckets.incrementAndGet();
+                bucket = created;
+            } else {
+                bucket = existing;
+            }
+        } else {
+            overflowCounter.increment();
+            bucket = limit.overflow;
+        }
+        return bucket;
+    }
+
+    /**
+     * Drops the buckets that have been full for the idle timeout and recounts the rest; run by the background task.
+     * A request racing with the sweep may still take a token from a bucket being dropped; the next one simply starts
+     * a new, full bucket.
+     */
+    public void sweep() {
+        final long now = nanoClock.getAsLong();
+        int remaining = 0;
+        for (final Limit limit : limits) {
+            for (final Map.Entry<String, ConcurrentMap<String, AtomicLong>> entry : limit.buckets.entrySet()) {
+                final ConcurrentMap<String, AtomicLong> keyed = entry.getValue();
+                keyed.values().removeIf(bucket -> now - bucket.get() > idleTimeoutNanos);
+                if (keyed.isEmpty()) {
+                    limit.buckets.remove(entry.getKey(), keyed);
+                } else {
+                    remaining += keyed.size();
+                }
+            }
+        }
+        liveBuckets.set(remaining);
+    }
+
+    /**
+     * One configured quota and its buckets, keyed by user id or action name, then by action name or {@code ""}, plus
+     * the overflow bucket shared by callers that found no room for their own.
+     */
+    private static final class Limit {
+
+        private final String action;
+        private final boolean prefix;
+        private final Key key;
+        private final long intervalNanos;
+        private final long burstNanos;
+        private final Counter rejectedCounter;
+        private final ConcurrentMap<String, ConcurrentMap<String, AtomicLong>> buckets =
+                new ConcurrentHashMap<>();
+        private final AtomicLong overflow;
+
+        private Limit(final HttpAuthzProperties.RateLimit.Quota quota,
+                      final MeterRegistry meterRegistry,
+                      final long now) {
+            this.prefix = quota.getAction().endsWith(WILDCARD);
+            this.action = prefix
+                    ? quota.getAction().substring(0, quota.getAction().length() - WILDCARD.length())
+                    : quota.getAction();
+            this.key = quota.getKey();
+            if (!(quota.getRefillPerSecond() > 0)) {
+                throw new IllegalArgumentException("Rate limit quota '" + quota.getAction()
+                        + "' needs a positive refill-per-second, not " + quota.getRefillPerSecond());
+            }
+            if (quota.getCapacity() <= 0) {
+                throw new IllegalArgumentException("Rate limit quota '" + quota.getAction()
+                        + "' needs a capacity of at least 1, not " + quota.getCapacity());
+            }
+            this.intervalNanos = Math.max(1, (long) (NANOS_PER_SECOND / quota.getRefillPerSecond()));
+            try {
+                // take() adds an interval to a bucket up to a burst ahead, which must not overflow either
+                this.burstNanos = Math.multiplyExact(intervalNanos, quota.getCapacity());
+                Math.addExact(burstNanos, intervalNanos);
+            } catch (final ArithmeticException overflow) {
+                throw new IllegalArgumentException("Rate limit quota '" + quota.getAction()
+                        + "' refills too slowly for its capacity", overflow);
+            }
+            this.rejectedCounter = Counter.builder(METRIC_PREFIX + ".rejected")
+                    .description("Requests rejected because a rate limit bucket was empty")
+                    .tag("action", quota.getAction())
+                    .tag("key", key.name())
+                    .register(meterRegistry);
+            this.overflow = new AtomicLong(now);
+        }
+
+        private boolean matches(final String requested) {
+            return prefix ? requested.startsWith(action) : requested.equals(action);
+        }
+
+        /**
+         * @return zero when a token was taken, otherwise the nanoseconds until there is one
+         */
+        private long take(final AtomicLong bucket, final long now) {
+            long waitNanos = -1;
+            while (waitNanos < 0) {
+                final long fullAt = bucket.get();
+                // differences, not absolute times: nanoTime values may be near either end of the range
+                final long ahead = Math.max(0, fullAt - now);
+                final long excess = ahead + intervalNanos - burstNanos;
+                if (excess > 0) {
+                    rejectedCounter.increment();
+                    waitNanos = excess;
+                } else if (bucket.compareAndSet(fullAt, now + ahead + intervalNanos)) {
+                    waitNanos = 0;
+                }
+            }
+            return waitNanos;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package uk.gov.moj.cpp.authz.http.route;
+
+import io.swagger.parser.OpenAPIParser;
+import io.swagger.v3.oas.models.OpenAPI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+
+import java.io.IOException;
+
+/**
+ * Builds a {@link RouteIndex} from the paths and operations of an OpenAPI specification, read with the same parser
+ * the audit starter uses.
+ */
+public final class OpenApiRouteLoader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OpenApiRouteLoader.class);
+
+    private final ResourceLoader resourceLoader;
+
+    public OpenApiRouteLoader(final ResourceLoader resourceLoader) {
+        this.resourceLoader = resourceLoader;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the specification is missing, unreadable or declares no paths
+     */
+    public RouteIndex load(final String location) {
+        final Resource resource = resourceLoader.getResource(location);
+        if (!resource.exists()) {
+            throw new IllegalArgumentException("No OpenAPI specification found at " + location);
+        }
+        final OpenAPI openAPI;
+        try {
+            openAPI = new OpenAPIParser().readLocation(resource.getURL().toString(), null, null).getOpenAPI();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to read OpenAPI specification at " + location, e);
+        }
+        if (openAPI == null || openAPI.getPaths() == null || openAPI.getPaths().isEmpty()) {
+            throw new IllegalArgumentException("OpenAPI specification at " + location + " declares no paths");
+        }
+        final RouteIndex.Builder builder = RouteIndex.builder();
+        openAPI.getPaths().forEach((template, pathItem) ->
+                pathItem.readOperationsMap().keySet().forEach(method -> builder.add(method.name(), template)));
+        final RouteIndex routes = builder.build();
+        LOGGER.info("Loaded {} route templates from {}", routes.size(), location);
+        return routes;
+    }
+}
@@ -0,0 +1,182 @@
+package uk.gov.moj.cpp.authz.http.route;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Route templates such as {@code /api/cases/{caseId}} compiled, per HTTP method, into a tree of path segments.
+ * <p>
+ * Matching walks the request path segment by segment without splitting it; a literal segment is preferred over a
+ * variable one at the same position, as OpenAPI prescribes for concrete and templated paths, falling back to the
+ * variable when the literal branch does not lead to a route. Only whole-segment variables are supported; templates
+ * with partly variable segments ({@code /files/{name}.json}) are skipped.
+ */
+public final class RouteIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RouteIndex.class);
+    private static final RouteIndex NO_ROUTES = new RouteIndex(Map.of(), 0);
+
+    private final Map<String, Segment> roots;
+    private final int routeCount;
+
+    private RouteIndex(final Map<String, Segment> roots, final int routeCount) {
+        this.roots = roots;
+        this.routeCount = routeCount;
+    }
+
+    public static RouteIndex empty() {
+        return NO_ROUTES;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param path the path within the application, already decoded
+     */
+    public Optional<RouteMatch> match(final String method, final String path) {
+        final Segment root = roots.get(method.toUpperCase(Locale.ROOT));
+        Optional<RouteMatch> match = Optional.empty();
+        if (root != null && !path.isEmpty() && path.charAt(0) == '/') {
+            final List<String> values = new ArrayList<>();
+            final Segment route = root.find(path, 1, values);
+            if (route != null) {
+                final Map<String, String> variables = new LinkedHashMap<>();
+                for (int i = 0; i < values.size(); i++) {
+                    variables.put(route.variableNames.get(i), values.get(i));
+                }
+                match = Optional.of(new RouteMatch(route.template, variables));
+            }
+        }
+        return match;
+    }
+
+    public int size() {
+        return routeCount;
+    }
+
+    /**
+     * @param template  the route as written in the specification
+     * @param variables path variable values by name, in path order
+     */
+    public record RouteMatch(String template, Map<String, String> variables) {
+    }
+
+    public static final class Builder {
+
+        private final Map<String, Segment> roots = new HashMap<>();
+        private int routeCount;
+
+        private Builder() {
+        }
+
+        public Builder add(final String method, final String template) {
+            if (template.startsWith("/") && wholeSegmentVariablesOnly(template)) {
+                final List<String> variableNames = new ArrayList<>();
+                Segment segment = roots.computeIfAbsent(method.toUpperCase(Locale.ROOT), ignored -> new Segment());
+                int start = 1;
+                while (start <= template.length()) {
+                    final int end = segmentEnd(template, start);
+                    final String text = template.substring(start, end);
+                    if (isVariable(text)) {
+                        variableNames.add(text.substring(1, text.length() - 1));
+                        segment = segment.variableChild();
+                    } else {
+                        segment = segment.literalChild(text);
+                    }
+                    start = end + 1;
+                }
+                if (segment.template == null) {
+                    segment.template = template;
+                    segment.variableNames = List.copyOf(variableNames);
+                    routeCount++;
+                }
+            } else {
+                LOGGER.warn("Skipping route template {} {}: only whole-segment path variables are supported",
+                        method, template);
+            }
+            return this;
+        }
+
+        public RouteIndex build() {
+            return new RouteIndex(Map.copyOf(roots), routeCount);
+        }
+
+        private static boolean wholeSegmentVariablesOnly(final String template) {
+            boolean valid = true;
+            int start = 1;
+            while (valid && start <= template.length()) {
+                final int end = segmentEnd(template, start);
+                final String text = template.substring(start, end);
+                valid = isVariable(text) || text.indexOf('{') < 0 && text.indexOf('}') < 0;
+                start = end + 1;
+            }
+            return valid;
+        }
+
+        private static boolean isVariable(final String text) {
+            return text.length() > 2 && text.charAt(0) == '{' && text.indexOf('}') == text.length() - 1;
+        }
+    }
+
+    private static int segmentEnd(final String path, final int start) {
+        final int slash = path.indexOf('/', start);
+        return slash < 0 ? path.length() : slash;
+    }
+
+    /**
+     * One path position; {@code template} is set when a route ends here.
+     */
+    private static final class Segment {
+
+        private final Map<String, Segment> literals = new HashMap<>();
+        private Segment variable;
+        private String template;
+        private List<String> variableNames = List.of();
+
+        private Segment literalChild(final String text) {
+            return literals.computeIfAbsent(text, ignored -> new Segment());
+        }
+
+        private Segment variableChild() {
+            if (variable == null) {
+                variable = new Segment();
+            }
+            return variable;
+        }
+
+        /**
+         * @param start  index in {@code path} where this segment's child begins, past the end when fully consumed
+         * @param values variable values collected so far; trimmed back when a branch fails
+         */
+        private Segment find(final String path, final int start, final List<String> values) {
+            Segment found = null;
+            if (start <= path.length()) {
+                final int end = segmentEnd(path, start);
+                final Segment literal = literals.get(path.substring(start, end));
+                if (literal != null) {
+                    found = literal.find(path, end + 1, values);
+                }
+                if (found == null && variable != null && end > start) {
+                    values.add(path.substring(start, end));
+                    found = variable.find(path, end + 1, values);
+                    if (found == null) {
+                        values.remove(values.size() - 1);
+                    }
+                }
+            } else if (template != null) {
+                found = this;
+            }
+            return found;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package uk.gov.moj.cpp.authz.http.token;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseCookie;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.intern.GroupSet;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Issues and verifies short-lived, HMAC-signed tokens that let any node skip the identity fetch for a caller it has
+ * not seen recently.
+ * <p>
+ * A token is {@code base64url(version, issuedAtMillis, ruleVersion, groups, mac)} where {@code groups} is the caller's
+ * group set in {@link GroupSet#encode(int)} form and the MAC is HMAC-SHA256 (truncated to {@value #MAC_BYTES} bytes)
+ * over those fields followed by the user id. The user id is not carried, only bound: a token presented with another
+ * user id header fails the MAC. A token is accepted for {@code ttl} after it was issued while the rules are unchanged
+ * and its user has not been {@linkplain #revoke(String) revoked} since; otherwise the caller is looked up as usual and
+ * gets a new token. Group sets too large for a {@value #MAX_TOKEN_BYTES}-byte token get no token.
+ * <p>
+ * Verification decodes into per-thread buffers, feeds ASCII user ids to the MAC a character at a time and matches the
+ * groups against the interned set in place, so accepting a token for a known group set allocates next to nothing
+ * beyond what reading the header or cookie does.
+ */
+public final class DecisionTokens {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final String METRIC = "authz.decision.token";
+    private static final String OUTCOME_TAG = "outcome";
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final byte FORMAT_VERSION = 2;
+    private static final int ISSUED_OFFSET = 1;
+    private static final int RULE_VERSION_OFFSET = 9;
+    private static final int GROUPS_OFFSET = 17;
+    private static final int MAC_BYTES = 16;
+    private static final int MAX_TOKEN_BYTES = 1024;
+    private static final int MAX_GROUP_BYTES = MAX_TOKEN_BYTES - GROUPS_OFFSET - MAC_BYTES;
+    private static final int BITS_PER_BYTE = 8;
+    private static final int BITS_PER_CHAR = 6;
+    private static final int MIN_SECRET_BYTES = 32;
+    private static final int MAX_REVOKED_USERS = 100_000;
+    private static final int ASCII_LIMIT = 0x80;
+    private static final byte[] BASE64_URL = base64UrlTable();
+
+    private final SecretKeySpec key;
+    private final HttpAuthzProperties.DecisionToken config;
+    private final long ttlMillis;
+    private final LongSupplier ruleVersion;
+    private final LongSupplier clock;
+    private final ThreadLocal<Scratch> scratch;
+    private final ConcurrentMap<String, Long> revokedUsers = new ConcurrentHashMap<>();
+    private volatile long revokedBeforeMillis = Long.MIN_VALUE;
+    private final Counter acceptedCounter;
+    private final Counter rejectedCounter;
+    private final Counter issuedCounter;
+
+    /**
+     * @param ruleVersion current rule version, typically {@code DroolsAuthzEngine::ruleVersion}
+     */
+    public DecisionTokens(final HttpAuthzProperties.DecisionToken config,
+                          final LongSupplier ruleVersion,
+                          final MeterRegistry meterRegistry) {
+        this(config, ruleVersion, meterRegistry, System::currentTimeMillis);
+    }
+
+    /* default */ DecisionTokens(final HttpAuthzProperties.DecisionToken config,
+                                 final LongSupplier ruleVersion,
+                                 final MeterRegistry meterRegistry,
+                                 final LongSupplier clock) {
+        final byte[] secret = config.getSecret().getBytes(StandardCharsets.UTF_8);
+        if (secret.length < MIN_SECRET_BYTES) {
+            throw new IllegalStateException("authz.http.decision-token.secret must be at least "
+                    + MIN_SECRET_BYTES + " bytes");
+        }
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+        this.config = config;
+        this.ttlMillis = Math.max(1, config.getTtl().toMillis());
+        this.ruleVersion = ruleVersion;
+        this.clock = clock;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(newMac(key)));
+        this.acceptedCounter = Counter.builder(METRIC).tag(OUTCOME_TAG, "accepted")
+                .description("Decision tokens that let a request skip the identity fetch")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder(METRIC).tag(OUTCOME_TAG, "rejected")
+                .description("Decision tokens presented but expired, forged, stale or revoked")
+                .register(meterRegistry);
+        this.issuedCounter = Counter.builder(METRIC).tag(OUTCOME_TAG, "issued")
+                .description("Decision tokens issued after an identity fetch")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Per-thread MAC and buffers reused by every verification on that thread.
+     */
+    private static final class Scratch {
+        private final Mac mac;
+        private final byte[] token = new byte[MAX_TOKEN_BYTES];
+        private final byte[] expected;
+
+        private Scratch(final Mac mac) {
+            this.mac = mac;
+            this.expected = new byte[mac.getMacLength()];
+        }
+    }
+
+    /**
+     * @return the caller's groups if the request carries a valid token for {@code userId}
+     */
+    public Optional<Set<String>> verify(final HttpServletRequest request, final String userId) {
+        final Optional<String> presented = read(request);
+        Optional<Set<String>> groups = Optional.empty();
+        if (presented.isPresent()) {
+            groups = verify(presented.get(), userId);
+            (groups.isPresent() ? acceptedCounter : rejectedCounter).increment();
+        }
+        return groups;
+    }
+
+    public Optional<Set<String>> verify(final String token, final String userId) {
+        final Scratch buffers = scratch.get();
+        final byte[] bytes = buffers.token;
+        final int length = decode(token, bytes);
+        final int bodyBytes = length - MAC_BYTES;
+        Optional<Set<String>> groups = Optional.empty();
+        if (bodyBytes > GROUPS_OFFSET
+                && bytes[0] == FORMAT_VERSION
+                && isCurrent((long) LONGS.get(bytes, ISSUED_OFFSET), userId)
+                && (long) LONGS.get(bytes, RULE_VERSION_OFFSET) == ruleVersion.getAsLong()
+                && macMatches(buffers, bytes, bodyBytes, userId)) {
+            groups = GroupSet.decode(bytes, GROUPS_OFFSET, bodyBytes).map(groupSet -> groupSet);
+        }
+        return groups;
+    }
+
+    /**
+     * Rejects every token issued to {@code userId} until now, as when the user's groups change.
+     */
+    public void revoke(final String userId) {
+        final long now = clock.getAsLong();
+        if (revokedUsers.size() >= MAX_REVOKED_USERS) {
+            // a revocation older than the TTL only covers tokens that have expired anyway
+            revokedUsers.values().removeIf(revokedAt -> revokedAt <= now - ttlMillis);
+        }
+        if (revokedUsers.size() >= MAX_REVOKED_USERS) {
+            revokeAll();
+        } else {
+            revokedUsers.merge(userId, now, Math::max);
+        }
+    }
+
+    /**
+     * Rejects every token issued until now.
+     */
+    public void revokeAll() {
+        revokedBeforeMillis = clock.getAsLong();
+        revokedUsers.clear();
+    }
+
+    private boolean isCurrent(final long issuedAtMillis, final String userId) {
+        final Long userRevokedAt = revokedUsers.get(userId);
+        return issuedAtMillis + ttlMillis > clock.getAsLong()
+                && issuedAtMillis > revokedBeforeMillis
+                && (userRevokedAt == null || issuedAtMillis > userRevokedAt);
+    }
+
+    /**
+     * Sends a fresh token for {@code userId} and {@code groups} as the configured header or cookie.
+     */
+    public void issue(final HttpServletResponse response, final String userId, final Set<String> groups) {
+        issue(userId, groups).ifPresent(token -> send(response, token));
+    }
+
+    private void send(final HttpServletResponse response, final String token) {
+        if (config.getTransport() == HttpAuthzProperties.DecisionToken.Transport.COOKIE) {
+            response.addHeader(HttpHeaders.SET_COOKIE, ResponseCookie.from(config.getName(), token)
+                    .path("/")
+                    .maxAge(Math.max(1, ttlMillis / 1000))
+                    .httpOnly(true)
+                    .secure(true)
+                    .sameSite("Strict")
+                    .build()
+                    .toString());
+        } else {
+            response.setHeader(config.getName(), token);
+        }
+        issuedCounter.increment();
+    }
+
+    /**
+     * @return the token, or empty if the groups do not fit in one
+     */
+    public Optional<String> issue(final String userId, final Set<String> groups) {
+        return GroupSet.intern(groups).encode(MAX_GROUP_BYTES).map(encodedGroups -> {
+            final int bodyBytes = GROUPS_OFFSET + encodedGroups.length;
+            final byte[] bytes = new byte[bodyBytes + MAC_BYTES];
+            bytes[0] = FORMAT_VERSION;
+            LONGS.set(bytes, ISSUED_OFFSET, clock.getAsLong());
+            LONGS.set(bytes, RULE_VERSION_OFFSET, ruleVersion.getAsLong());
+            System.arraycopy(encodedGroups, 0, bytes, GROUPS_OFFSET, encodedGroups.length);
+            final Scratch buffers = scratch.get();
+            sign(buffers, bytes, bodyBytes, userId);
+            System.arraycopy(buffers.expected, 0, bytes, bodyBytes, MAC_BYTES);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        });
+    }
+
+    private Optional<String> read(final HttpServletRequest request) {
+        Optional<String> token = Optional.empty();
+        if (config.getTransport() == HttpAuthzProperties.DecisionToken.Transport.COOKIE) {
+            final Cookie[] cookies = request.getCookies();
+            if (cookies != null) {
+                token = Arrays.stream(cookies)
+                        .filter(cookie -> config.getName().equals(cookie.getName()))
+                        .map(Cookie::getValue)
+                        .findFirst();
+            }
+        } else {
+            token = Optional.ofNullable(request.getHeader(config.getName()));
+        }
+        return token;
+    }
+
+    private static boolean macMatches(final Scratch buffers, final byte[] bytes, final int bodyBytes,
+                                      final String userId) {
+        sign(buffers, bytes, bodyBytes, userId);
+        int difference = 0;
+        for (int i = 0; i < MAC_BYTES; i++) {
+            difference |= buffers.expected[i] ^ bytes[bodyBytes + i];
+        }
+        return difference == 0;
+    }
+
+    /**
+     * Leaves HMAC(body, userId) in {@code buffers.expected}.
+     */
+    private static void sign(final Scratch buffers, final byte[] bytes, final int bodyBytes, final String userId) {
+        final Mac mac = buffers.mac;
+        mac.update(bytes, 0, bodyBytes);
+        if (isAscii(userId)) {
+            for (int i = 0; i < userId.length(); i++) {
+                mac.update((byte) userId.charAt(i));
+            }
+        } else {
+            mac.update(userId.getBytes(StandardCharsets.UTF_8));
+        }
+        try {
+            mac.doFinal(buffers.expected, 0);
+        } catch (final ShortBufferException impossible) {
+            throw new IllegalStateException("MAC buffer too small", impossible);
+        }
+    }
+
+    private static boolean isAscii(final String value) {
+        boolean ascii = true;
+        for (int i = 0; i < value.length() && ascii; i++) {
+            ascii = value.charAt(i) < ASCII_LIMIT;
+        }
+        return ascii;
+    }
+
+    /**
+     * Strict unpadded base64url decoding into {@code out}.
+     *
+     * @return the number of bytes decoded, or {@code -1} if the token is malformed or longer than {@code out}
+     */
+    private static int decode(final String token, final byte[] out) {
+        final int length = token.length();
+        final int decodedBytes = (int) ((long) length * BITS_PER_CHAR / BITS_PER_BYTE);
+        boolean valid = decodedBytes <= out.length && length * BITS_PER_CHAR % BITS_PER_BYTE < BITS_PER_CHAR;
+        int buffer = 0;
+        int bits = 0;
+        int index = 0;
+        for (int i = 0; i < length && valid; i++) {
+            final char character = token.charAt(i);
+            final int value = character < ASCII_LIMIT ? BASE64_URL[character] : -1;
+            valid = value >= 0;
+            buffer = buffer << BITS_PER_CHAR | value;
+            bits += BITS_PER_CHAR;
+            if (bits >= BITS_PER_BYTE) {
+                bits -= BITS_PER_BYTE;
+                out[index++] = (byte) (buffer >> bits);
+            }
+        }
+        return valid && (buffer & (1 << bits) - 1) == 0 ? decodedBytes : -1;
+    }
+
+    private static byte[] base64UrlTable() {
+        final byte[] table = new byte[ASCII_LIMIT];
+        Arrays.fill(table, (byte) -1);
+        final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        for (int i = 0; i < alphabet.length(); i++) {
+            table[alphabet.charAt(i)] = (byte) i;
+        }
+        return table;
+    }
+
+    private static Mac newMac(final SecretKeySpec key) {
+        try {
+            final Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (final NoSuchAlgorithmException | InvalidKeyException unavailable) {
+            throw new IllegalStateException(ALGORITHM + " unavailable", unavailable);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package uk.gov.moj.cpp.authz.http.token;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.source.ImmutableJWKSet;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.JWTClaimNames;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.proc.BadJWTException;
+import com.nimbusds.jwt.proc.DefaultJWTClaimsVerifier;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.StringUtils;
+import uk.gov.moj.cpp.authz.http.IdentityResponse;
+import uk.gov.moj.cpp.authz.http.TokenIdentityVerifier;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.dto.UserGroup;
+import uk.gov.moj.cpp.authz.http.intern.IdentityInterner;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Verifies signed JWTs against the public keys in a local JWKS file, so the identity is known without a remote call.
+ * <p>
+ * The file's modification time is checked at most every {@code jwks-check-interval}; a changed file is re-read and
+ * replaces the key set, which also forgets every previously verified token. Only RSA and EC signatures are accepted.
+ * Tokens must carry {@code exp} and the user id claim, and match the configured issuer and audience when set.
+ * A verified token is remembered until it expires, so repeat requests with the same token skip the signature check.
+ */
+public final class JwtIdentityVerifier implements TokenIdentityVerifier {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JwtIdentityVerifier.class);
+    private static final Set<JWSAlgorithm> ALGORITHMS = asymmetricAlgorithms();
+    private static final KeySet NO_KEYS = new KeySet(FileTime.fromMillis(0), Optional.empty());
+
+    private final HttpAuthzProperties.Token config;
+    private final Path jwksPath;
+    private final long checkIntervalNanos;
+    private final int maxCachedTokens;
+    private final DefaultJWTClaimsVerifier<SecurityContext> claimsVerifier;
+    private final ConcurrentMap<String, VerifiedToken> verified = new ConcurrentHashMap<>();
+
+    private volatile KeySet keySet = NO_KEYS;
+    private volatile long nextCheckNanos;
+
+    public JwtIdentityVerifier(final HttpAuthzProperties.Token config) {
+        if (!StringUtils.hasText(config.getJwksPath())) {
+            throw new IllegalStateException("authz.http.token.jwks-path is required when identity-source is TOKEN");
+        }
+        this.config = config;
+        this.jwksPath = Path.of(config.getJwksPath());
+        this.checkIntervalNanos = Math.max(0, config.getJwksCheckInterval().toNanos());
+        this.maxCachedTokens = Math.max(1, config.getCacheMaxEntries());
+        this.claimsVerifier = buildClaimsVerifier(config);
+        reloadIfChanged();
+        this.nextCheckNanos = System.nanoTime() + checkIntervalNanos;
+    }
+
+    private record KeySet(FileTime modified, Optional<DefaultJWTProcessor<SecurityContext>> processor) {
+    }
+
+    private record VerifiedToken(IdentityResponse identity, long expiresAtMillis) {
+    }
+
+    @Override
+    public Optional<IdentityResponse> verify(final String token) {
+        refreshKeysIfDue();
+        final long now = System.currentTimeMillis();
+        final VerifiedToken cached = verified.get(token);
+        final Optional<IdentityResponse> identity;
+        if (cached != null && cached.expiresAtMillis() > now) {
+            identity = Optional.of(cached.identity());
+        } else {
+            if (cached != null) {
+                verified.remove(token, cached);
+            }
+            identity = verifySignature(token);
+        }
+        return identity;
+    }
+
+    private Optional<IdentityResponse> verifySignature(final String token) {
+        Optional<IdentityResponse> identity = Optional.empty();
+        final Optional<DefaultJWTProcessor<SecurityContext>> processor = keySet.processor();
+        if (processor.isPresent()) {
+            try {
+                final JWTClaimsSet claims = processor.get().process(token, null);
+                final IdentityResponse verifiedIdentity = toIdentity(claims);
+                remember(token, new VerifiedToken(verifiedIdentity, claims.getExpirationTime().getTime()));
+                identity = Optional.of(verifiedIdentity);
+            } catch (final ParseException | BadJOSEException | JOSEException rejected) {
+                LOGGER.debug("Rejected identity token: {}", rejected.getMessage());
+            }
+        } else {
+            LOGGER.warn("Rejected identity token: no signing keys loaded from {}", jwksPath);
+        }
+        return identity;
+    }
+
+    private IdentityResponse toIdentity(final JWTClaimsSet claims) throws ParseException, BadJWTException {
+        final String userId = claims.getStringClaim(config.getUserIdClaim());
+        if (!StringUtils.hasText(userId)) {
+            throw new BadJWTException("Blank " + config.getUserIdClaim() + " claim");
+        }
+        final List<String> groupNames = claims.getStringListClaim(config.getGroupsClaim());
+        final List<UserGroup> groups = new ArrayList<>();
+        if (groupNames != null) {
+            groupNames.stream().map(JwtIdentityVerifier::group).forEach(groups::add);
+        }
+        final String prosecutingAuthority = claims.getStringClaim(config.getProsecutingAuthorityClaim());
+        if (StringUtils.hasText(prosecutingAuthority)) {
+            groups.add(new UserGroup(null, null, prosecutingAuthority));
+        }
+        return IdentityInterner.intern(new IdentityResponse(userId, groups, List.of()));
+    }
+
+    private static UserGroup group(final String name) {
+        return new UserGroup(null, name, null);
+    }
+
+    private void remember(final String token, final VerifiedToken verifiedToken) {
+        if (!verified.containsKey(token) && verified.size() >= maxCachedTokens) {
+            final Iterator<String> iterator = verified.keySet().iterator();
+            if (iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        verified.put(token, verifiedToken);
+    }
+
+    private void refreshKeysIfDue() {
+        final long now = System.nanoTime();
+        if (now - nextCheckNanos >= 0) {
+            synchronized (this) {
+                if (now - nextCheckNanos >= 0) {
+                    nextCheckNanos = now + checkIntervalNanos;
+                    reloadIfChanged();
+                }
+            }
+        }
+    }
+
+    private synchronized void reloadIfChanged() {
+        try {
+            final FileTime modified = Files.getLastModifiedTime(jwksPath);
+            if (!modified.equals(keySet.modified())) {
+                final JWKSet jwkSet = JWKSet.load(jwksPath.toFile());
+                keySet = new KeySet(modified, Optional.of(processor(jwkSet)));
+                verified.clear();
+                LOGGER.info("Loaded {} identity token keys from {}", jwkSet.getKeys().size(), jwksPath);
+            }
+        } catch (final IOException | ParseException unreadable) {
+            LOGGER.warn("Keeping current identity token keys; unable to read {}: {}", jwksPath, unreadable.getMessage());
+        }
+    }
+
+    private DefaultJWTProcessor<SecurityContext> processor(final JWKSet jwkSet) {
+        final DefaultJWTProcessor<SecurityContext> processor = new DefaultJWTProcessor<>();
+        processor.setJWSKeySelector(new JWSVerificationKeySelector<>(ALGORITHMS, new ImmutableJWKSet<>(jwkSet)));
+        processor.setJWTClaimsSetVerifier(claimsVerifier);
+        return processor;
+    }
+
+    private static DefaultJWTClaimsVerifier<SecurityContext> buildClaimsVerifier(final HttpAuthzProperties.Token config) {
+        final JWTClaimsSet.Builder exactMatch = new JWTClaimsSet.Builder();
+        if (StringUtils.hasText(config.getIssuer())) {
+            exactMatch.issuer(config.getIssuer());
+        }
+        final Set<String> required = new HashSet<>();
+        required.add(JWTClaimNames.EXPIRATION_TIME);
+        required.add(config.getUserIdClaim());
+        final DefaultJWTClaimsVerifier<SecurityContext> verifier = StringUtils.hasText(config.getAudience())
+                ? new DefaultJWTClaimsVerifier<>(config.getAudience(), exactMatch.build(), required)
+                : new DefaultJWTClaimsVerifier<>(exactMatch.build(), required);
+        verifier.setMaxClockSkew((int) config.getClockSkew().toSeconds());
+        return verifier;
+    }
+
+    private static Set<JWSAlgorithm> asymmetricAlgorithms() {
+        final Set<JWSAlgorithm> algorithms = new HashSet<>(JWSAlgorithm.Family.RSA);
+        algorithms.addAll(JWSAlgorithm.Family.EC);
+        return Set.copyOf(algorithms);
+    }
+}
@@ -5,13 +5,18 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 import uk.gov.moj.cpp.authz.http.AuthzPrincipal;
 import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.deadline.DeadlineExceededException;
+import uk.gov.moj.cpp.authz.http.deadline.RequestDeadline;
 import uk.gov.moj.cpp.authz.http.providers.UserAndGroupProvider;
 import uk.gov.moj.cpp.authz.testsupport.TestConstants;
 
+import java.time.Duration;
 import java.util.Map;
 import java.util.Set;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class DroolsAuthzEngineTest {
@@ -111,4 +116,19 @@ class DroolsAuthzEngineTest {
         assertTrue(engine.evaluate(provider, action), "Expected allow for hearing.get-draft-result and LA group");
     }
 
+    @Test
+    @Timeout(5)
+    void reportsDeadlineInsteadOfDenyingWhenBudgetIsSpent() {
+        final HttpAuthzProperties properties = new HttpAuthzProperties();
+        properties.setDroolsClasspathPattern(DROOLS_CLASSPATH_PATTERN);
+        final DroolsAuthzEngine engine = new DroolsAuthzEngine(properties);
+        final UserAndGroupProvider provider = (action, groups) -> true;
+        final Action action = new Action(TestConstants.ACTION_HELLO, Map.of());
+
+        final DeadlineExceededException exceeded = assertThrows(DeadlineExceededException.class,
+                () -> engine.evaluate(provider, action, RequestDeadline.after(Duration.ZERO)),
+                "A spent budget should not be turned into a denial");
+        assertEquals(DeadlineExceededException.RULES, exceeded.getStage(), "Exception should name the rules stage");
+    }
+
 }
@@ -0,0 +1,234 @@
+package uk.gov.moj.cpp.authz.http;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.http.HttpMessageConvertersAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.embedded.EmbeddedWebServerFactoryCustomizerAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.DispatcherServletAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.ServletWebServerFactoryAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.WebMvcAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import uk.gov.moj.cpp.access.path.PathPolicy;
+import uk.gov.moj.cpp.authz.drools.DroolsAuthzEngine;
+import uk.gov.moj.cpp.authz.http.config.AuthzSettings;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.config.LiveAuthzSettings;
+
+import jakarta.servlet.DispatcherType;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Sustained throughput of a Tomcat limited to {@value #WORKER_THREADS} worker threads, with every identity fetch
+ * taking {@value #IDENTITY_LATENCY_MILLIS} ms: one filter authorizes on the worker thread, the other releases it while
+ * it waits. Run with {@code ASYNC_AUTHZ_BENCHMARK=true}.
+ */
+@SpringBootTest(classes = AsyncAuthorizationThroughputTest.AuthorizingApplication.class,
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"server.tomcat.threads.max=" + AsyncAuthorizationThroughputTest.WORKER_THREADS,
+                "server.tomcat.threads.min-spare=" + AsyncAuthorizationThroughputTest.WORKER_THREADS})
+@EnabledIfEnvironmentVariable(named = "ASYNC_AUTHZ_BENCHMARK", matches = "true")
+class AsyncAuthorizationThroughputTest {
+
+    /* default */ static final int WORKER_THREADS = 8;
+    /* default */ static final int IDENTITY_LATENCY_MILLIS = 200;
+    /** Overrides {@link #IDENTITY_LATENCY_MILLIS} for the applications started by other benchmarks. */
+    /* default */ static final String IDENTITY_LATENCY_PROPERTY = "benchmark.identity-latency-millis";
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncAuthorizationThroughputTest.class);
+    private static final int CLIENTS = 64;
+    private static final Duration WARM_UP = Duration.ofSeconds(3);
+    private static final Duration MEASURED = Duration.ofSeconds(10);
+    private static final String USER_ID = "user-123";
+
+    @LocalServerPort
+    private int port;
+
+    @Test
+    void sustainsMoreConcurrentRequestsWhenIdentityFetchDoesNotHoldWorkerThreads() throws Exception {
+        final long blocking;
+        final long released;
+        try (HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build()) {
+            blocking = requestsPerSecond(client, "/sync/api/cases");
+            released = requestsPerSecond(client, "/async/api/cases");
+        }
+
+        LOGGER.info("{} worker threads, {} clients, {} ms identity latency: sync {} req/s, async {} req/s",
+                WORKER_THREADS, CLIENTS, IDENTITY_LATENCY_MILLIS, blocking, released);
+        assertTrue(released > blocking, "Releasing worker threads should serve more concurrent requests");
+    }
+
+    private long requestsPerSecond(final HttpClient client, final String path) throws Exception {
+        final HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                .header("CJSCPPUID", USER_ID).build();
+        run(client, request, WARM_UP);
+        return run(client, request, MEASURED) * 1_000 / MEASURED.toMillis();
+    }
+
+    private static long run(final HttpClient client, final HttpRequest request, final Duration duration)
+            throws Exception {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        long total = 0;
+        try (ExecutorService executor = Executors.newFixedThreadPool(CLIENTS)) {
+            final List<Future<Long>> clients = new ArrayList<>();
+            for (int i = 0; i < CLIENTS; i++) {
+                clients.add(executor.submit(() -> call(client, request, running)));
+            }
+            Thread.sleep(duration.toMillis());
+            running.set(false);
+            for (final Future<Long> served : clients) {
+                total += served.get();
+            }
+        }
+        return total;
+    }
+
+    private static long call(final HttpClient client, final HttpRequest request, final AtomicBoolean running)
+            throws Exception {
+        long served = 0;
+        while (running.get()) {
+            final HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            assertEquals(204, response.statusCode(), "Authorized requests should reach the controller");
+            served++;
+        }
+        return served;
+    }
+
+    @SpringBootConfiguration
+    @ImportAutoConfiguration({ServletWebServerFactoryAutoConfiguration.class,
+            EmbeddedWebServerFactoryCustomizerAutoConfiguration.class, DispatcherServletAutoConfiguration.class, WebMvcAutoConfiguration.class,
+            JacksonAutoConfiguration.class, HttpMessageConvertersAutoConfiguration.class})
+    @SuppressWarnings("PMD.TestClassWithoutTestCases")
+    public static class AuthorizingApplication {
+
+        @Bean
+        public CasesController casesController() {
+            return new CasesController();
+        }
+
+        @Bean
+        public SlowIdentityService slowIdentityService(final Environment environment) throws IOException {
+            return new SlowIdentityService(environment.getProperty(IDENTITY_LATENCY_PROPERTY, Long.class,
+                    (long) IDENTITY_LATENCY_MILLIS));
+        }
+
+        @Bean
+        public FilterRegistrationBean<HttpAuthzFilter> syncFilter(final SlowIdentityService identityService) {
+            return registration(identityService, Optional.empty(), "/sync/*");
+        }
+
+        @Bean
+        public FilterRegistrationBean<HttpAuthzFilter> asyncFilter(final SlowIdentityService identityService) {
+            final ThreadFactory threads = Thread.ofVirtual().factory();
+            return registration(identityService, Optional.of(task -> threads.newThread(task).start()), "/async/*");
+        }
+
+        private static FilterRegistrationBean<HttpAuthzFilter> registration(final SlowIdentityService identityService,
+                                                                             final Optional<Executor> executor,
+                                                                             final String pattern) {
+            final HttpAuthzProperties properties = new HttpAuthzProperties();
+            properties.setIdentityUrlTemplate(identityService.url());
+            final HttpAuthzFilter.Builder filter = HttpAuthzFilter.builder(
+                    new IdentityClient(properties, new SimpleMeterRegistry()),
+                    new DefaultIdentityToGroupsMapper(properties), allowingEngine(),
+                    LiveAuthzSettings.fixed(AuthzSettings.compile(properties, PathPolicy.empty())));
+            executor.ifPresent(filter::asyncExecutor);
+            final FilterRegistrationBean<HttpAuthzFilter> registration = new FilterRegistrationBean<>(filter.build());
+            registration.addUrlPatterns(pattern);
+            registration.setDispatcherTypes(DispatcherType.REQUEST, DispatcherType.ASYNC);
+            registration.setName(pattern);
+            return registration;
+        }
+
+        private static DroolsAuthzEngine allowingEngine() {
+            final DroolsAuthzEngine engine = mock(DroolsAuthzEngine.class, withSettings().stubOnly());
+            when(engine.evaluate(any(), any(), any())).thenReturn(true);
+            return engine;
+        }
+    }
+
+    /**
+     * A remote identity service that answers every lookup after a fixed delay.
+     */
+    public static final class SlowIdentityService implements AutoCloseable {
+
+        private static final byte[] IDENTITY_JSON = ("{\"groups\":[{\"groupId\":\"g1\",\"groupName\":\"Legal Advisers\","
+                + "\"prosecutingAuthority\":null}],\"switchableRoles\":[],\"permissions\":[]}")
+                .getBytes(StandardCharsets.UTF_8);
+        /** Room for a burst of new connections from a client pool. */
+        private static final int BACKLOG = 1_024;
+
+        private final HttpServer server;
+
+        /* default */ SlowIdentityService(final long latencyMillis) throws IOException {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), BACKLOG);
+            server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+            server.createContext("/identity", exchange -> {
+                try {
+                    Thread.sleep(latencyMillis);
+                } catch (final InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, IDENTITY_JSON.length);
+                exchange.getResponseBody().write(IDENTITY_JSON);
+                exchange.close();
+            });
+            server.start();
+        }
+
+        /* default */ String url() {
+            return "http://localhost:" + server.getAddress().getPort() + "/identity";
+        }
+
+        @Override
+        public void close() {
+            server.stop(0);
+        }
+    }
+
+    @RestController
+    public static class CasesController {
+
+        @GetMapping({"/sync/api/cases", "/async/api/cases"})
+        public ResponseEntity<Void> cases() {
+            return ResponseEntity.noContent().build();
+        }
+    }
+}
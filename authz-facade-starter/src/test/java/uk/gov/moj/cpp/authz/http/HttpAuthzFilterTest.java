@@ -1,5 +1,9 @@
 package uk.gov.moj.cpp.authz.http;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.DispatcherType;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import org.junit.jupiter.api.BeforeEach;
@@ -8,20 +12,51 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockAsyncContext;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+import uk.gov.moj.cpp.access.context.FacadeContext;
+import uk.gov.moj.cpp.access.timing.ServerTiming;
+import uk.gov.moj.cpp.access.timing.ServerTimingPolicy;
 import uk.gov.moj.cpp.authz.drools.Action;
 import uk.gov.moj.cpp.authz.drools.DroolsAuthzEngine;
+import uk.gov.moj.cpp.authz.http.cache.IdentityCache;
+import uk.gov.moj.cpp.authz.http.config.AuthzSettings;
 import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.config.LiveAuthzSettings;
+import uk.gov.moj.cpp.authz.http.deadline.DeadlineExceededException;
+import uk.gov.moj.cpp.authz.http.deadline.Deadlines;
+import uk.gov.moj.cpp.authz.http.deadline.RequestDeadline;
+import uk.gov.moj.cpp.authz.http.intern.GroupSet;
+import uk.gov.moj.cpp.authz.http.resilience.ConcurrencyLimiter;
+import uk.gov.moj.cpp.authz.http.resilience.RateLimiter;
+import uk.gov.moj.cpp.authz.http.route.RouteIndex;
+import uk.gov.moj.cpp.authz.http.token.DecisionTokens;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
 
 @ExtendWith(MockitoExtension.class)
 class HttpAuthzFilterTest {
@@ -39,6 +74,10 @@ class HttpAuthzFilterTest {
     private static final String ACTION_GET_HELLO = "GET /api/hello";
     private static final String ACTION_POST_ECHO = "POST /api/echo";
     private static final String GROUP_LEGAL_ADVISERS = "Legal Advisers";
+    private static final String GROUP_GUESTS = "Guests";
+    private static final String TIMING_GUARD_HEADER = "X-Server-Timing-Token";
+    private static final String TIMING_GUARD_TOKEN = "internal-only";
+    private static final String IDENTITY_URL = "http://identity.test/permissions";
 
     @Mock
     private IdentityClient identityClient;
@@ -92,15 +131,123 @@ class HttpAuthzFilterTest {
         assertEquals(401, res.getStatus(), "Expected 401 when user id header is missing");
     }
 
+    @Test
+    void usesVerifiedTokenInsteadOfIdentityServiceWhenTokenSourceIsConfigured() throws Exception {
+        final TokenIdentityVerifier tokenVerifier = mock(TokenIdentityVerifier.class);
+        final HttpAuthzFilter tokenFilter = filterBuilder().tokenVerifier(tokenVerifier).build();
+        final MockHttpServletRequest req = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        req.addHeader("Authorization", "Bearer signed.jwt.value");
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+
+        final IdentityResponse identityResponse = mockIdentity(USER_123);
+        when(tokenVerifier.verify("signed.jwt.value")).thenReturn(Optional.of(identityResponse));
+        when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of(GROUP_LEGAL_ADVISERS));
+        when(droolsAuthzEngine.evaluate(any(), any(), any())).thenReturn(true);
+
+        tokenFilter.doFilter(req, res, filterChain);
+
+        assertEquals(200, res.getStatus(), "Expected 200 when the token verifies and the engine approves");
+        verifyNoInteractions(identityClient);
+        final AuthzPrincipal principal = (AuthzPrincipal) req.getAttribute(AuthzPrincipal.class.getName());
+        assertEquals(USER_123, principal.userId(), "Principal should carry the user id from the token");
+    }
+
+    @Test
+    void returns401WhenTokenSourceIsConfiguredAndTokenIsInvalid() throws Exception {
+        final TokenIdentityVerifier tokenVerifier = mock(TokenIdentityVerifier.class);
+        final HttpAuthzFilter tokenFilter = filterBuilder().tokenVerifier(tokenVerifier).build();
+        final MockHttpServletRequest req = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        req.addHeader("Authorization", "Bearer forged");
+        req.addHeader(USER_ID_HEADER, USER_123);
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+
+        when(tokenVerifier.verify("forged")).thenReturn(Optional.empty());
+
+        tokenFilter.doFilter(req, res, filterChain);
+
+        assertEquals(401, res.getStatus(), "Expected 401 when the token does not verify, whatever the user id header says");
+        verify(filterChain, never()).doFilter(req, res);
+    }
+
+    @Test
+    void skipsIdentityFetchWhenValidDecisionTokenIsPresented() throws Exception {
+        httpAuthzProperties.getDecisionToken().setSecret("0123456789abcdef0123456789abcdef");
+        final DecisionTokens decisionTokens =
+                new DecisionTokens(httpAuthzProperties.getDecisionToken(), () -> 7L, new SimpleMeterRegistry());
+        final HttpAuthzFilter tokenFilter = filterBuilder().decisionTokens(decisionTokens).build();
+        final Set<String> groups = GroupSet.intern(List.of(GROUP_LEGAL_ADVISERS));
+        final IdentityResponse identityResponse = mockIdentity(USER_123);
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any())).thenReturn(identityResponse);
+        when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(groups);
+        when(droolsAuthzEngine.evaluate(any(), any(), any())).thenReturn(true);
+
+        final MockHttpServletRequest first = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        first.addHeader(USER_ID_HEADER, USER_123);
+        final MockHttpServletResponse firstResponse = new MockHttpServletResponse();
+        tokenFilter.doFilter(first, firstResponse, filterChain);
+        final String issued = firstResponse.getHeader("CPP-AUTHZ-TOKEN");
+        assertNotNull(issued, "An allowed request that fetched the identity should be issued a token");
+
+        final MockHttpServletRequest second = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        second.addHeader(USER_ID_HEADER, USER_123);
+        second.addHeader("CPP-AUTHZ-TOKEN", issued);
+        final MockHttpServletResponse secondResponse = new MockHttpServletResponse();
+        tokenFilter.doFilter(second, secondResponse, filterChain);
+
+        assertEquals(200, secondResponse.getStatus(), "Expected 200 when the token supplies the groups");
+        assertNull(secondResponse.getHeader("CPP-AUTHZ-TOKEN"), "A still-valid token should not be reissued");
+        verify(identityClient, times(1)).fetchIdentity(eq(USER_123), any(), any());
+    }
+
+    @Test
+    void returns504WithoutLookupWhenCallerDeadlineHasAlreadyPassed() throws Exception {
+        final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final HttpAuthzFilter deadlineFilter = deadlineFilter(meterRegistry);
+        final MockHttpServletRequest req = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        req.addHeader(USER_ID_HEADER, USER_123);
+        req.addHeader("CPP-DEADLINE-MS", "0");
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+
+        deadlineFilter.doFilter(req, res, filterChain);
+
+        assertEquals(504, res.getStatus(), "Expected 504 when the caller has no budget left");
+        verifyNoInteractions(identityClient, droolsAuthzEngine, filterChain);
+        assertEquals(1.0, meterRegistry.counter("authz.deadline.exceeded", "stage", "arrival").count(),
+                "Deadline miss should be counted by stage");
+    }
+
+    @Test
+    void returns504WhenIdentityLookupRunsOutOfBudget() throws Exception {
+        final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final HttpAuthzFilter deadlineFilter = deadlineFilter(meterRegistry);
+        final MockHttpServletRequest req = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        req.addHeader(USER_ID_HEADER, USER_123);
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+        when(identityClient.fetchIdentity(eq(USER_123), argThat(RequestDeadline::isBounded), any()))
+                .thenThrow(new DeadlineExceededException(DeadlineExceededException.IDENTITY));
+
+        deadlineFilter.doFilter(req, res, filterChain);
+
+        assertEquals(504, res.getStatus(), "Expected 504 when the identity lookup outlives the route budget");
+        verify(filterChain, never()).doFilter(req, res);
+        verifyNoInteractions(droolsAuthzEngine);
+        assertEquals(1.0, meterRegistry.counter("authz.deadline.exceeded", "stage", "identity").count(),
+                "Deadline miss should be counted by stage");
+    }
+
     @Test
     void returns400WhenActionHeaderIsRequiredButMissing() throws Exception {
+        final LiveAuthzSettings settings = new LiveAuthzSettings(() -> AuthzSettings.compile(httpAuthzProperties));
+        final HttpAuthzFilter filter =
+                HttpAuthzFilter.builder(identityClient, identityToGroupsMapper, droolsAuthzEngine, settings).build();
         httpAuthzProperties.setActionRequired(true);
+        settings.refresh();
 
         final MockHttpServletRequest req = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
         req.addHeader(USER_ID_HEADER, USER_123);
         final MockHttpServletResponse res = new MockHttpServletResponse();
 
-        httpAuthzFilter.doFilter(req, res, filterChain);
+        filter.doFilter(req, res, filterChain);
 
         assertEquals(400, res.getStatus(), "Expected 400 when action header is required but missing");
     }
@@ -112,9 +259,9 @@ class HttpAuthzFilterTest {
         final MockHttpServletResponse res = new MockHttpServletResponse();
 
         final IdentityResponse identityResponse = mockIdentity(USER_123);
-        when(identityClient.fetchIdentity(USER_123)).thenReturn(identityResponse);
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any())).thenReturn(identityResponse);
         when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of(GROUP_LEGAL_ADVISERS));
-        when(droolsAuthzEngine.evaluate(any(), any())).thenReturn(true);
+        when(droolsAuthzEngine.evaluate(any(), any(), any())).thenReturn(true);
 
         httpAuthzFilter.doFilter(req, res, filterChain);
 
@@ -128,9 +275,9 @@ class HttpAuthzFilterTest {
         final MockHttpServletResponse res = new MockHttpServletResponse();
 
         final IdentityResponse identityResponse = mockIdentity(USER_123);
-        when(identityClient.fetchIdentity(USER_123)).thenReturn(identityResponse);
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any())).thenReturn(identityResponse);
         when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of(GROUP_LEGAL_ADVISERS));
-        when(droolsAuthzEngine.evaluate(any(), any())).thenReturn(true);
+        when(droolsAuthzEngine.evaluate(any(), any(), any())).thenReturn(true);
 
         httpAuthzFilter.doFilter(req, res, filterChain);
 
@@ -145,15 +292,230 @@ class HttpAuthzFilterTest {
         final MockHttpServletResponse res = new MockHttpServletResponse();
 
         final IdentityResponse identityResponse = mockIdentity(USER_123);
-        when(identityClient.fetchIdentity(USER_123)).thenReturn(identityResponse);
-        when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of("Guests"));
-        when(droolsAuthzEngine.evaluate(any(), any())).thenReturn(false);
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any())).thenReturn(identityResponse);
+        when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of(GROUP_GUESTS));
+        when(droolsAuthzEngine.evaluate(any(), any(), any())).thenReturn(false);
 
         httpAuthzFilter.doFilter(req, res, filterChain);
 
         assertEquals(403, res.getStatus(), "Expected 403 when engine rejects");
     }
 
+    @Test
+    void writesProblemJsonWithoutErrorDispatchWhenConfigured() throws Exception {
+        httpAuthzProperties.setDenialFormat(HttpAuthzProperties.DenialFormat.PROBLEM_JSON);
+        final HttpAuthzFilter problemFilter =
+                new HttpAuthzFilter(httpAuthzProperties, identityClient, identityToGroupsMapper, droolsAuthzEngine);
+        final MockHttpServletRequest req = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        req.addHeader(USER_ID_HEADER, USER_123);
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+
+        final IdentityResponse identityResponse = mockIdentity(USER_123);
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any())).thenReturn(identityResponse);
+        when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of(GROUP_GUESTS));
+        when(droolsAuthzEngine.evaluate(any(), any(), any())).thenReturn(false);
+
+        problemFilter.doFilter(req, res, filterChain);
+
+        assertEquals(403, res.getStatus(), "Expected 403 when engine rejects");
+        assertNull(res.getErrorMessage(), "No error dispatch should be triggered");
+        assertEquals("application/problem+json", res.getContentType(), "Body should be a problem document");
+        assertEquals("{\"type\":\"about:blank\",\"title\":\"Forbidden\",\"status\":403,\"detail\":\"Access denied\"}",
+                res.getContentAsString(), "Body should carry status, title and detail");
+        verify(filterChain, never()).doFilter(req, res);
+    }
+
+    @Test
+    void authorizesOncePerLogicalRequestAcrossDispatches() throws Exception {
+        final MockHttpServletRequest req = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        req.addHeader(USER_ID_HEADER, USER_123);
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+
+        final IdentityResponse identityResponse = mockIdentity(USER_123);
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any())).thenReturn(identityResponse);
+        when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of(GROUP_LEGAL_ADVISERS));
+        when(droolsAuthzEngine.evaluate(any(), any(), any())).thenReturn(true);
+
+        httpAuthzFilter.doFilter(req, res, filterChain);
+        req.setDispatcherType(DispatcherType.ASYNC);
+        httpAuthzFilter.doFilter(req, res, filterChain);
+        req.setDispatcherType(DispatcherType.FORWARD);
+        httpAuthzFilter.doFilter(req, res, filterChain);
+
+        verify(identityClient, times(1)).fetchIdentity(eq(USER_123), any(), any());
+        verify(droolsAuthzEngine, times(1)).evaluate(any(), any(), any());
+        verify(filterChain, times(3)).doFilter(req, res);
+        assertNotNull(req.getAttribute(AuthzPrincipal.class.getName()), "Principal should survive later dispatches");
+    }
+
+    @Test
+    void passesErrorDispatchOfItsOwnDenialWithoutReauthorizing() throws Exception {
+        final MockHttpServletRequest req = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        req.addHeader(USER_ID_HEADER, USER_123);
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+
+        final IdentityResponse identityResponse = mockIdentity(USER_123);
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any())).thenReturn(identityResponse);
+        when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of(GROUP_GUESTS));
+        when(droolsAuthzEngine.evaluate(any(), any(), any())).thenReturn(false);
+
+        httpAuthzFilter.doFilter(req, res, filterChain);
+        verify(filterChain, never()).doFilter(req, res);
+        req.setDispatcherType(DispatcherType.FORWARD);
+        httpAuthzFilter.doFilter(req, res, filterChain);
+        verify(filterChain, never()).doFilter(req, res);
+        req.setDispatcherType(DispatcherType.ERROR);
+        httpAuthzFilter.doFilter(req, res, filterChain);
+
+        verify(filterChain, times(1)).doFilter(req, res);
+        verify(identityClient, times(1)).fetchIdentity(eq(USER_123), any(), any());
+        assertEquals(403, res.getStatus(), "The error dispatch should render the original denial");
+    }
+
+    @Test
+    void releasesContainerThreadAndContinuesOnAsyncDispatchWhenAsyncIsEnabled() throws Exception {
+        final HttpAuthzFilter asyncFilter = asyncFilter();
+        final MockHttpServletRequest req = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        req.setAsyncSupported(true);
+        req.addHeader(USER_ID_HEADER, USER_123);
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+
+        final IdentityResponse identityResponse = mockIdentity(USER_123);
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any())).thenReturn(identityResponse);
+        when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of(GROUP_LEGAL_ADVISERS));
+        when(droolsAuthzEngine.evaluate(any(), any(), any())).thenReturn(true);
+
+        asyncFilter.doFilter(req, res, filterChain);
+
+        assertTrue(req.isAsyncStarted(), "Authorization should run outside the container thread");
+        assertEquals(PATH_HELLO, ((MockAsyncContext) req.getAsyncContext()).getDispatchedPath(),
+                "The request should be dispatched back once decided");
+        verify(filterChain, never()).doFilter(req, res);
+
+        req.setDispatcherType(DispatcherType.ASYNC);
+        asyncFilter.doFilter(req, res, filterChain);
+
+        verify(filterChain, times(1)).doFilter(req, res);
+        verify(identityClient, times(1)).fetchIdentity(eq(USER_123), any(), any());
+    }
+
+    @Test
+    void sendsDenialOnAsyncDispatchWhenAsynchronousAuthorizationRejects() throws Exception {
+        final HttpAuthzFilter asyncFilter = asyncFilter();
+        final MockHttpServletRequest req = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        req.setAsyncSupported(true);
+        req.addHeader(USER_ID_HEADER, USER_123);
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+
+        final IdentityResponse identityResponse = mockIdentity(USER_123);
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any())).thenReturn(identityResponse);
+        when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of(GROUP_GUESTS));
+        when(droolsAuthzEngine.evaluate(any(), any(), any())).thenReturn(false);
+
+        asyncFilter.doFilter(req, res, filterChain);
+        req.setDispatcherType(DispatcherType.ASYNC);
+        asyncFilter.doFilter(req, res, filterChain);
+
+        assertEquals(403, res.getStatus(), "Expected 403 once the async dispatch sends the denial");
+        verify(filterChain, never()).doFilter(req, res);
+    }
+
+    @Test
+    void leavesRequestAndResponseAloneWhenAsynchronousAuthorizationFinishesAfterTimeout() throws Exception {
+        httpAuthzProperties.getDecisionToken().setSecret("0123456789abcdef0123456789abcdef");
+        final DecisionTokens decisionTokens =
+                new DecisionTokens(httpAuthzProperties.getDecisionToken(), () -> 7L, new SimpleMeterRegistry());
+        final List<Runnable> queued = new ArrayList<>();
+        final HttpAuthzFilter asyncFilter =
+                filterBuilder().decisionTokens(decisionTokens).asyncExecutor(queued::add).build();
+        final MockHttpServletRequest req = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        req.setAsyncSupported(true);
+        req.addHeader(USER_ID_HEADER, USER_123);
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+        final IdentityResponse identityResponse = mockIdentity(USER_123);
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any())).thenReturn(identityResponse);
+        when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of(GROUP_LEGAL_ADVISERS));
+        when(droolsAuthzEngine.evaluate(any(), any(), any())).thenReturn(true);
+
+        asyncFilter.doFilter(req, res, filterChain);
+        final MockAsyncContext asyncContext = (MockAsyncContext) req.getAsyncContext();
+        final AsyncEvent timeout = new AsyncEvent(asyncContext, req, res);
+        for (final AsyncListener listener : asyncContext.getListeners()) {
+            listener.onTimeout(timeout);
+        }
+        req.setDispatcherType(DispatcherType.ASYNC);
+        asyncFilter.doFilter(req, res, filterChain);
+        final List<String> attributes = Collections.list(req.getAttributeNames());
+        final List<String> headers = List.copyOf(res.getHeaderNames());
+
+        queued.forEach(Runnable::run);
+
+        assertEquals(504, res.getStatus(), "The timeout's 504 should stand once the late authorization finishes");
+        assertEquals(attributes, Collections.list(req.getAttributeNames()),
+                "A late authorization should not touch the request");
+        assertEquals(headers, List.copyOf(res.getHeaderNames()), "A late authorization should not touch the response");
+        assertNull(req.getAttribute(AuthzPrincipal.class.getName()), "A timed-out request should get no principal");
+        verify(droolsAuthzEngine, times(1)).evaluate(any(), any(), any());
+        verify(filterChain, never()).doFilter(req, res);
+    }
+
+    @Test
+    void returns503WithRetryAfterWhenAsynchronousAuthorizationsAreAtTheirLimit() throws Exception {
+        final HttpAuthzFilter asyncFilter = filterBuilder().asyncExecutor(task -> {
+            throw new RejectedExecutionException("1 asynchronous authorizations already running");
+        }).build();
+        final MockHttpServletRequest req = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        req.setAsyncSupported(true);
+        req.addHeader(USER_ID_HEADER, USER_123);
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+
+        asyncFilter.doFilter(req, res, filterChain);
+        req.setDispatcherType(DispatcherType.ASYNC);
+        asyncFilter.doFilter(req, res, filterChain);
+
+        assertEquals(503, res.getStatus(), "Expected 503 when no further authorization can be started");
+        assertEquals("1", res.getHeader("Retry-After"), "The caller should be told when to retry");
+        verifyNoInteractions(identityClient);
+        verify(filterChain, never()).doFilter(req, res);
+    }
+
+    @Test
+    void returns503WhenIdentityIsUnavailable() throws Exception {
+        final MockHttpServletRequest req = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        req.addHeader(USER_ID_HEADER, USER_123);
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any()))
+                .thenThrow(new IdentityUnavailableException("Identity service unavailable: circuit-open"));
+
+        httpAuthzFilter.doFilter(req, res, filterChain);
+
+        assertEquals(503, res.getStatus(), "Expected 503 when identity service is unavailable");
+        verify(filterChain, never()).doFilter(req, res);
+    }
+
+    @Test
+    void returns403WhenIdentityServiceDoesNotKnowTheUser() throws Exception {
+        httpAuthzProperties.setIdentityUrlTemplate(IDENTITY_URL);
+        final RestTemplate restTemplate = new RestTemplate();
+        final MockRestServiceServer identityService = MockRestServiceServer.bindTo(restTemplate).build();
+        identityService.expect(requestTo(IDENTITY_URL)).andRespond(withStatus(HttpStatus.NOT_FOUND));
+        final IdentityClient realClient =
+                new IdentityClient(httpAuthzProperties, restTemplate, new IdentityCache(100), new SimpleMeterRegistry());
+        final HttpAuthzFilter filter = new HttpAuthzFilter(
+                httpAuthzProperties, realClient, identityToGroupsMapper, droolsAuthzEngine);
+        final MockHttpServletRequest req = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        req.addHeader(USER_ID_HEADER, USER_123);
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+
+        filter.doFilter(req, res, filterChain);
+
+        assertEquals(403, res.getStatus(), "Expected 403 when the identity service answers 404 for the user");
+        verify(filterChain, never()).doFilter(req, res);
+        verifyNoInteractions(droolsAuthzEngine);
+        identityService.verify();
+    }
+
     @Test
     void usesHeaderActionName() throws IOException, ServletException {
         final MockHttpServletRequest req = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
@@ -162,10 +524,10 @@ class HttpAuthzFilterTest {
         final MockHttpServletResponse res = new MockHttpServletResponse();
 
         final IdentityResponse identityResponse = mockIdentity(USER_123);
-        when(identityClient.fetchIdentity(USER_123)).thenReturn(identityResponse);
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any())).thenReturn(identityResponse);
         when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of(GROUP_LEGAL_ADVISERS));
         final ArgumentCaptor<Action> captor = ArgumentCaptor.forClass(Action.class);
-        when(droolsAuthzEngine.evaluate(any(), captor.capture())).thenReturn(true);
+        when(droolsAuthzEngine.evaluate(any(), captor.capture(), any())).thenReturn(true);
 
         httpAuthzFilter.doFilter(req, res, filterChain);
 
@@ -180,10 +542,10 @@ class HttpAuthzFilterTest {
         final MockHttpServletResponse res = new MockHttpServletResponse();
 
         final IdentityResponse identityResponse = mockIdentity(USER_123);
-        when(identityClient.fetchIdentity(USER_123)).thenReturn(identityResponse);
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any())).thenReturn(identityResponse);
         when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of(GROUP_LEGAL_ADVISERS));
         final ArgumentCaptor<Action> captor = ArgumentCaptor.forClass(Action.class);
-        when(droolsAuthzEngine.evaluate(any(), captor.capture())).thenReturn(true);
+        when(droolsAuthzEngine.evaluate(any(), captor.capture(), any())).thenReturn(true);
 
         httpAuthzFilter.doFilter(req, res, filterChain);
 
@@ -198,10 +560,10 @@ class HttpAuthzFilterTest {
         final MockHttpServletResponse res = new MockHttpServletResponse();
 
         final IdentityResponse identityResponse = mockIdentity(USER_123);
-        when(identityClient.fetchIdentity(USER_123)).thenReturn(identityResponse);
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any())).thenReturn(identityResponse);
         when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of(GROUP_LEGAL_ADVISERS));
         final ArgumentCaptor<Action> captor = ArgumentCaptor.forClass(Action.class);
-        when(droolsAuthzEngine.evaluate(any(), captor.capture())).thenReturn(true);
+        when(droolsAuthzEngine.evaluate(any(), captor.capture(), any())).thenReturn(true);
 
         httpAuthzFilter.doFilter(req, res, filterChain);
 
@@ -217,10 +579,10 @@ class HttpAuthzFilterTest {
         final MockHttpServletResponse res = new MockHttpServletResponse();
 
         final IdentityResponse identityResponse = mockIdentity(USER_123);
-        when(identityClient.fetchIdentity(USER_123)).thenReturn(identityResponse);
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any())).thenReturn(identityResponse);
         when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of(GROUP_LEGAL_ADVISERS));
         final ArgumentCaptor<Action> captor = ArgumentCaptor.forClass(Action.class);
-        when(droolsAuthzEngine.evaluate(any(), captor.capture())).thenReturn(true);
+        when(droolsAuthzEngine.evaluate(any(), captor.capture(), any())).thenReturn(true);
 
         httpAuthzFilter.doFilter(req, res, filterChain);
 
@@ -236,10 +598,10 @@ class HttpAuthzFilterTest {
         final MockHttpServletResponse res = new MockHttpServletResponse();
 
         final IdentityResponse identityResponse = mockIdentity(USER_123);
-        when(identityClient.fetchIdentity(USER_123)).thenReturn(identityResponse);
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any())).thenReturn(identityResponse);
         when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of(GROUP_LEGAL_ADVISERS));
         final ArgumentCaptor<Action> captor = ArgumentCaptor.forClass(Action.class);
-        when(droolsAuthzEngine.evaluate(any(), captor.capture())).thenReturn(true);
+        when(droolsAuthzEngine.evaluate(any(), captor.capture(), any())).thenReturn(true);
 
         httpAuthzFilter.doFilter(req, res, filterChain);
 
@@ -255,24 +617,53 @@ class HttpAuthzFilterTest {
         final MockHttpServletResponse res = new MockHttpServletResponse();
 
         final IdentityResponse identityResponse = mockIdentity(USER_123);
-        when(identityClient.fetchIdentity(USER_123)).thenReturn(identityResponse);
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any())).thenReturn(identityResponse);
         when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of(GROUP_LEGAL_ADVISERS));
         final ArgumentCaptor<Action> captor = ArgumentCaptor.forClass(Action.class);
-        when(droolsAuthzEngine.evaluate(any(), captor.capture())).thenReturn(true);
+        when(droolsAuthzEngine.evaluate(any(), captor.capture(), any())).thenReturn(true);
 
         httpAuthzFilter.doFilter(req, res, filterChain);
 
         assertEquals(PATH_ECHO, captor.getValue().attributes().get("path"), "Path attribute should be /api/echo");
     }
 
+    @Test
+    void namesComputedActionAfterRouteTemplateWhenRoutesAreConfigured() throws Exception {
+        final RouteIndex routes = RouteIndex.builder().add(METHOD_GET, "/api/cases/{caseId}").build();
+        final HttpAuthzFilter routeFilter = filterBuilder().routes(routes).build();
+
+        final MockHttpServletRequest req = new MockHttpServletRequest(METHOD_GET, "/api/cases/c-42");
+        req.addHeader(USER_ID_HEADER, USER_123);
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+
+        final IdentityResponse identityResponse = mockIdentity(USER_123);
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any())).thenReturn(identityResponse);
+        when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of(GROUP_LEGAL_ADVISERS));
+        final ArgumentCaptor<Action> captor = ArgumentCaptor.forClass(Action.class);
+        when(droolsAuthzEngine.evaluate(any(), captor.capture(), any())).thenReturn(true);
+
+        routeFilter.doFilter(req, res, filterChain);
+
+        assertEquals("GET /api/cases/{caseId}", captor.getValue().name(), "Action should name the route template");
+        assertEquals("c-42", captor.getValue().attributes().get("caseId"), "Path variables should become attributes");
+        assertEquals("/api/cases/c-42", captor.getValue().attributes().get("path"), "The concrete path is kept");
+        final FacadeContext context = FacadeContext.from(req);
+        assertEquals(Optional.of("/api/cases/{caseId}"), context.routeTemplate(), "The route should be shared");
+        assertEquals(Optional.of(Map.of("caseId", "c-42")), context.pathVariables(), "Variables should be shared");
+        assertEquals(USER_123, context.principal(AuthzPrincipal.class).map(AuthzPrincipal::userId).orElseThrow(),
+                "The authorized principal should be shared with later filters");
+    }
+
     @Test
     void honorsMultipleExcludePrefixes() throws Exception {
         httpAuthzProperties.setExcludePathPrefixes(List.of("/health/", "/metrics/", "/usersgroups-query-api/"));
+        final HttpAuthzFilter filter =
+                new HttpAuthzFilter(httpAuthzProperties, identityClient, identityToGroupsMapper, droolsAuthzEngine);
 
         final MockHttpServletRequest req = new MockHttpServletRequest(METHOD_GET, PATH_EXCLUDED_METRICS);
         final MockHttpServletResponse res = new MockHttpServletResponse();
 
-        httpAuthzFilter.doFilter(req, res, filterChain);
+        filter.doFilter(req, res, filterChain);
 
         verify(filterChain, times(1)).doFilter(req, res);
     }
@@ -286,11 +677,11 @@ class HttpAuthzFilterTest {
         final MockHttpServletResponse res = new MockHttpServletResponse();
 
         final IdentityResponse identityResponse = mockIdentity(USER_123);
-        when(identityClient.fetchIdentity(USER_123)).thenReturn(identityResponse);
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any())).thenReturn(identityResponse);
         when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of(GROUP_LEGAL_ADVISERS));
 
         final ArgumentCaptor<Action> captor = ArgumentCaptor.forClass(Action.class);
-        when(droolsAuthzEngine.evaluate(any(), captor.capture())).thenReturn(true);
+        when(droolsAuthzEngine.evaluate(any(), captor.capture(), any())).thenReturn(true);
 
         httpAuthzFilter.doFilter(req, res, filterChain);
 
@@ -306,11 +697,11 @@ class HttpAuthzFilterTest {
         final MockHttpServletResponse res = new MockHttpServletResponse();
 
         final IdentityResponse identityResponse = mockIdentity(USER_123);
-        when(identityClient.fetchIdentity(USER_123)).thenReturn(identityResponse);
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any())).thenReturn(identityResponse);
         when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of(GROUP_LEGAL_ADVISERS));
 
         final ArgumentCaptor<Action> captor = ArgumentCaptor.forClass(Action.class);
-        when(droolsAuthzEngine.evaluate(any(), captor.capture())).thenReturn(true);
+        when(droolsAuthzEngine.evaluate(any(), captor.capture(), any())).thenReturn(true);
 
         httpAuthzFilter.doFilter(req, res, filterChain);
 
@@ -318,6 +709,189 @@ class HttpAuthzFilterTest {
                 "Vendor token from Accept must be used when Content-Type is absent");
     }
 
+    @Test
+    void reportsPhaseTimingsInServerTimingHeaderWhenGuardTokenIsPresented() throws Exception {
+        final MockHttpServletRequest req = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        req.addHeader(USER_ID_HEADER, USER_123);
+        req.addHeader(TIMING_GUARD_HEADER, TIMING_GUARD_TOKEN);
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+        final IdentityResponse identityResponse = mockIdentity(USER_123);
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any())).thenReturn(identityResponse);
+        when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of(GROUP_LEGAL_ADVISERS));
+        when(droolsAuthzEngine.evaluate(any(), any(), any())).thenReturn(true);
+
+        timedFilter().doFilter(req, res, filterChain);
+
+        final String serverTiming = res.getHeader(ServerTiming.HEADER);
+        assertNotNull(serverTiming, "A request presenting the guard token should get the Server-Timing header");
+        assertTrue(serverTiming.matches("path;dur=\\d+\\.\\d{3}, action;dur=\\d+\\.\\d{3}, "
+                        + "identity;desc=\"miss\";dur=\\d+\\.\\d{3}, rules;dur=\\d+\\.\\d{3}"),
+                "Every authz phase should be reported in order, got " + serverTiming);
+        final ServerTiming timing = (ServerTiming) req.getAttribute(ServerTiming.ATTRIBUTE);
+        assertTrue(timing.isRecorded(ServerTiming.Phase.RULES), "The timings should be kept on the request");
+    }
+
+    @Test
+    void keepsTimingsOffResponseWhenGuardTokenIsWrong() throws Exception {
+        final MockHttpServletRequest req = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        req.addHeader(TIMING_GUARD_HEADER, "guess");
+        final MockHttpServletResponse res = new MockHttpServletResponse();
+
+        timedFilter().doFilter(req, res, filterChain);
+
+        assertEquals(401, res.getStatus(), "Expected 401 when user id header is missing");
+        assertNull(res.getHeader(ServerTiming.HEADER), "Timings should not leak to callers without the guard token");
+        final ServerTiming timing = (ServerTiming) req.getAttribute(ServerTiming.ATTRIBUTE);
+        assertTrue(timing.isRecorded(ServerTiming.Phase.PATH), "The timings should still be kept on the request");
+    }
+
+    @Test
+    void rejectsRequestsBeyondConcurrencyLimitWithRetryAfterAndExemptsHealthProbes() throws Exception {
+        final HttpAuthzProperties.ConcurrencyLimit config = httpAuthzProperties.getConcurrencyLimit();
+        config.setEnabled(true);
+        config.setInitialLimit(1);
+        config.setMinLimit(1);
+        config.setRetryAfter(Duration.ofMillis(1500));
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(config, new SimpleMeterRegistry());
+        final HttpAuthzFilter filter = filterBuilder().concurrencyLimiter(limiter).build();
+        final MockHttpServletRequest req = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        req.addHeader(USER_ID_HEADER, USER_123);
+        final IdentityResponse identityResponse = mockIdentity(USER_123);
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any())).thenReturn(identityResponse);
+        when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of(GROUP_LEGAL_ADVISERS));
+        when(droolsAuthzEngine.evaluate(any(), any(), any())).thenReturn(true);
+        final MockHttpServletResponse overflow = new MockHttpServletResponse();
+        final MockHttpServletResponse probe = new MockHttpServletResponse();
+        final MockHttpServletRequest probeRequest = new MockHttpServletRequest(METHOD_GET, "/health/readiness");
+        probeRequest.addHeader(USER_ID_HEADER, USER_123);
+        final FilterChain busyChain = (request, response) -> {
+            filter.doFilter(new MockHttpServletRequest(METHOD_GET, PATH_HELLO), overflow, filterChain);
+            filter.doFilter(probeRequest, probe, filterChain);
+        };
+
+        filter.doFilter(req, new MockHttpServletResponse(), busyChain);
+
+        assertEquals(503, overflow.getStatus(), "A request beyond the limit should be rejected");
+        assertEquals("2", overflow.getHeader("Retry-After"), "Retry-After should round up to whole seconds");
+        assertEquals(200, probe.getStatus(), "Health probes should not need a permit");
+        assertEquals(0, limiter.inFlight(), "The permit should be released when the request completes");
+        verify(filterChain, times(1)).doFilter(probeRequest, probe);
+    }
+
+    @Test
+    void releasesPermitAsDroppedWhenChainThrows() throws Exception {
+        final HttpAuthzProperties.ConcurrencyLimit config = httpAuthzProperties.getConcurrencyLimit();
+        config.setEnabled(true);
+        config.setAlgorithm(HttpAuthzProperties.ConcurrencyLimit.Algorithm.AIMD);
+        config.setInitialLimit(10);
+        config.setBackoffRatio(0.5);
+        config.setLatencyThreshold(Duration.ofMinutes(1));
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(config, new SimpleMeterRegistry());
+        final HttpAuthzFilter filter = filterBuilder().concurrencyLimiter(limiter).build();
+        final MockHttpServletRequest req = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        req.addHeader(USER_ID_HEADER, USER_123);
+        final IdentityResponse identityResponse = mockIdentity(USER_123);
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any())).thenReturn(identityResponse);
+        when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of(GROUP_LEGAL_ADVISERS));
+        when(droolsAuthzEngine.evaluate(any(), any(), any())).thenReturn(true);
+        final FilterChain failingChain = (request, response) -> {
+            throw new IllegalStateException("application failed");
+        };
+
+        assertThrows(IllegalStateException.class,
+                () -> filter.doFilter(req, new MockHttpServletResponse(), failingChain),
+                "The application's failure should propagate");
+
+        assertEquals(0, limiter.inFlight(), "The permit should be released when the chain throws");
+        assertEquals(5, limiter.limit(), "A request the application failed should count as dropped");
+    }
+
+    @Test
+    void answersTooManyRequestsBeforeIdentityLookupWhenUserBucketIsEmpty() throws Exception {
+        final HttpAuthzProperties.RateLimit.Quota quota = new HttpAuthzProperties.RateLimit.Quota();
+        quota.setCapacity(1);
+        quota.setRefillPerSecond(0.5);
+        httpAuthzProperties.getRateLimit().setEnabled(true);
+        httpAuthzProperties.getRateLimit().setQuotas(List.of(quota));
+        final HttpAuthzFilter filter = filterBuilder()
+                .rateLimiter(new RateLimiter(httpAuthzProperties.getRateLimit(), new SimpleMeterRegistry()))
+                .build();
+        final IdentityResponse identityResponse = mockIdentity(USER_123);
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any())).thenReturn(identityResponse);
+        when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of(GROUP_LEGAL_ADVISERS));
+        when(droolsAuthzEngine.evaluate(any(), any(), any())).thenReturn(true);
+        final MockHttpServletRequest first = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        first.addHeader(USER_ID_HEADER, USER_123);
+        final MockHttpServletRequest second = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        second.addHeader(USER_ID_HEADER, USER_123);
+        final MockHttpServletResponse limited = new MockHttpServletResponse();
+
+        filter.doFilter(first, new MockHttpServletResponse(), filterChain);
+        filter.doFilter(second, limited, filterChain);
+
+        assertEquals(429, limited.getStatus(), "A request finding its bucket empty should be rejected");
+        assertEquals("2", limited.getHeader("Retry-After"), "Retry-After should say when a token is back");
+        verify(identityClient, times(1)).fetchIdentity(eq(USER_123), any(), any());
+        verify(filterChain, times(1)).doFilter(any(), any());
+    }
+
+    @Test
+    void stopsRateLimitingWhenRefreshedSettingsDisableIt() throws Exception {
+        final HttpAuthzProperties.RateLimit.Quota quota = new HttpAuthzProperties.RateLimit.Quota();
+        quota.setCapacity(1);
+        quota.setRefillPerSecond(0.5);
+        httpAuthzProperties.getRateLimit().setEnabled(true);
+        httpAuthzProperties.getRateLimit().setQuotas(List.of(quota));
+        final LiveAuthzSettings settings = new LiveAuthzSettings(() -> AuthzSettings.compile(httpAuthzProperties));
+        final HttpAuthzFilter filter = HttpAuthzFilter.builder(identityClient, identityToGroupsMapper,
+                        droolsAuthzEngine, settings)
+                .rateLimiter(new RateLimiter(httpAuthzProperties.getRateLimit(), new SimpleMeterRegistry()))
+                .build();
+        final IdentityResponse identityResponse = mockIdentity(USER_123);
+        when(identityClient.fetchIdentity(eq(USER_123), any(), any())).thenReturn(identityResponse);
+        when(identityToGroupsMapper.toGroups(identityResponse)).thenReturn(Set.of(GROUP_LEGAL_ADVISERS));
+        when(droolsAuthzEngine.evaluate(any(), any(), any())).thenReturn(true);
+        final MockHttpServletRequest first = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        first.addHeader(USER_ID_HEADER, USER_123);
+        final MockHttpServletRequest second = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        second.addHeader(USER_ID_HEADER, USER_123);
+        final MockHttpServletResponse unlimited = new MockHttpServletResponse();
+
+        filter.doFilter(first, new MockHttpServletResponse(), filterChain);
+        httpAuthzProperties.getRateLimit().setEnabled(false);
+        settings.refresh();
+        filter.doFilter(second, unlimited, filterChain);
+
+        assertEquals(200, unlimited.getStatus(), "A refresh disabling the rate limit should apply to the next request");
+        verify(filterChain, times(2)).doFilter(any(), any());
+    }
+
+    /**
+     * Runs the asynchronous authorization inline, so it has settled when {@code doFilter} returns.
+     */
+    private HttpAuthzFilter asyncFilter() {
+        return filterBuilder().asyncExecutor(Runnable::run).build();
+    }
+
+    private HttpAuthzFilter timedFilter() {
+        return filterBuilder().serverTiming(new ServerTimingPolicy(true, TIMING_GUARD_HEADER, TIMING_GUARD_TOKEN))
+                .build();
+    }
+
+    private HttpAuthzFilter deadlineFilter(final SimpleMeterRegistry meterRegistry) {
+        final HttpAuthzProperties.Deadline.Route route = new HttpAuthzProperties.Deadline.Route();
+        route.setPathPrefix("/api/");
+        route.setBudget(Duration.ofMillis(500));
+        httpAuthzProperties.getDeadline().setEnabled(true);
+        httpAuthzProperties.getDeadline().setRoutes(List.of(route));
+        return filterBuilder().deadlines(new Deadlines(httpAuthzProperties.getDeadline(), meterRegistry)).build();
+    }
+
+    private HttpAuthzFilter.Builder filterBuilder() {
+        return HttpAuthzFilter.builder(identityClient, identityToGroupsMapper, droolsAuthzEngine,
+                LiveAuthzSettings.fixed(AuthzSettings.compile(httpAuthzProperties)));
+    }
+
     private static IdentityResponse mockIdentity(final String userId) {
         final IdentityResponse identity = mock(IdentityResponse.class);
         when(identity.userId()).thenReturn(userId);
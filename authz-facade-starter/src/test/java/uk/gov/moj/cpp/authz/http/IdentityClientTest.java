@@ -0,0 +1,254 @@
+package uk.gov.moj.cpp.authz.http;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.ExpectedCount;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+import uk.gov.moj.cpp.authz.http.cache.IdentityCache;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties.IdentityFallback;
+import uk.gov.moj.cpp.authz.http.deadline.DeadlineExceededException;
+import uk.gov.moj.cpp.authz.http.deadline.RequestDeadline;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withServerError;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class IdentityClientTest {
+
+    private static final String IDENTITY_URL = "http://identity.test/permissions";
+    private static final String USER_ID = "la-user-1";
+    private static final String LEGAL_ADVISERS = "Legal Advisers";
+    private static final long SLOW_RESPONSE_MILLIS = 300;
+    private static final String ETAG = "\"abc123\"";
+    private static final String IDENTITY_JSON =
+            "{\"groups\":[{\"groupId\":\"g1\",\"groupName\":\"Legal Advisers\",\"prosecutingAuthority\":null}],"
+                    + "\"switchableRoles\":[],\"permissions\":[]}";
+
+    private HttpAuthzProperties properties;
+    private RestTemplate restTemplate;
+    private MockRestServiceServer server;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        properties = new HttpAuthzProperties();
+        properties.setIdentityUrlTemplate(IDENTITY_URL);
+        restTemplate = new RestTemplate();
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void fetchesGroupsFromIdentityService() {
+        server.expect(requestTo(IDENTITY_URL))
+                .andExpect(method(HttpMethod.GET))
+                .andExpect(header("CJSCPPUID", USER_ID))
+                .andRespond(withSuccess(IDENTITY_JSON, MediaType.APPLICATION_JSON));
+
+        final IdentityResponse identity = client().fetchIdentity(USER_ID);
+
+        assertEquals(LEGAL_ADVISERS, identity.groups().getFirst().groupName(), "Group should be mapped from body");
+        server.verify();
+    }
+
+    @Test
+    void servesCachedIdentityWithinTtl() {
+        properties.getIdentityCache().setTtl(Duration.ofMinutes(5));
+        server.expect(ExpectedCount.once(), requestTo(IDENTITY_URL))
+                .andRespond(withSuccess(IDENTITY_JSON, MediaType.APPLICATION_JSON));
+        final IdentityClient client = client();
+        final IdentityResponse first = client.fetchIdentity(USER_ID);
+
+        final IdentityResponse second = client.fetchIdentity(USER_ID);
+
+        assertSame(first, second, "Second lookup should be served from cache");
+        server.verify();
+    }
+
+    @Test
+    void failsFastWhenCallFailsAndFallbackIsFailFast() {
+        server.expect(requestTo(IDENTITY_URL)).andRespond(withServerError());
+
+        final IdentityClient client = client();
+
+        assertThrows(IdentityUnavailableException.class, () -> client.fetchIdentity(USER_ID),
+                "Server error should surface as unavailable");
+    }
+
+    @Test
+    void servesLastKnownIdentityWhenCallFails() {
+        properties.setIdentityFallback(IdentityFallback.LAST_KNOWN);
+        server.expect(ExpectedCount.once(), requestTo(IDENTITY_URL))
+                .andRespond(withSuccess(IDENTITY_JSON, MediaType.APPLICATION_JSON));
+        server.expect(ExpectedCount.once(), requestTo(IDENTITY_URL)).andRespond(withServerError());
+        final IdentityClient client = client();
+        client.fetchIdentity(USER_ID);
+
+        final IdentityResponse identity = client.fetchIdentity(USER_ID);
+
+        assertEquals(LEGAL_ADVISERS, identity.groups().getFirst().groupName(), "Last known groups should be served");
+        assertEquals(1.0, meterRegistry.counter("authz.identity.fallback",
+                "reason", "call-failed", "outcome", "last-known").count(), "Fallback should be counted");
+    }
+
+    @Test
+    void openCircuitSkipsRemoteCall() {
+        properties.getCircuitBreaker().setEnabled(true);
+        properties.getCircuitBreaker().setMinimumNumberOfCalls(2);
+        properties.getCircuitBreaker().setSlidingWindowSize(2);
+        server.expect(ExpectedCount.twice(), requestTo(IDENTITY_URL)).andRespond(withServerError());
+        final IdentityClient client = client();
+        assertThrows(IdentityUnavailableException.class, () -> client.fetchIdentity(USER_ID), "First failure");
+        assertThrows(IdentityUnavailableException.class, () -> client.fetchIdentity(USER_ID), "Second failure");
+
+        final IdentityUnavailableException rejected =
+                assertThrows(IdentityUnavailableException.class, () -> client.fetchIdentity(USER_ID), "Circuit open");
+
+        assertEquals("Identity service unavailable: circuit-open", rejected.getMessage(), "No call made while open");
+        server.verify();
+    }
+
+    @Test
+    @Timeout(10)
+    void servesRestoredIdentityAndRevalidatesInBackground() throws InterruptedException {
+        properties.getIdentityCache().getSnapshot().setEnabled(true);
+        server.expect(ExpectedCount.once(), requestTo(IDENTITY_URL))
+                .andRespond(withSuccess(IDENTITY_JSON, MediaType.APPLICATION_JSON));
+        final IdentityCache identityCache = new IdentityCache(100);
+        final IdentityResponse restored = new IdentityResponse(USER_ID, List.of(), List.of());
+        identityCache.restore(USER_ID, restored, System.currentTimeMillis(), null, null);
+
+        final IdentityResponse identity = client(identityCache).fetchIdentity(USER_ID);
+
+        assertSame(restored, identity, "Restored identity should be served without waiting for the service");
+        while (identityCache.get(USER_ID).orElseThrow().needsRevalidation()) {
+            Thread.sleep(20);
+        }
+        assertEquals(LEGAL_ADVISERS, identityCache.get(USER_ID).orElseThrow().identity().groups().getFirst().groupName(),
+                "Background revalidation should replace the restored entry");
+        server.verify();
+    }
+
+    @Test
+    void revalidatesExpiredIdentityWithEtagAndReusesItOnNotModified() throws InterruptedException {
+        properties.getIdentityCache().setTtl(Duration.ofMillis(1));
+        server.expect(ExpectedCount.once(), requestTo(IDENTITY_URL))
+                .andRespond(withSuccess(IDENTITY_JSON, MediaType.APPLICATION_JSON).header(HttpHeaders.ETAG, ETAG));
+        server.expect(ExpectedCount.once(), requestTo(IDENTITY_URL))
+                .andExpect(header(HttpHeaders.IF_NONE_MATCH, ETAG))
+                .andRespond(withStatus(HttpStatus.NOT_MODIFIED));
+        final IdentityClient client = client();
+        final IdentityResponse first = client.fetchIdentity(USER_ID);
+        Thread.sleep(5);
+
+        final IdentityResponse second = client.fetchIdentity(USER_ID);
+
+        assertSame(first, second, "304 should reuse the cached identity");
+        assertEquals(1.0, meterRegistry.counter("authz.identity.revalidation", "result", "not-modified").count(),
+                "Not-modified revalidation should be counted");
+        server.verify();
+    }
+
+    @Test
+    void fallsBackToSingleCallWhenBulkLookupDoesNotReturnUser() {
+        properties.getBatching().setEnabled(true);
+        properties.getBatching().setWindow(Duration.ofMillis(1));
+        server.expect(ExpectedCount.once(), requestTo(IDENTITY_URL))
+                .andRespond(withSuccess(IDENTITY_JSON, MediaType.APPLICATION_JSON));
+        final IdentityClient client = new IdentityClient(properties, restTemplate, new IdentityCache(100), meterRegistry,
+                Optional.of(userIds -> Map.of()));
+
+        final IdentityResponse identity = client.fetchIdentity(USER_ID);
+
+        assertEquals(LEGAL_ADVISERS, identity.groups().getFirst().groupName(), "Single lookup should answer");
+        server.verify();
+    }
+
+    @Test
+    @Timeout(5)
+    void keepsBulkheadSlotUntilAbandonedCallFinishes() throws InterruptedException {
+        properties.getBulkhead().setEnabled(true);
+        properties.getBulkhead().setMaxConcurrentCalls(1);
+        abandonSlowCalls(1);
+        server.expect(requestTo(IDENTITY_URL)).andRespond(withSuccess(IDENTITY_JSON, MediaType.APPLICATION_JSON));
+        final IdentityClient client = client();
+        assertThrows(DeadlineExceededException.class, () -> client.fetchIdentity(USER_ID, shortDeadline()),
+                "A call outliving the deadline should be abandoned");
+
+        final IdentityUnavailableException rejected =
+                assertThrows(IdentityUnavailableException.class, () -> client.fetchIdentity(USER_ID), "Bulkhead full");
+
+        assertEquals("Identity service unavailable: bulkhead-full", rejected.getMessage(),
+                "The abandoned call should still hold its slot");
+        Thread.sleep(SLOW_RESPONSE_MILLIS * 2);
+        assertEquals(LEGAL_ADVISERS, client.fetchIdentity(USER_ID).groups().getFirst().groupName(),
+                "The slot should be free once the abandoned call finished");
+    }
+
+    @Test
+    @Timeout(5)
+    void countsAbandonedCallsAsCircuitBreakerFailures() {
+        properties.getCircuitBreaker().setEnabled(true);
+        properties.getCircuitBreaker().setMinimumNumberOfCalls(2);
+        properties.getCircuitBreaker().setSlidingWindowSize(2);
+        abandonSlowCalls(2);
+        final IdentityClient client = client();
+        assertThrows(DeadlineExceededException.class, () -> client.fetchIdentity(USER_ID, shortDeadline()), "First");
+        assertThrows(DeadlineExceededException.class, () -> client.fetchIdentity(USER_ID, shortDeadline()), "Second");
+
+        final IdentityUnavailableException rejected =
+                assertThrows(IdentityUnavailableException.class, () -> client.fetchIdentity(USER_ID), "Circuit open");
+
+        assertEquals("Identity service unavailable: circuit-open", rejected.getMessage(),
+                "Calls the service could not answer in time should open the circuit");
+    }
+
+    /**
+     * Hedging (with no hedge budget) makes the caller wait on an attempt thread, so it can give up at the deadline
+     * while the mock server is still answering.
+     */
+    private void abandonSlowCalls(final int calls) {
+        properties.getHedging().setEnabled(true);
+        properties.getHedging().setDelay(Duration.ofMillis(5));
+        properties.getHedging().setBudgetPercent(0);
+        server.expect(ExpectedCount.times(calls), requestTo(IDENTITY_URL)).andRespond(request -> {
+            try {
+                Thread.sleep(SLOW_RESPONSE_MILLIS);
+            } catch (final InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return withSuccess(IDENTITY_JSON, MediaType.APPLICATION_JSON).createResponse(request);
+        });
+    }
+
+    private static RequestDeadline shortDeadline() {
+        return RequestDeadline.after(Duration.ofMillis(30));
+    }
+
+    private IdentityClient client() {
+        return client(new IdentityCache(100));
+    }
+
+    private IdentityClient client(final IdentityCache identityCache) {
+        return new IdentityClient(properties, restTemplate, identityCache, meterRegistry);
+    }
+}
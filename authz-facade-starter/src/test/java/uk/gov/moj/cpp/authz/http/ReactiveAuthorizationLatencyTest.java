@@ -0,0 +1,219 @@
+package uk.gov.moj.cpp.authz.http;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.http.codec.CodecsAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.embedded.EmbeddedWebServerFactoryCustomizerAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.reactive.HttpHandlerAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.reactive.ReactiveWebServerFactoryAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.reactive.WebFluxAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import uk.gov.moj.cpp.authz.drools.DroolsAuthzEngine;
+import uk.gov.moj.cpp.authz.http.AsyncAuthorizationThroughputTest.SlowIdentityService;
+import uk.gov.moj.cpp.authz.http.cache.DecisionCache;
+import uk.gov.moj.cpp.authz.http.cache.IdentityCache;
+import uk.gov.moj.cpp.authz.http.config.AuthzSettings;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.config.LiveAuthzSettings;
+import uk.gov.moj.cpp.authz.http.reactive.ReactiveHttpAuthzFilter;
+import uk.gov.moj.cpp.authz.http.reactive.ReactiveIdentityClient;
+import uk.gov.moj.cpp.authz.http.reactive.ReactorNettyConnectors;
+import uk.gov.moj.cpp.authz.http.resilience.RateLimiter;
+import uk.gov.moj.cpp.authz.http.route.RouteIndex;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Request latency under {@value #CLIENTS} concurrent clients when every identity fetch takes
+ * {@value #IDENTITY_LATENCY_MILLIS} ms: the servlet filter on a default Tomcat (200 worker threads) against the WebFlux
+ * filter on Netty. The slow identity service keeps the servlet side bound by its workers rather than by the CPU. Run
+ * with {@code REACTIVE_AUTHZ_BENCHMARK=true}.
+ */
+@EnabledIfEnvironmentVariable(named = "REACTIVE_AUTHZ_BENCHMARK", matches = "true")
+class ReactiveAuthorizationLatencyTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReactiveAuthorizationLatencyTest.class);
+    private static final int CLIENTS = 512;
+    private static final int PRIMING_CALLS = 50;
+    private static final long IDENTITY_LATENCY_MILLIS = 2_000;
+    private static final String IDENTITY_LATENCY = AsyncAuthorizationThroughputTest.IDENTITY_LATENCY_PROPERTY + "="
+            + IDENTITY_LATENCY_MILLIS;
+    /** As long as the servlet client's read timeout, so neither side fails a request the other would wait for. */
+    private static final Duration IDENTITY_TIMEOUT = Duration.ofSeconds(20);
+    private static final Duration WARM_UP = Duration.ofSeconds(10);
+    private static final Duration MEASURED = Duration.ofSeconds(30);
+    private static final String PORT_PROPERTY = "local.server.port";
+    private static final String RANDOM_PORT = "server.port=0";
+    private static final double P50 = 0.50;
+    private static final double P99 = 0.99;
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    @Test
+    void keepsLatencyLowerThanServletFilterUnderHighConcurrency() throws Exception {
+        final List<Long> blocking;
+        final List<Long> reactive;
+        try (ConfigurableApplicationContext servletApplication =
+                     new SpringApplicationBuilder(AsyncAuthorizationThroughputTest.AuthorizingApplication.class)
+                             .web(WebApplicationType.SERVLET).properties(RANDOM_PORT, IDENTITY_LATENCY).run();
+             ConfigurableApplicationContext reactiveApplication =
+                     new SpringApplicationBuilder(ReactiveApplication.class)
+                             .web(WebApplicationType.REACTIVE).properties(RANDOM_PORT, IDENTITY_LATENCY).run();
+             HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build()) {
+            blocking = latencies(client, port(servletApplication), "/sync/api/cases");
+            reactive = latencies(client, port(reactiveApplication), "/api/cases");
+        }
+
+        LOGGER.info("{} clients, {} ms identity latency: servlet p50 {} ms p99 {} ms ({} req/s), "
+                        + "reactive p50 {} ms p99 {} ms ({} req/s)", CLIENTS, IDENTITY_LATENCY_MILLIS,
+                millis(blocking, P50), millis(blocking, P99), perSecond(blocking),
+                millis(reactive, P50), millis(reactive, P99), perSecond(reactive));
+        assertTrue(millis(reactive, P99) < millis(blocking, P99),
+                "The reactive filter should not queue requests behind a worker pool");
+    }
+
+    private static String port(final ConfigurableApplicationContext application) {
+        return application.getEnvironment().getProperty(PORT_PROPERTY);
+    }
+
+    private static List<Long> latencies(final HttpClient client, final String port, final String path)
+            throws Exception {
+        final HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                .header("CJSCPPUID", "user-123").build();
+        // load the client and server classes one request at a time before opening hundreds of connections
+        for (int i = 0; i < PRIMING_CALLS; i++) {
+            client.send(request, HttpResponse.BodyHandlers.discarding());
+        }
+        run(client, request, WARM_UP);
+        return run(client, request, MEASURED);
+    }
+
+    private static List<Long> run(final HttpClient client, final HttpRequest request, final Duration duration)
+            throws Exception {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final List<Long> latencies = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            final List<Future<List<Long>>> clients = new ArrayList<>();
+            for (int i = 0; i < CLIENTS; i++) {
+                clients.add(executor.submit(() -> call(client, request, running)));
+            }
+            Thread.sleep(duration.toMillis());
+            running.set(false);
+            for (final Future<List<Long>> timings : clients) {
+                latencies.addAll(timings.get());
+            }
+        }
+        Collections.sort(latencies);
+        return latencies;
+    }
+
+    private static List<Long> call(final HttpClient client, final HttpRequest request, final AtomicBoolean running)
+            throws Exception {
+        final List<Long> latencies = new ArrayList<>();
+        while (running.get()) {
+            final long startNanos = System.nanoTime();
+            final HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            latencies.add(System.nanoTime() - startNanos);
+            assertEquals(204, response.statusCode(), "Authorized requests should reach the controller");
+        }
+        return latencies;
+    }
+
+    private static long millis(final List<Long> sorted, final double percentile) {
+        return sorted.get((int) Math.min(sorted.size() - 1, Math.floor(sorted.size() * percentile))) / NANOS_PER_MILLI;
+    }
+
+    private static long perSecond(final List<Long> latencies) {
+        return latencies.size() * 1_000L / MEASURED.toMillis();
+    }
+
+    @SpringBootConfiguration
+    @ImportAutoConfiguration({ReactiveWebServerFactoryAutoConfiguration.class,
+            EmbeddedWebServerFactoryCustomizerAutoConfiguration.class, HttpHandlerAutoConfiguration.class,
+            WebFluxAutoConfiguration.class, CodecsAutoConfiguration.class, JacksonAutoConfiguration.class})
+    @SuppressWarnings("PMD.TestClassWithoutTestCases")
+    public static class ReactiveApplication {
+
+        @Bean
+        public SlowIdentityService slowIdentityService(final Environment environment) throws IOException {
+            return new SlowIdentityService(environment.getRequiredProperty(
+                    AsyncAuthorizationThroughputTest.IDENTITY_LATENCY_PROPERTY, Long.class));
+        }
+
+        @Bean(destroyMethod = "dispose")
+        public Scheduler authzRulesScheduler() {
+            return Schedulers.newBoundedElastic(Runtime.getRuntime().availableProcessors(), 10_000, "authz-rules");
+        }
+
+        @Bean
+        public ReactiveHttpAuthzFilter reactiveHttpAuthzFilter(final SlowIdentityService identityService,
+                                                               final Scheduler authzRulesScheduler) {
+            final HttpAuthzProperties properties = new HttpAuthzProperties();
+            properties.setIdentityUrlTemplate(identityService.url());
+            properties.getReactive().setIdentityTimeout(IDENTITY_TIMEOUT);
+            final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+            return new ReactiveHttpAuthzFilter(properties,
+                    new ReactiveIdentityClient(properties, WebClient.builder()
+                            .clientConnector(ReactorNettyConnectors.identityConnector(properties.getReactive())).build(),
+                            new IdentityCache(1_000), meterRegistry),
+                    new DefaultIdentityToGroupsMapper(properties), allowingEngine(), DecisionCache.disabled(),
+                    LiveAuthzSettings.fixed(AuthzSettings.compile(properties)), RouteIndex.empty(),
+                    RateLimiter.disabled(), authzRulesScheduler);
+        }
+
+        @Bean
+        public CasesController casesController() {
+            return new CasesController();
+        }
+
+        private static DroolsAuthzEngine allowingEngine() {
+            final DroolsAuthzEngine engine = mock(DroolsAuthzEngine.class, Mockito.withSettings().stubOnly());
+            when(engine.evaluate(any(), any())).thenReturn(true);
+            return engine;
+        }
+    }
+
+    @RestController
+    public static class CasesController {
+
+        @GetMapping("/api/cases")
+        public Mono<ResponseEntity<Void>> cases() {
+            return Mono.just(ResponseEntity.noContent().build());
+        }
+    }
+}
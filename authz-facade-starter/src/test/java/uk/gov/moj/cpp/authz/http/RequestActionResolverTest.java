@@ -3,13 +3,33 @@ package uk.gov.moj.cpp.authz.http;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import com.sun.management.ThreadMXBean;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.mock.web.MockHttpServletRequest;
 
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 class RequestActionResolverTest {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestActionResolverTest.class);
+
+    /**
+     * The pattern the scanner replaced, kept as the reference it must agree with.
+     */
+    private static final Pattern REFERENCE_PATTERN =
+            Pattern.compile("(?i)\\bapplication/vnd\\.([a-z0-9][a-z0-9._-]*)(?:\\+[^\\s;,]+)?\\b");
+
     private static final String MEDIA_SJP_DELETE_FINANCIAL_MEANS =
             "application/vnd.sjp.delete-financial-means+json";
     private static final String MEDIA_HEARING_GET_DRAFT_RESULT =
@@ -181,4 +201,87 @@ class RequestActionResolverTest {
 
         assertEquals(COMPUTED_GET_HELLO, resolved.name(), "Should compute '<METHOD> <PATH>' with null header name");
     }
+
+    @Test
+    void scannerAgreesWithReferencePatternOnAwkwardHeaders() {
+        final String[] fragments = {"application/vnd.", "APPLICATION/VND.", "x", "a", "Z", "0", ".", "-", "_", "+",
+                "+json", ";q=0.9", ",", " ", "\t", "é", "text/html"};
+        final Random random = new Random(11);
+        for (int i = 0; i < 20_000; i++) {
+            final String value = randomHeader(random, fragments);
+            assertEquals(referenceFirstVendor(value), RequestActionResolver.extractFirstVendorFromHeaderList(value),
+                    "Scanner and pattern should agree on '" + value + "'");
+        }
+    }
+
+    @Test
+    void reusesResolvedActionForRepeatedVendorHeader() {
+        final MockHttpServletRequest first = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        first.addHeader(HEADER_ACCEPT, MEDIA_HEARING_GET_DRAFT_RESULT);
+        final MockHttpServletRequest second = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        second.addHeader(HEADER_ACCEPT, MEDIA_HEARING_GET_DRAFT_RESULT);
+
+        assertSame(RequestActionResolver.resolve(first, HEADER_CPP_ACTION, PATH_HELLO),
+                RequestActionResolver.resolve(second, HEADER_CPP_ACTION, PATH_HELLO),
+                "A repeated header value should be served from the memo");
+    }
+
+    /**
+     * Time and allocation per resolution of a typical {@code Accept} header, against the regex and split it
+     * replaced; both include reading the header from the mock request. Run with
+     * {@code ACTION_RESOLVER_BENCHMARK=true}.
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "ACTION_RESOLVER_BENCHMARK", matches = "true")
+    void reportsCostPerResolution() {
+        final MockHttpServletRequest request = new MockHttpServletRequest(METHOD_GET, PATH_HELLO);
+        request.addHeader(HEADER_ACCEPT, "application/json;q=0.9, " + MEDIA_HEARING_GET_DRAFT_RESULT + ", */*;q=0.1");
+
+        final long[] regex = costPerCall(() -> referenceFirstVendor(request.getHeader(HEADER_ACCEPT)));
+        final long[] scanner = costPerCall(() -> RequestActionResolver.resolve(request, HEADER_CPP_ACTION, PATH_HELLO).name());
+
+        LOGGER.info("Accept resolution: regex {} ns/op {} B/op, scanner with memo {} ns/op {} B/op",
+                regex[0], regex[1], scanner[0], scanner[1]);
+        assertTrue(scanner[1] < regex[1], "The memoised scanner should allocate less than the regex");
+    }
+
+    private static String randomHeader(final Random random, final String... fragments) {
+        final StringBuilder header = new StringBuilder();
+        for (int part = 0; part < 1 + random.nextInt(8); part++) {
+            header.append(fragments[random.nextInt(fragments.length)]);
+        }
+        return header.toString();
+    }
+
+    private static long[] costPerCall(final Supplier<String> call) {
+        final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final int rounds = 1_000_000;
+        int length = 0;
+        for (int round = 0; round < rounds; round++) {
+            length += call.get().length();
+        }
+        final long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        final long started = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            length += call.get().length();
+        }
+        final long elapsed = System.nanoTime() - started;
+        final long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        assertTrue(length > 0, "Every call should resolve an action");
+        return new long[] {elapsed / rounds, allocated / rounds};
+    }
+
+    private static String referenceFirstVendor(final String headerValue) {
+        String result = null;
+        if (headerValue != null && !headerValue.isBlank()) {
+            for (final String raw : headerValue.split(",")) {
+                final Matcher matcher = REFERENCE_PATTERN.matcher(raw.trim());
+                if (matcher.find()) {
+                    result = matcher.group(1).toLowerCase(Locale.ROOT);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
 }
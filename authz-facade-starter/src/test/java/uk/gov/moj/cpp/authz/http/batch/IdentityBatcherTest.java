@@ -0,0 +1,126 @@
+package uk.gov.moj.cpp.authz.http.batch;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.springframework.web.client.ResourceAccessException;
+import uk.gov.moj.cpp.authz.http.IdentityResponse;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.resilience.BulkheadFullException;
+import uk.gov.moj.cpp.authz.http.resilience.IdentityBulkhead;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdentityBatcherTest {
+
+    private static final String USER_ID = "la-user-1";
+
+    private HttpAuthzProperties.Batching config;
+    private List<Set<String>> bulkCalls;
+
+    @BeforeEach
+    void setUp() {
+        config = new HttpAuthzProperties.Batching();
+        config.setEnabled(true);
+        config.setWindow(Duration.ofMillis(200));
+        bulkCalls = new CopyOnWriteArrayList<>();
+    }
+
+    @Test
+    @Timeout(5)
+    void coalescesDistinctUsersIntoOneBulkCallWhenBatchIsFull() {
+        config.setMaxBatchSize(4);
+        final IdentityBatcher batcher = new IdentityBatcher(config, recordingLookup(), new SimpleMeterRegistry());
+
+        final List<CompletableFuture<Optional<IdentityResponse>>> lookups = IntStream.range(0, 4)
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> batcher.fetch("user-" + i)))
+                .toList();
+
+        lookups.forEach(lookup -> assertTrue(lookup.join().isPresent(), "Every user should be answered"));
+        assertEquals(List.of(Set.of("user-0", "user-1", "user-2", "user-3")), bulkCalls, "One bulk call for four users");
+    }
+
+    @Test
+    @Timeout(5)
+    void sendsPartialBatchWhenWindowElapses() {
+        final IdentityBatcher batcher = new IdentityBatcher(config, recordingLookup(), new SimpleMeterRegistry());
+
+        final Optional<IdentityResponse> identity = batcher.fetch(USER_ID);
+
+        assertEquals(USER_ID, identity.orElseThrow().userId(), "Single user should be sent after the window");
+        assertEquals(1, bulkCalls.size(), "Window should flush the batch once");
+    }
+
+    @Test
+    @Timeout(5)
+    void returnsEmptyForUsersMissingFromBulkResponse() {
+        final IdentityBatcher batcher = new IdentityBatcher(config, userIds -> Map.of(), new SimpleMeterRegistry());
+
+        assertTrue(batcher.fetch("unknown").isEmpty(), "Missing users should be left to individual lookups");
+    }
+
+    @Test
+    @Timeout(5)
+    void propagatesBulkFailureToEveryWaiter() {
+        final IdentityBatcher batcher = new IdentityBatcher(config, userIds -> {
+            throw new ResourceAccessException("bulk endpoint down");
+        }, new SimpleMeterRegistry());
+
+        assertThrows(ResourceAccessException.class, () -> batcher.fetch(USER_ID), "Bulk failure should surface");
+    }
+
+    @Test
+    @Timeout(5)
+    void takesOneBulkheadSlotPerBulkCallNotPerWaiter() {
+        config.setMaxBatchSize(4);
+        final IdentityBatcher batcher = new IdentityBatcher(config, recordingLookup(), bulkhead(1), new SimpleMeterRegistry());
+
+        final List<CompletableFuture<Optional<IdentityResponse>>> lookups = IntStream.range(0, 4)
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> batcher.fetch("user-" + i)))
+                .toList();
+
+        lookups.forEach(lookup -> assertTrue(lookup.join().isPresent(), "A one-slot bulkhead should answer the whole batch"));
+        assertEquals(1, bulkCalls.size(), "The four users should share one bulk call");
+    }
+
+    @Test
+    @Timeout(5)
+    void failsBatchWhenBulkheadIsFull() {
+        final IdentityBulkhead bulkhead = bulkhead(1);
+        assertTrue(bulkhead.tryAcquire(), "The only slot should be free");
+        final IdentityBatcher batcher = new IdentityBatcher(config, recordingLookup(), bulkhead, new SimpleMeterRegistry());
+
+        assertThrows(BulkheadFullException.class, () -> batcher.fetch(USER_ID),
+                "A batch with no bulkhead slot should fail so its waiters fall back");
+        assertTrue(bulkCalls.isEmpty(), "No bulk call should be sent");
+    }
+
+    private static IdentityBulkhead bulkhead(final int maxConcurrentCalls) {
+        final HttpAuthzProperties.Bulkhead bulkhead = new HttpAuthzProperties.Bulkhead();
+        bulkhead.setEnabled(true);
+        bulkhead.setMaxConcurrentCalls(maxConcurrentCalls);
+        return new IdentityBulkhead(bulkhead, new SimpleMeterRegistry());
+    }
+
+    private BulkIdentityLookup recordingLookup() {
+        return userIds -> {
+            bulkCalls.add(Set.copyOf(userIds));
+            return userIds.stream().collect(Collectors.toMap(Function.identity(),
+                    userId -> new IdentityResponse(userId, List.of(), List.of())));
+        };
+    }
+}
@@ -0,0 +1,30 @@
+package uk.gov.moj.cpp.authz.http.cache;
+
+import org.junit.jupiter.api.Test;
+import uk.gov.moj.cpp.authz.drools.Action;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DecisionCacheTest {
+
+    private static final String USER = "la-user-1";
+    private static final Set<String> GROUPS = Set.of("Court Clerks");
+    private static final Action ACTION = new Action("GET /api/hearings", Map.of());
+
+    @Test
+    void missesDecisionsMadeUnderPreviousRuleVersion() {
+        final AtomicLong ruleVersion = new AtomicLong(1);
+        final DecisionCache cache = new DecisionCache(true, 60_000, 100, ruleVersion::get);
+        cache.put(USER, GROUPS, ACTION, true);
+        assertEquals(Optional.of(true), cache.get(USER, GROUPS, ACTION), "decision should be reused under same rules");
+
+        ruleVersion.set(2);
+
+        assertEquals(Optional.empty(), cache.get(USER, GROUPS, ACTION), "decision made under old rules was reused");
+    }
+}
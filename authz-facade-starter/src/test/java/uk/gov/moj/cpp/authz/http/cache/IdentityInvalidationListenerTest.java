@@ -0,0 +1,113 @@
+package uk.gov.moj.cpp.authz.http.cache;
+
+import org.apache.activemq.artemis.core.config.impl.ConfigurationImpl;
+import org.apache.activemq.artemis.core.server.embedded.EmbeddedActiveMQ;
+import org.apache.activemq.artemis.jms.client.ActiveMQConnectionFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+import uk.gov.moj.cpp.authz.drools.Action;
+import uk.gov.moj.cpp.authz.http.IdentityResponse;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdentityInvalidationListenerTest {
+
+    private static final String TOPIC = "jms.topic.authz.identity-invalidation";
+    private static final String USER_1 = "la-user-1";
+    private static final String USER_2 = "da-user-1";
+    private static final Set<String> GROUPS = Set.of("Legal Advisers");
+    private static final Action ACTION = new Action("GET /api/hello", Map.of());
+
+    private static EmbeddedActiveMQ broker;
+    private static ActiveMQConnectionFactory connectionFactory;
+
+    private IdentityCache identityCache;
+    private DecisionCache decisionCache;
+    private DefaultMessageListenerContainer container;
+
+    @BeforeAll
+    static void startBroker() throws Exception {
+        broker = new EmbeddedActiveMQ();
+        broker.setConfiguration(new ConfigurationImpl()
+                .setPersistenceEnabled(false)
+                .setSecurityEnabled(false)
+                .addAcceptorConfiguration("in-vm", "vm://0"));
+        broker.start();
+        connectionFactory = new ActiveMQConnectionFactory("vm://0");
+    }
+
+    @AfterAll
+    static void stopBroker() throws Exception {
+        connectionFactory.close();
+        broker.stop();
+    }
+
+    @BeforeEach
+    void setUp() {
+        identityCache = new IdentityCache(100);
+        decisionCache = new DecisionCache(true, 60_000, 100);
+        cache(USER_1);
+        cache(USER_2);
+
+        container = new DefaultMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.setDestinationName(TOPIC);
+        container.setPubSubDomain(true);
+        container.setMessageListener(new IdentityInvalidationListener(identityCache, decisionCache));
+        container.afterPropertiesSet();
+        container.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        container.shutdown();
+    }
+
+    @Test
+    @Timeout(20)
+    void evictsSingleUserPublishedOnTopic() throws InterruptedException {
+        final IdentityInvalidationPublisher publisher = new IdentityInvalidationPublisher(connectionFactory, TOPIC);
+
+        publishUntil(() -> publisher.invalidateUser(USER_1), () -> identityCache.get(USER_1).isEmpty());
+
+        assertTrue(decisionCache.get(USER_1, GROUPS, ACTION).isEmpty(), "Decisions for the user should be evicted");
+        assertEquals(1, identityCache.size(), "Other users should stay cached");
+        assertTrue(decisionCache.get(USER_2, GROUPS, ACTION).isPresent(), "Other users' decisions should stay cached");
+    }
+
+    @Test
+    @Timeout(20)
+    void clearsEverythingWhenAllIsPublished() throws InterruptedException {
+        final IdentityInvalidationPublisher publisher = new IdentityInvalidationPublisher(connectionFactory, TOPIC);
+
+        publishUntil(publisher::invalidateAll, () -> identityCache.size() == 0);
+
+        assertEquals(0, decisionCache.size(), "All decisions should be evicted");
+    }
+
+    private void cache(final String userId) {
+        identityCache.put(userId, new IdentityResponse(userId, List.of(), List.of()));
+        decisionCache.put(userId, GROUPS, ACTION, true);
+    }
+
+    /**
+     * Topic subscriptions are non-durable, so keep publishing until the listener container has subscribed.
+     */
+    private static void publishUntil(final Runnable publish, final BooleanSupplier done) throws InterruptedException {
+        while (!done.getAsBoolean()) {
+            publish.run();
+            Thread.sleep(100);
+        }
+    }
+}
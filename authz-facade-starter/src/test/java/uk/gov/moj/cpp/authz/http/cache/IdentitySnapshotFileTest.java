@@ -0,0 +1,92 @@
+package uk.gov.moj.cpp.authz.http.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.gov.moj.cpp.authz.http.IdentityResponse;
+import uk.gov.moj.cpp.authz.http.cache.IdentitySnapshotFile.SnapshotEntry;
+import uk.gov.moj.cpp.authz.http.dto.UserGroup;
+import uk.gov.moj.cpp.authz.http.dto.UserPermission;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class IdentitySnapshotFileTest {
+
+    private static final IdentityResponse IDENTITY = new IdentityResponse("la-user-1",
+            List.of(new UserGroup("g1", "Legal Advisers", null)),
+            List.of(new UserPermission("p1", "Hearing", "View", "Allows viewing hearings")));
+
+    private static final String SNAPSHOT_NAME = "identity.snapshot";
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void readsBackWhatWasWritten() throws IOException {
+        final IdentitySnapshotFile file = new IdentitySnapshotFile(directory.resolve(SNAPSHOT_NAME));
+        final List<SnapshotEntry> entries = List.of(new SnapshotEntry(IDENTITY, 1_700_000_000_000L, "\"v1\"", null));
+
+        file.write(entries);
+
+        assertEquals(entries, file.read(), "Snapshot should round-trip identities and timestamps");
+        try (java.util.stream.Stream<Path> listing = Files.list(directory)) {
+            assertEquals(1, listing.count(), "Temporary file should be renamed over the snapshot");
+        }
+    }
+
+    @Test
+    void returnsNothingWhenThereIsNoSnapshot() throws IOException {
+        final IdentitySnapshotFile file = new IdentitySnapshotFile(directory.resolve("missing.snapshot"));
+
+        assertTrue(file.read().isEmpty(), "Missing snapshot should mean a cold start");
+    }
+
+    @Test
+    void rejectsCorruptSnapshot() throws IOException {
+        final Path path = directory.resolve(SNAPSHOT_NAME);
+        final IdentitySnapshotFile file = new IdentitySnapshotFile(path);
+        file.write(List.of(new SnapshotEntry(IDENTITY, 1L, null, null)));
+        final byte[] bytes = Files.readAllBytes(path);
+        bytes[bytes.length / 2] ^= 0x7F;
+        Files.write(path, bytes);
+
+        assertThrows(IOException.class, file::read, "Checksum should detect a damaged snapshot");
+    }
+
+    @Test
+    void createsSnapshotOwnerOnlyAndRefusesOneOthersCanRead() throws IOException {
+        final Path path = directory.resolve(SNAPSHOT_NAME);
+        final IdentitySnapshotFile file = new IdentitySnapshotFile(path);
+        file.write(List.of(new SnapshotEntry(IDENTITY, 1L, null, null)));
+        assumeTrue(Files.getFileAttributeView(path, PosixFileAttributeView.class) != null, "POSIX file system");
+
+        assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(path),
+                "The snapshot should be readable by its owner only");
+        Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-r--r--"));
+        assertThrows(IllegalStateException.class, file::read, "A snapshot others can read should be refused");
+    }
+
+    @Test
+    void restoresOnlyEntriesYoungerThanMaxAgeAndFlagsThemForRevalidation() throws IOException {
+        final IdentitySnapshotFile file = new IdentitySnapshotFile(directory.resolve(SNAPSHOT_NAME));
+        final long now = System.currentTimeMillis();
+        file.write(List.of(new SnapshotEntry(IDENTITY, now, null, null),
+                new SnapshotEntry(new IdentityResponse("stale-user", List.of(), List.of()), now - 7_200_000L, null, null)));
+        final IdentityCache identityCache = new IdentityCache(100);
+
+        final int restored = new IdentitySnapshotter(identityCache, file, Duration.ofMinutes(1), Duration.ofHours(1)).restore();
+
+        assertEquals(1, restored, "Only the recent entry should be restored");
+        assertTrue(identityCache.get("la-user-1").orElseThrow().needsRevalidation(), "Restored entry should need revalidation");
+    }
+}
@@ -0,0 +1,120 @@
+package uk.gov.moj.cpp.authz.http.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.activemq.artemis.core.config.impl.ConfigurationImpl;
+import org.apache.activemq.artemis.core.server.embedded.EmbeddedActiveMQ;
+import org.apache.activemq.artemis.jms.client.ActiveMQConnectionFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import uk.gov.moj.cpp.authz.http.IdentityResponse;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.dto.UserGroup;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdentityWarmUpQueueTest {
+
+    private static final String USER_1 = "la-user-1";
+    private static final String USER_2 = "da-user-1";
+    private static final String USER_3 = "da-user-2";
+    private static final String COURT_CLERKS = "Court Clerks";
+
+    private static EmbeddedActiveMQ broker;
+    private static ActiveMQConnectionFactory connectionFactory;
+
+    @BeforeAll
+    static void startBroker() throws Exception {
+        broker = new EmbeddedActiveMQ();
+        broker.setConfiguration(new ConfigurationImpl()
+                .setPersistenceEnabled(false)
+                .setSecurityEnabled(false)
+                .addAcceptorConfiguration("in-vm", "vm://1"));
+        broker.start();
+        connectionFactory = new ActiveMQConnectionFactory("vm://1");
+    }
+
+    @AfterAll
+    static void stopBroker() throws Exception {
+        connectionFactory.close();
+        broker.stop();
+    }
+
+    @Test
+    @Timeout(20)
+    void restoresLatestIdentityPerUserPublishedByAnotherNode() throws InterruptedException {
+        final HttpAuthzProperties.WarmUp config = config("authz.identity.warm-up.latest");
+        final IdentityCache running = new IdentityCache(100);
+        final IdentityWarmUpQueue publisher = start(running, config);
+        running.put(USER_1, identity(USER_1, "Legal Advisers"));
+        running.put(USER_2, identity(USER_2, "Defence Lawyers"));
+        running.put(USER_3, identity(USER_3, "Defence Lawyers"));
+        Thread.sleep(5);
+        running.put(USER_1, identity(USER_1, COURT_CLERKS));
+
+        final IdentityCache joining = new IdentityCache(100);
+        final IdentityWarmUpQueue warmUp = new IdentityWarmUpQueue(connectionFactory, joining, config, new SimpleMeterRegistry());
+        drainUntil(warmUp, joining, running, USER_1);
+
+        assertEquals(3, joining.size(), "Only the latest message per user should be kept on the queue");
+        assertEquals(COURT_CLERKS, joining.get(USER_1).orElseThrow().identity().groups().get(0).groupName(),
+                "The latest identity for a user should win");
+        assertTrue(joining.get(USER_2).orElseThrow().needsRevalidation(), "Warmed entries should be revalidated");
+        assertEquals(3, new IdentityWarmUpQueue(connectionFactory, new IdentityCache(100), config, new SimpleMeterRegistry())
+                .drain(), "Browsing should leave the queue intact for the next node");
+        publisher.stop();
+    }
+
+    @Test
+    @Timeout(20)
+    void keepsLocalEntryWhenQueuedIdentityIsOlder() throws InterruptedException {
+        final HttpAuthzProperties.WarmUp config = config("authz.identity.warm-up.older");
+        final IdentityCache running = new IdentityCache(100);
+        final IdentityWarmUpQueue publisher = start(running, config);
+        running.put(USER_2, identity(USER_2, "Defence Lawyers"));
+        running.put(USER_1, identity(USER_1, "Legal Advisers"));
+
+        final IdentityCache joining = new IdentityCache(100);
+        joining.put(USER_2, identity(USER_2, COURT_CLERKS));
+        final IdentityWarmUpQueue warmUp = new IdentityWarmUpQueue(connectionFactory, joining, config, new SimpleMeterRegistry());
+        drainUntil(warmUp, joining, running, USER_1);
+
+        assertEquals(COURT_CLERKS, joining.get(USER_2).orElseThrow().identity().groups().get(0).groupName(),
+                "A newer local entry should not be replaced by an older queued one");
+        publisher.stop();
+    }
+
+    private static IdentityWarmUpQueue start(final IdentityCache identityCache, final HttpAuthzProperties.WarmUp config) {
+        final IdentityWarmUpQueue warmUp = new IdentityWarmUpQueue(connectionFactory, identityCache, config,
+                new SimpleMeterRegistry());
+        warmUp.start();
+        return warmUp;
+    }
+
+    /**
+     * Publishing is asynchronous and ordered, so keep browsing until the identity stored last has arrived.
+     */
+    private static void drainUntil(final IdentityWarmUpQueue warmUp, final IdentityCache joining,
+                                   final IdentityCache running, final String storedLast) throws InterruptedException {
+        final long storedAtMillis = running.get(storedLast).orElseThrow().storedAtMillis();
+        while (joining.get(storedLast).map(IdentityCache.CachedIdentity::storedAtMillis).orElse(0L) != storedAtMillis) {
+            warmUp.drain();
+            Thread.sleep(50);
+        }
+    }
+
+    private static HttpAuthzProperties.WarmUp config(final String queue) {
+        final HttpAuthzProperties.WarmUp config = new HttpAuthzProperties.WarmUp();
+        config.setEnabled(true);
+        config.setQueue(queue);
+        return config;
+    }
+
+    private static IdentityResponse identity(final String userId, final String groupName) {
+        return new IdentityResponse(userId, List.of(new UserGroup(groupName, groupName, null)), List.of());
+    }
+}
@@ -0,0 +1,174 @@
+package uk.gov.moj.cpp.authz.http.cache;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.gov.moj.cpp.authz.http.IdentityResponse;
+import uk.gov.moj.cpp.authz.http.cache.IdentityCache.CachedIdentity;
+import uk.gov.moj.cpp.authz.http.dto.UserGroup;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class SharedIdentityTableTest {
+
+    private static final String USER_ID = "la-user-1";
+    private static final IdentityResponse IDENTITY =
+            new IdentityResponse(USER_ID, List.of(new UserGroup("g1", "Legal Advisers", "ALL")), List.of());
+    private static final Duration TTL = Duration.ofMinutes(10);
+
+    @TempDir
+    private Path directory;
+
+    private Path path;
+
+    @BeforeEach
+    void setUp() {
+        path = directory.resolve("identity.shared");
+    }
+
+    @Test
+    void identityWrittenByOneProcessIsVisibleToAnother() throws IOException {
+        final SharedIdentityTable writer = new SharedIdentityTable(path, 1024, 512, TTL);
+        final SharedIdentityTable reader = new SharedIdentityTable(path, 1024, 512, TTL);
+
+        writer.put(USER_ID, cached(IDENTITY, System.currentTimeMillis()));
+
+        final Optional<CachedIdentity> found = reader.get(USER_ID);
+        assertEquals(IDENTITY, found.orElseThrow().identity(), "Second mapping should read the first one's entry");
+        assertEquals("\"v1\"", found.get().etag(), "Validators should be shared too");
+    }
+
+    @Test
+    void expiredEntriesReadAsMissing() throws IOException {
+        final SharedIdentityTable table = new SharedIdentityTable(path, 1024, 512, TTL);
+
+        table.put(USER_ID, cached(IDENTITY, System.currentTimeMillis() - TTL.toMillis() - 1));
+
+        assertTrue(table.get(USER_ID).isEmpty(), "Entries older than the TTL should be ignored");
+    }
+
+    @Test
+    void removedEntriesAreGoneForEveryProcess() throws IOException {
+        final SharedIdentityTable first = new SharedIdentityTable(path, 1024, 512, TTL);
+        final SharedIdentityTable second = new SharedIdentityTable(path, 1024, 512, TTL);
+        first.put(USER_ID, cached(IDENTITY, System.currentTimeMillis()));
+
+        second.remove(USER_ID);
+
+        assertTrue(first.get(USER_ID).isEmpty(), "Removal should be visible through every mapping");
+    }
+
+    @Test
+    void invalidatesEverythingStoredSoFarWhenSlotStaysLocked() throws IOException {
+        final SharedIdentityTable table = new SharedIdentityTable(path, 8, 512, TTL);
+        table.put(USER_ID, cached(IDENTITY, System.currentTimeMillis()));
+        addToEverySequence(8, 512);
+
+        assertFalse(table.remove(USER_ID), "Removal should report that the slot could not be locked");
+        addToEverySequence(8, 512);
+
+        assertTrue(table.get(USER_ID).isEmpty(), "The entry should stay invalid once the slot is unlocked");
+    }
+
+    @Test
+    void clearInvalidatesEveryEntry() throws IOException {
+        final SharedIdentityTable table = new SharedIdentityTable(path, 1024, 512, TTL);
+        table.put(USER_ID, cached(IDENTITY, System.currentTimeMillis()));
+
+        table.clear();
+
+        assertTrue(table.get(USER_ID).isEmpty(), "Entries stored before the clear should read as missing");
+        assertTrue(table.put(USER_ID, cached(IDENTITY, System.currentTimeMillis() + 1)), "Later entries should be stored");
+        assertTrue(table.get(USER_ID).isPresent(), "Later entries should be served");
+    }
+
+    @Test
+    void replacesTableLaidOutDifferentlyWithoutTruncatingItUnderOtherProcesses() throws IOException {
+        final SharedIdentityTable old = new SharedIdentityTable(path, 1024, 512, TTL);
+        old.put(USER_ID, cached(IDENTITY, System.currentTimeMillis()));
+
+        final SharedIdentityTable resized = new SharedIdentityTable(path, 2048, 512, TTL);
+
+        assertTrue(old.get(USER_ID).isPresent(), "A process mapping the old file should keep reading it");
+        assertTrue(resized.get(USER_ID).isEmpty(), "The new layout should start empty");
+        assertEquals(24 + 2048L * 512, Files.size(path), "The new file should have the new layout");
+    }
+
+    @Test
+    void createsTableOwnerOnlyAndRefusesOneOthersCanRead() throws IOException {
+        new SharedIdentityTable(path, 1024, 512, TTL);
+        assumeTrue(Files.getFileAttributeView(path, PosixFileAttributeView.class) != null, "POSIX file system");
+
+        assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(path),
+                "The table should be readable by its owner only");
+        Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-rw-rw-"));
+        assertThrows(IllegalStateException.class, () -> new SharedIdentityTable(path, 1024, 512, TTL),
+                "A table others can write should be refused");
+    }
+
+    @Test
+    void keepsNewestUsersWhenProbeWindowIsFull() throws IOException {
+        final SharedIdentityTable table = new SharedIdentityTable(path, 8, 512, TTL);
+        final long now = System.currentTimeMillis();
+
+        IntStream.range(0, 20).forEach(i ->
+                table.put("user-" + i, cached(new IdentityResponse("user-" + i, List.of(), List.of()), now + i)));
+
+        assertTrue(table.get("user-19").isPresent(), "Most recent user should survive eviction");
+        assertTrue(table.get("user-0").isEmpty(), "Oldest user should have been replaced");
+    }
+
+    @Test
+    void skipsIdentitiesTooLargeForASlot() throws IOException {
+        final SharedIdentityTable table = new SharedIdentityTable(path, 1024, 64, TTL);
+
+        assertFalse(table.put(USER_ID, cached(IDENTITY, System.currentTimeMillis())), "Oversized identity should not be shared");
+    }
+
+    @Test
+    void nearCacheFallsBackToSharedTier() throws IOException {
+        final SharedIdentityTable table = new SharedIdentityTable(path, 1024, 512, TTL);
+        new IdentityCache(100, Optional.of(table)).put(USER_ID, IDENTITY, null, null);
+
+        final IdentityCache otherJvm = new IdentityCache(100, Optional.of(new SharedIdentityTable(path, 1024, 512, TTL)));
+
+        assertEquals(IDENTITY, otherJvm.get(USER_ID).orElseThrow().identity(), "Near-cache miss should be served from the shared tier");
+        assertEquals(1, otherJvm.size(), "Shared hit should be promoted into the near cache");
+    }
+
+    /**
+     * Moves every slot's seqlock sequence on by one, as a writer that takes the lock (odd) and releases it (even).
+     */
+    private void addToEverySequence(final int slots, final int slotSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            mapped.order(ByteOrder.nativeOrder());
+            for (int slot = 0; slot < slots; slot++) {
+                final int base = 24 + slot * slotSize;
+                mapped.putInt(base, mapped.getInt(base) + 1);
+            }
+        }
+    }
+
+    private static CachedIdentity cached(final IdentityResponse identity, final long storedAtMillis) {
+        return new CachedIdentity(identity, storedAtMillis, false, "\"v1\"", null);
+    }
+}
@@ -0,0 +1,71 @@
+package uk.gov.moj.cpp.authz.http.config;
+
+import org.junit.jupiter.api.Test;
+import uk.gov.moj.cpp.access.path.Bypass;
+import uk.gov.moj.cpp.authz.http.DefaultIdentityToGroupsMapper;
+import uk.gov.moj.cpp.authz.http.IdentityResponse;
+import uk.gov.moj.cpp.authz.http.dto.UserGroup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LiveAuthzSettingsTest {
+
+    private static final String REPORTS = "/reports/daily";
+    private static final String LEGAL_ADVISERS = "Legal Advisers";
+
+    @Test
+    void appliesRefreshedPropertiesToNextSnapshotOnly() {
+        final HttpAuthzProperties properties = new HttpAuthzProperties();
+        final LiveAuthzSettings live = new LiveAuthzSettings(() -> AuthzSettings.compile(properties));
+        final AuthzSettings before = live.current();
+
+        properties.setExcludePathPrefixes(List.of("/reports/"));
+        properties.setActionHeader("X-ACTION");
+        properties.setActionRequired(true);
+        final boolean bypassedBeforeRefresh = live.current().pathPolicy().bypasses(REPORTS, Bypass.AUTHZ);
+        live.refresh();
+
+        assertFalse(bypassedBeforeRefresh, "Property changes should not leak into the published snapshot");
+        assertTrue(live.current().pathPolicy().bypasses(REPORTS, Bypass.AUTHZ), "Refresh should recompile the trie");
+        assertEquals("X-ACTION", live.current().actionHeader(), "Refresh should pick up the new action header");
+        assertTrue(live.current().isActionRequired(), "Refresh should pick up the action-required flag");
+        assertEquals("CPP-ACTION", before.actionHeader(), "An earlier snapshot should never change");
+    }
+
+    @Test
+    void keepsCurrentSettingsWhenRefreshFailsToCompile() {
+        final HttpAuthzProperties properties = new HttpAuthzProperties();
+        final LiveAuthzSettings live = new LiveAuthzSettings(() -> AuthzSettings.compile(properties));
+        final AuthzSettings before = live.current();
+
+        properties.setGroupAliases(null);
+        live.refresh();
+
+        assertSame(before, live.current(), "A configuration that does not compile should not be published");
+    }
+
+    @Test
+    void mapsAliasesIgnoringCaseAndFollowsRefresh() {
+        final HttpAuthzProperties properties = new HttpAuthzProperties();
+        properties.setGroupAliases(Map.of("legal advisers", LEGAL_ADVISERS));
+        final LiveAuthzSettings live = new LiveAuthzSettings(() -> AuthzSettings.compile(properties));
+        final DefaultIdentityToGroupsMapper mapper = new DefaultIdentityToGroupsMapper(live);
+        final IdentityResponse identity = new IdentityResponse(UUID.randomUUID().toString(),
+                List.of(new UserGroup(UUID.randomUUID().toString(), "LEGAL ADVISERS", null)), List.of());
+
+        final Set<String> beforeRefresh = mapper.toGroups(identity);
+        properties.setGroupAliases(Map.of(LEGAL_ADVISERS, "Advisers"));
+        live.refresh();
+
+        assertEquals(Set.of(LEGAL_ADVISERS), beforeRefresh, "Aliases should match regardless of case");
+        assertEquals(Set.of("Advisers"), mapper.toGroups(identity), "A refreshed alias should apply to the next call");
+    }
+}
@@ -0,0 +1,37 @@
+package uk.gov.moj.cpp.authz.http.deadline;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeadlineRequestFactoryTest {
+
+    @Test
+    @Timeout(5)
+    void readTimesOutWhenDeadlinePassesRatherThanAtConfiguredTimeout() throws IOException {
+        final DeadlineRequestFactory factory = new DeadlineRequestFactory();
+        factory.setReadTimeout(Duration.ofSeconds(30));
+        final RestTemplate restTemplate = new RestTemplate(factory);
+        try (ServerSocket silent = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            final String url = "http://localhost:" + silent.getLocalPort() + "/usersgroups";
+            final long startNanos = System.nanoTime();
+
+            assertThrows(ResourceAccessException.class, () -> DeadlineRequestFactory.within(
+                    RequestDeadline.after(Duration.ofMillis(100)), () -> restTemplate.getForObject(url, String.class)),
+                    "A server that never answers should time out");
+
+            assertTrue(System.nanoTime() - startNanos < TimeUnit.SECONDS.toNanos(2),
+                    "The read should be cut to the deadline, not the 30 second read timeout");
+        }
+    }
+}
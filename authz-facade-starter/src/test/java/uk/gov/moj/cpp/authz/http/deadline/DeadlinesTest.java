@@ -0,0 +1,97 @@
+package uk.gov.moj.cpp.authz.http.deadline;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeadlinesTest {
+
+    private static final String HEADER = "CPP-DEADLINE-MS";
+    private static final String CASES = "/api/cases";
+
+    private HttpAuthzProperties.Deadline config;
+
+    @BeforeEach
+    void setUp() {
+        config = new HttpAuthzProperties.Deadline();
+        config.setEnabled(true);
+        config.setDefaultBudget(Duration.ofSeconds(2));
+        config.setRoutes(List.of(route("/api/", Duration.ofSeconds(1)), route("/api/reports/", Duration.ofSeconds(10))));
+    }
+
+    @Test
+    void usesLongestMatchingRouteBudgetWhenSeveralMatch() {
+        final Deadlines deadlines = new Deadlines(config, new SimpleMeterRegistry());
+
+        assertBudgetAbout(10_000, deadlines.resolve(new MockHttpServletRequest(), "/api/reports/daily"));
+        assertBudgetAbout(1_000, deadlines.resolve(new MockHttpServletRequest(), CASES));
+        assertBudgetAbout(2_000, deadlines.resolve(new MockHttpServletRequest(), "/other"));
+    }
+
+    @Test
+    void headerTightensButNeverExtendsRouteBudget() {
+        final Deadlines deadlines = new Deadlines(config, new SimpleMeterRegistry());
+
+        assertBudgetAbout(300, deadlines.resolve(request("300"), CASES));
+        assertBudgetAbout(1_000, deadlines.resolve(request("60000"), CASES));
+    }
+
+    @Test
+    void ignoresMalformedHeaderAndAppliesHeaderAloneWhenNoBudgetIsConfigured() {
+        config.setDefaultBudget(Duration.ZERO);
+        config.setRoutes(List.of());
+        final Deadlines deadlines = new Deadlines(config, new SimpleMeterRegistry());
+
+        assertFalse(deadlines.resolve(request("soon"), CASES).isBounded(), "Malformed header should be ignored");
+        assertBudgetAbout(250, deadlines.resolve(request("250"), CASES));
+    }
+
+    @Test
+    void resolvesUnboundedDeadlineWhenDisabled() {
+        config.setEnabled(false);
+        final Deadlines deadlines = new Deadlines(config, new SimpleMeterRegistry());
+
+        assertFalse(deadlines.resolve(request("0"), CASES).isBounded(), "Disabled deadlines should not apply");
+    }
+
+    @Test
+    void throwsNamingStageWhenDeadlineHasPassed() {
+        final RequestDeadline passed = RequestDeadline.after(Duration.ofMillis(-1));
+
+        assertTrue(passed.isExpired(), "A negative budget is already spent");
+        final DeadlineExceededException exceeded =
+                assertThrows(DeadlineExceededException.class, () -> passed.check(DeadlineExceededException.RULES),
+                        "Checking a passed deadline should fail");
+        assertEquals(DeadlineExceededException.RULES, exceeded.getStage(), "Exception should name the stage");
+    }
+
+    private static MockHttpServletRequest request(final String remainingMillis) {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HEADER, remainingMillis);
+        return request;
+    }
+
+    private static HttpAuthzProperties.Deadline.Route route(final String pathPrefix, final Duration budget) {
+        final HttpAuthzProperties.Deadline.Route route = new HttpAuthzProperties.Deadline.Route();
+        route.setPathPrefix(pathPrefix);
+        route.setBudget(budget);
+        return route;
+    }
+
+    private static void assertBudgetAbout(final long expectedMillis, final RequestDeadline deadline) {
+        final long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline.remainingNanos());
+        assertTrue(remainingMillis <= expectedMillis && remainingMillis > expectedMillis - 200,
+                "Expected about " + expectedMillis + " ms left but had " + remainingMillis);
+    }
+}
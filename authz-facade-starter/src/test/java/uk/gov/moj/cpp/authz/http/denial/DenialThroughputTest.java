@@ -0,0 +1,137 @@
+package uk.gov.moj.cpp.authz.http.denial;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.http.HttpMessageConvertersAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.DispatcherServletAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.ServletWebServerFactoryAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.WebMvcAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.error.ErrorMvcAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import uk.gov.moj.cpp.authz.drools.DroolsAuthzEngine;
+import uk.gov.moj.cpp.authz.http.HttpAuthzFilter;
+import uk.gov.moj.cpp.authz.http.IdentityClient;
+import uk.gov.moj.cpp.authz.http.IdentityToGroupsMapper;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties.DenialFormat;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Denial throughput of a real Tomcat with Spring's error handling in place: one filter answers through the error
+ * dispatch, the other with pre-serialized problem documents. Run with {@code DENIAL_BENCHMARK=true}.
+ */
+@SpringBootTest(classes = DenialThroughputTest.DenyingApplication.class,
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@EnabledIfEnvironmentVariable(named = "DENIAL_BENCHMARK", matches = "true")
+class DenialThroughputTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DenialThroughputTest.class);
+    private static final int CLIENTS = 16;
+    private static final Duration WARM_UP = Duration.ofSeconds(3);
+    private static final Duration MEASURED = Duration.ofSeconds(10);
+
+    @LocalServerPort
+    private int port;
+
+    @Test
+    void answersMoreDenialsPerSecondWithProblemJsonThanWithErrorDispatch() throws Exception {
+        final long dispatched;
+        final long problems;
+        try (HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build()) {
+            dispatched = denialsPerSecond(client, "/dispatch/api/cases");
+            problems = denialsPerSecond(client, "/problem/api/cases");
+        }
+
+        LOGGER.info("{} clients: error dispatch {} denials/s, problem+json {} denials/s", CLIENTS, dispatched, problems);
+        assertTrue(problems > dispatched, "Pre-serialized denials should be cheaper than the error dispatch");
+    }
+
+    private long denialsPerSecond(final HttpClient client, final String path) throws Exception {
+        final HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                .header("Accept", "application/json").build();
+        run(client, request, WARM_UP);
+        return run(client, request, MEASURED) * 1_000 / MEASURED.toMillis();
+    }
+
+    private static long run(final HttpClient client, final HttpRequest request, final Duration duration)
+            throws Exception {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        long total = 0;
+        try (ExecutorService executor = Executors.newFixedThreadPool(CLIENTS)) {
+            final List<Future<Long>> clients = new ArrayList<>();
+            for (int i = 0; i < CLIENTS; i++) {
+                clients.add(executor.submit(() -> deny(client, request, running)));
+            }
+            Thread.sleep(duration.toMillis());
+            running.set(false);
+            for (final Future<Long> denials : clients) {
+                total += denials.get();
+            }
+        }
+        return total;
+    }
+
+    private static long deny(final HttpClient client, final HttpRequest request, final AtomicBoolean running)
+            throws Exception {
+        long denials = 0;
+        while (running.get()) {
+            final HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            assertEquals(401, response.statusCode(), "Requests without a user id should be denied");
+            denials++;
+        }
+        return denials;
+    }
+
+    @SpringBootConfiguration
+    @ImportAutoConfiguration({ServletWebServerFactoryAutoConfiguration.class,
+            DispatcherServletAutoConfiguration.class, WebMvcAutoConfiguration.class, ErrorMvcAutoConfiguration.class,
+            JacksonAutoConfiguration.class, HttpMessageConvertersAutoConfiguration.class})
+    @SuppressWarnings("PMD.TestClassWithoutTestCases")
+    public static class DenyingApplication {
+
+        @Bean
+        public FilterRegistrationBean<HttpAuthzFilter> dispatchingFilter() {
+            return registration(DenialFormat.ERROR_DISPATCH, "/dispatch/*");
+        }
+
+        @Bean
+        public FilterRegistrationBean<HttpAuthzFilter> problemFilter() {
+            return registration(DenialFormat.PROBLEM_JSON, "/problem/*");
+        }
+
+        private static FilterRegistrationBean<HttpAuthzFilter> registration(final DenialFormat format,
+                                                                             final String pattern) {
+            final HttpAuthzProperties properties = new HttpAuthzProperties();
+            properties.setDenialFormat(format);
+            final FilterRegistrationBean<HttpAuthzFilter> registration = new FilterRegistrationBean<>(
+                    new HttpAuthzFilter(properties, mock(IdentityClient.class), mock(IdentityToGroupsMapper.class),
+                            mock(DroolsAuthzEngine.class)));
+            registration.addUrlPatterns(pattern);
+            registration.setName(format.name());
+            return registration;
+        }
+    }
+}
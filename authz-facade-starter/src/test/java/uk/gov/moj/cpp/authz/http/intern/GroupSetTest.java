@@ -0,0 +1,137 @@
+package uk.gov.moj.cpp.authz.http.intern;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.gov.moj.cpp.authz.http.IdentityResponse;
+import uk.gov.moj.cpp.authz.http.dto.UserGroup;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("PMD.LooseCoupling")
+class GroupSetTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GroupSetTest.class);
+
+    private static final String LEGAL_ADVISERS = "Legal Advisers";
+    private static final String COURT_ADMINISTRATORS = "Court Administrators";
+    private static final int USERS = 1_000_000;
+    private static final int GROUP_NAMES = 40;
+    private static final int COMBINATIONS = 500;
+
+    @Test
+    void equalGroupCombinationsShareOneInstance() {
+        final GroupSet first = GroupSet.intern(List.of(LEGAL_ADVISERS, COURT_ADMINISTRATORS));
+        final GroupSet second = GroupSet.intern(List.of(fresh(COURT_ADMINISTRATORS), fresh(LEGAL_ADVISERS)));
+
+        assertSame(first, second, "Same groups in any order should intern to one set");
+    }
+
+    @Test
+    void decodesEncodedSetToCanonicalInstance() {
+        final GroupSet groups = GroupSet.intern(List.of(LEGAL_ADVISERS, COURT_ADMINISTRATORS, "Équipe juridique"));
+        final byte[] encoded = groups.encode(1024).orElseThrow();
+        final byte[] framed = new byte[encoded.length + 3];
+        System.arraycopy(encoded, 0, framed, 3, encoded.length);
+
+        assertSame(groups, GroupSet.decode(framed, 3, framed.length).orElseThrow(),
+                "Decoding should find the interned set");
+        assertTrue(GroupSet.decode(framed, 3, framed.length - 1).isEmpty(), "A truncated set should not decode");
+        assertTrue(groups.encode(10).isEmpty(), "A set larger than the limit should not be encoded");
+    }
+
+    @Test
+    void behavesLikeAnyOtherSet() {
+        final GroupSet groups = GroupSet.intern(List.of(LEGAL_ADVISERS, COURT_ADMINISTRATORS, LEGAL_ADVISERS));
+
+        assertEquals(new HashSet<>(List.of(LEGAL_ADVISERS, COURT_ADMINISTRATORS)), groups, "Set equality should hold");
+        assertEquals(Set.of(LEGAL_ADVISERS, COURT_ADMINISTRATORS).hashCode(), groups.hashCode(), "Set hash contract should hold");
+        assertTrue(groups.contains(LEGAL_ADVISERS), "Contained group should be found");
+        assertTrue(groups.containsIgnoreCase("legal advisers"), "Case-insensitive lookup should match");
+    }
+
+    @Test
+    void identitiesWithSameGroupsShareGroupList() {
+        final IdentityResponse first = IdentityInterner.intern(identity("user-1", LEGAL_ADVISERS));
+        final IdentityResponse second = IdentityInterner.intern(identity("user-2", fresh(LEGAL_ADVISERS)));
+
+        assertSame(first.groups(), second.groups(), "Equal group lists should be shared between users");
+    }
+
+    /**
+     * Heap retained by one million cached users drawn from {@value #COMBINATIONS} group combinations, each parsed
+     * into fresh objects as the JSON mapper would. Run with {@code AUTHZ_FOOTPRINT=true}.
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "AUTHZ_FOOTPRINT", matches = "true")
+    void reportsHeapForOneMillionUsers() {
+        final long plain = retainedBytes(user -> {
+            final IdentityResponse identity = parsed(user);
+            final Set<String> groups = new LinkedHashSet<>();
+            identity.groups().forEach(group -> groups.add(group.groupName()));
+            return new Object[] {identity, groups};
+        });
+        final long interned = retainedBytes(user -> {
+            final IdentityResponse identity = IdentityInterner.intern(parsed(user));
+            return new Object[] {identity, GroupSet.intern(identity.groups().stream().map(UserGroup::groupName).toList())};
+        });
+
+        LOGGER.info("1M users: plain {} MiB, interned {} MiB ({}% less)",
+                plain >> 20, interned >> 20, 100 * (plain - interned) / plain);
+        assertTrue(interned < plain, "Interning should shrink the footprint");
+    }
+
+    private static long retainedBytes(final IntFunction<Object> entryForUser) {
+        final long before = usedHeap();
+        final List<Object> retained = new ArrayList<>(USERS);
+        for (int user = 0; user < USERS; user++) {
+            retained.add(entryForUser.apply(user));
+        }
+        final long after = usedHeap();
+        assertEquals(USERS, retained.size(), "All users should be retained while measuring");
+        return after - before;
+    }
+
+    @SuppressWarnings("PMD.DoNotCallGarbageCollectionExplicitly") // settle the heap before sampling it
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Two to four groups per user, picked deterministically from {@value #COMBINATIONS} combinations.
+     */
+    private static IdentityResponse parsed(final int user) {
+        final int combination = user % COMBINATIONS;
+        final List<UserGroup> groups = new ArrayList<>();
+        for (int i = 0; i < 2 + combination % 3; i++) {
+            final int name = (combination * 7 + i * 13) % GROUP_NAMES;
+            groups.add(new UserGroup(fresh("group-id-" + name), fresh("Group " + name), fresh("ALL")));
+        }
+        return new IdentityResponse("user-" + user, groups, List.of());
+    }
+
+    /**
+     * A distinct copy, as a JSON parser would produce for every response.
+     */
+    private static String fresh(final String value) {
+        return new StringBuilder(value).toString();
+    }
+
+    private static IdentityResponse identity(final String userId, final String groupName) {
+        return new IdentityResponse(userId, List.of(new UserGroup("g1", groupName, null)), List.of());
+    }
+}
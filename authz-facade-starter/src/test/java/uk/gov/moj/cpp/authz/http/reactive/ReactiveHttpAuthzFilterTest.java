@@ -0,0 +1,214 @@
+package uk.gov.moj.cpp.authz.http.reactive;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import uk.gov.moj.cpp.authz.drools.DroolsAuthzEngine;
+import uk.gov.moj.cpp.authz.http.AuthzPrincipal;
+import uk.gov.moj.cpp.authz.http.IdentityRejectedException;
+import uk.gov.moj.cpp.authz.http.IdentityResponse;
+import uk.gov.moj.cpp.authz.http.IdentityToGroupsMapper;
+import uk.gov.moj.cpp.authz.http.IdentityUnavailableException;
+import uk.gov.moj.cpp.authz.http.cache.DecisionCache;
+import uk.gov.moj.cpp.authz.http.config.AuthzSettings;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties.DenialFormat;
+import uk.gov.moj.cpp.authz.http.config.LiveAuthzSettings;
+import uk.gov.moj.cpp.authz.http.resilience.RateLimiter;
+import uk.gov.moj.cpp.authz.http.route.RouteIndex;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ReactiveHttpAuthzFilterTest {
+
+    private static final String USER_ID_HEADER = "CJSCPPUID";
+    private static final String PATH_CASES = "/api/cases";
+    private static final String USER_123 = "user-123";
+    private static final String GROUP_LEGAL_ADVISERS = "Legal Advisers";
+    private static final String RULES_THREAD_PREFIX = "authz-rules-test";
+
+    @Mock
+    private ReactiveIdentityClient identityClient;
+
+    @Mock
+    private IdentityToGroupsMapper identityToGroupsMapper;
+
+    @Mock
+    private DroolsAuthzEngine droolsAuthzEngine;
+
+    private HttpAuthzProperties properties;
+    private Scheduler rulesScheduler;
+    private final AtomicBoolean chainInvoked = new AtomicBoolean();
+    private final WebFilterChain chain = exchange -> Mono.fromRunnable(() -> chainInvoked.set(true));
+
+    @BeforeEach
+    void setUp() {
+        properties = new HttpAuthzProperties();
+        properties.setEnabled(true);
+        rulesScheduler = Schedulers.newBoundedElastic(1, 10, RULES_THREAD_PREFIX);
+    }
+
+    @AfterEach
+    void tearDown() {
+        rulesScheduler.dispose();
+    }
+
+    @Test
+    void passesAllowedRequestAndPublishesPrincipalWhenRulesAllow() {
+        stubIdentity();
+        final AtomicReference<String> rulesThread = new AtomicReference<>();
+        when(droolsAuthzEngine.evaluate(any(), any())).thenAnswer(invocation -> {
+            rulesThread.set(Thread.currentThread().getName());
+            return true;
+        });
+        final MockServerWebExchange exchange = exchange(MockServerHttpRequest.get(PATH_CASES).header(USER_ID_HEADER, USER_123));
+
+        filter().filter(exchange, chain).block();
+
+        assertTrue(chainInvoked.get(), "An allowed request should reach the chain");
+        final AuthzPrincipal principal = exchange.getAttribute(AuthzPrincipal.class.getName());
+        assertEquals(Set.of(GROUP_LEGAL_ADVISERS), principal.groups(), "The principal should carry the mapped groups");
+        assertTrue(rulesThread.get().startsWith(RULES_THREAD_PREFIX), "Rules should run on the rules scheduler");
+    }
+
+    @Test
+    void writesProblemJsonWhenUserIdIsMissingAndProblemFormatIsConfigured() {
+        properties.setDenialFormat(DenialFormat.PROBLEM_JSON);
+        final MockServerWebExchange exchange = exchange(MockServerHttpRequest.get(PATH_CASES));
+
+        filter().filter(exchange, chain).block();
+
+        assertFalse(chainInvoked.get(), "A request without a user id should not reach the chain");
+        assertEquals(HttpStatus.UNAUTHORIZED, exchange.getResponse().getStatusCode(), "Missing user id is a 401");
+        assertEquals("application/problem+json", String.valueOf(exchange.getResponse().getHeaders().getContentType()),
+                "The denial should be a problem document");
+        assertTrue(exchange.getResponse().getBodyAsString().block().contains("\"detail\":\"Missing header: CJSCPPUID\""),
+                "The problem document should name the missing header");
+        verifyNoInteractions(identityClient);
+    }
+
+    @Test
+    void raisesForbiddenStatusWhenRulesDenyAndErrorHandlingIsConfigured() {
+        stubIdentity();
+        when(droolsAuthzEngine.evaluate(any(), any())).thenReturn(false);
+        final MockServerWebExchange exchange = exchange(MockServerHttpRequest.get(PATH_CASES).header(USER_ID_HEADER, USER_123));
+
+        final ResponseStatusException denied =
+                assertThrows(ResponseStatusException.class, () -> filter().filter(exchange, chain).block(),
+                        "A denial should be left to WebFlux's error handling");
+
+        assertEquals(HttpStatus.FORBIDDEN, denied.getStatusCode(), "A rules denial is a 403");
+        assertFalse(chainInvoked.get(), "A denied request should not reach the chain");
+    }
+
+    @Test
+    void deniesWithServiceUnavailableWhenIdentityIsUnavailable() {
+        properties.setDenialFormat(DenialFormat.PROBLEM_JSON);
+        when(identityClient.fetchIdentity(USER_123))
+                .thenReturn(Mono.error(new IdentityUnavailableException("Identity service unavailable: call-failed")));
+        final MockServerWebExchange exchange = exchange(MockServerHttpRequest.get(PATH_CASES).header(USER_ID_HEADER, USER_123));
+
+        filter().filter(exchange, chain).block();
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, exchange.getResponse().getStatusCode(),
+                "An unavailable identity is a 503");
+        verifyNoInteractions(droolsAuthzEngine);
+    }
+
+    @Test
+    void deniesWithForbiddenWhenIdentityServiceRejectsLookup() {
+        properties.setDenialFormat(DenialFormat.PROBLEM_JSON);
+        when(identityClient.fetchIdentity(USER_123)).thenReturn(Mono.error(
+                new IdentityRejectedException("Identity service rejected the lookup: 404", null)));
+        final MockServerWebExchange exchange = exchange(MockServerHttpRequest.get(PATH_CASES).header(USER_ID_HEADER, USER_123));
+
+        filter().filter(exchange, chain).block();
+
+        assertEquals(HttpStatus.FORBIDDEN, exchange.getResponse().getStatusCode(),
+                "A user the identity service does not know is a 403");
+        assertFalse(chainInvoked.get(), "A rejected caller should not reach the chain");
+        verifyNoInteractions(droolsAuthzEngine);
+    }
+
+    @Test
+    void passesExcludedPathWithoutIdentityLookup() {
+        final MockServerWebExchange exchange = exchange(MockServerHttpRequest.get("/actuator/health"));
+
+        filter().filter(exchange, chain).block();
+
+        assertTrue(chainInvoked.get(), "An excluded path should reach the chain");
+        verifyNoInteractions(identityClient);
+    }
+
+    @Test
+    void answersTooManyRequestsBeforeIdentityLookupWhenUserBucketIsEmpty() {
+        final HttpAuthzProperties.RateLimit.Quota quota = new HttpAuthzProperties.RateLimit.Quota();
+        quota.setCapacity(1);
+        quota.setRefillPerSecond(0.5);
+        properties.getRateLimit().setEnabled(true);
+        properties.getRateLimit().setQuotas(List.of(quota));
+        properties.setDenialFormat(DenialFormat.PROBLEM_JSON);
+        stubIdentity();
+        when(droolsAuthzEngine.evaluate(any(), any())).thenReturn(true);
+        final ReactiveHttpAuthzFilter filter =
+                filter(new RateLimiter(properties.getRateLimit(), new SimpleMeterRegistry()));
+        final MockServerWebExchange limited =
+                exchange(MockServerHttpRequest.get(PATH_CASES).header(USER_ID_HEADER, USER_123));
+
+        filter.filter(exchange(MockServerHttpRequest.get(PATH_CASES).header(USER_ID_HEADER, USER_123)), chain).block();
+        filter.filter(limited, chain).block();
+
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, limited.getResponse().getStatusCode(),
+                "A request finding its bucket empty should be rejected");
+        assertEquals("2", limited.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER),
+                "Retry-After should say when a token is back");
+        verify(identityClient, times(1)).fetchIdentity(USER_123);
+    }
+
+    private void stubIdentity() {
+        final IdentityResponse identity = new IdentityResponse(USER_123, List.of(), List.of());
+        when(identityClient.fetchIdentity(USER_123)).thenReturn(Mono.just(identity));
+        when(identityToGroupsMapper.toGroups(identity)).thenReturn(Set.of(GROUP_LEGAL_ADVISERS));
+    }
+
+    private ReactiveHttpAuthzFilter filter() {
+        return filter(RateLimiter.disabled());
+    }
+
+    private ReactiveHttpAuthzFilter filter(final RateLimiter rateLimiter) {
+        return new ReactiveHttpAuthzFilter(properties, identityClient, identityToGroupsMapper, droolsAuthzEngine,
+                DecisionCache.disabled(), LiveAuthzSettings.fixed(AuthzSettings.compile(properties)),
+                RouteIndex.empty(), rateLimiter, rulesScheduler);
+    }
+
+    private static MockServerWebExchange exchange(final MockServerHttpRequest.BaseBuilder<?> request) {
+        return MockServerWebExchange.from(request);
+    }
+}
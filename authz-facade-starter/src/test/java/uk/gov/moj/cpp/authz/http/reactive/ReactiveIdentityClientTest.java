@@ -0,0 +1,113 @@
+package uk.gov.moj.cpp.authz.http.reactive;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import uk.gov.moj.cpp.authz.http.IdentityResponse;
+import uk.gov.moj.cpp.authz.http.IdentityUnavailableException;
+import uk.gov.moj.cpp.authz.http.cache.IdentityCache;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties.IdentityFallback;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ReactiveIdentityClientTest {
+
+    private static final String IDENTITY_URL = "http://identity.test/users/{userId}/permissions";
+    private static final String USER_ID = "la-user-1";
+    private static final String LEGAL_ADVISERS = "Legal Advisers";
+    private static final String IDENTITY_JSON =
+            "{\"groups\":[{\"groupId\":\"g1\",\"groupName\":\"Legal Advisers\",\"prosecutingAuthority\":null}],"
+                    + "\"switchableRoles\":[],\"permissions\":[]}";
+
+    private HttpAuthzProperties properties;
+    private IdentityCache identityCache;
+    private final List<ClientRequest> requests = new ArrayList<>();
+    private final List<ClientResponse> responses = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        properties = new HttpAuthzProperties();
+        properties.setIdentityUrlTemplate(IDENTITY_URL);
+        identityCache = new IdentityCache(100);
+    }
+
+    @Test
+    void fetchesGroupsFromIdentityServiceWithUserIdInUrlAndHeader() {
+        responses.add(identityJson());
+
+        final IdentityResponse identity = client().fetchIdentity(USER_ID).block();
+
+        assertEquals(LEGAL_ADVISERS, identity.groups().getFirst().groupName(), "Groups should come from the body");
+        assertEquals("http://identity.test/users/la-user-1/permissions", requests.getFirst().url().toString(),
+                "The user id should be substituted into the URL");
+        assertEquals(USER_ID, requests.getFirst().headers().getFirst(properties.getUserIdHeader()),
+                "The user id should be sent as a header");
+    }
+
+    @Test
+    void servesCachedIdentityWithoutCallingServiceWhileFresh() {
+        properties.getIdentityCache().setTtl(Duration.ofMinutes(1));
+        responses.add(identityJson());
+        final ReactiveIdentityClient client = client();
+
+        final IdentityResponse first = client.fetchIdentity(USER_ID).block();
+        final IdentityResponse second = client.fetchIdentity(USER_ID).block();
+
+        assertSame(first, second, "A fresh cached identity should be served as is");
+        assertEquals(1, requests.size(), "Only the first lookup should call the identity service");
+    }
+
+    @Test
+    void servesLastKnownIdentityWhenServiceFailsAndFallbackIsLastKnown() {
+        properties.setIdentityFallback(IdentityFallback.LAST_KNOWN);
+        responses.add(identityJson());
+        responses.add(ClientResponse.create(HttpStatus.SERVICE_UNAVAILABLE).build());
+        final ReactiveIdentityClient client = client();
+
+        final IdentityResponse known = client.fetchIdentity(USER_ID).block();
+        final IdentityResponse fallback = client.fetchIdentity(USER_ID).block();
+
+        assertSame(known, fallback, "The last known identity should be served when the service fails");
+    }
+
+    @Test
+    void failsWithIdentityUnavailableWhenServiceFailsAndFallbackIsFailFast() {
+        responses.add(ClientResponse.create(HttpStatus.BAD_GATEWAY).build());
+        final ReactiveIdentityClient client = client();
+
+        final Mono<IdentityResponse> identity = client.fetchIdentity(USER_ID);
+
+        assertThrows(IdentityUnavailableException.class, identity::block, "A failed call should fail fast");
+    }
+
+    private ReactiveIdentityClient client() {
+        final WebClient webClient = WebClient.builder()
+                .exchangeFunction(request -> {
+                    requests.add(request);
+                    return Mono.just(responses.remove(0));
+                })
+                .build();
+        return new ReactiveIdentityClient(properties, webClient, identityCache, new SimpleMeterRegistry());
+    }
+
+    private static ClientResponse identityJson() {
+        return ClientResponse.create(HttpStatus.OK)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body(IDENTITY_JSON)
+                .build();
+    }
+}
@@ -0,0 +1,180 @@
+package uk.gov.moj.cpp.authz.http.resilience;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties.ConcurrencyLimit.Algorithm;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConcurrencyLimiterTest {
+
+    private static final long FAST_CALL = Duration.ofMillis(10).toNanos();
+    private static final long SLOW_CALL = Duration.ofMillis(100).toNanos();
+
+    private final AtomicLong clock = new AtomicLong();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private HttpAuthzProperties.ConcurrencyLimit config;
+
+    @BeforeEach
+    void setUp() {
+        config = new HttpAuthzProperties.ConcurrencyLimit();
+        config.setEnabled(true);
+        config.setInitialLimit(20);
+        config.setMinLimit(4);
+        config.setMaxLimit(100);
+    }
+
+    @Test
+    void rejectsBeyondLimitUntilPermitReleased() {
+        config.setInitialLimit(4);
+        final ConcurrencyLimiter limiter = limiter();
+
+        final List<ConcurrencyLimiter.Permit> permits = acquire(limiter, 4);
+        final Optional<ConcurrencyLimiter.Permit> rejected = limiter.tryAcquire();
+        permits.getFirst().release(false);
+        permits.getFirst().release(false);
+
+        assertTrue(rejected.isEmpty(), "A fifth request should be rejected at a limit of four");
+        assertEquals(1.0, meterRegistry.counter("authz.concurrency.rejected").count(), "Rejection should be counted");
+        assertEquals(3, limiter.inFlight(), "Releasing twice should free one permit");
+        assertTrue(limiter.tryAcquire().isPresent(), "A released permit should admit the next request");
+    }
+
+    @Test
+    void gradientGrowsWhileLatencyHoldsAndShrinksWhenItRises() {
+        final ConcurrencyLimiter limiter = limiter();
+
+        runAtFullLoad(limiter, FAST_CALL, 20);
+        final int grown = limiter.limit();
+        runAtFullLoad(limiter, SLOW_CALL, 20);
+
+        assertTrue(grown > 20, "Steady latency under load should raise the limit, got " + grown);
+        assertTrue(limiter.limit() < grown / 2, "Ten times the latency should cut the limit, got " + limiter.limit());
+        assertTrue(limiter.limit() >= config.getMinLimit(), "The limit should not fall below the minimum");
+        assertEquals(limiter.limit(), meterRegistry.get("authz.concurrency.limit").gauge().value(),
+                "The limit should be published");
+    }
+
+    @Test
+    void gradientDoesNotGrowWhenUnderused() {
+        final ConcurrencyLimiter limiter = limiter();
+
+        for (int i = 0; i < 50; i++) {
+            complete(limiter, FAST_CALL, false);
+        }
+
+        assertEquals(20, limiter.limit(), "One request at a time says nothing about a larger limit");
+    }
+
+    @Test
+    void aimdBacksOffOnSlowOrFailedRequests() {
+        config.setAlgorithm(Algorithm.AIMD);
+        config.setLatencyThreshold(Duration.ofMillis(50));
+        config.setBackoffRatio(0.5);
+        final ConcurrencyLimiter limiter = limiter();
+
+        final List<ConcurrencyLimiter.Permit> held = acquire(limiter, 19);
+        complete(limiter, FAST_CALL, false);
+        final int grown = limiter.limit();
+        held.get(0).release(true);
+        final int afterFailure = limiter.limit();
+        clock.addAndGet(SLOW_CALL);
+        held.get(1).release(false);
+
+        assertEquals(21, grown, "A fast request under load should add one");
+        assertEquals(10, afterFailure, "A failed request should halve the limit");
+        assertEquals(5, limiter.limit(), "A slow request should halve the limit");
+    }
+
+    @Test
+    void gradientBacksOffOnDroppedRequestsWhateverTheirLatency() {
+        config.setBackoffRatio(0.5);
+        final ConcurrencyLimiter limiter = limiter();
+        acquire(limiter, 19);
+
+        complete(limiter, FAST_CALL, true);
+
+        assertEquals(10, limiter.limit(), "A failed request should halve the limit even when it was fast");
+    }
+
+    @Test
+    @Timeout(10)
+    void keepsEverySampleWhenPermitsAreReleasedConcurrently() throws InterruptedException {
+        config.setAlgorithm(Algorithm.AIMD);
+        config.setInitialLimit(100);
+        config.setBackoffRatio(0.5);
+        final ConcurrencyLimiter limiter = limiter();
+        final List<ConcurrencyLimiter.Permit> permits = acquire(limiter, 4);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+        for (final ConcurrencyLimiter.Permit permit : permits) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                awaitQuietly(start);
+                permit.release(true);
+            }));
+        }
+
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, limiter.inFlight(), "Every permit should be released");
+        assertEquals(6, limiter.limit(), "Each of the four drops should halve the limit once");
+    }
+
+    @Test
+    void reportsWhetherEnabled() {
+        assertTrue(limiter().isEnabled(), "A configured limiter should be enabled");
+        assertFalse(ConcurrencyLimiter.disabled().isEnabled(), "The disabled limiter should admit everything");
+    }
+
+    private static void awaitQuietly(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (final InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ConcurrencyLimiter limiter() {
+        return new ConcurrencyLimiter(config, meterRegistry, clock::get);
+    }
+
+    private List<ConcurrencyLimiter.Permit> acquire(final ConcurrencyLimiter limiter, final int count) {
+        final List<ConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            permits.add(limiter.tryAcquire().orElseThrow());
+        }
+        return permits;
+    }
+
+    /**
+     * Fills the limit, then completes every request after {@code latency}, {@code rounds} times over.
+     */
+    private void runAtFullLoad(final ConcurrencyLimiter limiter, final long latency, final int rounds) {
+        for (int round = 0; round < rounds; round++) {
+            final List<ConcurrencyLimiter.Permit> permits = acquire(limiter, limiter.limit());
+            clock.addAndGet(latency);
+            permits.forEach(permit -> permit.release(false));
+        }
+    }
+
+    private void complete(final ConcurrencyLimiter limiter, final long latency, final boolean dropped) {
+        final ConcurrencyLimiter.Permit permit = limiter.tryAcquire().orElseThrow();
+        clock.addAndGet(latency);
+        permit.release(dropped);
+    }
+}
@@ -0,0 +1,124 @@
+package uk.gov.moj.cpp.authz.http.resilience;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdentityCircuitBreakerTest {
+
+    private static final long FAST_CALL = Duration.ofMillis(10).toNanos();
+    private static final long SLOW_CALL = Duration.ofSeconds(3).toNanos();
+
+    private final AtomicLong clock = new AtomicLong();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private HttpAuthzProperties.CircuitBreaker config;
+
+    @BeforeEach
+    void setUp() {
+        config = new HttpAuthzProperties.CircuitBreaker();
+        config.setEnabled(true);
+        config.setSlidingWindowSize(10);
+        config.setMinimumNumberOfCalls(4);
+        config.setFailureRateThreshold(50);
+        config.setSlowCallRateThreshold(75);
+        config.setSlowCallDuration(Duration.ofSeconds(2));
+        config.setWaitDurationInOpenState(Duration.ofSeconds(30));
+        config.setPermittedCallsInHalfOpenState(2);
+    }
+
+    @Test
+    void staysClosedBelowMinimumNumberOfCalls() {
+        final IdentityCircuitBreaker breaker = breaker();
+
+        recordErrors(breaker, 3);
+
+        assertEquals(IdentityCircuitBreaker.State.CLOSED, breaker.getState(), "Too few calls to judge failure rate");
+    }
+
+    @Test
+    void opensWhenFailureRateReachesThreshold() {
+        final IdentityCircuitBreaker breaker = breaker();
+
+        recordSuccesses(breaker, 2, FAST_CALL);
+        recordErrors(breaker, 2);
+
+        assertEquals(IdentityCircuitBreaker.State.OPEN, breaker.getState(), "50% failures should open the circuit");
+        assertFalse(breaker.tryAcquirePermission(), "Open circuit must reject calls");
+        assertEquals(1.0, meterRegistry.counter("authz.identity.circuit.rejected").count(), "Rejection should be counted");
+    }
+
+    @Test
+    void opensWhenSlowCallRateReachesThreshold() {
+        final IdentityCircuitBreaker breaker = breaker();
+
+        recordSuccesses(breaker, 1, FAST_CALL);
+        recordSuccesses(breaker, 3, SLOW_CALL);
+
+        assertEquals(IdentityCircuitBreaker.State.OPEN, breaker.getState(), "75% slow calls should open the circuit");
+    }
+
+    @Test
+    void halfOpenProbesCloseCircuitWhenHealthy() {
+        final IdentityCircuitBreaker breaker = breaker();
+        recordErrors(breaker, 4);
+
+        clock.addAndGet(Duration.ofSeconds(31).toNanos());
+        recordSuccesses(breaker, 2, FAST_CALL);
+
+        assertEquals(IdentityCircuitBreaker.State.CLOSED, breaker.getState(), "Healthy probes should close the circuit");
+        assertEquals(1.0, meterRegistry.counter("authz.identity.circuit.transitions",
+                "from", "HALF_OPEN", "to", "CLOSED").count(), "Transition should be counted");
+    }
+
+    @Test
+    void halfOpenLimitsProbesAndReopensOnFailure() {
+        final IdentityCircuitBreaker breaker = breaker();
+        recordErrors(breaker, 4);
+        clock.addAndGet(Duration.ofSeconds(31).toNanos());
+
+        assertTrue(breaker.tryAcquirePermission(), "First probe allowed");
+        assertTrue(breaker.tryAcquirePermission(), "Second probe allowed");
+        assertFalse(breaker.tryAcquirePermission(), "Probes beyond the permitted count are rejected");
+
+        breaker.onError(FAST_CALL);
+        breaker.onError(FAST_CALL);
+
+        assertEquals(IdentityCircuitBreaker.State.OPEN, breaker.getState(), "Failing probes should reopen the circuit");
+    }
+
+    @Test
+    void disabledBreakerAlwaysPermits() {
+        config.setEnabled(false);
+        final IdentityCircuitBreaker breaker = breaker();
+
+        recordErrors(breaker, 10);
+
+        assertTrue(breaker.tryAcquirePermission(), "Disabled breaker should never reject");
+    }
+
+    private IdentityCircuitBreaker breaker() {
+        return new IdentityCircuitBreaker(config, meterRegistry, clock::get);
+    }
+
+    private static void recordSuccesses(final IdentityCircuitBreaker breaker, final int count, final long duration) {
+        for (int i = 0; i < count; i++) {
+            assertTrue(breaker.tryAcquirePermission(), "Call should be permitted");
+            breaker.onSuccess(duration);
+        }
+    }
+
+    private static void recordErrors(final IdentityCircuitBreaker breaker, final int count) {
+        for (int i = 0; i < count; i++) {
+            assertTrue(breaker.tryAcquirePermission(), "Call should be permitted");
+            breaker.onError(FAST_CALL);
+        }
+    }
+}
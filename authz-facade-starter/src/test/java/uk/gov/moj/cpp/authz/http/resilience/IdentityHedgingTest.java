@@ -0,0 +1,177 @@
+package uk.gov.moj.cpp.authz.http.resilience;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.springframework.web.client.ResourceAccessException;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.deadline.DeadlineExceededException;
+import uk.gov.moj.cpp.authz.http.deadline.RequestDeadline;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdentityHedgingTest {
+
+    private static final int FIRST_ATTEMPT = 1;
+
+    private HttpAuthzProperties.Hedging config;
+    private SimpleMeterRegistry meterRegistry;
+    private CountDownLatch release;
+
+    @BeforeEach
+    void setUp() {
+        config = new HttpAuthzProperties.Hedging();
+        config.setEnabled(true);
+        config.setDelay(Duration.ofMillis(20));
+        meterRegistry = new SimpleMeterRegistry();
+        release = new CountDownLatch(1);
+    }
+
+    @Test
+    @Timeout(5)
+    void hedgeAnswersWhenPrimaryIsSlow() {
+        config.setBudgetPercent(100);
+        final IdentityHedging hedging = new IdentityHedging(config, meterRegistry);
+
+        final String result = hedging.call(slowFirstCall());
+
+        release.countDown();
+        assertEquals("attempt-2", result, "The duplicate request should win");
+        assertEquals(1.0, meterRegistry.counter("authz.identity.hedge", "outcome", "sent").count(), "Hedge should be counted");
+        assertEquals(1.0, meterRegistry.counter("authz.identity.hedge.wins", "winner", "hedge").count(), "Hedge win should be counted");
+    }
+
+    @Test
+    @Timeout(5)
+    void waitsForPrimaryWhenBudgetIsSpent() {
+        config.setBudgetPercent(0);
+        final IdentityHedging hedging = new IdentityHedging(config, meterRegistry);
+
+        final String result = hedging.call(slowFirstCall());
+
+        assertEquals("attempt-1", result, "Without budget only the original request is sent");
+        assertEquals(1.0, meterRegistry.counter("authz.identity.hedge", "outcome", "budget-exhausted").count(),
+                "Skipped hedge should be counted");
+    }
+
+    @Test
+    void rethrowsFailureWhenNoAttemptSucceeds() {
+        final IdentityHedging hedging = new IdentityHedging(config, meterRegistry);
+
+        assertThrows(ResourceAccessException.class, () -> hedging.call(() -> {
+            throw new ResourceAccessException("down");
+        }), "Failure of the only attempt should surface unchanged");
+    }
+
+    @Test
+    @Timeout(5)
+    void givesUpWhenDeadlinePassesBeforeAnyAttemptAnswers() {
+        config.setBudgetPercent(0);
+        final IdentityHedging hedging = new IdentityHedging(config, meterRegistry);
+        final long startNanos = System.nanoTime();
+
+        assertThrows(DeadlineExceededException.class,
+                () -> hedging.call(slowFirstCall(), RequestDeadline.after(Duration.ofMillis(30))),
+                "A call outliving the request deadline should be abandoned");
+
+        release.countDown();
+        assertTrue(System.nanoTime() - startNanos < TimeUnit.MILLISECONDS.toNanos(250),
+                "The caller should stop waiting at the deadline, not when the call finishes");
+    }
+
+    @Test
+    void doesNotHedgeWhenDeadlinePassesWithinHedgeDelay() {
+        config.setBudgetPercent(100);
+        final IdentityHedging hedging = new IdentityHedging(config, meterRegistry);
+
+        assertThrows(DeadlineExceededException.class,
+                () -> hedging.call(slowFirstCall(), RequestDeadline.after(Duration.ofMillis(5))),
+                "Deadline shorter than the hedge delay should end the call");
+
+        release.countDown();
+        assertEquals(0.0, meterRegistry.counter("authz.identity.hedge", "outcome", "sent").count(),
+                "No hedge should be sent for a request that has run out of time");
+    }
+
+    @Test
+    @Timeout(5)
+    void settlesOnlyWhenAbandonedAttemptFinishes() throws InterruptedException {
+        config.setBudgetPercent(0);
+        final IdentityHedging hedging = new IdentityHedging(config, meterRegistry);
+        final CountDownLatch settled = new CountDownLatch(1);
+
+        assertThrows(DeadlineExceededException.class,
+                () -> hedging.call(slowFirstCall(), RequestDeadline.after(Duration.ofMillis(30)), settled::countDown),
+                "A call outliving the request deadline should be abandoned");
+
+        assertEquals(1, settled.getCount(), "The call should not settle while its attempt is still running");
+        release.countDown();
+        assertTrue(settled.await(1, TimeUnit.SECONDS), "The call should settle once its attempt finishes");
+    }
+
+    @Test
+    void runsOnCallersThreadWhenDisabled() {
+        config.setEnabled(false);
+        final IdentityHedging hedging = new IdentityHedging(config, meterRegistry);
+
+        final Thread thread = hedging.call(Thread::currentThread, RequestDeadline.after(Duration.ofSeconds(1)));
+
+        assertSame(Thread.currentThread(), thread, "Without hedging no attempt thread should be used");
+    }
+
+    @Test
+    @Timeout(5)
+    void rejectsAttemptWhenEveryThreadIsBusy() throws InterruptedException {
+        config.setBudgetPercent(0);
+        final HttpAuthzProperties.Bulkhead bulkhead = new HttpAuthzProperties.Bulkhead();
+        bulkhead.setMaxConcurrentCalls(1);
+        final IdentityHedging hedging = new IdentityHedging(config, bulkhead, meterRegistry);
+        final CountDownLatch busy = new CountDownLatch(2);
+        final Supplier<String> blocking = () -> {
+            busy.countDown();
+            awaitRelease();
+            return "blocked";
+        };
+        CompletableFuture.runAsync(() -> hedging.call(blocking));
+        CompletableFuture.runAsync(() -> hedging.call(blocking));
+        assertTrue(busy.await(1, TimeUnit.SECONDS), "Both attempt threads should be taken");
+
+        assertThrows(RejectedExecutionException.class, () -> hedging.call(() -> "third"),
+                "The pool is sized from the bulkhead and should not grow");
+        release.countDown();
+    }
+
+    /**
+     * The first invocation blocks until {@link #release} is counted down; later ones answer immediately.
+     */
+    private Supplier<String> slowFirstCall() {
+        final AtomicInteger attempts = new AtomicInteger();
+        return () -> {
+            final int attempt = attempts.incrementAndGet();
+            if (attempt == FIRST_ATTEMPT) {
+                awaitRelease();
+            }
+            return "attempt-" + attempt;
+        };
+    }
+
+    private void awaitRelease() {
+        try {
+            release.await(300, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
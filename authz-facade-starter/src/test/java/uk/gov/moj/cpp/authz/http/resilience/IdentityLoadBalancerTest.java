@@ -0,0 +1,169 @@
+package uk.gov.moj.cpp.authz.http.resilience;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.ResourceAccessException;
+import uk.gov.moj.cpp.authz.http.IdentityClient;
+import uk.gov.moj.cpp.authz.http.cache.IdentityCache;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdentityLoadBalancerTest {
+
+    private static final String FAST = "http://fast.test/permissions";
+    private static final String SLOW = "http://slow.test/permissions";
+    private static final String IDENTITY_JSON =
+            "{\"groups\":[{\"groupId\":\"g1\",\"groupName\":\"Legal Advisers\",\"prosecutingAuthority\":null}],"
+                    + "\"switchableRoles\":[],\"permissions\":[]}";
+
+    private final List<HttpServer> stubs = new ArrayList<>();
+
+    @AfterEach
+    void stopStubs() {
+        stubs.forEach(stub -> stub.stop(0));
+    }
+
+    @Test
+    void prefersLowerLatencyEndpointWhenBothAreHealthy() {
+        final IdentityLoadBalancer balancer = balancer(List.of(FAST, SLOW), 2, Duration.ofSeconds(30));
+        final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+        final Function<String, String> call = template -> {
+            count(calls, template);
+            pause(SLOW.equals(template) ? 20 : 0);
+            return template;
+        };
+
+        for (int i = 0; i < 100; i++) {
+            balancer.call(call);
+        }
+
+        assertTrue(calls.get(FAST).get() >= 90, "Fast endpoint should take nearly all traffic: " + calls);
+    }
+
+    @Test
+    void ejectsFailingEndpointAndProbesItBackWhenEjectionEnds() {
+        final IdentityLoadBalancer balancer = balancer(List.of(FAST, SLOW), 1, Duration.ofMillis(50));
+        final AtomicBoolean slowFailing = new AtomicBoolean(true);
+        final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+        final Function<String, String> call = template -> {
+            count(calls, template);
+            if (SLOW.equals(template) && slowFailing.get()) {
+                throw new ResourceAccessException("connection refused");
+            }
+            return template;
+        };
+
+        for (int i = 0; i < 40; i++) {
+            callIgnoringFailure(balancer, call);
+        }
+        final int failingCalls = calls.get(SLOW).get();
+        for (int i = 0; i < 40; i++) {
+            assertEquals(FAST, balancer.call(call), "Ejected endpoint should not be chosen");
+        }
+        assertEquals(failingCalls, calls.get(SLOW).get(), "No calls should reach the ejected endpoint");
+
+        slowFailing.set(false);
+        pause(60);
+        for (int i = 0; i < 40; i++) {
+            balancer.call(call);
+        }
+        assertTrue(calls.get(SLOW).get() > failingCalls, "Recovered endpoint should be probed back into rotation");
+    }
+
+    @Test
+    void spreadsIdentityCallsOverStubInstancesWhenSeveralAreConfigured() throws IOException {
+        final String fast = stub(0);
+        final String slow = stub(50);
+        final HttpAuthzProperties properties = new HttpAuthzProperties();
+        properties.setIdentityUrlTemplates(List.of(fast, slow));
+        properties.getLoadBalancing().setDecay(Duration.ofMillis(250));
+        final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final IdentityClient client = new IdentityClient(properties, new IdentityCache(100), meterRegistry);
+
+        for (int i = 0; i < 30; i++) {
+            assertEquals("user-" + i, client.fetchIdentity("user-" + i).userId(), "Every lookup should succeed");
+        }
+
+        final long fastCalls = calls(meterRegistry, fast);
+        final long slowCalls = calls(meterRegistry, slow);
+        assertEquals(30, fastCalls + slowCalls, "Each endpoint should have its own latency timer");
+        assertTrue(fastCalls > slowCalls, "Most calls should go to the faster stub: " + fastCalls + " vs " + slowCalls);
+    }
+
+    @Test
+    void rejectsEmptyEndpointList() {
+        assertThrows(IllegalArgumentException.class, () -> balancer(List.of(), 1, Duration.ofSeconds(1)),
+                "A balancer needs at least one endpoint");
+    }
+
+    private static IdentityLoadBalancer balancer(final List<String> endpoints, final int ejectAfterFailures,
+                                                 final Duration ejectDuration) {
+        final HttpAuthzProperties.LoadBalancing config = new HttpAuthzProperties.LoadBalancing();
+        config.setDecay(Duration.ofMillis(100));
+        config.setEjectAfterFailures(ejectAfterFailures);
+        config.setEjectDuration(ejectDuration);
+        return new IdentityLoadBalancer(endpoints, config, new SimpleMeterRegistry());
+    }
+
+    private static void callIgnoringFailure(final IdentityLoadBalancer balancer,
+                                            final Function<String, String> call) {
+        try {
+            balancer.call(call);
+        } catch (final ResourceAccessException expected) {
+            // failures are what drive the ejection under test
+        }
+    }
+
+    private String stub(final long delayMillis) throws IOException {
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/permissions", exchange -> {
+            pause(delayMillis);
+            final byte[] body = IDENTITY_JSON.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        stubs.add(server);
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/permissions";
+    }
+
+    private static void count(final Map<String, AtomicInteger> calls, final String template) {
+        calls.computeIfAbsent(template, key -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private static long calls(final SimpleMeterRegistry meterRegistry, final String url) {
+        return meterRegistry.get("authz.identity.endpoint.latency")
+                .tag("endpoint", URI.create(url).getAuthority()).timer().count();
+    }
+
+    private static void pause(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
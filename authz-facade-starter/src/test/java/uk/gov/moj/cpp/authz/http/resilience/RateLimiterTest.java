@@ -0,0 +1,167 @@
+package uk.gov.moj.cpp.authz.http.resilience;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties.RateLimit.Key;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimiterTest {
+
+    private static final String ALICE = "alice";
+    private static final String BOB = "bob";
+    private static final String GET_CASE = "progression.get-case";
+    private static final String RUN_REPORT = "reporting.run-report";
+    private static final long TOKEN_INTERVAL = Duration.ofMillis(100).toNanos();
+
+    private final AtomicLong clock = new AtomicLong();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private HttpAuthzProperties.RateLimit config;
+
+    @BeforeEach
+    void setUp() {
+        config = new HttpAuthzProperties.RateLimit();
+        config.setEnabled(true);
+    }
+
+    @Test
+    void admitsBurstThenRejectsUntilRefilled() {
+        config.setQuotas(List.of(quota("*", Key.USER, 3)));
+        final RateLimiter limiter = limiter();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.acquire(ALICE, GET_CASE), "A full bucket should admit its capacity at once");
+        }
+        final long waitNanos = limiter.acquire(ALICE, RUN_REPORT);
+        clock.addAndGet(TOKEN_INTERVAL);
+
+        assertEquals(TOKEN_INTERVAL, waitNanos, "The caller should wait for one token to refill");
+        assertEquals(0, limiter.acquire(ALICE, GET_CASE), "A refilled token should admit the next request");
+        assertEquals(0, limiter.acquire(BOB, GET_CASE), "Other users should have their own bucket");
+        assertEquals(1.0, meterRegistry.counter("authz.ratelimit.rejected", "action", "*", "key", "USER").count(),
+                "Rejection should be counted per quota");
+    }
+
+    @Test
+    void keysBucketsByActionAndAppliesOnlyMatchingQuotas() {
+        config.setQuotas(List.of(quota("reporting.*", Key.ACTION, 1)));
+        final RateLimiter limiter = limiter();
+
+        assertEquals(0, limiter.acquire(ALICE, RUN_REPORT), "The first report should be admitted");
+        assertTrue(limiter.acquire(BOB, RUN_REPORT) > 0, "An action bucket should be shared by all users");
+        assertEquals(0, limiter.acquire(BOB, GET_CASE), "Actions outside the pattern should not be limited");
+        assertEquals(0, limiter.acquire(BOB, GET_CASE), "Actions outside the pattern should not be limited");
+    }
+
+    @Test
+    void limitsCallersBeyondMaxBucketsTogetherInOverflowBucket() {
+        config.setQuotas(List.of(quota("*", Key.USER, 1)));
+        config.setMaxBuckets(1);
+        final RateLimiter limiter = limiter();
+
+        limiter.acquire(ALICE, GET_CASE);
+        final long firstOverflow = limiter.acquire(BOB, GET_CASE);
+        final long secondOverflow = limiter.acquire("carol", GET_CASE);
+
+        assertEquals(0, firstOverflow, "The overflow bucket should admit its capacity");
+        assertTrue(secondOverflow > 0, "Callers beyond max-buckets should share one bucket, not go unlimited");
+        assertEquals(1, limiter.bucketCount(), "No more than max-buckets should be kept");
+        assertEquals(2.0, meterRegistry.counter("authz.ratelimit.overflow").count(), "Overflow requests counted");
+    }
+
+    @Test
+    void sweepDropsIdleBucketsAndMakesRoomForNewCallers() {
+        config.setQuotas(List.of(quota("*", Key.USER_AND_ACTION, 1)));
+        config.setMaxBuckets(2);
+        config.setIdleTimeout(Duration.ofMinutes(1));
+        final RateLimiter limiter = limiter();
+
+        limiter.acquire(ALICE, GET_CASE);
+        limiter.acquire(ALICE, RUN_REPORT);
+        clock.addAndGet(Duration.ofMinutes(2).toNanos());
+        final int bucketsBeforeSweep = limiter.bucketCount();
+        limiter.sweep();
+        limiter.acquire(BOB, GET_CASE);
+
+        assertEquals(2, bucketsBeforeSweep, "Requests should not sweep buckets themselves");
+        assertEquals(1, limiter.bucketCount(), "Idle buckets should be dropped and the new caller given its own");
+        assertEquals(0.0, meterRegistry.counter("authz.ratelimit.overflow").count(),
+                "A caller arriving after the sweep should not need the overflow bucket");
+    }
+
+    @Test
+    void runsItsSweepFromStartUntilStopped() {
+        config.setQuotas(List.of(quota("*", Key.USER, 1)));
+        final RateLimiter limiter = limiter();
+
+        limiter.start();
+        final boolean runningWhenStarted = limiter.isRunning();
+        limiter.stop();
+
+        assertTrue(runningWhenStarted, "The limiter should run once started");
+        assertFalse(limiter.isRunning(), "The limiter should stop with the context");
+    }
+
+    @Test
+    void rejectsQuotaWithoutPositiveRefill() {
+        final HttpAuthzProperties.RateLimit.Quota stopped = quota(GET_CASE, Key.USER, 1);
+        stopped.setRefillPerSecond(0);
+        final HttpAuthzProperties.RateLimit.Quota negative = quota(RUN_REPORT, Key.USER, 1);
+        negative.setRefillPerSecond(-1);
+
+        config.setQuotas(List.of(stopped));
+        assertThrows(IllegalArgumentException.class, this::limiter, "A quota that never refills should be refused");
+        config.setQuotas(List.of(negative));
+        assertThrows(IllegalArgumentException.class, this::limiter, "A negative refill rate should be refused");
+    }
+
+    @Test
+    void rejectsQuotaWithoutCapacity() {
+        config.setQuotas(List.of(quota(GET_CASE, Key.USER, 0)));
+
+        assertThrows(IllegalArgumentException.class, this::limiter, "A bucket that holds no token should be refused");
+    }
+
+    @Test
+    void rejectsQuotaWhoseBurstWouldOverflow() {
+        final HttpAuthzProperties.RateLimit.Quota glacial = quota(GET_CASE, Key.USER, Integer.MAX_VALUE);
+        glacial.setRefillPerSecond(1e-6);
+        config.setQuotas(List.of(glacial));
+
+        assertThrows(IllegalArgumentException.class, this::limiter, "A burst beyond the nanosecond range is refused");
+    }
+
+    @Test
+    void limitsCorrectlyWhenClockIsNearEndOfRange() {
+        clock.set(Long.MAX_VALUE - TOKEN_INTERVAL / 2);
+        config.setQuotas(List.of(quota("*", Key.USER, 1)));
+        final RateLimiter limiter = limiter();
+
+        assertEquals(0, limiter.acquire(ALICE, GET_CASE), "The first request should be admitted");
+        assertEquals(TOKEN_INTERVAL, limiter.acquire(ALICE, GET_CASE), "The bucket time wrapping should not matter");
+        clock.addAndGet(TOKEN_INTERVAL);
+        assertEquals(0, limiter.acquire(ALICE, GET_CASE), "A refilled token past the wrap should admit");
+    }
+
+    private RateLimiter limiter() {
+        return new RateLimiter(config, meterRegistry, clock::get);
+    }
+
+    private static HttpAuthzProperties.RateLimit.Quota quota(final String action, final Key key, final int capacity) {
+        final HttpAuthzProperties.RateLimit.Quota quota = new HttpAuthzProperties.RateLimit.Quota();
+        quota.setAction(action);
+        quota.setKey(key);
+        quota.setCapacity(capacity);
+        quota.setRefillPerSecond(10);
+        return quota;
+    }
+}
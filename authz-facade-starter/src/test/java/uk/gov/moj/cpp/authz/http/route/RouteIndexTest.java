@@ -0,0 +1,70 @@
+package uk.gov.moj.cpp.authz.http.route;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RouteIndexTest {
+
+    private static final String GET = "GET";
+    private static final String CASE = "/api/cases/{caseId}";
+    private static final String SEARCH = "/api/cases/search";
+    private static final String DOCUMENT = "/api/cases/{caseId}/documents/{documentId}";
+    private static final String CASE_ID = "8f3c2a";
+    private static final String CASE_PATH = "/api/cases/" + CASE_ID;
+
+    @Test
+    void resolvesTemplateAndVariablesWhenPathMatches() {
+        final RouteIndex routes = RouteIndex.builder().add(GET, CASE).add(GET, DOCUMENT).build();
+
+        final RouteIndex.RouteMatch match = routes.match(GET, CASE_PATH + "/documents/d-1").orElseThrow();
+
+        assertEquals(DOCUMENT, match.template(), "The document route should match");
+        assertEquals(Map.of("caseId", CASE_ID, "documentId", "d-1"), match.variables(),
+                "Path variables should be captured by name");
+    }
+
+    @Test
+    void prefersLiteralSegmentButFallsBackToVariable() {
+        final RouteIndex routes = RouteIndex.builder().add(GET, CASE).add(GET, SEARCH).add(GET, DOCUMENT).build();
+
+        assertEquals(SEARCH, routes.match(GET, SEARCH).orElseThrow().template(), "A literal segment should win");
+        final RouteIndex.RouteMatch fallback = routes.match(GET, "/api/cases/search/documents/d-2").orElseThrow();
+        assertEquals(DOCUMENT, fallback.template(), "A dead-end literal branch should fall back to the variable");
+        assertEquals("search", fallback.variables().get("caseId"), "The literal text becomes the variable value");
+    }
+
+    @Test
+    void doesNotMatchOtherMethodsOrPartialPaths() {
+        final RouteIndex routes = RouteIndex.builder().add(GET, CASE).build();
+
+        assertTrue(routes.match("DELETE", CASE_PATH).isEmpty(), "Routes are per method");
+        assertTrue(routes.match(GET, "/api/cases").isEmpty(), "A shorter path should not match");
+        assertTrue(routes.match(GET, "/api/cases/").isEmpty(), "An empty segment is not a variable value");
+        assertTrue(routes.match(GET, CASE_PATH + "/notes").isEmpty(), "A longer path should not match");
+    }
+
+    @Test
+    void loadsOperationsFromOpenApiSpecification() {
+        final RouteIndex routes = new OpenApiRouteLoader(new DefaultResourceLoader())
+                .load("classpath:openapi/cases.openapi.yml");
+
+        assertEquals(4, routes.size(), "Each operation of a whole-segment template should be indexed");
+        assertEquals(CASE, routes.match("delete", CASE_PATH).orElseThrow().template(),
+                "Methods should match case-insensitively");
+        assertTrue(routes.match(GET, "/api/files/report.json").isEmpty(), "Partly templated segments are skipped");
+    }
+
+    @Test
+    void rejectsMissingSpecification() {
+        final OpenApiRouteLoader loader = new OpenApiRouteLoader(new DefaultResourceLoader());
+
+        assertThrows(IllegalArgumentException.class, () -> loader.load("classpath:openapi/missing.yml"),
+                "A missing specification should fail startup");
+    }
+}
@@ -0,0 +1,156 @@
+package uk.gov.moj.cpp.authz.http.token;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.http.Cookie;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.intern.GroupSet;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DecisionTokensTest {
+
+    private static final String USER_ID = "la-user-1";
+    private static final String OTHER_USER_ID = "la-user-2";
+    private static final String SECRET = "0123456789abcdef0123456789abcdef";
+    private static final Set<String> GROUPS = GroupSet.intern(List.of("Legal Advisers", "Court Clerks"));
+
+    private final AtomicLong ruleVersion = new AtomicLong(42);
+    private final AtomicLong clock = new AtomicLong(1_700_000_000_000L);
+    private HttpAuthzProperties.DecisionToken config;
+    private DecisionTokens decisionTokens;
+
+    @BeforeEach
+    void setUp() {
+        config = new HttpAuthzProperties.DecisionToken();
+        config.setSecret(SECRET);
+        decisionTokens = new DecisionTokens(config, ruleVersion::get, new SimpleMeterRegistry(), clock::get);
+    }
+
+    @Test
+    void returnsGroupSetWhenTokenIsValidForUser() {
+        final String token = decisionTokens.issue(USER_ID, GROUPS).orElseThrow();
+
+        assertSame(GROUPS, decisionTokens.verify(token, USER_ID).orElseThrow(),
+                "A fresh token should resolve to the interned group set");
+    }
+
+    @Test
+    void acceptsTokenWhenIssuedByAnotherNodeWithTheSameSecret() {
+        final DecisionTokens otherNode = new DecisionTokens(config, ruleVersion::get, new SimpleMeterRegistry(), clock::get);
+
+        assertTrue(otherNode.verify(decisionTokens.issue(USER_ID, GROUPS).orElseThrow(), USER_ID).isPresent(),
+                "Tokens should be portable across nodes sharing the secret");
+    }
+
+    @Test
+    void rejectsTokenWhenPresentedForAnotherUser() {
+        final String token = decisionTokens.issue(USER_ID, GROUPS).orElseThrow();
+
+        assertTrue(decisionTokens.verify(token, OTHER_USER_ID).isEmpty(), "Token is bound to the user it was issued for");
+    }
+
+    @Test
+    void rejectsTokenWhenRuleVersionChanges() {
+        final String token = decisionTokens.issue(USER_ID, GROUPS).orElseThrow();
+
+        ruleVersion.incrementAndGet();
+
+        assertTrue(decisionTokens.verify(token, USER_ID).isEmpty(), "Rule changes should invalidate tokens");
+    }
+
+    @Test
+    void carriesGroupsSoAnyNodeCanUseThemWithoutHavingSeenThem() {
+        final Set<String> groups = Set.of("Équipe juridique", "Magistrates");
+        final String token = decisionTokens.issue(USER_ID, groups).orElseThrow();
+
+        assertEquals(groups, decisionTokens.verify(token, USER_ID).orElseThrow(), "The token should carry the group names");
+    }
+
+    @Test
+    void rejectsTokenWhenExpired() {
+        final String token = decisionTokens.issue(USER_ID, GROUPS).orElseThrow();
+
+        clock.addAndGet(config.getTtl().toMillis());
+
+        assertTrue(decisionTokens.verify(token, USER_ID).isEmpty(), "Tokens should expire after the TTL");
+    }
+
+    @Test
+    void rejectsTokensIssuedBeforeUserWasRevoked() {
+        final String revoked = decisionTokens.issue(USER_ID, GROUPS).orElseThrow();
+        final String otherUser = decisionTokens.issue(OTHER_USER_ID, GROUPS).orElseThrow();
+
+        decisionTokens.revoke(USER_ID);
+        clock.incrementAndGet();
+
+        assertTrue(decisionTokens.verify(revoked, USER_ID).isEmpty(), "An invalidated user's token should be revoked");
+        assertTrue(decisionTokens.verify(otherUser, OTHER_USER_ID).isPresent(), "Other users' tokens should still work");
+        assertTrue(decisionTokens.verify(decisionTokens.issue(USER_ID, GROUPS).orElseThrow(), USER_ID).isPresent(),
+                "Tokens issued after the revocation should work");
+    }
+
+    @Test
+    void rejectsEveryTokenIssuedBeforeRevokeAll() {
+        final String token = decisionTokens.issue(OTHER_USER_ID, GROUPS).orElseThrow();
+
+        decisionTokens.revokeAll();
+
+        assertTrue(decisionTokens.verify(token, OTHER_USER_ID).isEmpty(), "Invalidating everyone should revoke every token");
+    }
+
+    @Test
+    void issuesNoTokenWhenGroupsDoNotFit() {
+        final Set<String> groups = Set.of("x".repeat(600), "y".repeat(600));
+
+        assertTrue(decisionTokens.issue(USER_ID, groups).isEmpty(), "Oversized group sets should not get a token");
+    }
+
+    @Test
+    void rejectsTokenWhenTamperedOrMalformed() {
+        final String token = decisionTokens.issue(USER_ID, GROUPS).orElseThrow();
+        final char last = token.charAt(token.length() - 1);
+        final String tampered = token.substring(0, token.length() - 1) + (last == 'A' ? 'B' : 'A');
+
+        assertTrue(decisionTokens.verify(tampered, USER_ID).isEmpty(), "Altered MAC should be rejected");
+        assertTrue(decisionTokens.verify("short", USER_ID).isEmpty(), "Wrong length should be rejected");
+        assertTrue(decisionTokens.verify(token.replace(token.charAt(3), '*'), USER_ID).isEmpty(),
+                "Non-base64url characters should be rejected");
+    }
+
+    @Test
+    void roundTripsThroughCookieWhenCookieTransportIsConfigured() {
+        config.setTransport(HttpAuthzProperties.DecisionToken.Transport.COOKIE);
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        decisionTokens.issue(response, USER_ID, GROUPS);
+
+        final String setCookie = response.getHeader(HttpHeaders.SET_COOKIE);
+        assertNotNull(setCookie, "Token should be sent as a cookie");
+        assertTrue(setCookie.contains("HttpOnly") && setCookie.contains("Secure"), "Cookie should be locked down");
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie(config.getName(), response.getCookie(config.getName()).getValue()));
+        assertEquals(GROUPS, decisionTokens.verify(request, USER_ID).orElseThrow(), "Cookie token should verify");
+    }
+
+    @Test
+    void refusesToStartWhenSecretIsTooShort() {
+        config.setSecret("short");
+
+        assertThrows(IllegalStateException.class,
+                () -> new DecisionTokens(config, ruleVersion::get, new SimpleMeterRegistry()),
+                "A weak HMAC key should fail fast");
+    }
+}
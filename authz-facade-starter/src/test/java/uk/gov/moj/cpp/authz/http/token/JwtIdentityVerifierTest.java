@@ -0,0 +1,126 @@
+package uk.gov.moj.cpp.authz.http.token;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.gov.moj.cpp.authz.http.IdentityResponse;
+import uk.gov.moj.cpp.authz.http.config.HttpAuthzProperties;
+import uk.gov.moj.cpp.authz.http.dto.UserGroup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JwtIdentityVerifierTest {
+
+    private static final String USER_ID = "la-user-1";
+    private static final String ISSUER = "https://idp.example";
+    private static final String LEGAL_ADVISERS = "Legal Advisers";
+
+    @TempDir
+    private Path directory;
+
+    private Path jwksPath;
+    private RSAKey signingKey;
+    private HttpAuthzProperties.Token config;
+
+    @BeforeEach
+    void setUp() throws JOSEException, IOException {
+        jwksPath = directory.resolve("jwks.json");
+        signingKey = new RSAKeyGenerator(2048).keyID("k1").generate();
+        writeJwks(signingKey, Instant.now().minusSeconds(60));
+        config = new HttpAuthzProperties.Token();
+        config.setJwksPath(jwksPath.toString());
+        config.setIssuer(ISSUER);
+        config.setJwksCheckInterval(Duration.ZERO);
+    }
+
+    @Test
+    void extractsUserGroupsAndProsecutingAuthorityWhenTokenIsValid() throws JOSEException {
+        final JwtIdentityVerifier verifier = new JwtIdentityVerifier(config);
+
+        final IdentityResponse identity = verifier.verify(token(signingKey, ISSUER, 300)).orElseThrow();
+
+        assertEquals(USER_ID, identity.userId(), "User id should come from the sub claim");
+        assertEquals(List.of(new UserGroup(null, LEGAL_ADVISERS, null), new UserGroup(null, null, "CPS")),
+                identity.groups(), "Groups and prosecuting authority should come from the token claims");
+    }
+
+    @Test
+    void servesRepeatTokensFromCacheWhenAlreadyVerified() throws JOSEException {
+        final JwtIdentityVerifier verifier = new JwtIdentityVerifier(config);
+        final String token = token(signingKey, ISSUER, 300);
+
+        final IdentityResponse first = verifier.verify(token).orElseThrow();
+        final IdentityResponse second = verifier.verify(token).orElseThrow();
+
+        assertSame(first, second, "Second verification of the same token should be a cache hit");
+    }
+
+    @Test
+    void rejectsTokenWhenSignedByUnknownKey() throws JOSEException {
+        final JwtIdentityVerifier verifier = new JwtIdentityVerifier(config);
+        final RSAKey otherKey = new RSAKeyGenerator(2048).keyID("k1").generate();
+
+        assertTrue(verifier.verify(token(otherKey, ISSUER, 300)).isEmpty(), "Foreign signature should be rejected");
+    }
+
+    @Test
+    void rejectsTokenWhenExpiredOrFromAnotherIssuer() throws JOSEException {
+        final JwtIdentityVerifier verifier = new JwtIdentityVerifier(config);
+
+        assertTrue(verifier.verify(token(signingKey, ISSUER, -120)).isEmpty(), "Expired token should be rejected");
+        assertTrue(verifier.verify(token(signingKey, "https://other.example", 300)).isEmpty(),
+                "Token from another issuer should be rejected");
+        assertTrue(verifier.verify("not-a-jwt").isEmpty(), "Malformed token should be rejected");
+    }
+
+    @Test
+    void picksUpRotatedKeysWhenJwksFileChanges() throws JOSEException, IOException {
+        final JwtIdentityVerifier verifier = new JwtIdentityVerifier(config);
+        final String oldToken = token(signingKey, ISSUER, 300);
+        assertTrue(verifier.verify(oldToken).isPresent(), "Token should verify before rotation");
+
+        final RSAKey rotatedKey = new RSAKeyGenerator(2048).keyID("k2").generate();
+        writeJwks(rotatedKey, Instant.now());
+
+        assertTrue(verifier.verify(token(rotatedKey, ISSUER, 300)).isPresent(), "New key should be trusted");
+        assertTrue(verifier.verify(oldToken).isEmpty(), "Cached token signed by a retired key should be rejected");
+    }
+
+    private void writeJwks(final RSAKey key, final Instant modified) throws IOException {
+        Files.writeString(jwksPath, new JWKSet(key.toPublicJWK()).toString());
+        Files.setLastModifiedTime(jwksPath, FileTime.from(modified));
+    }
+
+    private static String token(final RSAKey key, final String issuer, final long expiresInSeconds) throws JOSEException {
+        final JWTClaimsSet claims = new JWTClaimsSet.Builder()
+                .subject(USER_ID)
+                .issuer(issuer)
+                .expirationTime(Date.from(Instant.now().plusSeconds(expiresInSeconds)))
+                .claim("groups", List.of(LEGAL_ADVISERS))
+                .claim("prosecutingAuthority", "CPS")
+                .build();
+        final SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(), claims);
+        jwt.sign(new RSASSASigner(key));
+        return jwt.serialize();
+    }
+}
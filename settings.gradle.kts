@@ -13,6 +13,7 @@ dependencyResolutionManagement {
     }
 }
 rootProject.name = "cp-access-facade"
+include(":access-facade-common")
 include(":authz-facade-starter")
 include(":audit-facade-starter")
 include(":access-facade-demo-service")